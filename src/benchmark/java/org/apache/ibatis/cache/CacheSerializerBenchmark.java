@@ -0,0 +1,107 @@
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.impl.FastCacheSerializer;
+import org.apache.ibatis.cache.impl.JavaCacheSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+//缓存序列化器的基准测试, 比较Java原生序列化和FastCacheSerializer在不同结果集大小下的速度, 并打印序列化后的字节数
+//运行方式: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=org.apache.ibatis.cache.CacheSerializerBenchmark
+//deserialize就是readOnly=false时每次缓存命中的开销
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheSerializerBenchmark {
+
+	@Param({ "1", "100", "5000" })
+	public int rows;              //结果集行数
+
+	@Param({ "java", "fast", "fast-lz4" })
+	public String serializer;     //序列化器
+
+	private CacheSerializer cacheSerializer;
+	private List<Row> value;
+	private byte[] bytes;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if ("java".equals(serializer)) {
+			cacheSerializer = new JavaCacheSerializer();
+		} else {
+			FastCacheSerializer fast = new FastCacheSerializer();
+			if ("fast-lz4".equals(serializer)) {
+				fast.setCompressThreshold(1024);
+			}
+			cacheSerializer = fast;
+		}
+		value = new ArrayList<Row>(rows);
+		for (int i = 0; i < rows; i++) {
+			value.add(new Row(i));
+		}
+		bytes = cacheSerializer.serialize(value);
+		System.out.println();
+		System.out.println("Serialized size of " + rows + " rows with " + serializer + ": " + bytes.length + " bytes");
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		return cacheSerializer.serialize(value);
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		return cacheSerializer.deserialize(bytes);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.include(CacheSerializerBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	//模拟一行典型的查询结果
+	public static class Row implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private long id;
+		private String name;
+		private String email;
+		private String status;
+		private BigDecimal amount;
+		private Date createdAt;
+
+		public Row(int i) {
+			this.id = i;
+			this.name = "user" + i;
+			this.email = "user" + i + "@example.com";
+			this.status = i % 3 == 0 ? "ACTIVE" : "INACTIVE";
+			this.amount = new BigDecimal(i).movePointLeft(2);
+			this.createdAt = new Date(1500000000000L + i * 1000L);
+		}
+
+	}
+
+}
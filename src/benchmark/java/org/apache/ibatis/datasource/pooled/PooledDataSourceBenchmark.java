@@ -0,0 +1,107 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.stub.StubDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+//池化数据源在多线程争用下的基准测试, 同时报告吞吐量和检出延迟的百分位
+//运行方式: mvn -Pbenchmark test-compile exec:exec
+//可以追加JMH参数, 例如 -Dbenchmark.args="-t 16 -p poolSize=8 -p holdTime=50"
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PooledDataSourceBenchmark {
+
+	//未通过-t指定线程数时依次测试的线程数
+	private static final int[] DEFAULT_THREADS = { 1, 8, 32 };
+
+	@Param({ "8", "32" })
+	public int poolSize;          //最大活动连接数
+
+	@Param({ "0", "50" })
+	public long holdTime;         //每次持有连接的时间(微秒), 模拟执行SQL
+
+	@Param({ "false", "true" })
+	public boolean lockFree;      //是否使用无锁连接池
+
+	private PooledDataSource dataSource;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		//日志会远远超过连接池本身的开销
+		LogFactory.useNoLogging();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), StubDriver.newDatabase().getUrl(), "bench", "bench");
+		dataSource.setPoolLockFree(lockFree);
+		dataSource.setPoolMaximumActiveConnections(poolSize);
+		dataSource.setPoolMaximumIdleConnections(poolSize);
+		dataSource.setPoolTimeToWait(60000);
+		dataSource.setPoolMaximumCheckoutTime(60000);
+		//预先建立全部连接, 测量阶段不包含新建连接
+		Connection[] connections = new Connection[poolSize];
+		for (int i = 0; i < poolSize; i++) {
+			connections[i] = dataSource.getConnection();
+		}
+		for (Connection conn : connections) {
+			conn.close();
+		}
+		dataSource.getPoolState().getWaitTimeHistogram().reset();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		//检出延迟只包含获取连接的时间, 不包含持有时间
+		System.out.println();
+		System.out.println("Checkout latency (us): " + dataSource.getPoolState().getWaitTimeHistogram());
+		dataSource.forceCloseAll();
+	}
+
+	@Benchmark
+	public void checkout() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		try {
+			if (holdTime > 0) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(holdTime));
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine)
+				.include(PooledDataSourceBenchmark.class.getSimpleName());
+		if (commandLine.getThreads().hasValue()) {
+			new Runner(builder.build()).run();
+			return;
+		}
+		for (int threads : DEFAULT_THREADS) {
+			new Runner(builder.threads(threads).build()).run();
+		}
+	}
+
+}
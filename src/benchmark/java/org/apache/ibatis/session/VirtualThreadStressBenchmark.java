@@ -0,0 +1,163 @@
+package org.apache.ibatis.session;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.MeteredCache;
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.logging.LogFactory;
+
+//大量并发会话的压力测试, 每个会话用一个虚拟线程执行QueryWorkload: 读SynchronizedCache装饰的二级缓存,
+//经过执行器和连接池的预编译语句缓存查询一个用户, 触发它的延迟加载关联, 更新并提交
+//连接池只有poolSize个连接, 每个会话在桩数据库中执行3条SQL, 每条latency毫秒, 理想耗时是 ceil(sessions / poolSize) * 3 * latency,
+//实际耗时接近理想值说明等待连接和锁的虚拟线程没有占住载体线程
+//运行方式: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=org.apache.ibatis.session.VirtualThreadStressBenchmark
+//参数依次是会话数、连接数、每条SQL的毫秒数、超时秒数, 例如 -Dbenchmark.args="10000 32 5 120"
+//在JDK 21到23上加 -Dbenchmark.jvmArgs=-Djdk.tracePinnedThreads=short, JDK在虚拟线程被钉住时打印栈, 这里统计打印的次数,
+//不为0时以状态码2退出; JDK 24以后synchronized不再钉住载体线程, 这个参数已经去掉
+//JDK不支持虚拟线程时退回到同样大小的平台线程池, 这时的结果不能说明是否钉住
+//这里只提供压测程序, 仓库里没有记录过JDK 21以上的运行结果, 是否存在钉住要按上面的方式实际运行才能确定
+public class VirtualThreadStressBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		long latency = args.length > 2 ? Long.parseLong(args[2]) : 5;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 120;
+
+		PinnedTraceCounter pinned = PinnedTraceCounter.install();
+		String tracePinned = System.getProperty("jdk.tracePinnedThreads");
+		//日志会远远超过连接池本身的开销
+		LogFactory.useNoLogging();
+		final QueryWorkload workload = new QueryWorkload(poolSize, latency);
+		//先执行一次, 之后每个会话都从二级缓存读取, 同时也加载好延迟加载代理类
+		workload.run(0);
+
+		ExecutorService executor = AsyncExecutors.newVirtualThreadExecutor();
+		boolean virtual = executor != null;
+		if (!virtual) {
+			System.out.println("WARNING: virtual threads are not available, using " + sessions + " platform threads.");
+			executor = AsyncExecutors.newThreadPoolExecutor(sessions);
+		} else if (tracePinned == null) {
+			System.out.println("WARNING: -Djdk.tracePinnedThreads is not set, pinned virtual threads are not reported.");
+		}
+
+		final CountDownLatch done = new CountDownLatch(sessions);
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+		long start = System.nanoTime();
+		for (int i = 0; i < sessions; i++) {
+			final int id = i + 1;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						workload.run(id);
+					} catch (Throwable e) {
+						failed.incrementAndGet();
+						firstFailure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		//超时说明有会话卡住了, 打印线程栈和连接池状态后退出
+		PoolState state = workload.getDataSource().getPoolState();
+		if (!done.await(timeout, TimeUnit.SECONDS)) {
+			System.out.println("TIMEOUT: " + done.getCount() + " of " + sessions + " sessions did not finish in "
+					+ timeout + "s.");
+			System.out.println(state);
+			dumpThreads();
+			System.exit(1);
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		executor.shutdown();
+
+		long ideal = (sessions + poolSize - 1) / poolSize * 3 * latency;
+		MeteredCache cache = (MeteredCache) workload.getConfiguration().getCache("cached");
+		System.out.println("Java: " + System.getProperty("java.version") + ", threads: " + (virtual ? "virtual" : "platform")
+				+ ", jdk.tracePinnedThreads: " + tracePinned);
+		System.out.println("Sessions: " + sessions + ", pool size: " + poolSize + ", latency: " + latency + "ms");
+		System.out.println("Elapsed: " + elapsed + "ms, ideal: " + ideal + "ms, ratio: "
+				+ String.format("%.2f", ideal == 0 ? 0.0 : (double) elapsed / ideal));
+		System.out.println("Failed: " + failed.get() + (firstFailure.get() == null ? "" : ", first: " + firstFailure.get()));
+		System.out.println("SQL executed: " + workload.getDatabase().executions.get() + ", statements prepared: "
+				+ workload.getDatabase().statementsPrepared.get() + ", statement cache hits: " + state.getStatementCacheHitCount());
+		System.out.println("Second level cache hit ratio: " + String.format("%.4f", cache.getMetrics().getHitRatio()));
+		System.out.println("Pinned virtual thread traces: " + pinned.getCount());
+		System.out.println(state);
+		workload.close();
+		if (failed.get() > 0) {
+			System.exit(1);
+		}
+		if (pinned.getCount() > 0) {
+			System.exit(2);
+		}
+	}
+
+	//虚拟线程不在这里, 需要的话用 jcmd <pid> Thread.dump_to_file 导出
+	private static void dumpThreads() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long[] deadlocked = threadBean.findDeadlockedThreads();
+		if (deadlocked != null) {
+			System.out.println("Deadlocked threads: " + deadlocked.length);
+		}
+		for (ThreadInfo info : threadBean.dumpAllThreads(true, true)) {
+			System.out.print(info);
+		}
+	}
+
+	//统计JDK打印到System.out的钉住栈, 每次打印的栈里有一行VirtualThread...onPinned
+	private static class PinnedTraceCounter extends FilterOutputStream {
+
+		private final StringBuilder line = new StringBuilder();
+		private final AtomicInteger count = new AtomicInteger();
+
+		PinnedTraceCounter(OutputStream out) {
+			super(out);
+		}
+
+		static PinnedTraceCounter install() {
+			PinnedTraceCounter counter = new PinnedTraceCounter(System.out);
+			System.setOut(new PrintStream(counter, true));
+			return counter;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			if (b == '\n') {
+				if (line.indexOf("onPinned") >= 0) {
+					count.incrementAndGet();
+				}
+				line.setLength(0);
+			} else {
+				line.append((char) b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				write(b[i]);
+			}
+		}
+
+		int getCount() {
+			return count.get();
+		}
+
+	}
+
+}
@@ -24,4 +24,10 @@ public @interface CacheNamespace {
 	
 	boolean blocking() default false;
 	
+	//最大字节数, 只对按字节数限制大小的淘汰策略(WeightedLruCache)有效, 0表示使用默认值
+	long maxBytes() default 0;
+	
+	//缓存项快要过期时是否在后台提前刷新, 需要同时设置flushInterval
+	boolean refreshAhead() default false;
+	
 }
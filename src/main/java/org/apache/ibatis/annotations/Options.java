@@ -28,4 +28,7 @@ public @interface Options {
 	String keyProperty() default "id";
 
 	String keyColumn() default "";
+
+	//语句涉及的表, 逗号分隔, 按表失效缓存时使用, 为空时从SQL中解析
+	String tables() default "";
 }
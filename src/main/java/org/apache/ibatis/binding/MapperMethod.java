@@ -2,6 +2,7 @@ package org.apache.ibatis.binding;
 
 import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.reflection.MetaObject;
@@ -11,8 +12,12 @@ import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
 
 import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 //映射器方法
 public class MapperMethod {
@@ -53,6 +58,12 @@ public class MapperMethod {
 			//如果结果是一个map
 			} else if (method.returnsMap()) {
 				result = executeForMap(sqlSession, args);
+			//如果是异步查询
+			} else if (method.returnsFuture()) {
+				result = executeForFuture(sqlSession, args);
+			//如果结果是游标
+			} else if (method.returnsCursor()) {
+				result = executeForCursor(sqlSession, args);
 			//如果结果只有一条记录
 			} else {
 				Object param = method.convertArgsToSqlCommandParam(args);
@@ -152,6 +163,28 @@ public class MapperMethod {
 		return array;
 	}
 
+	//执行异步查询, 按CompletableFuture的类型参数决定查询多条还是单条记录
+	private Object executeForFuture(SqlSession sqlSession, Object[] args) {
+		Object param = method.convertArgsToSqlCommandParam(args);
+		if (method.futureReturnsMany()) {
+			RowBounds rowBounds = method.hasRowBounds() ? method.extractRowBounds(args) : RowBounds.DEFAULT;
+			return sqlSession.selectListAsync(command.getName(), param, rowBounds);
+		} else {
+			return sqlSession.selectOneAsync(command.getName(), param);
+		}
+	}
+
+	//执行返回游标的查询
+	private <T> Cursor<T> executeForCursor(SqlSession sqlSession, Object[] args) {
+		Object param = method.convertArgsToSqlCommandParam(args);
+		if (method.hasRowBounds()) {
+			RowBounds rowBounds = method.extractRowBounds(args);
+			return sqlSession.<T>selectCursor(command.getName(), param, rowBounds);
+		} else {
+			return sqlSession.<T>selectCursor(command.getName(), param);
+		}
+	}
+
 	//执行返回map的查询
 	private <K, V> Map<K, V> executeForMap(SqlSession sqlSession, Object[] args) {
 		Map<K, V> result;
@@ -225,6 +258,9 @@ public class MapperMethod {
 		private final boolean returnsMany;                   //是否返回多个
 		private final boolean returnsMap;                    //是否返回map
 		private final boolean returnsVoid;                   //是否返回void
+		private final boolean returnsCursor;                 //是否返回游标
+		private final boolean returnsFuture;                 //是否返回CompletableFuture(异步查询)
+		private final boolean futureReturnsMany;             //异步查询是否返回List
 		private final Class<?> returnType;                    //返回类型
 		private final String mapKey;
 		private final Integer resultHandlerIndex;
@@ -236,6 +272,9 @@ public class MapperMethod {
 		public MethodSignature(Configuration configuration, Method method) {
 			this.returnType = method.getReturnType();
 			this.returnsVoid = void.class.equals(this.returnType);
+			this.returnsCursor = Cursor.class.equals(this.returnType);
+			this.returnsFuture = CompletableFuture.class.equals(this.returnType);
+			this.futureReturnsMany = this.returnsFuture && futureReturnsMany(configuration, method);
 			this.returnsMany = (configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray());
 			this.mapKey = getMapKey(method);
 			this.returnsMap = (this.mapKey != null);
@@ -317,6 +356,50 @@ public class MapperMethod {
 			return returnsVoid;
 		}
 
+		//是否返回游标
+		public boolean returnsCursor() {
+			return returnsCursor;
+		}
+
+		//是否返回CompletableFuture
+		public boolean returnsFuture() {
+			return returnsFuture;
+		}
+
+		//异步查询是否返回List
+		public boolean futureReturnsMany() {
+			return futureReturnsMany;
+		}
+
+		//CompletableFuture<List<E>>返回多条记录, 其他集合和数组不支持
+		private boolean futureReturnsMany(Configuration configuration, Method method) {
+			Type genericType = method.getGenericReturnType();
+			if (!(genericType instanceof ParameterizedType)) {
+				return false;
+			}
+			Type resultType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+			Class<?> resultClass = null;
+			if (resultType instanceof Class) {
+				resultClass = (Class<?>) resultType;
+			} else if (resultType instanceof ParameterizedType) {
+				resultClass = (Class<?>) ((ParameterizedType) resultType).getRawType();
+			} else if (resultType instanceof GenericArrayType) {
+				resultClass = Object[].class;
+			}
+			if (resultClass == null) {
+				return false;
+			}
+			if (resultClass.isAssignableFrom(List.class) && !Object.class.equals(resultClass)) {
+				return true;
+			}
+			if (resultClass.isArray() || configuration.getObjectFactory().isCollection(resultClass)) {
+				throw new BindingException("Mapper method '" + method.getName()
+						+ "' returns an asynchronous " + resultClass.getSimpleName()
+						+ ", only CompletableFuture<List<E>> is supported for multiple results");
+			}
+			return false;
+		}
+
 		//获取参数下标
 		private Integer getUniqueParamIndex(Method method, Class<?> paramType) {
 			Integer index = null;
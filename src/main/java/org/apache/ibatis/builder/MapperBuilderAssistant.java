@@ -250,7 +250,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
 			SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap,
 			Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType,
 			boolean flushCache, boolean useCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty,
-			String keyColumn, String databaseId, LanguageDriver lang, String resultSets) {
+			String keyColumn, String databaseId, LanguageDriver lang, String resultSets, String tables) {
 		
 		if (unresolvedCacheRef) {
 			throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -272,6 +272,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
 		statementBuilder.lang(lang);
 		statementBuilder.resultOrdered(resultOrdered);
 		statementBuilder.resulSets(resultSets);
+		statementBuilder.tables(tables);
 		//设置超时时间
 		setStatementTimeout(timeout, statementBuilder);
 		//设置ParameterMap
@@ -287,6 +288,17 @@ public class MapperBuilderAssistant extends BaseBuilder {
 		return statement;
 	}
 	
+	//构建MappedStatement(向后兼容)
+	public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType,
+			SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap,
+			Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType,
+			boolean flushCache, boolean useCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty,
+			String keyColumn, String databaseId, LanguageDriver lang, String resultSets) {
+		return addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap,
+				parameterType, resultMap, resultType, resultSetType, flushCache, useCache, resultOrdered, keyGenerator,
+				keyProperty, keyColumn, databaseId, lang, resultSets, null);
+	}
+	
 	//构建MappedStatement(向后兼容)
 	public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType,
 			SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap,
@@ -16,7 +16,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.ibatis.annotations.Arg;
 import org.apache.ibatis.annotations.CacheNamespace;
@@ -46,6 +48,7 @@ import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -158,8 +161,19 @@ public class MapperAnnotationBuilder {
 		if (cacheDomain != null) {
 			Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
 			Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
+			Properties props = null;
+			if (cacheDomain.maxBytes() > 0) {
+				props = new Properties();
+				props.setProperty("maxBytes", String.valueOf(cacheDomain.maxBytes()));
+			}
+			if (cacheDomain.refreshAhead()) {
+				if (props == null) {
+					props = new Properties();
+				}
+				props.setProperty("refreshAhead", "true");
+			}
 			assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size,
-					cacheDomain.readWrite(), cacheDomain.blocking(), null);
+					cacheDomain.readWrite(), cacheDomain.blocking(), props);
 		}
 	}
 
@@ -253,6 +267,7 @@ public class MapperAnnotationBuilder {
 			boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
 			boolean flushCache = !isSelect;
 			boolean useCache = isSelect;
+			String tables = null;
 
 			KeyGenerator keyGenerator;
 			String keyProperty = "id";
@@ -281,6 +296,7 @@ public class MapperAnnotationBuilder {
 				timeout = options.timeout() > -1 ? options.timeout() : null;
 				statementType = options.statementType();
 				resultSetType = options.resultSetType();
+				tables = options.tables().length() > 0 ? options.tables() : null;
 			}
 
 			String resultMapId = null;
@@ -307,7 +323,7 @@ public class MapperAnnotationBuilder {
 					// DatabaseID
 					null, languageDriver,
 					// ResultSets
-					null);
+					null, tables);
 		}
 	}
 
@@ -341,13 +357,26 @@ public class MapperAnnotationBuilder {
 	//获取返回类型
 	private Class<?> getReturnType(Method method) {
 		Class<?> returnType = method.getReturnType();
+		Type genericReturnType = method.getGenericReturnType();
+		//异步查询按CompletableFuture的类型参数推断结果类型
+		if (CompletableFuture.class.equals(returnType)) {
+			returnType = Object.class;
+			if (genericReturnType instanceof ParameterizedType) {
+				genericReturnType = ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+				if (genericReturnType instanceof Class) {
+					returnType = (Class<?>) genericReturnType;
+				} else if (genericReturnType instanceof ParameterizedType) {
+					returnType = (Class<?>) ((ParameterizedType) genericReturnType).getRawType();
+				}
+			}
+		}
 		if (void.class.equals(returnType)) {
 			ResultType rt = method.getAnnotation(ResultType.class);
 			if (rt != null) {
 				returnType = rt.value();
 			}
-		} else if (Collection.class.isAssignableFrom(returnType)) {
-			Type returnTypeParameter = method.getGenericReturnType();
+		} else if (Collection.class.isAssignableFrom(returnType) || Cursor.class.equals(returnType)) {
+			Type returnTypeParameter = genericReturnType;
 			if (returnTypeParameter instanceof ParameterizedType) {
 				Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
 				if (actualTypeArguments != null && actualTypeArguments.length == 1) {
@@ -364,7 +393,7 @@ public class MapperAnnotationBuilder {
 				}
 			}
 		} else if (method.isAnnotationPresent(MapKey.class) && Map.class.isAssignableFrom(returnType)) {
-			Type returnTypeParameter = method.getGenericReturnType();
+			Type returnTypeParameter = genericReturnType;
 			if (returnTypeParameter instanceof ParameterizedType) {
 				Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
 				if (actualTypeArguments != null && actualTypeArguments.length == 2) {
@@ -23,6 +23,8 @@ import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.cache.InvalidationTransport;
+import org.apache.ibatis.session.CacheInvalidation;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.type.JdbcType;
@@ -252,6 +254,13 @@ public class XMLConfigBuilder extends BaseBuilder {
 			configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
 			//默认用session级别的缓存
 			configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+			//二级缓存默认按命名空间失效
+			configuration.setCacheInvalidation(CacheInvalidation.valueOf(props.getProperty("cacheInvalidation", "NAMESPACE")));
+			//是否把缓存的统计信息注册到JMX, scope默认为环境id
+			configuration.setCacheJmxScope(props.getProperty("cacheJmxScope"));
+			configuration.setCacheJmxEnabled(booleanValueOf(props.getProperty("cacheJmxEnabled"), false));
+			//缓存失效消息的传输, 设置后在多个节点之间广播二级缓存的失效
+			configuration.setCacheInvalidationTransport((InvalidationTransport) createInstance(props.getProperty("cacheInvalidationTransport")));
 			//为null值设置jdbctype
 			configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
 			//Object的哪些方法将触发延迟加载
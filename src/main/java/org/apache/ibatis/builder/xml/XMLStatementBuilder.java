@@ -97,6 +97,8 @@ public class XMLStatementBuilder extends BaseBuilder {
 		String keyProperty = context.getStringAttribute("keyProperty");
 		//获取keyColumn属性值
 		String keyColumn = context.getStringAttribute("keyColumn");
+		//获取tables属性值
+		String tables = context.getStringAttribute("tables");
 		
 		KeyGenerator keyGenerator;
 		String keyStatementId = id + SelectKeyGenerator.SELECT_KEY_SUFFIX;
@@ -116,7 +118,7 @@ public class XMLStatementBuilder extends BaseBuilder {
 		//调用构建助手进行构建
 		builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
 				parameterMap, parameterTypeClass, resultMap, resultTypeClass, resultSetTypeEnum, flushCache, useCache,
-				resultOrdered, keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+				resultOrdered, keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, tables);
 	}
 
 	private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
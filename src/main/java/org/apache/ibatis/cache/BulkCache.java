@@ -0,0 +1,12 @@
+package org.apache.ibatis.cache;
+
+import java.util.Map;
+
+//支持批量放置的缓存, TransactionalCache提交时用它一次放入所有暂存的缓存项
+//加锁的装饰者只需要获取一次锁; 不支持的缓存逐个调用putObject
+public interface BulkCache extends Cache {
+
+	//批量放置, 值可以为null
+	void putAll(Map<?, ?> entries);
+
+}
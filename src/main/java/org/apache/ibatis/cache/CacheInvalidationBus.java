@@ -0,0 +1,116 @@
+package org.apache.ibatis.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.session.Configuration;
+
+//缓存失效总线, 在多个节点之间广播二级缓存的失效
+//事务提交时把清空的命名空间缓存和写过的表合成一条消息发出去, 其他节点收到后清空同名的缓存, 删除依赖这些表的缓存项
+//消息格式: 版本(1字节) 节点ID(8字节) 缓存ID个数(2字节) 缓存ID... 表名个数(2字节) 表名...
+public class CacheInvalidationBus implements InvalidationTransport.Receiver {
+
+	private static final Log log = LogFactory.getLog(CacheInvalidationBus.class);
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final Configuration configuration;
+	private final InvalidationTransport transport;
+	//节点ID, 用来忽略自己发出的消息
+	private final long nodeId = new SecureRandom().nextLong();
+
+	//构造器, 开始接收其他节点的消息
+	public CacheInvalidationBus(Configuration configuration, InvalidationTransport transport) {
+		this.configuration = configuration;
+		this.transport = transport;
+		transport.start(this);
+	}
+
+	//广播失效消息, 发送失败只记日志, 数据库事务已经提交, 不能再让它失败
+	public void publish(Collection<String> cacheIds, Collection<String> tables) {
+		if (cacheIds.isEmpty() && tables.isEmpty()) {
+			return;
+		}
+		try {
+			transport.send(encode(cacheIds, tables));
+		} catch (RuntimeException e) {
+			log.warn("Error publishing cache invalidation for caches " + cacheIds + " and tables " + tables + ". Cause: " + e);
+		}
+	}
+
+	//收到其他节点的消息, 只在本地失效, 不会再广播出去
+	public void onMessage(byte[] message) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+			if (in.readUnsignedByte() != FORMAT_VERSION || in.readLong() == nodeId) {
+				return;
+			}
+			List<String> cacheIds = readStrings(in);
+			List<String> tables = readStrings(in);
+			for (String cacheId : cacheIds) {
+				if (configuration.hasCache(cacheId)) {
+					configuration.getCache(cacheId).clear();
+				}
+			}
+			if (!tables.isEmpty()) {
+				configuration.getTableCacheIndex().invalidate(tables);
+			}
+		} catch (IOException e) {
+			log.warn("Discarding malformed cache invalidation message. Cause: " + e);
+		}
+	}
+
+	//停止接收消息
+	public void close() {
+		transport.close();
+	}
+
+	public long getNodeId() {
+		return nodeId;
+	}
+
+	public InvalidationTransport getTransport() {
+		return transport;
+	}
+
+	private byte[] encode(Collection<String> cacheIds, Collection<String> tables) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			out.writeLong(nodeId);
+			writeStrings(out, cacheIds);
+			writeStrings(out, tables);
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new CacheException("Error encoding cache invalidation message. Cause: " + e, e);
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+		out.writeShort(values.size());
+		for (String value : values) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int size = in.readUnsignedShort();
+		List<String> values = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(in.readUTF());
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+//把缓存的统计信息注册到平台MBeanServer
+//名字为 org.apache.ibatis:type=Cache,scope=<scope>,name="<缓存ID>", scope默认为环境id, 可以用cacheJmxScope设置
+//同一个JVM中有多个Configuration时用scope区分
+public final class CacheJmxExporter {
+
+	private static final Log log = LogFactory.getLog(CacheJmxExporter.class);
+
+	private CacheJmxExporter() {
+	}
+
+	//注册缓存, 同名的已经存在时先注销; 注册失败只记日志, 不影响缓存的使用
+	public static void register(MeteredCache cache, String scope) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName(cache.getId(), scope);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new CacheStatsBean(cache), name);
+		} catch (Exception e) {
+			log.warn("Error registering MBean for cache " + cache.getId() + ". Cause: " + e);
+		}
+	}
+
+	//注销缓存
+	public static void unregister(String cacheId, String scope) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName(cacheId, scope);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			log.warn("Error unregistering MBean for cache " + cacheId + ". Cause: " + e);
+		}
+	}
+
+	//获取缓存的MBean名字
+	public static ObjectName objectName(String cacheId, String scope) throws Exception {
+		return new ObjectName("org.apache.ibatis:type=Cache,scope=" + ObjectName.quote(scope) + ",name="
+				+ ObjectName.quote(cacheId));
+	}
+
+	//每次读取属性都取一次快照
+	private static class CacheStatsBean implements CacheStatsMXBean {
+
+		private final MeteredCache cache;
+
+		CacheStatsBean(MeteredCache cache) {
+			this.cache = cache;
+		}
+
+		public String getId() {
+			return cache.getId();
+		}
+
+		public long getHitCount() {
+			return cache.getStats().getHitCount();
+		}
+
+		public long getMissCount() {
+			return cache.getStats().getMissCount();
+		}
+
+		public double getHitRatio() {
+			return cache.getMetrics().getHitRatio();
+		}
+
+		public long getEvictionCount() {
+			return cache.getStats().getEvictionCount();
+		}
+
+		public long getLoadCount() {
+			return cache.getStats().getLoadCount();
+		}
+
+		public double getAverageLoadMillis() {
+			return cache.getStats().getAverageLoadMillis();
+		}
+
+		public int getEntryCount() {
+			return cache.getSize();
+		}
+
+		public long getEstimatedBytes() {
+			return cache.getStats().getEstimatedBytes();
+		}
+
+		public void resetStatistics() {
+			cache.getMetrics().reset();
+		}
+
+		public void clear() {
+			cache.clear();
+		}
+
+	}
+
+}
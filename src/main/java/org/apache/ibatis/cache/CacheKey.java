@@ -2,49 +2,78 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 //缓存key
 public class CacheKey implements Cloneable, Serializable {
 
-	private static final long serialVersionUID = 1146682552656046210L;
+	private static final long serialVersionUID = -2360380994468716405L;
 
 	public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-	private static final int DEFAULT_MULTIPLYER = 37;
-	private static final int DEFAULT_HASHCODE = 17;
+	private static final int DEFAULT_CAPACITY = 8;
+	private static final long DEFAULT_HASH = 17;
+	private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
 
-	private int multiplier;            //乘数
-	private int hashcode;              //哈希码
+	//基本类型值在对象数组中的占位标记, 枚举反序列化后仍是同一实例
+	private enum Marker {
+		PRIMITIVE
+	}
+
+	private long hash;                 //64位哈希值
 	private long checksum;             //校验码
 	private int count;                 //计数值
-	private List<Object> updateList;   //更新列表
+	private Object[] values;           //更新的对象, 基本类型的位置放占位标记
+	private long[] primitives;         //基本类型的值, 第一次更新基本类型时才分配
+	private transient CacheLoader loader;   //二级缓存没命中时附加的加载器, 不参与比较, 也不序列化
 
 	public CacheKey() {
-		this.hashcode = DEFAULT_HASHCODE;
-		this.multiplier = DEFAULT_MULTIPLYER;
+		this(DEFAULT_CAPACITY);
+	}
+
+	// 按预计的更新次数分配空间, 避免更新过程中扩容
+	public CacheKey(int expectedUpdateCount) {
+		this.hash = DEFAULT_HASH;
 		this.count = 0;
-		this.updateList = new ArrayList<Object>();
+		this.values = new Object[Math.max(expectedUpdateCount, 1)];
 	}
 
 	// 传入一个Object数组，更新hashcode和效验码
 	public CacheKey(Object[] objects) {
-		this();
+		this(objects.length);
 		updateAll(objects);
 	}
 
 	public int getUpdateCount() {
-		return updateList.size();
+		return count;
 	}
 
 	public void update(Object object) {
-		if (object != null && object.getClass().isArray()) {
-			// 如果是数组，则循环调用doUpdate
+		// 数组逐个元素更新, 常见的数组类型不经过反射
+		if (object instanceof Object[]) {
+			for (Object element : (Object[]) object) {
+				doUpdate(element);
+			}
+		} else if (object instanceof int[]) {
+			for (int element : (int[]) object) {
+				update(element);
+			}
+		} else if (object instanceof long[]) {
+			for (long element : (long[]) object) {
+				update(element);
+			}
+		} else if (object instanceof byte[]) {
+			for (byte element : (byte[]) object) {
+				update(element);
+			}
+		} else if (object instanceof short[]) {
+			for (short element : (short[]) object) {
+				update(element);
+			}
+		} else if (object != null && object.getClass().isArray()) {
 			int length = Array.getLength(object);
 			for (int i = 0; i < length; i++) {
-				Object element = Array.get(object, i);
-				doUpdate(element);
+				doUpdate(Array.get(object, i));
 			}
 		} else {
 			// 否则，doUpdate
@@ -52,19 +81,56 @@ public class CacheKey implements Cloneable, Serializable {
 		}
 	}
 
+	//用int值更新, 不装箱
+	public void update(int value) {
+		update((long) value);
+	}
+
+	//用long值更新, 不装箱
+	public void update(long value) {
+		ensureCapacity();
+		if (primitives == null || primitives.length < values.length) {
+			primitives = primitives == null ? new long[values.length] : Arrays.copyOf(primitives, values.length);
+		}
+		values[count] = Marker.PRIMITIVE;
+		primitives[count] = value;
+		mix(value);
+	}
+
 	//执行更新方法
 	private void doUpdate(Object object) {
-		// 计算hash值，校验码
-		int baseHashCode = object == null ? 1 : object.hashCode();
+		ensureCapacity();
+		// 同时将对象加入数组，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
+		values[count] = object;
+		mix(object == null ? 1 : object.hashCode());
+	}
 
+	//把一个元素的哈希值混入64位哈希值和校验码, 乘法使元素的顺序影响结果
+	private void mix(long elementHash) {
 		count++;
-		checksum += baseHashCode;
-		baseHashCode *= count;
+		checksum += elementHash;
+		long h = elementHash + count;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		hash = (hash ^ h) * HASH_MULTIPLIER;
+	}
 
-		hashcode = multiplier * hashcode + baseHashCode;
+	//空间不够时按两倍扩容
+	private void ensureCapacity() {
+		if (count == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+		}
+	}
 
-		// 同时将对象加入列表，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-		updateList.add(object);
+	//获取附加的加载器
+	public CacheLoader getLoader() {
+		return loader;
+	}
+
+	//附加加载器, 缓存放入该键时用来记住如何重新加载
+	public void setLoader(CacheLoader loader) {
+		this.loader = loader;
 	}
 
 	//更新所有对象
@@ -85,8 +151,8 @@ public class CacheKey implements Cloneable, Serializable {
 
 		final CacheKey cacheKey = (CacheKey) object;
 
-		// 先比hashcode，checksum，count，理论上可以快速比出来
-		if (hashcode != cacheKey.hashcode) {
+		// 先比64位哈希值，checksum，count，不同的key几乎都能在这里比出来
+		if (hash != cacheKey.hash) {
 			return false;
 		}
 		if (checksum != cacheKey.checksum) {
@@ -97,11 +163,14 @@ public class CacheKey implements Cloneable, Serializable {
 		}
 
 		// 万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-		// 这里两个list的size没比是否相等，其实前面count相等就已经保证了
-		for (int i = 0; i < updateList.size(); i++) {
-			Object thisObject = updateList.get(i);
-			Object thatObject = cacheKey.updateList.get(i);
-			if (thisObject == null) {
+		for (int i = 0; i < count; i++) {
+			Object thisObject = values[i];
+			Object thatObject = cacheKey.values[i];
+			if (thisObject == Marker.PRIMITIVE) {
+				if (thatObject != Marker.PRIMITIVE || primitives[i] != cacheKey.primitives[i]) {
+					return false;
+				}
+			} else if (thisObject == null) {
 				if (thatObject != null) {
 					return false;
 				}
@@ -116,14 +185,19 @@ public class CacheKey implements Cloneable, Serializable {
 
 	@Override
 	public int hashCode() {
-		return hashcode;
+		return (int) (hash ^ (hash >>> 32));
 	}
 
 	@Override
 	public String toString() {
-		StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-		for (int i = 0; i < updateList.size(); i++) {
-			returnValue.append(':').append(updateList.get(i));
+		StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(checksum);
+		for (int i = 0; i < count; i++) {
+			returnValue.append(':');
+			if (values[i] == Marker.PRIMITIVE) {
+				returnValue.append(primitives[i]);
+			} else {
+				returnValue.append(values[i]);
+			}
 		}
 
 		return returnValue.toString();
@@ -132,7 +206,10 @@ public class CacheKey implements Cloneable, Serializable {
 	@Override
 	public CacheKey clone() throws CloneNotSupportedException {
 		CacheKey clonedCacheKey = (CacheKey) super.clone();
-		clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+		clonedCacheKey.values = values.clone();
+		if (primitives != null) {
+			clonedCacheKey.primitives = primitives.clone();
+		}
 		return clonedCacheKey;
 	}
 
@@ -0,0 +1,22 @@
+package org.apache.ibatis.cache;
+
+//缓存项的加载器, CachingExecutor在二级缓存没命中时把它附加到CacheKey上
+//ScheduledCache在缓存项快要过期时用它在后台重新查询, 再通过整条装饰链放回缓存
+public interface CacheLoader {
+
+	//重新执行查询, 参数已经变化, 不能再得到同一个键时返回null
+	Object load(CacheKey key) throws Exception;
+
+	//放回缓存时使用的缓存, 即MappedStatement上的整条装饰链
+	Cache getCache();
+
+	//上一次加载所用的时间(毫秒)
+	long getLoadTime();
+
+	//缓存项依赖的表的版本, 加载之前读取, 不按表失效时返回0
+	long getVersion();
+
+	//放回缓存之后登记依赖的表, 加载期间表被写过时从缓存中删除这一项并返回false
+	boolean register(CacheKey key, long version);
+
+}
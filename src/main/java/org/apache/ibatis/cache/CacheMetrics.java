@@ -0,0 +1,85 @@
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.impl.ObjectSizeWeigher;
+
+//缓存的统计计数器, 一个缓存的整条装饰链共用一个
+//计数器使用分段累加器, 多线程同时更新时不会互相争用; 字节数按抽样的缓存项平均大小乘以缓存项个数估算
+public class CacheMetrics {
+
+	//每放置32个缓存项抽样估算一个的大小
+	private static final int SAMPLE_RATE = 32;
+	private static final Weigher WEIGHER = new ObjectSizeWeigher();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadTime = new LongAdder();   //纳秒
+	//抽样得到的缓存项平均大小, -1表示还没有抽样
+	private volatile long averageEntryBytes = -1;
+
+	//记录一次命中
+	public void recordHit() {
+		hits.increment();
+	}
+
+	//记录一次没命中
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	//记录一个缓存项被淘汰或者过期
+	public void recordEviction() {
+		evictions.increment();
+	}
+
+	//记录多个缓存项被淘汰
+	public void recordEviction(long count) {
+		evictions.add(count);
+	}
+
+	//记录一次从数据库加载, 耗时单位为纳秒
+	public void recordLoad(long nanos) {
+		loads.increment();
+		loadTime.add(nanos);
+	}
+
+	//记录一次放置, 按抽样估算缓存项的大小, 第一个缓存项总是抽样
+	public void recordPut(Object key, Object value) {
+		long average = averageEntryBytes;
+		if (value == null || (average >= 0 && ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0)) {
+			return;
+		}
+		long bytes = WEIGHER.weigh(key, value);
+		//指数移动平均, 并发更新时丢掉一次抽样也没关系
+		averageEntryBytes = average < 0 ? bytes : (average * 7 + bytes) / 8;
+	}
+
+	//获取统计快照
+	public CacheStats snapshot(Cache cache) {
+		int entries = cache.getSize();
+		long average = averageEntryBytes;
+		return new CacheStats(cache.getId(), hits.sum(), misses.sum(), evictions.sum(), loads.sum(), loadTime.sum(),
+				entries, average < 0 ? 0 : average * entries);
+	}
+
+	//清零计数器
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		loads.reset();
+		loadTime.reset();
+	}
+
+	//获取命中率
+	public double getHitRatio() {
+		long hitCount = hits.sum();
+		long requestCount = hitCount + misses.sum();
+		return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+	}
+
+}
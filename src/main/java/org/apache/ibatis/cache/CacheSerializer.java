@@ -0,0 +1,13 @@
+package org.apache.ibatis.cache;
+
+//缓存对象的序列化器, SerializedCache等需要复制缓存对象的缓存用它把对象转成字节数组
+//实现类必须是线程安全的, 并且有无参构造器
+public interface CacheSerializer {
+
+	//序列化, value可能为null
+	byte[] serialize(Object value);
+
+	//反序列化
+	Object deserialize(byte[] bytes);
+
+}
@@ -0,0 +1,91 @@
+package org.apache.ibatis.cache;
+
+//缓存统计信息的快照, 不可变
+public class CacheStats {
+
+	private final String id;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long loadCount;
+	private final long totalLoadTime;   //纳秒
+	private final int entryCount;
+	private final long estimatedBytes;
+
+	public CacheStats(String id, long hitCount, long missCount, long evictionCount, long loadCount, long totalLoadTime,
+			int entryCount, long estimatedBytes) {
+		this.id = id;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.loadCount = loadCount;
+		this.totalLoadTime = totalLoadTime;
+		this.entryCount = entryCount;
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	//获取缓存ID
+	public String getId() {
+		return id;
+	}
+
+	//获取命中次数
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	//获取没命中次数
+	public long getMissCount() {
+		return missCount;
+	}
+
+	//获取访问次数
+	public long getRequestCount() {
+		return hitCount + missCount;
+	}
+
+	//获取命中率
+	public double getHitRatio() {
+		long requestCount = getRequestCount();
+		return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+	}
+
+	//获取被淘汰或者过期的缓存项数量
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	//获取从数据库加载的次数
+	public long getLoadCount() {
+		return loadCount;
+	}
+
+	//获取加载总耗时(纳秒)
+	public long getTotalLoadTime() {
+		return totalLoadTime;
+	}
+
+	//获取平均加载耗时(毫秒)
+	public double getAverageLoadMillis() {
+		return loadCount == 0 ? 0 : totalLoadTime / 1000000.0 / loadCount;
+	}
+
+	//获取缓存项数量
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	//获取估算的字节数
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats[" + id + "] hits=" + hitCount + ", misses=" + missCount + ", hitRatio="
+				+ String.format("%.4f", getHitRatio()) + ", evictions=" + evictionCount + ", loads=" + loadCount
+				+ ", averageLoadMillis=" + String.format("%.3f", getAverageLoadMillis()) + ", entries=" + entryCount
+				+ ", estimatedBytes=" + estimatedBytes;
+	}
+
+}
@@ -0,0 +1,30 @@
+package org.apache.ibatis.cache;
+
+//缓存统计信息的JMX接口, 每个缓存一个, 由CacheJmxExporter注册
+public interface CacheStatsMXBean {
+
+	String getId();
+
+	long getHitCount();
+
+	long getMissCount();
+
+	double getHitRatio();
+
+	long getEvictionCount();
+
+	long getLoadCount();
+
+	double getAverageLoadMillis();
+
+	int getEntryCount();
+
+	long getEstimatedBytes();
+
+	//清零计数器
+	void resetStatistics();
+
+	//清空缓存
+	void clear();
+
+}
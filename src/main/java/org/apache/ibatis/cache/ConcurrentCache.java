@@ -0,0 +1,7 @@
+package org.apache.ibatis.cache;
+
+//可并发访问的缓存, 实现该接口的缓存和装饰者自己保证线程安全
+//CacheBuilder发现基础缓存和所有装饰者都实现了该接口时, 不再用SynchronizedCache包装
+public interface ConcurrentCache extends Cache {
+
+}
@@ -0,0 +1,23 @@
+package org.apache.ibatis.cache;
+
+//缓存失效消息的传输层, 把本节点的失效消息发给其他节点, 并把收到的消息交给接收者
+//可以基于消息队列、Redis发布订阅、组播等实现; 实现类必须是线程安全的, 并且有无参构造器
+public interface InvalidationTransport {
+
+	//开始接收消息, 每个传输对象只调用一次
+	void start(Receiver receiver);
+
+	//发送消息, 包括发给自己所在的节点也没关系, 自己发出的消息会被忽略
+	void send(byte[] message);
+
+	//停止接收消息, 释放资源
+	void close();
+
+	//消息接收者
+	interface Receiver {
+
+		void onMessage(byte[] message);
+
+	}
+
+}
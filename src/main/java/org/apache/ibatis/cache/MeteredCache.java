@@ -0,0 +1,12 @@
+package org.apache.ibatis.cache;
+
+//带统计信息的缓存, CacheBuilder构建的缓存最外层都是LoggingCache, 都实现了该接口
+public interface MeteredCache extends Cache {
+
+	//获取统计计数器
+	CacheMetrics getMetrics();
+
+	//获取统计信息的快照
+	CacheStats getStats();
+
+}
@@ -14,6 +14,21 @@ public final class NullCacheKey extends CacheKey {
 		throw new CacheException("Not allowed to update a NullCacheKey instance.");
 	}
 	
+	@Override
+	public void update(int value) {
+		throw new CacheException("Not allowed to update a NullCacheKey instance.");
+	}
+	
+	@Override
+	public void update(long value) {
+		throw new CacheException("Not allowed to update a NullCacheKey instance.");
+	}
+	
+	@Override
+	public void setLoader(CacheLoader loader) {
+		// 共享的实例, 不附加加载器
+	}
+	
 	@Override
 	public void updateAll(Object[] objects) {
 		throw new CacheException("Not allowed to update a NullCacheKey instance.");
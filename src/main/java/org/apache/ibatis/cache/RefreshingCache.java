@@ -0,0 +1,10 @@
+package org.apache.ibatis.cache;
+
+//可以提前刷新缓存项的缓存, ScheduledCache开启refreshAhead时用CacheKey上附加的加载器在后台重新查询
+//装饰者把询问交给被装饰的缓存; 整条装饰链都不提前刷新时, CachingExecutor不创建加载器
+public interface RefreshingCache extends Cache {
+
+	//是否提前刷新, 即放置对象时是否需要键上附加的加载器
+	boolean isRefreshAhead();
+
+}
@@ -0,0 +1,162 @@
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+//表到缓存项的依赖索引, 按表失效缓存时使用, 整个Configuration共用一个
+//查询结果放入缓存后登记它依赖的表, 写语句提交后只删除依赖被写的表的缓存项, 可以跨命名空间
+//每张表登记的缓存项数量有上限, 超过后不再记录具体的键, 这张表被写时直接清空相关的缓存
+public class TableCacheIndex {
+
+	//表示依赖所有表, 解析不出表名的查询登记在这里, 任何表被写都会删除
+	public static final String ANY_TABLE = "*";
+
+	//每张表最多登记的缓存项数量
+	private volatile int maxEntriesPerTable = 10000;
+	//表名到依赖项的映射
+	private final ConcurrentHashMap<String, TableEntries> tables = new ConcurrentHashMap<String, TableEntries>();
+	//任何表被写时都加1, 用于依赖所有表的缓存项
+	private final AtomicLong globalVersion = new AtomicLong();
+
+	//获取表的版本, 表被写过之后版本会变, 查询前后的版本不同说明查询结果可能是旧的
+	public long getVersion(String[] tableNames) {
+		long version = 0;
+		for (String tableName : tableNames) {
+			if (ANY_TABLE.equals(tableName)) {
+				return globalVersion.get();
+			}
+			version += getEntries(tableName).version.get();
+		}
+		return version;
+	}
+
+	//登记缓存项依赖的表, 查询之后表已经被写过时从缓存中删除这一项, 返回是否登记成功
+	public boolean register(Cache cache, Object key, String[] tableNames, long version) {
+		for (String tableName : tableNames) {
+			getEntries(tableName).add(cache, key, maxEntriesPerTable);
+		}
+		//先登记再检查版本: 失效时先改版本再删除, 两边交错时总有一边能删掉旧的缓存项
+		if (getVersion(tableNames) != version) {
+			cache.removeObject(key);
+			return false;
+		}
+		return true;
+	}
+
+	//删除依赖这些表的缓存项
+	public void invalidate(Collection<String> tableNames) {
+		globalVersion.incrementAndGet();
+		List<TableEntries> targets = new ArrayList<TableEntries>();
+		if (tableNames.contains(ANY_TABLE)) {
+			targets.addAll(tables.values());
+		} else {
+			for (String tableName : tableNames) {
+				targets.add(getEntries(tableName));
+			}
+			targets.add(getEntries(ANY_TABLE));
+		}
+		for (TableEntries entries : targets) {
+			entries.version.incrementAndGet();
+		}
+		for (TableEntries entries : targets) {
+			entries.evict();
+		}
+	}
+
+	//获取登记的表的数量
+	public int getTableCount() {
+		return tables.size();
+	}
+
+	//获取每张表最多登记的缓存项数量
+	public int getMaxEntriesPerTable() {
+		return maxEntriesPerTable;
+	}
+
+	//设置每张表最多登记的缓存项数量
+	public void setMaxEntriesPerTable(int maxEntriesPerTable) {
+		this.maxEntriesPerTable = maxEntriesPerTable;
+	}
+
+	private TableEntries getEntries(String tableName) {
+		TableEntries entries = tables.get(tableName);
+		if (entries == null) {
+			TableEntries created = new TableEntries();
+			entries = tables.putIfAbsent(tableName, created);
+			if (entries == null) {
+				entries = created;
+			}
+		}
+		return entries;
+	}
+
+	//一张表上登记的缓存项
+	private static class TableEntries {
+
+		final AtomicLong version = new AtomicLong();
+		final ReentrantLock lock = new ReentrantLock();
+		Map<Cache, Set<Object>> keys = new HashMap<Cache, Set<Object>>();
+		Set<Cache> overflowed = new HashSet<Cache>();   //超过上限, 不再记录具体键的缓存
+		int size;
+
+		void add(Cache cache, Object key, int maxEntries) {
+			lock.lock();
+			try {
+				if (overflowed.contains(cache)) {
+					return;
+				}
+				Set<Object> cacheKeys = keys.get(cache);
+				if (cacheKeys == null) {
+					cacheKeys = new HashSet<Object>();
+					keys.put(cache, cacheKeys);
+				}
+				if (cacheKeys.add(key) && ++size > maxEntries) {
+					//丢掉这个缓存的所有键, 以后按整个缓存失效
+					size -= cacheKeys.size();
+					keys.remove(cache);
+					overflowed.add(cache);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		//在锁外删除缓存项, 删除时不阻塞其他线程登记
+		void evict() {
+			Map<Cache, Set<Object>> evictedKeys;
+			Set<Cache> evictedCaches;
+			lock.lock();
+			try {
+				if (size == 0 && overflowed.isEmpty()) {
+					return;
+				}
+				evictedKeys = keys;
+				evictedCaches = overflowed;
+				keys = new HashMap<Cache, Set<Object>>();
+				overflowed = new HashSet<Cache>();
+				size = 0;
+			} finally {
+				lock.unlock();
+			}
+			for (Cache cache : evictedCaches) {
+				cache.clear();
+			}
+			for (Map.Entry<Cache, Set<Object>> entry : evictedKeys.entrySet()) {
+				Cache cache = entry.getKey();
+				for (Object key : entry.getValue()) {
+					cache.removeObject(key);
+				}
+			}
+		}
+
+	}
+
+}
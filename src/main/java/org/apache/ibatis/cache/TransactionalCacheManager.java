@@ -1,43 +1,70 @@
 package org.apache.ibatis.cache;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
 //事务缓存管理器
+//只读到缓存命中结果的事务什么都不暂存, 提交和回滚直接跳过
 public class TransactionalCacheManager {
 
-	//事务缓存集合
-	private Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+	//事务缓存集合, 同一个命名空间的缓存是同一个对象, 按引用查找, 不用沿装饰链计算hashCode
+	private Map<Cache, TransactionalCache> transactionalCaches = new IdentityHashMap<Cache, TransactionalCache>();
+	//本事务是否暂存了需要在提交或回滚时处理的东西
+	private boolean dirty;
 
 	//清空缓存
 	public void clear(Cache cache) {
 		getTransactionalCache(cache).clear();
+		dirty = true;
 	}
 
 	//获取对象
 	public Object getObject(Cache cache, CacheKey key) {
-		return getTransactionalCache(cache).getObject(key);
+		Object value = getTransactionalCache(cache).getObject(key);
+		if (value == null) {
+			//记下了没命中的键
+			dirty = true;
+		}
+		return value;
 	}
 
 	//放置对象
 	public void putObject(Cache cache, CacheKey key, Object value) {
 		getTransactionalCache(cache).putObject(key, value);
+		dirty = true;
 	}
 
 	//提交事务
 	public void commit() {
+		commit(null);
+	}
+
+	//提交事务, 把提交时被清空的缓存ID加到clearedCacheIds中
+	public void commit(Collection<String> clearedCacheIds) {
+		if (!dirty) {
+			return;
+		}
 		for (TransactionalCache txCache : transactionalCaches.values()) {
+			if (clearedCacheIds != null && txCache.isClearOnCommit()) {
+				clearedCacheIds.add(txCache.getId());
+			}
 			txCache.commit();
 		}
+		dirty = false;
 	}
 
 	//回滚事务
 	public void rollback() {
+		if (!dirty) {
+			return;
+		}
 		for (TransactionalCache txCache : transactionalCaches.values()) {
 			txCache.rollback();
 		}
+		dirty = false;
 	}
 
 	//获取事务缓存
@@ -0,0 +1,9 @@
+package org.apache.ibatis.cache;
+
+//缓存对象的权重计算器, 返回缓存对象大约占用的字节数
+public interface Weigher {
+
+	//计算一个缓存项的权重
+	long weigh(Object key, Object value);
+
+}
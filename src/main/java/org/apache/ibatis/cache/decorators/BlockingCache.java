@@ -1,27 +1,36 @@
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
+import org.apache.ibatis.cache.BulkCache;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.RefreshingCache;
 
-//块型缓存
-public class BlockingCache implements Cache {
+//块型缓存, 同一个键同时没命中时只让第一个线程去查数据库, 其他线程等它把结果放进缓存(single-flight)
+//等待超过timeout毫秒后放弃等待, 自己去查数据库; 超过timeout还没完成的加载被认为已经失效, 由下一个没命中的线程接手
+//加载的线程查询失败时, TransactionalCache在事务结束时会放入null, 同样会唤醒等待的线程, 其中一个线程接着去加载
+//加载者是调用时所在的TransactionalCache(即会话), 不是线程: 同一个会话的异步查询在其他线程上执行, 不能等待自己的加载
+public class BlockingCache implements ConcurrentCache, BulkCache, RefreshingCache {
 
-	//超时时间
-	private long timeout;
+	//当前线程代表的加载者, 由TransactionalCache在调用期间设置, 没有设置时就是当前线程
+	private static final ThreadLocal<Object> currentOwner = new ThreadLocal<Object>();
+
+	//超时时间(毫秒), 0表示一直等待
+	private long timeout = 10000;
 	//缓存代表
 	private final Cache delegate;
-	//锁集合
-	private final ConcurrentHashMap<Object, ReentrantLock> locks;
+	//正在加载的键, 加载完成后删除, 不会无限增长
+	private final ConcurrentHashMap<Object, Flight> flights;
 
 	//构造器
 	public BlockingCache(Cache delegate) {
 		this.delegate = delegate;
-		this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+		this.flights = new ConcurrentHashMap<Object, Flight>();
 	}
 
 	//获取缓存ID
@@ -34,23 +43,91 @@ public class BlockingCache implements Cache {
 		return delegate.getSize();
 	}
 
-	//放置对象
+	//以owner的身份访问缓存, 返回之前的身份, 访问结束后用restoreOwner恢复
+	public static Object setOwner(Object owner) {
+		Object previous = currentOwner.get();
+		currentOwner.set(owner);
+		return previous;
+	}
+
+	//恢复之前的身份
+	public static void restoreOwner(Object previous) {
+		if (previous == null) {
+			currentOwner.remove();
+		} else {
+			currentOwner.set(previous);
+		}
+	}
+
+	//当前的加载者
+	private static Object owner() {
+		Object owner = currentOwner.get();
+		return owner != null ? owner : Thread.currentThread();
+	}
+
+	//放置对象, 完成该键上的加载
 	public void putObject(Object key, Object value) {
 		try {
 			delegate.putObject(key, value);
 		} finally {
-			releaseLock(key);
+			complete(key, value);
+		}
+	}
+
+	//批量放置, 完成所有键上的加载
+	public void putAll(Map<?, ?> entries) {
+		try {
+			if (delegate instanceof BulkCache) {
+				((BulkCache) delegate).putAll(entries);
+			} else {
+				for (Map.Entry<?, ?> entry : entries.entrySet()) {
+					delegate.putObject(entry.getKey(), entry.getValue());
+				}
+			}
+		} finally {
+			for (Map.Entry<?, ?> entry : entries.entrySet()) {
+				complete(entry.getKey(), entry.getValue());
+			}
 		}
 	}
 
-	//获取对象
+	//获取对象, 返回null时调用者就是这个键的加载者, 或者等待超时后自己去查数据库
 	public Object getObject(Object key) {
-		acquireLock(key);
 		Object value = delegate.getObject(key);
 		if (value != null) {
-			releaseLock(key);
+			return value;
+		}
+		long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+		while (true) {
+			Flight flight = new Flight();
+			Flight existing = flights.putIfAbsent(key, flight);
+			if (existing == null || existing.owner == flight.owner) {
+				//成为加载者, 再查一次, 可能在putIfAbsent之前刚刚加载完
+				value = delegate.getObject(key);
+				if (value != null) {
+					complete(key, value);
+				}
+				return value;
+			}
+			if (existing.isStale() && flights.replace(key, existing, flight)) {
+				//原来的加载者很久没有完成, 可能已经放弃了, 由当前的加载者接手
+				existing.done.countDown();
+				value = delegate.getObject(key);
+				if (value != null) {
+					complete(key, value);
+				}
+				return value;
+			}
+			if (!await(key, existing, deadline)) {
+				//等待超时, 不再等待, 直接查数据库
+				return null;
+			}
+			value = delegate.getObject(key);
+			if (value != null) {
+				return value;
+			}
+			//加载者失败了, 重新竞争成为加载者
 		}
-		return value;
 	}
 
 	//删除对象
@@ -68,36 +145,32 @@ public class BlockingCache implements Cache {
 		return null;
 	}
 
-	//获取键上的锁
-	private ReentrantLock getLockForKey(Object key) {
-		ReentrantLock lock = new ReentrantLock();
-		ReentrantLock previous = locks.putIfAbsent(key, lock);
-		return previous == null ? lock : previous;
+	//是否提前刷新, 交给被装饰的缓存判断
+	public boolean isRefreshAhead() {
+		return delegate instanceof RefreshingCache && ((RefreshingCache) delegate).isRefreshAhead();
 	}
 
-	//请求锁
-	private void acquireLock(Object key) {
-		Lock lock = getLockForKey(key);
-		if (timeout > 0) {
-			try {
-				boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-				if (!acquired) {
-					throw new CacheException("Couldn't get a lock in " + timeout + " for the key " + key
-							+ " at the cache " + delegate.getId());
-				}
-			} catch (InterruptedException e) {
-				throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+	//等待加载完成, 超时返回false
+	private boolean await(Object key, Flight flight, long deadline) {
+		try {
+			if (deadline == 0) {
+				flight.done.await();
+				return true;
 			}
-		} else {
-			lock.lock();
+			long remaining = deadline - System.nanoTime();
+			return remaining > 0 && flight.done.await(remaining, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			throw new CacheException("Got interrupted while waiting for key " + key + " to be loaded into cache "
+					+ delegate.getId(), e);
 		}
 	}
 
-	//释放锁
-	private void releaseLock(Object key) {
-		ReentrantLock lock = locks.get(key);
-		if (lock.isHeldByCurrentThread()) {
-			lock.unlock();
+	//完成键上的加载, 唤醒等待的线程
+	//放入了值时谁都可以完成加载; 放入null只能完成自己的加载, 被接手的旧加载者回滚时不能唤醒新加载者的等待者
+	private void complete(Object key, Object value) {
+		Flight flight = flights.get(key);
+		if (flight != null && (value != null || flight.owner == owner()) && flights.remove(key, flight)) {
+			flight.done.countDown();
 		}
 	}
 
@@ -110,5 +183,19 @@ public class BlockingCache implements Cache {
 	public void setTimeout(long timeout) {
 		this.timeout = timeout;
 	}
-	
-}
\ No newline at end of file
+
+	//一次正在进行的加载
+	private class Flight {
+
+		final Object owner = owner();
+		final long startTime = System.nanoTime();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		//超过timeout还没完成
+		boolean isStale() {
+			return timeout > 0 && System.nanoTime() - startTime > TimeUnit.MILLISECONDS.toNanos(timeout);
+		}
+
+	}
+
+}
@@ -2,16 +2,24 @@ package org.apache.ibatis.cache.decorators;
 
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
 
 //先进先出缓存
-public class FifoCache implements Cache {
+public class FifoCache implements ConcurrentCache {
 
 	private final Cache delegate;
 	private Deque<Object> keyList;
-	private int size;
+	private volatile int size;
+	//保护keyList, 读缓存不需要加锁
+	private final Lock lock = new ReentrantLock();
+	//统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+	private volatile CacheMetrics metrics;
 
 	//构造器
 	public FifoCache(Cache delegate) {
@@ -20,6 +28,11 @@ public class FifoCache implements Cache {
 		this.size = 1024;
 	}
 
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	//获取缓存ID
 	public String getId() {
 		return delegate.getId();
@@ -37,8 +50,9 @@ public class FifoCache implements Cache {
 
 	//放置对象
 	public void putObject(Object key, Object value) {
-		cycleKeyList(key);
+		// 先放入再登记, 保证被委托缓存中的每个对象都在keyList中
 		delegate.putObject(key, value);
+		cycleKeyList(key);
 	}
 
 	//获取对象
@@ -54,7 +68,12 @@ public class FifoCache implements Cache {
 	//清空缓存
 	public void clear() {
 		delegate.clear();
-		keyList.clear();
+		lock.lock();
+		try {
+			keyList.clear();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	//获取读写锁
@@ -64,10 +83,21 @@ public class FifoCache implements Cache {
 
 	//添加对象同时移除第一个对象
 	private void cycleKeyList(Object key) {
-		keyList.addLast(key);
-		if (keyList.size() > size) {
-			Object oldestKey = keyList.removeFirst();
+		Object oldestKey = null;
+		lock.lock();
+		try {
+			keyList.addLast(key);
+			if (keyList.size() > size) {
+				oldestKey = keyList.removeFirst();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (oldestKey != null) {
 			delegate.removeObject(oldestKey);
+			if (metrics != null) {
+				metrics.recordEviction();
+			}
 		}
 	}
 
@@ -1,22 +1,34 @@
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.MeteredCache;
+import org.apache.ibatis.cache.RefreshingCache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
-//日志缓存 添加功能：取缓存时打印命中率
-public class LoggingCache implements Cache {
+//日志缓存 添加功能：取缓存时打印命中率, 统计命中、没命中次数和缓存项大小
+public class LoggingCache implements ConcurrentCache, MeteredCache, BulkCache, RefreshingCache {
 	
 	private Log log;
 	private Cache delegate;
-	protected int requests = 0;
-	protected int hits = 0;
+	//统计计数器, 和装饰链里的其他装饰者共用
+	private final CacheMetrics metrics;
 
 	//构造器
 	public LoggingCache(Cache delegate) {
+		this(delegate, new CacheMetrics());
+	}
+
+	public LoggingCache(Cache delegate, CacheMetrics metrics) {
 		this.delegate = delegate;
+		this.metrics = metrics;
 		this.log = LogFactory.getLog(getId());
 	}
 
@@ -33,18 +45,32 @@ public class LoggingCache implements Cache {
 	//放置对象
 	public void putObject(Object key, Object object) {
 		delegate.putObject(key, object);
+		metrics.recordPut(key, object);
+	}
+
+	//批量放置, 交给被委托的缓存批量处理
+	public void putAll(Map<?, ?> entries) {
+		if (delegate instanceof BulkCache) {
+			((BulkCache) delegate).putAll(entries);
+		} else {
+			for (Map.Entry<?, ?> entry : entries.entrySet()) {
+				delegate.putObject(entry.getKey(), entry.getValue());
+			}
+		}
+		for (Map.Entry<?, ?> entry : entries.entrySet()) {
+			metrics.recordPut(entry.getKey(), entry.getValue());
+		}
 	}
 
 	//获取对象
 	public Object getObject(Object key) {
-		//访问数量加一
-		requests++;
 		//获取缓存对象
 		final Object value = delegate.getObject(key);
 		//若value不为空则表示命中
 		if (value != null) {
-			//命中数加一
-			hits++;
+			metrics.recordHit();
+		} else {
+			metrics.recordMiss();
 		}
 		if (log.isDebugEnabled()) {
 			//通过日志打印命中率
@@ -68,10 +94,25 @@ public class LoggingCache implements Cache {
 	public ReadWriteLock getReadWriteLock() {
 		return null;
 	}
+
+	//是否提前刷新, 交给被装饰的缓存判断
+	public boolean isRefreshAhead() {
+		return delegate instanceof RefreshingCache && ((RefreshingCache) delegate).isRefreshAhead();
+	}
 	
+	//获取统计计数器
+	public CacheMetrics getMetrics() {
+		return metrics;
+	}
+
+	//获取统计信息的快照
+	public CacheStats getStats() {
+		return metrics.snapshot(this);
+	}
+
 	//获取缓存命中率
 	private double getHitRatio() {
-		return (double) hits / (double) requests;
+		return metrics.getHitRatio();
 	}
 
 	@Override
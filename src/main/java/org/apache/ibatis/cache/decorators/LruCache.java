@@ -2,17 +2,25 @@ package org.apache.ibatis.cache.decorators;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
 
 //最近最少使用缓存
-public class LruCache implements Cache {
+public class LruCache implements ConcurrentCache {
 
 	private final Cache delegate;
 	//额外用了一个map才做lru，但是委托的Cache里面其实也是一个map，这样等于用2倍的内存实现lru功能
 	private Map<Object, Object> keyMap;
 	private Object eldestKey;
+	//保护keyMap, 只在维护访问顺序时短暂持有, 不包住对被委托缓存的访问
+	private final Lock lock = new ReentrantLock();
+	//统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+	private volatile CacheMetrics metrics;
 
 	//构造器
 	public LruCache(Cache delegate) {
@@ -20,6 +28,11 @@ public class LruCache implements Cache {
 		setSize(1024);
 	}
 
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	//获取缓存ID
 	public String getId() {
 		return delegate.getId();
@@ -32,7 +45,7 @@ public class LruCache implements Cache {
 
 	//设置缓存大小
 	public void setSize(final int size) {
-		keyMap = new LinkedHashMap<Object, Object>(size, .75F, true) {
+		Map<Object, Object> newKeyMap = new LinkedHashMap<Object, Object>(size, .75F, true) {
 			private static final long serialVersionUID = 4267176411845948333L;
 
 			// 核心就是覆盖 LinkedHashMap.removeEldestEntry方法,
@@ -49,6 +62,12 @@ public class LruCache implements Cache {
 				return tooBig;
 			}
 		};
+		lock.lock();
+		try {
+			keyMap = newKeyMap;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	//放置对象
@@ -61,7 +80,14 @@ public class LruCache implements Cache {
 	//获取对象
 	public Object getObject(Object key) {
 		// get的时候调用一下LinkedHashMap.get，让经常访问的值移动到链表末尾
-		keyMap.get(key); // touch
+		// 锁被其他线程占用时跳过这次touch, 访问顺序只是近似的, 但读不会互相等待
+		if (lock.tryLock()) {
+			try {
+				keyMap.get(key); // touch
+			} finally {
+				lock.unlock();
+			}
+		}
 		return delegate.getObject(key);
 	}
 
@@ -73,7 +99,12 @@ public class LruCache implements Cache {
 	//清空缓存
 	public void clear() {
 		delegate.clear();
-		keyMap.clear();
+		lock.lock();
+		try {
+			keyMap.clear();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	//获取读写锁
@@ -83,11 +114,21 @@ public class LruCache implements Cache {
 
 	//放入对象同时移除最旧未使用的对象
 	private void cycleKeyList(Object key) {
-		keyMap.put(key, key);
-		// keyMap是linkedhashmap，最老的记录已经被移除了，然后这里我们还需要移除被委托的那个cache的记录
-		if (eldestKey != null) {
-			delegate.removeObject(eldestKey);
+		Object eldest;
+		lock.lock();
+		try {
+			keyMap.put(key, key);
+			eldest = eldestKey;
 			eldestKey = null;
+		} finally {
+			lock.unlock();
+		}
+		// keyMap是linkedhashmap，最老的记录已经被移除了，然后这里我们还需要移除被委托的那个cache的记录
+		if (eldest != null) {
+			delegate.removeObject(eldest);
+			if (metrics != null) {
+				metrics.recordEviction();
+			}
 		}
 	}
 
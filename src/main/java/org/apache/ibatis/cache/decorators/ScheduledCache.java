@@ -1,59 +1,136 @@
 package org.apache.ibatis.cache.decorators;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
-
-//定时调度缓存, 目的是每一小时清空一下缓存
-public class ScheduledCache implements Cache {
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheLoader;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.RefreshingCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+//定时调度缓存, 每个缓存项放入clearInterval之后过期, 不再整个清空, 避免所有缓存项同时失效
+//开启refreshAhead后, 缓存项在过期前被访问时按一定概率提前在后台重新查询, 刷新完成前继续返回旧值
+//提前刷新的概率按XFetch算法计算: 越接近过期, 查询越慢, 访问越频繁, 越可能被提前刷新
+public class ScheduledCache implements ConcurrentCache, RefreshingCache {
+
+	private static final Log log = LogFactory.getLog(ScheduledCache.class);
+
+	//所有缓存共用的刷新线程池, 队列满了就放弃这次刷新, 缓存项照常过期
+	private static final ThreadPoolExecutor REFRESHER = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(1024), new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ScheduledCache-refresher-" + threadNumber.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		REFRESHER.allowCoreThreadTimeOut(true);
+	}
 
 	private Cache delegate;         //缓存代表
-	protected long clearInterval;  //清空间隔
-	protected long lastClear;      //最后一次清空时间戳
+	protected volatile long clearInterval;  //缓存项的存活时间
+	protected volatile boolean refreshAhead;   //是否提前刷新
+	protected volatile double refreshBeta = 1.0;   //提前刷新的激进程度, 越大越早刷新
+	private volatile CacheMetrics metrics;          //统计计数器, 由CacheBuilder设置, 记录过期的缓存项
 
 	//构造器
 	public ScheduledCache(Cache delegate) {
 		this.delegate = delegate;
-		this.clearInterval = 60 * 60 * 1000;         //1小时清一次
-		this.lastClear = System.currentTimeMillis();
+		this.clearInterval = 60 * 60 * 1000;         //1小时过期
 	}
 
-	//设置清空间隔
+	//设置缓存项的存活时间
 	public void setClearInterval(long clearInterval) {
 		this.clearInterval = clearInterval;
 	}
 
+	//设置是否提前刷新, 对应缓存配置中的refreshAhead属性
+	public void setRefreshAhead(boolean refreshAhead) {
+		this.refreshAhead = refreshAhead;
+	}
+
+	//是否提前刷新
+	public boolean isRefreshAhead() {
+		return refreshAhead;
+	}
+
+	//设置提前刷新的激进程度, 对应缓存配置中的refreshBeta属性
+	public void setRefreshBeta(double refreshBeta) {
+		this.refreshBeta = refreshBeta;
+	}
+
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	//获取缓存ID
 	public String getId() {
 		return delegate.getId();
 	}
 
-	//获取缓存大小
+	//获取缓存大小, 包括已经过期还没有被访问到的缓存项
 	public int getSize() {
-		clearWhenStale();
 		return delegate.getSize();
 	}
 
-	//放置对象
+	//放置对象, 记下过期时间和键上附加的加载器
 	public void putObject(Object key, Object object) {
-		clearWhenStale();
-		delegate.putObject(key, object);
+		if (object == null) {
+			delegate.putObject(key, null);
+			return;
+		}
+		CacheLoader loader = null;
+		if (refreshAhead && key instanceof CacheKey) {
+			loader = ((CacheKey) key).getLoader();
+		}
+		delegate.putObject(key, new Entry(object, System.currentTimeMillis() + clearInterval, loader));
 	}
 
-	//获取对象
+	//获取对象, 过期的缓存项删除后返回null
 	public Object getObject(Object key) {
-		return clearWhenStale() ? null : delegate.getObject(key);
+		Object value = delegate.getObject(key);
+		if (!(value instanceof Entry)) {
+			return value;
+		}
+		Entry entry = (Entry) value;
+		long now = System.currentTimeMillis();
+		if (now >= entry.expireTime) {
+			delegate.removeObject(key);
+			if (metrics != null) {
+				metrics.recordEviction();
+			}
+			return null;
+		}
+		if (entry.loader != null && shouldRefresh(entry, now) && entry.refreshing.compareAndSet(false, true)) {
+			refresh((CacheKey) key, entry);
+		}
+		return entry.value;
 	}
 
 	//移除对象
 	public Object removeObject(Object key) {
-		clearWhenStale();
-		return delegate.removeObject(key);
+		Object value = delegate.removeObject(key);
+		return value instanceof Entry ? ((Entry) value).value : value;
 	}
 
 	//清空缓存
 	public void clear() {
-		lastClear = System.currentTimeMillis();
 		delegate.clear();
 	}
 
@@ -61,14 +138,46 @@ public class ScheduledCache implements Cache {
 	public ReadWriteLock getReadWriteLock() {
 		return null;
 	}
-	
-	//定时清空缓存
-	private boolean clearWhenStale() {
-		if (System.currentTimeMillis() - lastClear > clearInterval) {
-			clear();
-			return true;
+
+	//XFetch: now - loadTime * beta * ln(rand) >= expireTime 时刷新, ln(rand)小于0, 相当于把当前时间随机往后推
+	private boolean shouldRefresh(Entry entry, long now) {
+		double random = 1.0 - ThreadLocalRandom.current().nextDouble();   //(0, 1]
+		long loadTime = Math.max(entry.loader.getLoadTime(), 1);
+		return now - loadTime * refreshBeta * Math.log(random) >= entry.expireTime;
+	}
+
+	//在后台重新查询, 缓存项在这期间被删除或者替换时不放回
+	private void refresh(final CacheKey key, final Entry entry) {
+		try {
+			REFRESHER.execute(new Runnable() {
+				public void run() {
+					try {
+						//查询之前记下表的版本, 放回之后版本变了说明查询期间表被写过
+						long version = entry.loader.getVersion();
+						Object value = entry.loader.load(key);
+						if (value == null || delegate.getObject(key) != entry) {
+							return;
+						}
+						//经过整条装饰链放回缓存, 键上附加同一个加载器, 新的缓存项可以继续提前刷新
+						CacheKey refreshKey = key.clone();
+						refreshKey.setLoader(entry.loader);
+						entry.loader.getCache().putObject(refreshKey, value);
+						refreshKey.setLoader(null);
+						if (!entry.loader.register(refreshKey, version) && log.isDebugEnabled()) {
+							log.debug("Dropped stale refresh of cache " + getId() + ".");
+						}
+					} catch (Exception e) {
+						if (log.isDebugEnabled()) {
+							log.debug("Error refreshing entry of cache " + getId() + ". Cause: " + e);
+						}
+					} finally {
+						entry.refreshing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			entry.refreshing.set(false);
 		}
-		return false;
 	}
 
 	@Override
@@ -81,4 +190,20 @@ public class ScheduledCache implements Cache {
 		return delegate.equals(obj);
 	}
 
+	//带过期时间的缓存项
+	private static class Entry {
+
+		final Object value;
+		final long expireTime;
+		final transient CacheLoader loader;   //不计入缓存项的大小
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(Object value, long expireTime, CacheLoader loader) {
+			this.value = value;
+			this.expireTime = expireTime;
+			this.loader = loader;
+		}
+
+	}
+
 }
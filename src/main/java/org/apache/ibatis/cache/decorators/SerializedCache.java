@@ -1,23 +1,28 @@
 package org.apache.ibatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.RefreshingCache;
+import org.apache.ibatis.cache.impl.FastCacheSerializer;
+import org.apache.ibatis.cache.impl.JavaCacheSerializer;
 import org.apache.ibatis.io.Resources;
 
 //序列化缓存, 用途是先将对象序列化成2进制，再缓存,好处是将对象压缩了，省内存 坏处是速度慢了
-public class SerializedCache implements Cache {
+//序列化器默认是Java原生序列化, 可以用serializer属性换成FastCacheSerializer等实现
+public class SerializedCache implements ConcurrentCache, RefreshingCache {
 
 	private Cache delegate;   //缓存代表
+	private volatile CacheSerializer serializer = new JavaCacheSerializer();   //序列化器
+	private volatile int compressThreshold;   //压缩阈值, 只对FastCacheSerializer有效
 
 	//构造器
 	public SerializedCache(Cache delegate) {
@@ -34,11 +39,39 @@ public class SerializedCache implements Cache {
 		return delegate.getSize();
 	}
 
+	//设置序列化器的类名, 对应缓存配置中的serializer属性
+	public void setSerializer(String serializerClassName) {
+		try {
+			setCacheSerializer((CacheSerializer) Resources.classForName(serializerClassName).newInstance());
+		} catch (Exception e) {
+			throw new CacheException("Error creating cache serializer " + serializerClassName + ".  Cause: " + e, e);
+		}
+	}
+
+	//设置压缩阈值(字节), 对应缓存配置中的compressThreshold属性, 属性的设置顺序不确定, 两边都要应用
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+		setCacheSerializer(serializer);
+	}
+
+	//直接设置序列化器
+	public void setCacheSerializer(CacheSerializer serializer) {
+		if (serializer instanceof FastCacheSerializer && compressThreshold > 0) {
+			((FastCacheSerializer) serializer).setCompressThreshold(compressThreshold);
+		}
+		this.serializer = serializer;
+	}
+
+	//获取序列化器
+	public CacheSerializer getCacheSerializer() {
+		return serializer;
+	}
+
 	//放置对象
 	public void putObject(Object key, Object object) {
 		if (object == null || object instanceof Serializable) {
 			// 先序列化，再委托被包装者putObject
-			delegate.putObject(key, serialize((Serializable) object));
+			delegate.putObject(key, serializer.serialize(object));
 		} else {
 			throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
 		}
@@ -48,7 +81,7 @@ public class SerializedCache implements Cache {
 	public Object getObject(Object key) {
 		// 先委托被包装者getObject,再反序列化
 		Object object = delegate.getObject(key);
-		return object == null ? null : deserialize((byte[]) object);
+		return object == null ? null : serializer.deserialize((byte[]) object);
 	}
 
 	//移除对象
@@ -66,6 +99,11 @@ public class SerializedCache implements Cache {
 		return null;
 	}
 
+	//是否提前刷新, 交给被装饰的缓存判断
+	public boolean isRefreshAhead() {
+		return delegate instanceof RefreshingCache && ((RefreshingCache) delegate).isRefreshAhead();
+	}
+
 	@Override
 	public int hashCode() {
 		return delegate.hashCode();
@@ -76,34 +114,6 @@ public class SerializedCache implements Cache {
 		return delegate.equals(obj);
 	}
 
-	//序列化方法
-	private byte[] serialize(Serializable value) {
-		try {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(bos);
-			oos.writeObject(value);
-			oos.flush();
-			oos.close();
-			return bos.toByteArray();
-		} catch (Exception e) {
-			throw new CacheException("Error serializing object.  Cause: " + e, e);
-		}
-	}
-
-	//反序列化方法
-	private Serializable deserialize(byte[] value) {
-		Serializable result;
-		try {
-			ByteArrayInputStream bis = new ByteArrayInputStream(value);
-			ObjectInputStream ois = new CustomObjectInputStream(bis);
-			result = (Serializable) ois.readObject();
-			ois.close();
-		} catch (Exception e) {
-			throw new CacheException("Error deserializing object.  Cause: " + e, e);
-		}
-		return result;
-	}
-
 	//这个Custom不明白何意
 	public static class CustomObjectInputStream extends ObjectInputStream {
 
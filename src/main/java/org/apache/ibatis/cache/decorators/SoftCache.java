@@ -7,6 +7,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
 
 //软引用缓存,核心是SoftReference
 public class SoftCache implements Cache {
@@ -16,6 +17,8 @@ public class SoftCache implements Cache {
 	private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
 	private final Cache delegate;
 	private int numberOfHardLinks;
+	//统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+	private volatile CacheMetrics metrics;
 
 	public SoftCache(Cache delegate) {
 		this.delegate = delegate;
@@ -25,6 +28,11 @@ public class SoftCache implements Cache {
 		this.queueOfGarbageCollectedEntries = new ReferenceQueue<Object>();
 	}
 
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public String getId() {
 		return delegate.getId();
 	}
@@ -89,6 +97,9 @@ public class SoftCache implements Cache {
 		// 查看被垃圾回收的引用队列,然后调用removeObject移除他们
 		while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
 			delegate.removeObject(sv.key);
+			if (metrics != null) {
+				metrics.recordEviction();
+			}
 		}
 	}
 
@@ -1,8 +1,13 @@
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.ibatis.cache.BulkCache;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.RefreshingCache;
 
 /**
  * 同步缓存, 防止多线程问题 核心: 加锁 ReadWriteLock.readLock().lock()/unlock()
@@ -11,9 +16,11 @@ import org.apache.ibatis.cache.Cache;
  * 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
  * bug见https://github.com/mybatis/mybatis-3/issues/159
  */
-public class SynchronizedCache implements Cache {
+public class SynchronizedCache implements ConcurrentCache, BulkCache, RefreshingCache {
 
 	private Cache delegate;
+	//用ReentrantLock而不是synchronized, 虚拟线程在锁上等待时不会占住载体线程
+	private final ReentrantLock lock = new ReentrantLock();
 
 	public SynchronizedCache(Cache delegate) {
 		this.delegate = delegate;
@@ -23,24 +30,65 @@ public class SynchronizedCache implements Cache {
 		return delegate.getId();
 	}
 
-	public synchronized int getSize() {
-		return delegate.getSize();
+	public int getSize() {
+		lock.lock();
+		try {
+			return delegate.getSize();
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public synchronized void putObject(Object key, Object object) {
-		delegate.putObject(key, object);
+	public void putObject(Object key, Object object) {
+		lock.lock();
+		try {
+			delegate.putObject(key, object);
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public synchronized Object getObject(Object key) {
-		return delegate.getObject(key);
+	//批量放置只获取一次锁
+	public void putAll(Map<?, ?> entries) {
+		lock.lock();
+		try {
+			if (delegate instanceof BulkCache) {
+				((BulkCache) delegate).putAll(entries);
+			} else {
+				for (Map.Entry<?, ?> entry : entries.entrySet()) {
+					delegate.putObject(entry.getKey(), entry.getValue());
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public synchronized Object removeObject(Object key) {
-		return delegate.removeObject(key);
+	public Object getObject(Object key) {
+		lock.lock();
+		try {
+			return delegate.getObject(key);
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public synchronized void clear() {
-		delegate.clear();
+	public Object removeObject(Object key) {
+		lock.lock();
+		try {
+			return delegate.removeObject(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			delegate.clear();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
@@ -57,4 +105,9 @@ public class SynchronizedCache implements Cache {
 		return null;
 	}
 
+	//是否提前刷新, 交给被装饰的缓存判断
+	public boolean isRefreshAhead() {
+		return delegate instanceof RefreshingCache && ((RefreshingCache) delegate).isRefreshAhead();
+	}
+
 }
@@ -0,0 +1,465 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
+
+/**
+ * W-TinyLFU淘汰缓存
+ *
+ * 新对象先进入约占1%容量的窗口LRU, 被挤出窗口时和主区(分段LRU)中最该淘汰的对象比较访问频率,
+ * 频率高的留下, 所以一次扫描大量冷数据的查询不会把热数据冲掉。
+ * 访问频率由4位计数的Count-Min Sketch估算, 并定期减半以适应访问模式的变化。
+ * 读缓存时只把键记录到分段的读缓冲区, 不加全局锁, 由拿到锁的线程批量回放。
+ */
+public class TinyLfuCache implements ConcurrentCache {
+
+	//对象所在的区域
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	//读缓冲区每段的大小, 以及触发回放的积压数
+	private static final int READ_BUFFER_SIZE = 16;
+	private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+	private static final int READ_BUFFER_DRAIN_THRESHOLD = 4;
+	private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+	private final Cache delegate;
+	//保护淘汰策略的数据结构, 不包住对被委托缓存的访问
+	private final Lock lock = new ReentrantLock();
+	private final ReadBuffer[] readBuffers;
+	private final Map<Object, Node> nodes = new HashMap<Object, Node>();
+	private final AccessOrderDeque window = new AccessOrderDeque();
+	private final AccessOrderDeque probation = new AccessOrderDeque();
+	private final AccessOrderDeque protectedDeque = new AccessOrderDeque();
+	private FrequencySketch sketch;
+	private int maximumSize;
+	private int windowMaximum;
+	private int mainMaximum;
+	private int protectedMaximum;
+	private int mainSize;
+	//统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+	private volatile CacheMetrics metrics;
+
+	//构造器
+	public TinyLfuCache(Cache delegate) {
+		this.delegate = delegate;
+		this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+		for (int i = 0; i < readBuffers.length; i++) {
+			readBuffers[i] = new ReadBuffer();
+		}
+		setSize(1024);
+	}
+
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	//获取缓存ID
+	public String getId() {
+		return delegate.getId();
+	}
+
+	//获取缓存大小
+	public int getSize() {
+		return delegate.getSize();
+	}
+
+	//设置缓存大小, 会重新开始统计访问频率
+	public void setSize(int size) {
+		List<Object> evicted;
+		lock.lock();
+		try {
+			maximumSize = Math.max(size, 1);
+			windowMaximum = Math.max(maximumSize / 100, 1);
+			mainMaximum = maximumSize - windowMaximum;
+			protectedMaximum = mainMaximum * 4 / 5;
+			sketch = new FrequencySketch(maximumSize);
+			evicted = evict();
+		} finally {
+			lock.unlock();
+		}
+		removeEvicted(evicted);
+	}
+
+	//放置对象
+	public void putObject(Object key, Object value) {
+		delegate.putObject(key, value);
+		List<Object> evicted;
+		lock.lock();
+		try {
+			drainReadBuffers();
+			sketch.increment(key);
+			Node node = nodes.get(key);
+			if (node != null) {
+				onAccess(node);
+				return;
+			}
+			node = new Node(key);
+			nodes.put(key, node);
+			window.addLast(node);
+			evicted = evict();
+		} finally {
+			lock.unlock();
+		}
+		removeEvicted(evicted);
+	}
+
+	//获取对象, 只记录访问, 不加锁
+	public Object getObject(Object key) {
+		Object value = delegate.getObject(key);
+		if (key != null && readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1)].record(key)) {
+			tryDrainReadBuffers();
+		}
+		return value;
+	}
+
+	//删除对象
+	public Object removeObject(Object key) {
+		Object value = delegate.removeObject(key);
+		lock.lock();
+		try {
+			Node node = nodes.remove(key);
+			if (node != null) {
+				unlink(node);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return value;
+	}
+
+	//清空缓存
+	public void clear() {
+		delegate.clear();
+		lock.lock();
+		try {
+			drainReadBuffers();
+			nodes.clear();
+			window.clear();
+			probation.clear();
+			protectedDeque.clear();
+			mainSize = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//获取读写锁
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	//记录一次命中: 窗口和保护区内移到队尾, 试用区的对象晋升到保护区
+	private void onAccess(Node node) {
+		if (node.queue == WINDOW) {
+			window.moveToBack(node);
+		} else if (node.queue == PROBATION) {
+			probation.remove(node);
+			node.queue = PROTECTED;
+			protectedDeque.addLast(node);
+			//保护区超出容量时把最久未访问的降回试用区
+			while (protectedDeque.size > protectedMaximum) {
+				Node demoted = protectedDeque.pollFirst();
+				demoted.queue = PROBATION;
+				probation.addLast(demoted);
+			}
+		} else {
+			protectedDeque.moveToBack(node);
+		}
+	}
+
+	//把挤出窗口的对象交给主区, 主区已满时和主区的淘汰候选比较频率, 返回被淘汰的键
+	private List<Object> evict() {
+		List<Object> evicted = null;
+		while (window.size > windowMaximum) {
+			Node candidate = window.pollFirst();
+			candidate.queue = PROBATION;
+			probation.addLast(candidate);
+			mainSize++;
+		}
+		while (mainSize > mainMaximum) {
+			Node victim = probation.size > 0 ? probation.peekFirst() : protectedDeque.peekFirst();
+			Node candidate = probation.size > 1 ? probation.peekLast() : null;
+			//刚进入主区的对象频率不如淘汰候选时, 淘汰的是它自己
+			if (candidate != null && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+				victim = candidate;
+			}
+			unlink(victim);
+			nodes.remove(victim.key);
+			if (evicted == null) {
+				evicted = new ArrayList<Object>();
+			}
+			evicted.add(victim.key);
+		}
+		return evicted;
+	}
+
+	//从所在区域中移除
+	private void unlink(Node node) {
+		if (node.queue == WINDOW) {
+			window.remove(node);
+		} else {
+			mainSize--;
+			if (node.queue == PROBATION) {
+				probation.remove(node);
+			} else {
+				protectedDeque.remove(node);
+			}
+		}
+	}
+
+	//在锁外把被淘汰的对象从被委托的缓存中删除
+	private void removeEvicted(List<Object> evicted) {
+		if (evicted != null) {
+			for (Object key : evicted) {
+				delegate.removeObject(key);
+			}
+			if (metrics != null) {
+				metrics.recordEviction(evicted.size());
+			}
+		}
+	}
+
+	//读缓冲区积压较多时尝试回放, 锁被占用就交给持锁的线程
+	private void tryDrainReadBuffers() {
+		if (lock.tryLock()) {
+			try {
+				drainReadBuffers();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	//回放所有读缓冲区中记录的访问, 调用前需持有锁
+	private void drainReadBuffers() {
+		for (ReadBuffer buffer : readBuffers) {
+			buffer.drainTo(this);
+		}
+	}
+
+	//回放一次读访问
+	private void onRead(Object key) {
+		sketch.increment(key);
+		Node node = nodes.get(key);
+		if (node != null) {
+			onAccess(node);
+		}
+	}
+
+	private static int ceilingPowerOfTwo(int x) {
+		return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(x, 1) - 1));
+	}
+
+	//读缓冲区的一段, 多个线程写入, 只有持锁的线程读取, 写满时丢弃记录
+	private static class ReadBuffer {
+
+		private final AtomicReferenceArray<Object> buffer = new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+		private final AtomicLong writeCounter = new AtomicLong();
+		private volatile long readCounter;
+
+		//记录一次读访问, 返回是否需要回放
+		boolean record(Object key) {
+			long tail = writeCounter.get();
+			long pending = tail - readCounter;
+			if (pending >= READ_BUFFER_SIZE) {
+				return true;
+			}
+			if (writeCounter.compareAndSet(tail, tail + 1)) {
+				buffer.lazySet((int) (tail & READ_BUFFER_MASK), key);
+				return pending + 1 >= READ_BUFFER_DRAIN_THRESHOLD;
+			}
+			return false;
+		}
+
+		void drainTo(TinyLfuCache cache) {
+			long head = readCounter;
+			long tail = writeCounter.get();
+			while (head < tail) {
+				int index = (int) (head & READ_BUFFER_MASK);
+				Object key = buffer.get(index);
+				//写入者已占位但还没写入, 下次再回放
+				if (key == null) {
+					break;
+				}
+				buffer.lazySet(index, null);
+				cache.onRead(key);
+				head++;
+			}
+			readCounter = head;
+		}
+
+	}
+
+	//区域中的一个键
+	private static class Node {
+
+		final Object key;
+		int queue = WINDOW;
+		Node prev;
+		Node next;
+
+		Node(Object key) {
+			this.key = key;
+		}
+
+	}
+
+	//按访问顺序排列的双向链表, 队首最久未访问
+	private static class AccessOrderDeque {
+
+		private Node first;
+		private Node last;
+		private int size;
+
+		void addLast(Node node) {
+			node.prev = last;
+			node.next = null;
+			if (last == null) {
+				first = node;
+			} else {
+				last.next = node;
+			}
+			last = node;
+			size++;
+		}
+
+		void remove(Node node) {
+			if (node.prev == null) {
+				first = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if (node.next == null) {
+				last = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+			size--;
+		}
+
+		void moveToBack(Node node) {
+			if (node != last) {
+				remove(node);
+				addLast(node);
+			}
+		}
+
+		Node peekFirst() {
+			return first;
+		}
+
+		Node peekLast() {
+			return last;
+		}
+
+		Node pollFirst() {
+			Node node = first;
+			if (node != null) {
+				remove(node);
+			}
+			return node;
+		}
+
+		void clear() {
+			first = null;
+			last = null;
+			size = 0;
+		}
+
+	}
+
+	//4位计数的Count-Min Sketch, 每个键映射到4个计数器, 取最小值作为频率估计
+	private static class FrequencySketch {
+
+		private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+				0xcbf29ce484222325L };
+		private static final long RESET_MASK = 0x7777777777777777L;
+		private static final long ONE_MASK = 0x1111111111111111L;
+
+		private final long[] table;
+		private final int tableMask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int maximumSize) {
+			int length = ceilingPowerOfTwo(Math.max(maximumSize, 16));
+			this.table = new long[length];
+			this.tableMask = length - 1;
+			this.sampleSize = 10 * Math.max(maximumSize, 16);
+		}
+
+		int frequency(Object key) {
+			int hash = spread(key.hashCode());
+			int start = (hash & 3) << 2;
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i);
+				int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		void increment(Object key) {
+			int hash = spread(key.hashCode());
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				added |= incrementAt(indexOf(hash, i), start + i);
+			}
+			//计数达到采样数后全部减半, 让旧的热点逐渐冷却
+			if (added && ++additions == sampleSize) {
+				reset();
+			}
+		}
+
+		private boolean incrementAt(int index, int counter) {
+			int offset = counter << 2;
+			long mask = 0xfL << offset;
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << offset;
+				return true;
+			}
+			return false;
+		}
+
+		private void reset() {
+			int odd = 0;
+			for (int i = 0; i < table.length; i++) {
+				odd += Long.bitCount(table[i] & ONE_MASK);
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			}
+			additions = (additions >>> 1) - (odd >>> 2);
+		}
+
+		private int indexOf(int item, int i) {
+			long hash = (item + SEED[i]) * SEED[i];
+			hash += hash >>> 32;
+			return ((int) hash) & tableMask;
+		}
+
+		private static int spread(int x) {
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			return (x >>> 16) ^ x;
+		}
+
+	}
+
+}
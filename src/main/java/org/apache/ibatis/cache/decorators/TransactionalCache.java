@@ -1,29 +1,39 @@
 package org.apache.ibatis.cache.decorators;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
 
 //事务缓存, 一次性存入多个缓存，移除多个缓存
+//暂存用的Map在第一次用到时从池中借, 事务结束后还回去, 只读缓存的会话不分配任何Map
+//提交时所有缓存项一次批量放入被委托的缓存, 加锁的装饰者只获取一次锁
 public class TransactionalCache implements Cache {
 
+	//暂存Map池的最大数量
+	private static final int MAX_POOLED_BUFFERS = 256;
+	//用过的条目超过这个数的Map不还回池中, 避免长期占用很大的数组
+	private static final int MAX_POOLED_BUFFER_ENTRIES = 64;
+	private static final ConcurrentLinkedQueue<Map<Object, Object>> BUFFER_POOL = new ConcurrentLinkedQueue<Map<Object, Object>>();
+	private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
 	private Cache delegate;
 	// commit时要不要清缓存
 	private boolean clearOnCommit;
-	// commit时要添加的元素
+	// commit时要添加的元素, 没有时为null
 	private Map<Object, Object> entriesToAddOnCommit;
-	private Set<Object> entriesMissedInCache;
+	// 没命中的键, 键和值相同, 没有时为null
+	private Map<Object, Object> entriesMissedInCache;
 
 	public TransactionalCache(Cache delegate) {
 		this.delegate = delegate;
 		// 默认commit时不清缓存
 		this.clearOnCommit = false;
-		this.entriesToAddOnCommit = new HashMap<Object, Object>();
-		this.entriesMissedInCache = new HashSet<Object>();
 	}
 
 	public String getId() {
@@ -36,9 +46,19 @@ public class TransactionalCache implements Cache {
 
 	public Object getObject(Object key) {
 		// issue #116
-		Object object = delegate.getObject(key);
+		// 以本事务缓存的身份访问, BlockingCache按会话而不是按线程识别加载者
+		Object object;
+		Object previous = BlockingCache.setOwner(this);
+		try {
+			object = delegate.getObject(key);
+		} finally {
+			BlockingCache.restoreOwner(previous);
+		}
 		if (object == null) {
-			entriesMissedInCache.add(key);
+			if (entriesMissedInCache == null) {
+				entriesMissedInCache = borrowBuffer();
+			}
+			entriesMissedInCache.put(key, key);
 		}
 		// issue #146
 		if (clearOnCommit) {
@@ -53,6 +73,9 @@ public class TransactionalCache implements Cache {
 	}
 
 	public void putObject(Object key, Object object) {
+		if (entriesToAddOnCommit == null) {
+			entriesToAddOnCommit = borrowBuffer();
+		}
 		entriesToAddOnCommit.put(key, object);
 	}
 
@@ -62,11 +85,26 @@ public class TransactionalCache implements Cache {
 
 	public void clear() {
 		clearOnCommit = true;
-		entriesToAddOnCommit.clear();
+		if (entriesToAddOnCommit != null) {
+			entriesToAddOnCommit.clear();
+		}
+	}
+
+	// commit时是否会清空缓存
+	public boolean isClearOnCommit() {
+		return clearOnCommit;
+	}
+
+	// 是否什么都没有暂存, 这时提交和回滚都不需要做任何事
+	public boolean isEmpty() {
+		return !clearOnCommit && entriesToAddOnCommit == null && entriesMissedInCache == null;
 	}
 
 	// 多了commit方法，提供事务功能
 	public void commit() {
+		if (isEmpty()) {
+			return;
+		}
 		if (clearOnCommit) {
 			delegate.clear();
 		}
@@ -75,30 +113,94 @@ public class TransactionalCache implements Cache {
 	}
 
 	public void rollback() {
+		if (isEmpty()) {
+			return;
+		}
 		unlockMissedEntries();
 		reset();
 	}
 
 	private void reset() {
 		clearOnCommit = false;
-		entriesToAddOnCommit.clear();
-		entriesMissedInCache.clear();
+		releaseBuffer(entriesToAddOnCommit);
+		releaseBuffer(entriesMissedInCache);
+		entriesToAddOnCommit = null;
+		entriesMissedInCache = null;
 	}
 
 	private void flushPendingEntries() {
-		for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-			delegate.putObject(entry.getKey(), entry.getValue());
+		// 没命中又没有查询结果的键放入null, 和查询结果合在一起批量放入
+		Map<Object, Object> entries = entriesToAddOnCommit;
+		if (entriesMissedInCache != null) {
+			if (entries == null) {
+				entries = entriesToAddOnCommit = borrowBuffer();
+			}
+			for (Object key : entriesMissedInCache.keySet()) {
+				if (!entries.containsKey(key)) {
+					entries.put(key, null);
+				}
+			}
 		}
-		for (Object entry : entriesMissedInCache) {
-			if (!entriesToAddOnCommit.containsKey(entry)) {
-				delegate.putObject(entry, null);
+		if (entries == null) {
+			return;
+		}
+		putAll(entries);
+		// 加载器已经被需要它的缓存记下了, 键作为缓存的key长期存放, 不再引用查询参数
+		for (Object key : entries.keySet()) {
+			if (key instanceof CacheKey) {
+				((CacheKey) key).setLoader(null);
 			}
 		}
 	}
 
 	private void unlockMissedEntries() {
-		for (Object entry : entriesMissedInCache) {
-			delegate.putObject(entry, null);
+		if (entriesMissedInCache == null) {
+			return;
+		}
+		Map<Object, Object> entries = borrowBuffer();
+		for (Object key : entriesMissedInCache.keySet()) {
+			entries.put(key, null);
+		}
+		putAll(entries);
+		releaseBuffer(entries);
+	}
+
+	private void putAll(Map<Object, Object> entries) {
+		Object previous = BlockingCache.setOwner(this);
+		try {
+			if (delegate instanceof BulkCache) {
+				((BulkCache) delegate).putAll(entries);
+			} else {
+				for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+					delegate.putObject(entry.getKey(), entry.getValue());
+				}
+			}
+		} finally {
+			BlockingCache.restoreOwner(previous);
+		}
+	}
+
+	//从池中借一个空的Map
+	private static Map<Object, Object> borrowBuffer() {
+		Map<Object, Object> buffer = BUFFER_POOL.poll();
+		if (buffer == null) {
+			return new HashMap<Object, Object>();
+		}
+		pooledBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	//清空后还回池中, 池满了或者Map太大就丢掉
+	private static void releaseBuffer(Map<Object, Object> buffer) {
+		if (buffer == null) {
+			return;
+		}
+		boolean reusable = buffer.size() <= MAX_POOLED_BUFFER_ENTRIES;
+		buffer.clear();
+		if (reusable && pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			BUFFER_POOL.offer(buffer);
+		} else if (reusable) {
+			pooledBuffers.decrementAndGet();
 		}
 	}
 
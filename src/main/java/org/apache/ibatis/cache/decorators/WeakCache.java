@@ -7,6 +7,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
 
 //弱引用缓存，可以看到代码和SoftCache如出一辙，就是SoftReference变成了WeakReference
 public class WeakCache implements Cache {
@@ -14,6 +15,8 @@ public class WeakCache implements Cache {
 	private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
 	private final Cache delegate;
 	private int numberOfHardLinks;
+	//统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+	private volatile CacheMetrics metrics;
 
 	public WeakCache(Cache delegate) {
 		this.delegate = delegate;
@@ -22,6 +25,11 @@ public class WeakCache implements Cache {
 		this.queueOfGarbageCollectedEntries = new ReferenceQueue<Object>();
 	}
 
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public String getId() {
 		return delegate.getId();
 	}
@@ -77,6 +85,9 @@ public class WeakCache implements Cache {
 		WeakEntry sv;
 		while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
 			delegate.removeObject(sv.key);
+			if (metrics != null) {
+				metrics.recordEviction();
+			}
 		}
 	}
 
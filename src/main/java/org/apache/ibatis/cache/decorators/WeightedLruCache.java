@@ -0,0 +1,196 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.ObjectSizeWeigher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * 按字节数限制大小的最近最少使用缓存
+ *
+ * 每个缓存项的权重由Weigher计算, 默认按对象图估算; 和readOnly=false一起使用时缓存的是序列化后的byte[], 权重就是实际长度。
+ * 总权重超过maxBytes时淘汰最近最少使用的缓存项, 单个超过maxBytes的缓存项不缓存。
+ * 可以用size再同时限制缓存项的个数。
+ */
+public class WeightedLruCache implements ConcurrentCache {
+
+	private final Cache delegate;
+	//保护keyMap和总权重, 只在维护访问顺序时短暂持有, 不包住对被委托缓存的访问
+	private final Lock lock = new ReentrantLock();
+	//按访问顺序排列的键和权重
+	private final LinkedHashMap<Object, Long> keyMap = new LinkedHashMap<Object, Long>(16, .75F, true);
+	private volatile Weigher weigher = new ObjectSizeWeigher();
+	private volatile long maxBytes = 64L * 1024 * 1024;   //最大字节数, 默认64M
+	private volatile int size = Integer.MAX_VALUE;        //最大缓存项个数, 默认不限制
+	private long weightedSize;                            //当前总权重
+	//统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+	private volatile CacheMetrics metrics;
+
+	//构造器
+	public WeightedLruCache(Cache delegate) {
+		this.delegate = delegate;
+	}
+
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	//获取缓存ID
+	public String getId() {
+		return delegate.getId();
+	}
+
+	//获取缓存大小
+	public int getSize() {
+		return delegate.getSize();
+	}
+
+	//设置最大缓存项个数
+	public void setSize(int size) {
+		this.size = size;
+		removeEvicted(evictIfNecessary());
+	}
+
+	//设置最大字节数
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		removeEvicted(evictIfNecessary());
+	}
+
+	//获取最大字节数
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	//获取当前估算的总字节数
+	public long getWeightedSize() {
+		lock.lock();
+		try {
+			return weightedSize;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//设置权重计算器的类名, 对应缓存配置中的weigher属性
+	public void setWeigher(String weigherClassName) {
+		try {
+			this.weigher = (Weigher) Resources.classForName(weigherClassName).newInstance();
+		} catch (Exception e) {
+			throw new CacheException("Error creating cache weigher " + weigherClassName + ".  Cause: " + e, e);
+		}
+	}
+
+	//放置对象
+	public void putObject(Object key, Object value) {
+		long weight = weigher.weigh(key, value);
+		if (weight > maxBytes) {
+			//单个缓存项就超过上限时不缓存, 同时删除旧的值
+			removeObject(key);
+			return;
+		}
+		delegate.putObject(key, value);
+		List<Object> evicted;
+		lock.lock();
+		try {
+			Long previous = keyMap.put(key, weight);
+			weightedSize += weight - (previous == null ? 0 : previous);
+			evicted = evictIfNecessary();
+		} finally {
+			lock.unlock();
+		}
+		removeEvicted(evicted);
+	}
+
+	//获取对象
+	public Object getObject(Object key) {
+		// 锁被其他线程占用时跳过这次touch, 访问顺序只是近似的, 但读不会互相等待
+		if (lock.tryLock()) {
+			try {
+				keyMap.get(key); // touch
+			} finally {
+				lock.unlock();
+			}
+		}
+		return delegate.getObject(key);
+	}
+
+	//删除对象
+	public Object removeObject(Object key) {
+		Object value = delegate.removeObject(key);
+		lock.lock();
+		try {
+			Long weight = keyMap.remove(key);
+			if (weight != null) {
+				weightedSize -= weight;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return value;
+	}
+
+	//清空缓存
+	public void clear() {
+		delegate.clear();
+		lock.lock();
+		try {
+			keyMap.clear();
+			weightedSize = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//获取读写锁
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	//超出字节数或个数上限时从最久未访问的开始淘汰, 返回被淘汰的键
+	private List<Object> evictIfNecessary() {
+		List<Object> evicted = null;
+		lock.lock();
+		try {
+			Iterator<Map.Entry<Object, Long>> it = keyMap.entrySet().iterator();
+			while ((weightedSize > maxBytes || keyMap.size() > size) && it.hasNext()) {
+				Map.Entry<Object, Long> eldest = it.next();
+				it.remove();
+				weightedSize -= eldest.getValue();
+				if (evicted == null) {
+					evicted = new ArrayList<Object>();
+				}
+				evicted.add(eldest.getKey());
+			}
+		} finally {
+			lock.unlock();
+		}
+		return evicted;
+	}
+
+	//在锁外把被淘汰的对象从被委托的缓存中删除
+	private void removeEvicted(List<Object> evicted) {
+		if (evicted != null) {
+			for (Object key : evicted) {
+				delegate.removeObject(key);
+			}
+			if (metrics != null) {
+				metrics.recordEviction(evicted.size());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.apache.ibatis.cache.impl;
+
+import java.util.Arrays;
+
+/**
+ * LZ4块格式的压缩和解压
+ *
+ * 每个序列由一个标记字节开头, 高4位是字面量长度, 低4位是匹配长度减4, 等于15时后面追加若干个长度字节;
+ * 然后是字面量, 再是2字节小端的匹配偏移。最后一个序列只有字面量。
+ * 只用一个哈希表找最近的4字节匹配, 压缩比不如完整的LZ4, 但速度接近, 对重复字段名和值很多的结果集足够了。
+ */
+final class BlockCompressor {
+
+	private static final int MIN_MATCH = 4;
+	//最后5个字节总是字面量, 最后一个匹配必须在结尾12字节之前开始, 和LZ4一致
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 12;
+
+	private BlockCompressor() {
+		// Prevent Instantiation of Static Class
+	}
+
+	//压缩src[offset, offset+length), 结果前面空出headerRoom个字节, 压缩后没有变小时返回null
+	static byte[] compress(byte[] src, int offset, int length, int headerRoom) {
+		int limit = headerRoom + length;
+		byte[] dst = new byte[headerRoom + length + length / 255 + 16];
+		int[] table = new int[1 << HASH_LOG];
+		int end = offset + length;
+		int matchLimit = end - MF_LIMIT;
+		int anchor = offset;
+		int ip = offset;
+		int op = headerRoom;
+		while (ip < matchLimit) {
+			int sequence = readInt(src, ip);
+			int h = hash(sequence);
+			//表中存放位置加1, 0表示空
+			int ref = table[h] - 1;
+			table[h] = ip + 1;
+			if (ref < offset || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+				ip++;
+				continue;
+			}
+			int matchLength = MIN_MATCH;
+			while (ip + matchLength < end - LAST_LITERALS && src[ref + matchLength] == src[ip + matchLength]) {
+				matchLength++;
+			}
+			op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+			if (op >= limit) {
+				return null;
+			}
+			ip += matchLength;
+			anchor = ip;
+		}
+		op = writeLiterals(src, anchor, end - anchor, dst, op);
+		return op >= limit ? null : Arrays.copyOf(dst, op);
+	}
+
+	//解压到一个originalLength长的数组
+	static byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+		byte[] dst = new byte[originalLength];
+		int end = offset + length;
+		int ip = offset;
+		int op = 0;
+		while (ip < end) {
+			int token = src[ip++] & 0xFF;
+			int literalLength = token >>> 4;
+			if (literalLength == 15) {
+				int b;
+				do {
+					b = src[ip++] & 0xFF;
+					literalLength += b;
+				} while (b == 255);
+			}
+			System.arraycopy(src, ip, dst, op, literalLength);
+			ip += literalLength;
+			op += literalLength;
+			if (ip >= end) {
+				break;
+			}
+			int matchOffset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+			ip += 2;
+			int matchLength = (token & 0x0F) + MIN_MATCH;
+			if (matchLength == 15 + MIN_MATCH) {
+				int b;
+				do {
+					b = src[ip++] & 0xFF;
+					matchLength += b;
+				} while (b == 255);
+			}
+			int ref = op - matchOffset;
+			if (ref < 0 || matchOffset == 0) {
+				throw new IllegalStateException("Malformed compressed block at " + (ip - offset));
+			}
+			//匹配区域可能和输出重叠, 逐字节复制
+			for (int i = 0; i < matchLength; i++) {
+				dst[op++] = dst[ref++];
+			}
+		}
+		if (op != originalLength) {
+			throw new IllegalStateException("Decompressed " + op + " bytes, expected " + originalLength);
+		}
+		return dst;
+	}
+
+	//写一个字面量加匹配的序列
+	private static int writeSequence(byte[] src, int literalStart, int literalLength, int matchOffset, int matchLength,
+			byte[] dst, int op) {
+		int tokenPos = op++;
+		int matchCode = matchLength - MIN_MATCH;
+		int token = (Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15);
+		op = writeLength(literalLength, dst, op);
+		System.arraycopy(src, literalStart, dst, op, literalLength);
+		op += literalLength;
+		dst[op++] = (byte) matchOffset;
+		dst[op++] = (byte) (matchOffset >>> 8);
+		op = writeLength(matchCode, dst, op);
+		dst[tokenPos] = (byte) token;
+		return op;
+	}
+
+	//写最后一个只有字面量的序列
+	private static int writeLiterals(byte[] src, int literalStart, int literalLength, byte[] dst, int op) {
+		dst[op++] = (byte) (Math.min(literalLength, 15) << 4);
+		op = writeLength(literalLength, dst, op);
+		System.arraycopy(src, literalStart, dst, op, literalLength);
+		return op + literalLength;
+	}
+
+	//长度不小于15时追加长度字节
+	private static int writeLength(int length, byte[] dst, int op) {
+		if (length >= 15) {
+			int rest = length - 15;
+			while (rest >= 255) {
+				dst[op++] = (byte) 255;
+				rest -= 255;
+			}
+			dst[op++] = (byte) rest;
+		}
+		return op;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+				| ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+	}
+
+}
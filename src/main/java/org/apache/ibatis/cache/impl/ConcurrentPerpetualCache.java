@@ -0,0 +1,91 @@
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ConcurrentCache;
+
+//并发永久缓存, 读写都不需要加全局锁
+public class ConcurrentPerpetualCache implements ConcurrentCache {
+
+	//ConcurrentHashMap不能存放null, 用该对象代替null值
+	private static final Object NULL_VALUE = new Object();
+
+	//缓存ID
+	private final String id;
+	//缓存对象
+	private final ConcurrentMap<Object, Object> cache = new ConcurrentHashMap<Object, Object>();
+
+	//构造器
+	public ConcurrentPerpetualCache(String id) {
+		this.id = id;
+	}
+
+	//获取缓存ID
+	public String getId() {
+		return id;
+	}
+
+	//获取缓存大小
+	public int getSize() {
+		return cache.size();
+	}
+
+	//放置对象
+	public void putObject(Object key, Object value) {
+		cache.put(key, value == null ? NULL_VALUE : value);
+	}
+
+	//获取对象
+	public Object getObject(Object key) {
+		return unmask(cache.get(key));
+	}
+
+	//删除对象
+	public Object removeObject(Object key) {
+		return unmask(cache.remove(key));
+	}
+
+	//清空缓存
+	public void clear() {
+		cache.clear();
+	}
+
+	//获取读写锁
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	//还原null值
+	private Object unmask(Object value) {
+		return value == NULL_VALUE ? null : value;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (getId() == null) {
+			throw new CacheException("Cache instances require an ID.");
+		}
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Cache)) {
+			return false;
+		}
+
+		Cache otherCache = (Cache) o;
+		return getId().equals(otherCache.getId());
+	}
+
+	@Override
+	public int hashCode() {
+		if (getId() == null) {
+			throw new CacheException("Cache instances require an ID.");
+		}
+		return getId().hashCode();
+	}
+
+}
@@ -0,0 +1,207 @@
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+
+/**
+ * 快速序列化器, 兼容Java序列化的所有语义(writeObject, readResolve, transient等), 但是
+ * 1. 类描述只在第一次出现时登记到本序列化器的注册表中, 字节流中只写一个编号, 不再每次写出类名和字段表
+ * 2. 每个线程复用输出缓冲区, 不会每次序列化都从32字节开始扩容
+ * 3. 序列化结果超过compressThreshold字节时用LZ4块格式压缩, 压缩后没有变小则不压缩
+ * 类编号只在当前序列化器实例中有效, 序列化结果不能持久化, 也不能在JVM之间传递。
+ */
+public class FastCacheSerializer implements CacheSerializer {
+
+	private static final int FLAG_PLAIN = 0;
+	private static final int FLAG_COMPRESSED = 1;
+	//超过该大小的缓冲区用完后不保留, 避免每个线程长期占用一个大数组
+	private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+	//类描述注册表
+	private final ClassRegistry registry = new ClassRegistry();
+	//每个线程复用的输出缓冲区
+	private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer();
+		}
+	};
+	private volatile int compressThreshold;   //压缩阈值(字节), 0表示不压缩
+
+	//设置压缩阈值, 对应缓存配置中的compressThreshold属性
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+	}
+
+	//获取压缩阈值
+	public int getCompressThreshold() {
+		return compressThreshold;
+	}
+
+	//序列化方法
+	public byte[] serialize(Object value) {
+		Buffer buffer = buffers.get();
+		try {
+			buffer.reset();
+			buffer.write(FLAG_PLAIN);
+			ObjectOutputStream oos = new RegistryObjectOutputStream(buffer);
+			oos.writeObject(value);
+			oos.flush();
+			int length = buffer.size() - 1;
+			int threshold = compressThreshold;
+			if (threshold > 0 && length >= threshold) {
+				byte[] compressed = BlockCompressor.compress(buffer.array(), 1, length, 5);
+				if (compressed != null) {
+					compressed[0] = FLAG_COMPRESSED;
+					writeInt(compressed, 1, length);
+					return compressed;
+				}
+			}
+			return buffer.toByteArray();
+		} catch (Exception e) {
+			throw new CacheException("Error serializing object.  Cause: " + e, e);
+		} finally {
+			if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+				buffers.remove();
+			}
+		}
+	}
+
+	//反序列化方法
+	public Object deserialize(byte[] bytes) {
+		try {
+			InputStream in;
+			if (bytes[0] == FLAG_COMPRESSED) {
+				byte[] data = BlockCompressor.decompress(bytes, 5, bytes.length - 5, readInt(bytes, 1));
+				in = new ByteArrayInputStream(data);
+			} else {
+				in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+			}
+			ObjectInputStream ois = new RegistryObjectInputStream(in);
+			return ois.readObject();
+		} catch (Exception e) {
+			throw new CacheException("Error deserializing object.  Cause: " + e, e);
+		}
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+				| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+
+	//写类描述时只写注册表中的编号
+	private class RegistryObjectOutputStream extends ObjectOutputStream {
+
+		RegistryObjectOutputStream(OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+			writeInt(registry.register(desc));
+		}
+
+	}
+
+	//按编号从注册表取回类描述, 类描述就是本地的, 不需要再按类名加载类
+	private class RegistryObjectInputStream extends ObjectInputStream {
+
+		RegistryObjectInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			return registry.lookup(readInt());
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			Class<?> type = desc.forClass();
+			return type != null ? type : super.resolveClass(desc);
+		}
+
+	}
+
+	//类描述注册表, 编号只增不减
+	private static class ClassRegistry {
+
+		private final ConcurrentMap<Class<?>, Integer> ids = new ConcurrentHashMap<Class<?>, Integer>();
+		//保护登记新的类
+		private final Lock lock = new ReentrantLock();
+		private volatile ObjectStreamClass[] descriptors = new ObjectStreamClass[0];
+
+		//登记类描述, 返回编号
+		int register(ObjectStreamClass desc) {
+			Class<?> type = desc.forClass();
+			Integer id = ids.get(type);
+			if (id != null) {
+				return id;
+			}
+			lock.lock();
+			try {
+				id = ids.get(type);
+				if (id == null) {
+					ObjectStreamClass[] newDescriptors = Arrays.copyOf(descriptors, descriptors.length + 1);
+					newDescriptors[descriptors.length] = desc;
+					id = descriptors.length;
+					descriptors = newDescriptors;
+					ids.put(type, id);
+				}
+				return id;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		//按编号取回类描述
+		ObjectStreamClass lookup(int id) throws InvalidClassException {
+			ObjectStreamClass[] current = descriptors;
+			if (id < 0 || id >= current.length) {
+				throw new InvalidClassException("Unknown class descriptor id " + id);
+			}
+			return current[id];
+		}
+
+	}
+
+	//可以直接访问内部数组的输出缓冲区
+	private static class Buffer extends ByteArrayOutputStream {
+
+		Buffer() {
+			super(4096);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		int capacity() {
+			return buf.length;
+		}
+
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+//Java原生序列化, 每次都写出完整的类描述, 序列化结果不依赖于当前JVM, 可以持久化
+public class JavaCacheSerializer implements CacheSerializer {
+
+	//序列化方法
+	public byte[] serialize(Object value) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(value);
+			oos.flush();
+			oos.close();
+			return bos.toByteArray();
+		} catch (Exception e) {
+			throw new CacheException("Error serializing object.  Cause: " + e, e);
+		}
+	}
+
+	//反序列化方法
+	public Object deserialize(byte[] bytes) {
+		Object result;
+		try {
+			ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+			ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(bis);
+			result = ois.readObject();
+			ois.close();
+		} catch (Exception e) {
+			throw new CacheException("Error deserializing object.  Cause: " + e, e);
+		}
+		return result;
+	}
+
+}
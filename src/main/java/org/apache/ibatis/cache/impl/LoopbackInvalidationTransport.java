@@ -0,0 +1,62 @@
+package org.apache.ibatis.cache.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.InvalidationTransport;
+
+//同一个JVM内的缓存失效传输, 同一频道上的所有传输对象互相收发消息, 用于测试或者一个进程里有多个SqlSessionFactory的情况
+//消息在发送线程中同步投递
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+
+	//频道名到接收者列表的映射
+	private static final ConcurrentHashMap<String, List<Receiver>> CHANNELS = new ConcurrentHashMap<String, List<Receiver>>();
+
+	private final String channel;
+	private Receiver receiver;
+
+	//构造器, 使用默认频道
+	public LoopbackInvalidationTransport() {
+		this("default");
+	}
+
+	public LoopbackInvalidationTransport(String channel) {
+		this.channel = channel;
+	}
+
+	public void start(Receiver receiver) {
+		this.receiver = receiver;
+		List<Receiver> receivers = CHANNELS.get(channel);
+		if (receivers == null) {
+			List<Receiver> created = new CopyOnWriteArrayList<Receiver>();
+			receivers = CHANNELS.putIfAbsent(channel, created);
+			if (receivers == null) {
+				receivers = created;
+			}
+		}
+		receivers.add(receiver);
+	}
+
+	public void send(byte[] message) {
+		List<Receiver> receivers = CHANNELS.get(channel);
+		if (receivers == null) {
+			return;
+		}
+		for (Receiver each : receivers) {
+			each.onMessage(message);
+		}
+	}
+
+	public void close() {
+		List<Receiver> receivers = CHANNELS.get(channel);
+		if (receivers != null && receiver != null) {
+			receivers.remove(receiver);
+		}
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+}
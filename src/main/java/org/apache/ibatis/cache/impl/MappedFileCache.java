@@ -0,0 +1,595 @@
+package org.apache.ibatis.cache.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 基于内存映射文件的持久化缓存, 重启后缓存仍然是热的
+ *
+ * 分两层: 堆上的LRU层保存最近访问的序列化后的字节, 没命中时再读磁盘层。
+ * 磁盘层是追加写的日志, 由若干个固定大小的段文件组成, 每个段文件整个映射到内存, 读写都不经过系统调用。
+ * 每条记录带有CRC校验, 启动时按顺序扫描段文件重建索引, 遇到没写完的记录就停止。
+ * 总大小超过maxBytes时淘汰最旧的段文件, 清空缓存时清空所有段文件。段文件不会被删除, 而是清空后放入空闲列表,
+ * 需要新的段文件时改名为新的编号重复使用, 所以映射的内存和磁盘文件最多为maxBytes加一个段文件的大小。
+ * 段文件清空时递增版本号, 读取时用乐观读校验版本号, 正在读被清空的段文件的线程会当作没命中, 不会读到新写入的数据。
+ * 缓存项的键和值都必须可以序列化, 每次读取都返回新的对象, 相当于readOnly=false。
+ * 同一个目录不能被多个进程同时使用。
+ */
+public class MappedFileCache implements ConcurrentCache {
+
+	private static final Log log = LogFactory.getLog(MappedFileCache.class);
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	//记录头: 类型, 键长度, 值长度, CRC
+	private static final int HEADER_SIZE = 16;
+	private static final int TYPE_END = 0;
+	private static final int TYPE_PUT = 1;
+	private static final int TYPE_REMOVE = 2;
+
+	//缓存ID
+	private final String id;
+	//磁盘层的索引, 键到记录位置
+	private final ConcurrentMap<Object, Location> index = new ConcurrentHashMap<Object, Location>();
+	//段文件, 按编号从旧到新排列
+	private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+	//已清空可以重复使用的段文件, 在writeLock内访问
+	private final List<Segment> freeSegments = new ArrayList<Segment>();
+	//保护追加写和段文件的增删
+	private final Lock writeLock = new ReentrantLock();
+	private volatile File directory = new File(System.getProperty("java.io.tmpdir"), "mybatis-cache");
+	private volatile int segmentSize = 16 * 1024 * 1024;   //每个段文件的大小, 默认16M
+	private volatile long maxBytes = 256L * 1024 * 1024;   //磁盘层最大字节数, 默认256M
+	private volatile int memorySize = 1024;                //堆上一层的缓存项个数, 0表示不使用
+	private volatile Cache memory;                         //堆上的一层
+	private volatile boolean opened;
+	//段文件要在重启后读取, 只能用不依赖于当前JVM的Java原生序列化
+	private final JavaCacheSerializer serializer = new JavaCacheSerializer();
+	//统计计数器, 由CacheBuilder设置, 记录随段文件一起丢弃的缓存项
+	private volatile CacheMetrics metrics;
+
+	//构造器
+	public MappedFileCache(String id) {
+		this.id = id;
+	}
+
+	//获取缓存ID
+	public String getId() {
+		return id;
+	}
+
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	//设置存放段文件的目录
+	public void setDirectory(String directory) {
+		this.directory = new File(directory);
+	}
+
+	//获取存放段文件的目录
+	public String getDirectory() {
+		return directory.getPath();
+	}
+
+	//设置每个段文件的大小
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	//获取每个段文件的大小
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	//设置磁盘层最大字节数
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	//获取磁盘层最大字节数
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	//设置堆上一层的缓存项个数
+	public void setMemorySize(int memorySize) {
+		this.memorySize = memorySize;
+	}
+
+	//获取堆上一层的缓存项个数
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	//获取缓存大小
+	public int getSize() {
+		open();
+		return index.size();
+	}
+
+	//放置对象
+	public void putObject(Object key, Object value) {
+		open();
+		if (value == null) {
+			//TransactionalCache用null记录没命中的键, 不需要持久化
+			if (memory != null) {
+				memory.putObject(key, null);
+			}
+			removeFromDisk(key);
+			return;
+		}
+		if (!(value instanceof Serializable)) {
+			throw new CacheException("MappedFileCache failed to make a copy of a non-serializable object: " + value);
+		}
+		byte[] valueBytes = serializer.serialize(value);
+		if (memory != null) {
+			memory.putObject(key, valueBytes);
+		}
+		byte[] keyBytes = serializeKey(key);
+		if (keyBytes == null || HEADER_SIZE + keyBytes.length + valueBytes.length > segmentSize) {
+			//键中有不能序列化的参数, 或者超过段文件大小, 只保存在堆上
+			removeFromDisk(key);
+			return;
+		}
+		append(key, TYPE_PUT, keyBytes, valueBytes);
+	}
+
+	//获取对象
+	public Object getObject(Object key) {
+		open();
+		byte[] bytes = null;
+		if (memory != null) {
+			bytes = (byte[]) memory.getObject(key);
+		}
+		if (bytes == null) {
+			Location location = index.get(key);
+			if (location == null) {
+				return null;
+			}
+			bytes = location.read();
+			if (bytes == null) {
+				//段文件在读取期间被清空或淘汰了
+				return null;
+			}
+			if (memory != null) {
+				memory.putObject(key, bytes);
+			}
+		}
+		try {
+			return serializer.deserialize(bytes);
+		} catch (CacheException e) {
+			//重启后类的结构变了, 旧的缓存项读不出来了
+			if (log.isDebugEnabled()) {
+				log.debug("Discarding unreadable entry of cache " + id + ". Cause: " + e);
+			}
+			removeObject(key);
+			return null;
+		}
+	}
+
+	//删除对象
+	public Object removeObject(Object key) {
+		open();
+		if (memory != null) {
+			memory.removeObject(key);
+		}
+		removeFromDisk(key);
+		return null;
+	}
+
+	//清空缓存, 清空当前的段文件继续使用, 其他段文件清空后放入空闲列表
+	public void clear() {
+		open();
+		if (memory != null) {
+			memory.clear();
+		}
+		writeLock.lock();
+		try {
+			index.clear();
+			while (segments.size() > 1) {
+				Segment segment = segments.remove(0);
+				segment.reset();
+				freeSegments.add(segment);
+			}
+			segments.get(0).reset();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	//获取读写锁
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	//第一次使用时打开, 此时缓存属性已经设置好了
+	private void open() {
+		if (opened) {
+			return;
+		}
+		writeLock.lock();
+		try {
+			if (opened) {
+				return;
+			}
+			if (memorySize > 0) {
+				LruCache lru = new LruCache(new ConcurrentPerpetualCache(id));
+				lru.setSize(memorySize);
+				memory = lru;
+			}
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new CacheException("Could not create cache directory " + directory);
+			}
+			load();
+			opened = true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	//按编号顺序扫描已有的段文件, 重建索引
+	private void load() {
+		final String prefix = fileName(id) + ".";
+		File[] files = directory.listFiles();
+		List<Integer> numbers = new ArrayList<Integer>();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						numbers.add(Integer.valueOf(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						//不是段文件
+					}
+				}
+			}
+		}
+		Integer[] sorted = numbers.toArray(new Integer[numbers.size()]);
+		Arrays.sort(sorted);
+		for (Integer number : sorted) {
+			Segment segment = new Segment(number, segmentFile(number), -1);
+			segments.add(segment);
+			segment.scan();
+		}
+		//之前清空过的空段文件放入空闲列表, 最新的段文件保留下来继续写入
+		for (int i = segments.size() - 2; i >= 0; i--) {
+			if (segments.get(i).position == 0) {
+				freeSegments.add(segments.remove(i));
+			}
+		}
+		if (segments.isEmpty()) {
+			newSegment(0);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Loaded " + index.size() + " entries of cache " + id + " from " + segments.size() + " segments in " + directory);
+		}
+	}
+
+	//在磁盘层删除键, 键存在时追加一条删除记录, 使重启后也不会再出现
+	private void removeFromDisk(Object key) {
+		if (!index.containsKey(key)) {
+			return;
+		}
+		byte[] keyBytes = serializeKey(key);
+		if (keyBytes == null) {
+			index.remove(key);
+			return;
+		}
+		append(key, TYPE_REMOVE, keyBytes, new byte[0]);
+	}
+
+	//追加一条记录并更新索引
+	private void append(Object key, int type, byte[] keyBytes, byte[] valueBytes) {
+		int length = HEADER_SIZE + keyBytes.length + valueBytes.length;
+		writeLock.lock();
+		try {
+			Segment segment = segments.get(segments.size() - 1);
+			if (segment.position + length > segment.buffer.capacity()) {
+				int number = segment.number + 1;
+				//先淘汰, 被淘汰的段文件可以马上用作新的段文件
+				evictSegments();
+				segment = newSegment(number);
+			}
+			int offset = segment.write(type, keyBytes, valueBytes);
+			if (type == TYPE_PUT) {
+				index.put(key, new Location(segment, offset + HEADER_SIZE + keyBytes.length, valueBytes.length));
+			} else {
+				index.remove(key);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	//加上一个新的段文件就超过最大字节数时淘汰最旧的段文件, 其中的缓存项一起丢弃, 段文件清空后放入空闲列表
+	private void evictSegments() {
+		while (!segments.isEmpty() && (long) (segments.size() + 1) * segmentSize > maxBytes) {
+			Segment eldest = segments.remove(0);
+			Iterator<Map.Entry<Object, Location>> it = index.entrySet().iterator();
+			int evicted = 0;
+			while (it.hasNext()) {
+				if (it.next().getValue().segment == eldest) {
+					it.remove();
+					evicted++;
+				}
+			}
+			eldest.reset();
+			freeSegments.add(eldest);
+			if (metrics != null) {
+				metrics.recordEviction(evicted);
+			}
+		}
+	}
+
+	//新建一个段文件, 优先把空闲的段文件改名后重复使用
+	private Segment newSegment(int number) {
+		Segment segment = null;
+		while (segment == null && !freeSegments.isEmpty()) {
+			Segment free = freeSegments.remove(freeSegments.size() - 1);
+			if (free.buffer.capacity() == segmentSize && free.renumber(number, segmentFile(number))) {
+				segment = free;
+			} else {
+				//大小不同或者不能改名(例如Windows上映射中的文件), 只能删除, 映射在被回收后才释放
+				free.delete();
+			}
+		}
+		if (segment == null) {
+			segment = new Segment(number, segmentFile(number), segmentSize);
+		}
+		segments.add(segment);
+		return segment;
+	}
+
+	//段文件
+	private File segmentFile(int number) {
+		return new File(directory, fileName(id) + "." + number + SEGMENT_SUFFIX);
+	}
+
+	//缓存ID一般是命名空间, 替换掉文件名中不能使用的字符
+	private static String fileName(String id) {
+		return id.replaceAll("[^A-Za-z0-9_\\-]", "_");
+	}
+
+	//序列化键, 键中有不能序列化的参数时返回null
+	private byte[] serializeKey(Object key) {
+		if (!(key instanceof Serializable)) {
+			return null;
+		}
+		try {
+			return serializer.serialize(key);
+		} catch (CacheException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (getId() == null) {
+			throw new CacheException("Cache instances require an ID.");
+		}
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Cache)) {
+			return false;
+		}
+
+		Cache otherCache = (Cache) o;
+		return getId().equals(otherCache.getId());
+	}
+
+	@Override
+	public int hashCode() {
+		if (getId() == null) {
+			throw new CacheException("Cache instances require an ID.");
+		}
+		return getId().hashCode();
+	}
+
+	//值在段文件中的位置
+	private static class Location {
+
+		final Segment segment;
+		final int generation;   //写入时段文件的版本号
+		final int offset;
+		final int length;
+
+		Location(Segment segment, int offset, int length) {
+			this.segment = segment;
+			this.generation = segment.generation;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		//读出值的字节, 段文件已被清空时返回null, 先乐观读, 期间段文件被清空时退回读锁重读
+		byte[] read() {
+			byte[] bytes = new byte[length];
+			long stamp = segment.lock.tryOptimisticRead();
+			if (stamp != 0) {
+				if (segment.generation != generation) {
+					return null;
+				}
+				copy(bytes);
+				if (segment.lock.validate(stamp)) {
+					return bytes;
+				}
+			}
+			stamp = segment.lock.readLock();
+			try {
+				if (segment.generation != generation) {
+					return null;
+				}
+				copy(bytes);
+				return bytes;
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+
+		//把值的字节复制出来
+		private void copy(byte[] bytes) {
+			ByteBuffer buffer = segment.buffer.duplicate();
+			buffer.position(offset);
+			buffer.get(bytes);
+		}
+
+	}
+
+	//一个映射到内存的段文件
+	private class Segment {
+
+		int number;                       //编号, 重复使用时改变, 在writeLock内修改
+		File file;                        //段文件, 重复使用时改名, 在writeLock内修改
+		final MappedByteBuffer buffer;
+		int position;                     //下一条记录的写入位置, 在writeLock内修改
+		volatile int generation;          //版本号, 每次清空时递增
+		final StampedLock lock = new StampedLock();   //清空时持有写锁, 使正在进行的乐观读失效
+
+		//size小于0时按文件现有的大小映射
+		Segment(int number, File file, int size) {
+			this.number = number;
+			this.file = file;
+			RandomAccessFile raf = null;
+			try {
+				raf = new RandomAccessFile(file, "rw");
+				if (size >= 0) {
+					raf.setLength(size);
+				}
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			} catch (IOException e) {
+				throw new CacheException("Error mapping cache segment " + file + ".  Cause: " + e, e);
+			} finally {
+				if (raf != null) {
+					try {
+						//映射建立后关闭文件不影响映射
+						raf.close();
+					} catch (IOException e) {
+						//ignore
+					}
+				}
+			}
+		}
+
+		//写入一条记录, 类型最后写入, 没写完的记录在重启时会被当作结束标记
+		//记录之后先写一个结束标记, 段文件重复使用时, 重启后不会读到清空前留下的旧记录
+		int write(int type, byte[] keyBytes, byte[] valueBytes) {
+			int offset = position;
+			CRC32 crc = new CRC32();
+			crc.update(keyBytes);
+			crc.update(valueBytes);
+			ByteBuffer out = buffer.duplicate();
+			out.position(offset + 4);
+			out.putInt(keyBytes.length);
+			out.putInt(valueBytes.length);
+			out.putInt((int) crc.getValue());
+			out.put(keyBytes);
+			out.put(valueBytes);
+			if (out.position() + 4 <= out.capacity()) {
+				out.putInt(out.position(), TYPE_END);
+			}
+			out.putInt(offset, type);
+			position = out.position();
+			return offset;
+		}
+
+		//清空段文件: 开头写入结束标记, 递增版本号, 之前的位置全部失效
+		void reset() {
+			long stamp = lock.writeLock();
+			try {
+				generation++;
+				buffer.putInt(0, TYPE_END);
+				position = 0;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		//改为新的编号, 映射不受改名影响
+		boolean renumber(int newNumber, File newFile) {
+			if (!file.renameTo(newFile)) {
+				return false;
+			}
+			number = newNumber;
+			file = newFile;
+			return true;
+		}
+
+		//扫描记录重建索引, 遇到结束标记或者校验不通过的记录就停止
+		void scan() {
+			ByteBuffer in = buffer.duplicate();
+			int offset = 0;
+			while (offset + HEADER_SIZE <= in.capacity()) {
+				int type = in.getInt(offset);
+				int keyLength = in.getInt(offset + 4);
+				int valueLength = in.getInt(offset + 8);
+				int checksum = in.getInt(offset + 12);
+				if ((type != TYPE_PUT && type != TYPE_REMOVE) || keyLength <= 0 || valueLength < 0
+						|| (long) offset + HEADER_SIZE + keyLength + valueLength > in.capacity()) {
+					break;
+				}
+				byte[] keyBytes = new byte[keyLength];
+				byte[] valueBytes = new byte[valueLength];
+				in.position(offset + HEADER_SIZE);
+				in.get(keyBytes);
+				in.get(valueBytes);
+				CRC32 crc = new CRC32();
+				crc.update(keyBytes);
+				crc.update(valueBytes);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				Object key;
+				try {
+					key = serializer.deserialize(keyBytes);
+				} catch (CacheException e) {
+					key = null;
+				}
+				if (key != null) {
+					if (type == TYPE_PUT) {
+						index.put(key, new Location(this, offset + HEADER_SIZE + keyLength, valueLength));
+					} else {
+						index.remove(key);
+					}
+				}
+				offset += HEADER_SIZE + keyLength + valueLength;
+			}
+			position = offset;
+		}
+
+		//删除段文件, 正在读取的线程仍然持有映射, 不受影响
+		void delete() {
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+
+	}
+
+}
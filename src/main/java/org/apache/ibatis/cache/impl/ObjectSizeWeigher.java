@@ -0,0 +1,174 @@
+package org.apache.ibatis.cache.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * 按对象图估算缓存项占用的字节数
+ *
+ * byte[](SerializedCache缓存的序列化结果)按实际长度计算; 字符串、数字、日期等常见类型按固定开销估算;
+ * 集合和数组只抽样前若干个元素, 按平均大小乘以元素个数; 其他对象按字段递归估算, 类的字段布局会被缓存。
+ * 同一个对象在一次估算中只计算一次。
+ */
+public class ObjectSizeWeigher implements Weigher {
+
+	private static final int OBJECT_HEADER = 16;     //对象头加对齐的大约开销
+	private static final int REFERENCE = 4;          //压缩指针下一个引用的大小
+	private static final int ENTRY_OVERHEAD = 64;    //缓存键和缓存内部结构的大约开销
+	private static final int SAMPLE_SIZE = 16;       //集合抽样的元素个数
+	private static final int MAX_DEPTH = 8;          //对象图递归的最大深度
+
+	//类的字段布局缓存
+	private static final ConcurrentMap<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<Class<?>, ClassLayout>();
+
+	public long weigh(Object key, Object value) {
+		return ENTRY_OVERHEAD + estimate(value, new IdentityHashMap<Object, Object>(), 0);
+	}
+
+	//估算一个对象的大小
+	private long estimate(Object object, IdentityHashMap<Object, Object> visited, int depth) {
+		if (object == null) {
+			return 0;
+		}
+		Class<?> type = object.getClass();
+		if (type == byte[].class) {
+			return OBJECT_HEADER + ((byte[]) object).length;
+		}
+		if (type == String.class) {
+			return OBJECT_HEADER + 24 + 2L * ((String) object).length();
+		}
+		if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+			return OBJECT_HEADER + 8;
+		}
+		if (object instanceof java.util.Date || object instanceof java.time.temporal.Temporal) {
+			return OBJECT_HEADER + 16;
+		}
+		if (type.isEnum() || object instanceof Class) {
+			return 0;
+		}
+		if (depth >= MAX_DEPTH || visited.put(object, object) != null) {
+			return REFERENCE;
+		}
+		if (type.isArray()) {
+			return estimateArray(object, type.getComponentType(), visited, depth);
+		}
+		if (object instanceof Collection) {
+			Collection<?> collection = (Collection<?>) object;
+			return 48 + (long) collection.size() * (REFERENCE + 16)
+					+ estimateElements(collection.iterator(), collection.size(), visited, depth);
+		}
+		if (object instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) object;
+			long size = 64 + (long) map.size() * 32;
+			size += estimateElements(map.keySet().iterator(), map.size(), visited, depth);
+			size += estimateElements(map.values().iterator(), map.size(), visited, depth);
+			return size;
+		}
+		ClassLayout layout = layoutOf(type);
+		long size = layout.shallowSize;
+		for (Field field : layout.referenceFields) {
+			try {
+				size += estimate(field.get(object), visited, depth + 1);
+			} catch (IllegalAccessException e) {
+				size += REFERENCE;
+			}
+		}
+		return size;
+	}
+
+	//估算数组, 对象数组抽样计算元素
+	private long estimateArray(Object array, Class<?> componentType, IdentityHashMap<Object, Object> visited, int depth) {
+		int length = java.lang.reflect.Array.getLength(array);
+		if (componentType.isPrimitive()) {
+			return OBJECT_HEADER + (long) length * primitiveSize(componentType);
+		}
+		Object[] elements = (Object[]) array;
+		List<Object> list = new ArrayList<Object>(Math.min(length, SAMPLE_SIZE));
+		for (int i = 0; i < length && i < SAMPLE_SIZE; i++) {
+			list.add(elements[i]);
+		}
+		return OBJECT_HEADER + (long) length * REFERENCE + estimateElements(list.iterator(), length, visited, depth);
+	}
+
+	//抽样估算元素的总大小
+	private long estimateElements(Iterator<?> iterator, int count, IdentityHashMap<Object, Object> visited, int depth) {
+		long sampled = 0;
+		int samples = 0;
+		while (samples < SAMPLE_SIZE && iterator.hasNext()) {
+			sampled += estimate(iterator.next(), visited, depth + 1);
+			samples++;
+		}
+		if (samples == 0) {
+			return 0;
+		}
+		return samples >= count ? sampled : sampled * count / samples;
+	}
+
+	private static int primitiveSize(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		} else if (type == int.class || type == float.class) {
+			return 4;
+		} else if (type == char.class || type == short.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	//获取类的字段布局
+	private static ClassLayout layoutOf(Class<?> type) {
+		ClassLayout layout = LAYOUTS.get(type);
+		if (layout == null) {
+			layout = new ClassLayout(type);
+			LAYOUTS.putIfAbsent(type, layout);
+		}
+		return layout;
+	}
+
+	//类的字段布局: 浅大小和需要递归的引用字段
+	private static class ClassLayout {
+
+		private final long shallowSize;
+		private final Field[] referenceFields;
+
+		ClassLayout(Class<?> type) {
+			long size = OBJECT_HEADER;
+			List<Field> references = new ArrayList<Field>();
+			for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+				for (Field field : current.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					if (field.getType().isPrimitive()) {
+						size += primitiveSize(field.getType());
+						continue;
+					}
+					size += REFERENCE;
+					//JDK内部类的字段不能访问, transient字段一般引用的不是缓存的数据, 都只计引用本身
+					if (!current.getName().startsWith("java.") && !Modifier.isTransient(field.getModifiers())) {
+						try {
+							field.setAccessible(true);
+							references.add(field);
+						} catch (RuntimeException e) {
+							// ignore
+						}
+					}
+				}
+			}
+			this.shallowSize = (size + 7) & ~7L;
+			this.referenceFields = references.toArray(new Field[references.size()]);
+		}
+
+	}
+
+}
@@ -0,0 +1,552 @@
+package org.apache.ibatis.cache.impl;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * 堆外缓存, 缓存对象序列化后存放在直接内存中, 不占用堆空间, 也不增加GC的负担
+ *
+ * 直接内存按slab分配: 每个slab固定大小, 属于某一个块大小等级, 切成等长的块, 缓存项放入能容纳它的最小等级的块中。
+ * 等级从64字节开始每级增大1.25倍, 直到一个slab的大小, 超过slab大小的缓存项不缓存。
+ * 总内存达到maxBytes后不再分配新的slab, 而是用CLOCK算法在同一等级中淘汰最近没有被访问的缓存项。
+ * 所有slab大小相同, 可以在等级之间转移: 某个等级一个slab都没有, 或者已经淘汰了一整个slab的缓存项时,
+ * 从最后一个slab最冷(最近被访问的缓存项最少)的其他等级拿走一个slab, 避免先占满内存的等级让其他等级永远存不进去。
+ * 读缓存使用乐观读, 不加锁; 只有块被同时回收时才退回读锁重读。
+ * 每次读取都会反序列化出新的对象, 相当于readOnly=false。序列化器可以用serializer属性替换。
+ */
+public class OffHeapCache implements ConcurrentCache {
+
+	private static final int MIN_CHUNK_SIZE = 64;
+	private static final double GROWTH_FACTOR = 1.25;
+
+	//缓存ID
+	private final String id;
+	//堆上的索引, 键到块位置
+	private final ConcurrentMap<Object, Entry> index = new ConcurrentHashMap<Object, Entry>();
+	//已分配的直接内存字节数
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private volatile long maxBytes = 64L * 1024 * 1024;   //最大直接内存, 默认64M
+	private volatile int slabSize = 1024 * 1024;          //每个slab的大小, 默认1M
+	private volatile SlabClass[] slabClasses;             //块大小等级
+	private volatile CacheSerializer serializer = new JavaCacheSerializer();   //序列化器
+	private volatile CacheMetrics metrics;                //统计计数器, 由CacheBuilder设置, 记录淘汰的缓存项
+
+	//构造器
+	public OffHeapCache(String id) {
+		this.id = id;
+		this.slabClasses = createSlabClasses(slabSize);
+	}
+
+	//获取缓存ID
+	public String getId() {
+		return id;
+	}
+
+	//设置统计计数器
+	public void setCacheMetrics(CacheMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	//设置最大直接内存
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	//获取最大直接内存
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	//设置每个slab的大小, 会清空缓存
+	public void setSlabSize(int slabSize) {
+		clear();
+		this.slabSize = slabSize;
+		this.slabClasses = createSlabClasses(slabSize);
+		allocatedBytes.set(0);
+	}
+
+	//获取每个slab的大小
+	public int getSlabSize() {
+		return slabSize;
+	}
+
+	//设置序列化器的类名, 对应缓存配置中的serializer属性
+	public void setSerializer(String serializerClassName) {
+		try {
+			this.serializer = (CacheSerializer) Resources.classForName(serializerClassName).newInstance();
+		} catch (Exception e) {
+			throw new CacheException("Error creating cache serializer " + serializerClassName + ".  Cause: " + e, e);
+		}
+	}
+
+	//获取已分配的直接内存字节数
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	//获取缓存大小
+	public int getSize() {
+		return index.size();
+	}
+
+	//放置对象
+	public void putObject(Object key, Object value) {
+		Entry entry;
+		if (value == null) {
+			entry = new Entry(key, null, -1, 0);
+		} else {
+			if (!(value instanceof Serializable)) {
+				throw new CacheException("OffHeapCache failed to make a copy of a non-serializable object: " + value);
+			}
+			byte[] bytes = serializer.serialize(value);
+			SlabClass slabClass = slabClassFor(bytes.length);
+			if (slabClass == null) {
+				//超过slab大小的缓存项不缓存
+				removeObject(key);
+				return;
+			}
+			entry = slabClass.store(key, bytes);
+			if (entry == null) {
+				removeObject(key);
+				return;
+			}
+		}
+		Entry previous = index.put(key, entry);
+		if (previous != null) {
+			previous.release();
+		}
+	}
+
+	//获取对象
+	public Object getObject(Object key) {
+		Entry entry = index.get(key);
+		return entry == null ? null : getValue(entry);
+	}
+
+	//删除对象
+	public Object removeObject(Object key) {
+		Entry entry = index.remove(key);
+		if (entry == null) {
+			return null;
+		}
+		Object value = getValue(entry);
+		entry.release();
+		return value;
+	}
+
+	//清空缓存, 已分配的slab保留下来重复使用
+	public void clear() {
+		for (SlabClass slabClass : slabClasses) {
+			slabClass.clear();
+		}
+		//索引中剩下的都是已经释放的缓存项, 以及值为null的缓存项
+		index.clear();
+	}
+
+	//获取读写锁
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	//读取缓存项的值
+	private Object getValue(Entry entry) {
+		if (entry.slabClass == null) {
+			return null;
+		}
+		byte[] bytes = entry.slabClass.load(entry);
+		return bytes == null ? null : serializer.deserialize(bytes);
+	}
+
+	//从最后一个slab最冷的其他等级拿走一个slab交给recipient, recipient已有slab时只从比它更冷的等级拿, 返回是否转移成功
+	private boolean reassignSlabTo(SlabClass recipient) {
+		SlabClass donor = null;
+		int coldest = Integer.MAX_VALUE;
+		for (SlabClass slabClass : slabClasses) {
+			if (slabClass == recipient) {
+				continue;
+			}
+			int heat = slabClass.lastSlabHeat();
+			if (heat >= 0 && heat < coldest) {
+				coldest = heat;
+				donor = slabClass;
+			}
+		}
+		if (donor == null) {
+			return false;
+		}
+		int recipientHeat = recipient.lastSlabHeat();
+		if (recipientHeat >= 0 && coldest >= recipientHeat) {
+			return false;
+		}
+		List<Entry> evicted = new ArrayList<Entry>();
+		ByteBuffer slab = donor.releaseLastSlab(evicted);
+		if (slab == null) {
+			return false;
+		}
+		removeEvicted(evicted);
+		recipient.adoptSlab(slab);
+		return true;
+	}
+
+	//在锁外把被淘汰的缓存项从索引中删除, 索引已指向新值时不删除
+	private void removeEvicted(List<Entry> evicted) {
+		if (evicted == null) {
+			return;
+		}
+		for (Entry victim : evicted) {
+			if (index.remove(victim.key, victim) && metrics != null) {
+				metrics.recordEviction();
+			}
+		}
+	}
+
+	//找到能容纳该长度的最小等级
+	private SlabClass slabClassFor(int length) {
+		for (SlabClass slabClass : slabClasses) {
+			if (length <= slabClass.chunkSize) {
+				return slabClass;
+			}
+		}
+		return null;
+	}
+
+	//创建块大小等级
+	private SlabClass[] createSlabClasses(int slabSize) {
+		List<SlabClass> classes = new ArrayList<SlabClass>();
+		int chunkSize = MIN_CHUNK_SIZE;
+		while (chunkSize < slabSize) {
+			classes.add(new SlabClass(chunkSize, slabSize / chunkSize));
+			//块大小按8字节对齐
+			chunkSize = (int) Math.max(chunkSize + 8, ((long) (chunkSize * GROWTH_FACTOR) + 7) & ~7L);
+		}
+		classes.add(new SlabClass(slabSize, 1));
+		return classes.toArray(new SlabClass[classes.size()]);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (getId() == null) {
+			throw new CacheException("Cache instances require an ID.");
+		}
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Cache)) {
+			return false;
+		}
+
+		Cache otherCache = (Cache) o;
+		return getId().equals(otherCache.getId());
+	}
+
+	@Override
+	public int hashCode() {
+		if (getId() == null) {
+			throw new CacheException("Cache instances require an ID.");
+		}
+		return getId().hashCode();
+	}
+
+	//缓存项在直接内存中的位置
+	private static class Entry {
+
+		final Object key;
+		final SlabClass slabClass;   //所在等级, 值为null时为null
+		final int slot;              //等级内的块序号
+		final int length;            //序列化后的长度
+		boolean released;            //是否已释放, 在等级的写锁内修改
+		volatile boolean referenced; //最近是否被访问过, 供CLOCK淘汰使用
+
+		Entry(Object key, SlabClass slabClass, int slot, int length) {
+			this.key = key;
+			this.slabClass = slabClass;
+			this.slot = slot;
+			this.length = length;
+		}
+
+		//释放所占的块
+		void release() {
+			if (slabClass != null) {
+				slabClass.free(this);
+			}
+		}
+
+	}
+
+	//一个块大小等级, 拥有若干个slab
+	private class SlabClass {
+
+		final int chunkSize;              //块大小
+		final int chunksPerSlab;          //每个slab的块数
+		//保护块的分配和回收, 读取使用乐观读
+		final StampedLock lock = new StampedLock();
+		volatile ByteBuffer[] slabs = new ByteBuffer[0];
+		int evictionsSinceReassign;       //上次转移slab之后在本等级内淘汰的缓存项数
+		Entry[] slots = new Entry[0];     //每个块上存放的缓存项
+		int[] freeSlots = new int[0];     //空闲块的栈
+		int freeCount;
+		int clockHand;                    //CLOCK淘汰的指针
+
+		SlabClass(int chunkSize, int chunksPerSlab) {
+			this.chunkSize = chunkSize;
+			this.chunksPerSlab = chunksPerSlab;
+		}
+
+		//把序列化后的值写入一个块, 没有可用的块时返回null
+		Entry store(Object key, byte[] bytes) {
+			boolean triedReassign = false;
+			while (true) {
+				List<Entry> evicted = null;
+				Entry entry = null;
+				boolean reassign = false;
+				long stamp = lock.writeLock();
+				try {
+					if (freeCount == 0 && !grow()) {
+						//一个slab都没有, 或者已经在本等级内淘汰了一整个slab的缓存项, 先尝试从其他等级拿一个slab
+						if (!triedReassign && (slabs.length == 0 || evictionsSinceReassign >= chunksPerSlab)) {
+							//不管能否转移成功都重新计数, 避免每次写入都去比较其他等级
+							evictionsSinceReassign = 0;
+							reassign = true;
+						} else {
+							Entry victim = evictOne();
+							if (victim == null) {
+								return null;
+							}
+							evictionsSinceReassign++;
+							evicted = new ArrayList<Entry>(1);
+							evicted.add(victim);
+						}
+					}
+					if (!reassign) {
+						int slot = freeSlots[--freeCount];
+						ByteBuffer buffer = slabs[slot / chunksPerSlab].duplicate();
+						buffer.position((slot % chunksPerSlab) * chunkSize);
+						buffer.put(bytes);
+						entry = new Entry(key, this, slot, bytes.length);
+						slots[slot] = entry;
+					}
+				} finally {
+					lock.unlockWrite(stamp);
+				}
+				if (reassign) {
+					//在本等级的锁外进行, 避免两个等级互相等待对方的锁
+					triedReassign = true;
+					reassignSlabTo(this);
+					continue;
+				}
+				removeEvicted(evicted);
+				return entry;
+			}
+		}
+
+		//读取一个缓存项的值, 缓存项已被释放时返回null
+		byte[] load(Entry entry) {
+			byte[] bytes = new byte[entry.length];
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					boolean released = entry.released;
+					copy(entry, bytes);
+					if (lock.validate(stamp)) {
+						entry.referenced = true;
+						return released ? null : bytes;
+					}
+				} catch (RuntimeException e) {
+					//乐观读期间块被回收, 读到的位置可能不一致, 退回读锁重读
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				if (entry.released) {
+					return null;
+				}
+				copy(entry, bytes);
+				entry.referenced = true;
+				return bytes;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		//释放一个缓存项所占的块
+		void free(Entry entry) {
+			long stamp = lock.writeLock();
+			try {
+				if (!entry.released) {
+					entry.released = true;
+					slots[entry.slot] = null;
+					freeSlots[freeCount++] = entry.slot;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		//释放所有块
+		void clear() {
+			long stamp = lock.writeLock();
+			try {
+				freeCount = 0;
+				for (int slot = 0; slot < slots.length; slot++) {
+					if (slots[slot] != null) {
+						slots[slot].released = true;
+						slots[slot] = null;
+					}
+					freeSlots[freeCount++] = slot;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		//在总内存允许时分配一个新的slab
+		private boolean grow() {
+			long allocated;
+			do {
+				allocated = allocatedBytes.get();
+				if (allocated + slabSize > maxBytes) {
+					return false;
+				}
+			} while (!allocatedBytes.compareAndSet(allocated, allocated + slabSize));
+			addSlab(ByteBuffer.allocateDirect(slabSize));
+			return true;
+		}
+
+		//把一个slab切成本等级的块加入空闲栈, 调用时持有写锁
+		private void addSlab(ByteBuffer slab) {
+			ByteBuffer[] newSlabs = new ByteBuffer[slabs.length + 1];
+			System.arraycopy(slabs, 0, newSlabs, 0, slabs.length);
+			newSlabs[slabs.length] = slab;
+			int oldSlots = slots.length;
+			Entry[] newSlots = new Entry[oldSlots + chunksPerSlab];
+			System.arraycopy(slots, 0, newSlots, 0, oldSlots);
+			int[] newFreeSlots = new int[newSlots.length];
+			System.arraycopy(freeSlots, 0, newFreeSlots, 0, freeCount);
+			//倒序压栈, 先使用序号小的块
+			for (int slot = newSlots.length - 1; slot >= oldSlots; slot--) {
+				newFreeSlots[freeCount++] = slot;
+			}
+			slots = newSlots;
+			freeSlots = newFreeSlots;
+			slabs = newSlabs;
+		}
+
+		//接收其他等级转移过来的slab
+		void adoptSlab(ByteBuffer slab) {
+			long stamp = lock.writeLock();
+			try {
+				slab.clear();
+				addSlab(slab);
+				evictionsSinceReassign = 0;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		//最后一个slab的冷热程度: 最近被访问过的块数, 没有slab时返回-1
+		int lastSlabHeat() {
+			long stamp = lock.readLock();
+			try {
+				if (slabs.length == 0) {
+					return -1;
+				}
+				int heat = 0;
+				for (int slot = slots.length - chunksPerSlab; slot < slots.length; slot++) {
+					Entry entry = slots[slot];
+					if (entry != null && entry.referenced) {
+						heat++;
+					}
+				}
+				return heat;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		//交出最后一个slab, 其中的缓存项全部淘汰, 被淘汰的缓存项加入evicted, 没有slab时返回null
+		ByteBuffer releaseLastSlab(List<Entry> evicted) {
+			long stamp = lock.writeLock();
+			try {
+				if (slabs.length == 0) {
+					return null;
+				}
+				int first = slots.length - chunksPerSlab;
+				for (int slot = first; slot < slots.length; slot++) {
+					Entry entry = slots[slot];
+					if (entry != null) {
+						entry.released = true;
+						evicted.add(entry);
+					}
+				}
+				//空闲栈中去掉被交出的块
+				int[] newFreeSlots = new int[first];
+				int newFreeCount = 0;
+				for (int i = 0; i < freeCount; i++) {
+					if (freeSlots[i] < first) {
+						newFreeSlots[newFreeCount++] = freeSlots[i];
+					}
+				}
+				ByteBuffer slab = slabs[slabs.length - 1];
+				ByteBuffer[] newSlabs = new ByteBuffer[slabs.length - 1];
+				System.arraycopy(slabs, 0, newSlabs, 0, newSlabs.length);
+				Entry[] newSlots = new Entry[first];
+				System.arraycopy(slots, 0, newSlots, 0, first);
+				slots = newSlots;
+				freeSlots = newFreeSlots;
+				freeCount = newFreeCount;
+				clockHand = first == 0 ? 0 : clockHand % first;
+				slabs = newSlabs;
+				return slab;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		//用CLOCK算法淘汰一个最近没有被访问的缓存项, 并把它的块放回空闲栈
+		private Entry evictOne() {
+			if (slots.length == 0) {
+				return null;
+			}
+			for (int i = 0; i < slots.length * 2; i++) {
+				int slot = clockHand;
+				clockHand = (clockHand + 1) % slots.length;
+				Entry candidate = slots[slot];
+				if (candidate == null) {
+					continue;
+				}
+				if (candidate.referenced) {
+					candidate.referenced = false;
+					continue;
+				}
+				candidate.released = true;
+				slots[slot] = null;
+				freeSlots[freeCount++] = slot;
+				return candidate;
+			}
+			return null;
+		}
+
+		//把块中的内容复制出来
+		private void copy(Entry entry, byte[] bytes) {
+			ByteBuffer buffer = slabs[entry.slot / chunksPerSlab].duplicate();
+			buffer.position((entry.slot % chunksPerSlab) * chunkSize);
+			buffer.get(bytes);
+		}
+
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.apache.ibatis.cursor;
+
+import java.io.Closeable;
+
+/**
+ * 游标, 按需逐行从打开的ResultSet中映射结果对象, 用于处理数据量很大, 不能一次放进内存的查询
+ *
+ * 游标依赖会话的数据库连接, 必须在会话关闭之前遍历, 只能遍历一次。
+ * 遍历完成后自动关闭, 提前结束时要调用close, 会话关闭时也会关闭它打开的游标。
+ * 使用嵌套结果映射时语句必须设置resultOrdered=true, 这样每个结果对象都是连续的行, 内存占用和结果数量无关。
+ */
+public interface Cursor<T> extends Closeable, Iterable<T> {
+
+	//是否已经开始读取数据, 还没有关闭
+	boolean isOpen();
+
+	//是否已经读完了所有结果
+	boolean isConsumed();
+
+	//当前结果的序号, 从0开始, 包括按RowBounds跳过的结果, 还没有读取时返回-1
+	int getCurrentIndex();
+
+}
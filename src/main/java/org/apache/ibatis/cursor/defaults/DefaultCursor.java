@@ -0,0 +1,190 @@
+package org.apache.ibatis.cursor.defaults;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetWrapper;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+//默认游标, 每次取下一个对象时让结果集处理器映射一个结果后停下, ResultSet一直保持打开
+//分页参数由游标自己处理: 跳过前offset个结果, 取满limit个后关闭
+public class DefaultCursor<T> implements Cursor<T> {
+
+	private final DefaultResultSetHandler resultSetHandler;
+	private final ResultMap resultMap;
+	private final ResultSetWrapper rsw;    //为null表示语句没有返回结果集
+	private final RowBounds rowBounds;
+	private final ObjectWrapperResultHandler<T> objectWrapperResultHandler = new ObjectWrapperResultHandler<T>();
+	private final CursorIterator cursorIterator = new CursorIterator();
+	private boolean iteratorRetrieved;
+
+	private CursorStatus status = CursorStatus.CREATED;
+	private int indexWithRowBound = -1;    //包括被跳过的结果在内, 已经读到的结果的序号
+
+	private enum CursorStatus {
+		CREATED,    //还没有读取
+		OPEN,       //正在读取
+		CLOSED,     //没有读完就关闭了
+		CONSUMED    //读完了所有结果
+	}
+
+	public DefaultCursor(DefaultResultSetHandler resultSetHandler, ResultMap resultMap, ResultSetWrapper rsw,
+			RowBounds rowBounds) {
+		this.resultSetHandler = resultSetHandler;
+		this.resultMap = resultMap;
+		this.rsw = rsw;
+		this.rowBounds = rowBounds;
+	}
+
+	public boolean isOpen() {
+		return status == CursorStatus.OPEN;
+	}
+
+	public boolean isConsumed() {
+		return status == CursorStatus.CONSUMED;
+	}
+
+	public int getCurrentIndex() {
+		return cursorIterator.iteratorIndex < 0 ? -1 : rowBounds.getOffset() + cursorIterator.iteratorIndex;
+	}
+
+	//游标只能遍历一次
+	public Iterator<T> iterator() {
+		if (iteratorRetrieved) {
+			throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+		}
+		if (isClosed()) {
+			throw new IllegalStateException("A Cursor is already closed.");
+		}
+		iteratorRetrieved = true;
+		return cursorIterator;
+	}
+
+	//关闭ResultSet, 语句在ResultSet关闭后由执行器设置的closeOnCompletion关闭
+	public void close() {
+		if (isClosed()) {
+			return;
+		}
+		status = CursorStatus.CLOSED;
+		if (rsw != null) {
+			ResultSet rs = rsw.getResultSet();
+			try {
+				if (rs != null) {
+					rs.close();
+				}
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+	}
+
+	private boolean isClosed() {
+		return status == CursorStatus.CLOSED || status == CursorStatus.CONSUMED;
+	}
+
+	//跳过offset之前的结果
+	private boolean fetchNextUsingRowBound() {
+		boolean fetched = fetchNextObjectFromDatabase();
+		while (fetched && indexWithRowBound < rowBounds.getOffset()) {
+			fetched = fetchNextObjectFromDatabase();
+		}
+		return fetched;
+	}
+
+	//从ResultSet中映射下一个结果, 没有更多结果时返回false并关闭游标
+	private boolean fetchNextObjectFromDatabase() {
+		if (isClosed()) {
+			return false;
+		}
+		if (rsw == null) {
+			close();
+			status = CursorStatus.CONSUMED;
+			return false;
+		}
+		status = CursorStatus.OPEN;
+		//丢掉被跳过的上一个结果
+		objectWrapperResultHandler.take();
+		try {
+			ErrorContext.instance().activity("fetching from cursor").object(resultMap.getId());
+			resultSetHandler.handleRowValues(rsw, resultMap, objectWrapperResultHandler, RowBounds.DEFAULT, null);
+		} catch (Exception e) {
+			close();
+			throw ExceptionFactory.wrapException("Error fetching next object from cursor.  Cause: " + e, e);
+		} finally {
+			ErrorContext.instance().reset();
+		}
+		boolean fetched = objectWrapperResultHandler.fetched;
+		if (fetched) {
+			indexWithRowBound++;
+		}
+		if (!fetched || (long) indexWithRowBound + 1 >= (long) rowBounds.getOffset() + rowBounds.getLimit()) {
+			close();
+			status = CursorStatus.CONSUMED;
+		}
+		return fetched;
+	}
+
+	//接收一个结果后让结果集处理器停下
+	private static class ObjectWrapperResultHandler<T> implements ResultHandler {
+
+		private T result;
+		private boolean fetched;
+
+		@SuppressWarnings("unchecked")
+		public void handleResult(ResultContext context) {
+			this.result = (T) context.getResultObject();
+			this.fetched = true;
+			context.stop();
+		}
+
+		//取走结果, 准备接收下一个
+		T take() {
+			T next = result;
+			result = null;
+			fetched = false;
+			return next;
+		}
+
+	}
+
+	private class CursorIterator implements Iterator<T> {
+
+		private boolean hasFetched;    //是否已经取出了下一个结果还没有返回
+		private T object;
+		private int iteratorIndex = -1;
+
+		public boolean hasNext() {
+			if (!hasFetched) {
+				hasFetched = fetchNextUsingRowBound();
+				object = hasFetched ? objectWrapperResultHandler.take() : null;
+			}
+			return hasFetched;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T next = object;
+			object = null;
+			hasFetched = false;
+			iteratorIndex++;
+			return next;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("Cannot remove element from Cursor");
+		}
+
+	}
+
+}
@@ -0,0 +1,203 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//无锁连接容器, 借出和归还都通过CAS修改连接状态, 不需要对整个连接池加锁
+class ConnectionBag {
+
+	//线程本地缓存的最大连接数
+	private static final int THREAD_LOCAL_LIMIT = 16;
+
+	//所有连接(包括借出和空闲的)
+	private final CopyOnWriteArrayList<PooledConnection> sharedList = new CopyOnWriteArrayList<PooledConnection>();
+	//线程本地最近归还的连接, 同一线程再次借用时优先命中
+	private final ThreadLocal<List<WeakReference<PooledConnection>>> threadList = new ThreadLocal<List<WeakReference<PooledConnection>>>() {
+		@Override
+		protected List<WeakReference<PooledConnection>> initialValue() {
+			return new ArrayList<WeakReference<PooledConnection>>(THREAD_LOCAL_LIMIT);
+		}
+	};
+	//公平的移交队列, 归还的连接直接交给等待最久的线程
+	private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+	//正在等待的线程数
+	private final AtomicInteger waiters = new AtomicInteger();
+	//连接总数(包括正在创建的)
+	private final AtomicInteger totalConnections = new AtomicInteger();
+
+	//借出一个空闲连接, 超时时间小于等于0表示不等待
+	public PooledConnection borrow(long timeout, TimeUnit unit) throws InterruptedException {
+		//先从线程本地缓存中找
+		List<WeakReference<PooledConnection>> list = threadList.get();
+		for (int i = list.size() - 1; i >= 0; i--) {
+			PooledConnection conn = list.remove(i).get();
+			if (conn != null && conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+				return conn;
+			}
+		}
+		//再扫描共享列表
+		PooledConnection conn = scan();
+		if (conn != null || timeout <= 0) {
+			return conn;
+		}
+		//先登记等待者再扫描一遍, 防止在两次扫描之间归还的连接被错过
+		waiters.incrementAndGet();
+		try {
+			conn = scan();
+			if (conn != null) {
+				return conn;
+			}
+			long remaining = unit.toNanos(timeout);
+			while (remaining > 0) {
+				long start = System.nanoTime();
+				conn = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+				if (conn == null) {
+					return null;
+				}
+				if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+					return conn;
+				}
+				remaining -= System.nanoTime() - start;
+			}
+			return null;
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	//归还一个已预留的连接, 若有线程在等待则直接移交
+	public boolean requite(PooledConnection conn) {
+		if (!conn.compareAndSetState(PooledConnection.STATE_RESERVED, PooledConnection.STATE_NOT_IN_USE)) {
+			return false;
+		}
+		handoff(conn);
+		List<WeakReference<PooledConnection>> list = threadList.get();
+		if (list.size() < THREAD_LOCAL_LIMIT) {
+			list.add(new WeakReference<PooledConnection>(conn));
+		}
+		return true;
+	}
+
+	//添加一个连接, 调用前需先通过reserveSlot预占位置
+	public void add(PooledConnection conn) {
+		sharedList.add(conn);
+		handoff(conn);
+	}
+
+	//移除一个连接, 只有借出中或已预留的连接才能被移除
+	public boolean remove(PooledConnection conn) {
+		if (!conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)
+				&& !conn.compareAndSetState(PooledConnection.STATE_RESERVED, PooledConnection.STATE_REMOVED)) {
+			return false;
+		}
+		if (sharedList.remove(conn)) {
+			totalConnections.decrementAndGet();
+		}
+		return true;
+	}
+
+	//强制移除一个连接, 不管其当前状态
+	public void forceRemove(PooledConnection conn) {
+		conn.setState(PooledConnection.STATE_REMOVED);
+		if (sharedList.remove(conn)) {
+			totalConnections.decrementAndGet();
+		}
+	}
+
+	//预留一个空闲连接, 预留后不会被借出
+	public boolean reserve(PooledConnection conn) {
+		return conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_RESERVED);
+	}
+
+	//取消预留
+	public void unreserve(PooledConnection conn) {
+		if (conn.compareAndSetState(PooledConnection.STATE_RESERVED, PooledConnection.STATE_NOT_IN_USE)) {
+			handoff(conn);
+		}
+	}
+
+	//在连接总数未达到上限时预占一个位置, 用于新建连接
+	public boolean reserveSlot(int maximum) {
+		for (;;) {
+			int total = totalConnections.get();
+			if (total >= maximum) {
+				return false;
+			}
+			if (totalConnections.compareAndSet(total, total + 1)) {
+				return true;
+			}
+		}
+	}
+
+	//释放预占的位置
+	public void releaseSlot() {
+		totalConnections.decrementAndGet();
+	}
+
+	//获取某个状态的连接列表
+	public List<PooledConnection> values(int state) {
+		List<PooledConnection> result = new ArrayList<PooledConnection>();
+		for (PooledConnection conn : sharedList) {
+			if (conn.getState() == state) {
+				result.add(conn);
+			}
+		}
+		return result;
+	}
+
+	//获取所有连接
+	public List<PooledConnection> values() {
+		return new ArrayList<PooledConnection>(sharedList);
+	}
+
+	//获取某个状态的连接数
+	public int getCount(int state) {
+		int count = 0;
+		for (PooledConnection conn : sharedList) {
+			if (conn.getState() == state) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	//获取连接总数
+	public int size() {
+		return totalConnections.get();
+	}
+
+	//获取等待者数量
+	public int getWaitingThreadCount() {
+		return waiters.get();
+	}
+
+	//扫描共享列表, CAS抢占第一个空闲连接
+	private PooledConnection scan() {
+		for (PooledConnection conn : sharedList) {
+			if (conn.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+				return conn;
+			}
+		}
+		return null;
+	}
+
+	//有等待者时尝试把连接移交出去, 直到连接被别人拿走或没有等待者
+	private void handoff(PooledConnection conn) {
+		for (int i = 0; waiters.get() > 0; i++) {
+			if (conn.getState() != PooledConnection.STATE_NOT_IN_USE || handoffQueue.offer(conn)) {
+				return;
+			} else if ((i & 0xff) == 0xff) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+}
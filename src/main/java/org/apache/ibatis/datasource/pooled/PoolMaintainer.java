@@ -0,0 +1,185 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+//连接池后台维护者, 负责预热最小空闲连接、淘汰超过最大生存时间的连接、侦测空闲连接并异步补充, 以及检测连接泄漏
+class PoolMaintainer implements Runnable {
+
+	private static final Log log = LogFactory.getLog(PoolMaintainer.class);
+	private static final AtomicInteger THREAD_SEQUENCE = new AtomicInteger();
+
+	private final PooledDataSource dataSource;                   //池化数据源
+	private final AtomicBoolean refillPending = new AtomicBoolean(); //是否已有待执行的补充任务
+	private volatile ScheduledExecutorService scheduler;         //调度器
+	private volatile ThreadPoolExecutor validator;               //并行侦测空闲连接的线程池
+
+	//构造器
+	public PoolMaintainer(PooledDataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	//启动后台维护, 第一次执行即为预热
+	public synchronized void start(long interval) {
+		if (scheduler != null) {
+			return;
+		}
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PooledDataSource-maintainer-" + THREAD_SEQUENCE.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		int parallelism = Math.max(1, dataSource.poolValidationParallelism);
+		ThreadPoolExecutor validationExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "PooledDataSource-validator-" + THREAD_SEQUENCE.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		//空闲的侦测线程超时后退出, 不侦测时不占用线程
+		validationExecutor.allowCoreThreadTimeOut(true);
+		validator = validationExecutor;
+		executor.scheduleWithFixedDelay(this, 0, interval, TimeUnit.MILLISECONDS);
+		scheduler = executor;
+		if (log.isDebugEnabled()) {
+			log.debug("Started pool maintenance every " + interval + " milliseconds.");
+		}
+	}
+
+	//停止后台维护
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		if (validator != null) {
+			validator.shutdownNow();
+			validator = null;
+		}
+	}
+
+	//调整并行侦测的线程数
+	public synchronized void setValidationParallelism(int parallelism) {
+		if (validator == null) {
+			return;
+		}
+		int size = Math.max(1, parallelism);
+		//先调整较大的一侧, 保证核心线程数不超过最大线程数
+		if (size > validator.getMaximumPoolSize()) {
+			validator.setMaximumPoolSize(size);
+			validator.setCorePoolSize(size);
+		} else {
+			validator.setCorePoolSize(size);
+			validator.setMaximumPoolSize(size);
+		}
+	}
+
+	//并行侦测一批连接, 返回每个连接是否有效, 被中断而没有结果的为null
+	public Boolean[] validate(List<PooledConnection> connections) {
+		Boolean[] results = new Boolean[connections.size()];
+		ThreadPoolExecutor executor = validator;
+		if (executor == null || connections.size() == 1) {
+			//后台维护未启动或只有一个连接时直接在当前线程侦测
+			for (int i = 0; i < results.length; i++) {
+				results[i] = connections.get(i).isValid();
+			}
+			return results;
+		}
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(connections.size());
+		try {
+			for (final PooledConnection conn : connections) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						return conn.isValid();
+					}
+				}));
+			}
+		} catch (Exception e) {
+			//侦测线程池已关闭, 剩下的连接在当前线程侦测
+			for (int i = futures.size(); i < results.length; i++) {
+				results[i] = connections.get(i).isValid();
+			}
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				results[i] = futures.get(i).get();
+			} catch (ExecutionException e) {
+				results[i] = Boolean.FALSE;
+			} catch (InterruptedException e) {
+				//维护被停止, 等待中的侦测结果不再需要
+				Thread.currentThread().interrupt();
+				for (Future<Boolean> future : futures) {
+					future.cancel(false);
+				}
+				break;
+			}
+		}
+		return results;
+	}
+
+	//是否已启动
+	public boolean isRunning() {
+		return scheduler != null;
+	}
+
+	//请求尽快补充连接, 不阻塞调用线程
+	public void triggerRefill() {
+		ScheduledExecutorService executor = scheduler;
+		if (executor == null || !refillPending.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					refillPending.set(false);
+					dataSource.refill();
+				}
+			});
+		} catch (Exception e) {
+			refillPending.set(false);
+		}
+	}
+
+	//请求尽快执行一次完整维护, 不阻塞调用线程
+	public void triggerMaintenance() {
+		ScheduledExecutorService executor = scheduler;
+		if (executor == null) {
+			return;
+		}
+		try {
+			executor.execute(this);
+		} catch (Exception e) {
+			// ignore
+		}
+	}
+
+	//执行一次维护
+	public void run() {
+		try {
+			dataSource.maintain();
+		} catch (Throwable t) {
+			//维护线程不能因为异常而退出
+			log.warn("Pool maintenance failed: " + t.getMessage());
+		}
+	}
+
+}
@@ -2,6 +2,9 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 //连接池状态
 public class PoolState {
@@ -13,63 +16,136 @@ public class PoolState {
 	//活动连接列表
 	protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
 	
-	protected long requestCount = 0;                                    //请求次数
-	protected long accumulatedRequestTime = 0;                          //总请求时间
-	protected long accumulatedCheckoutTime = 0;                         //总请求次数
-	protected long claimedOverdueConnectionCount = 0;                   //过期连接数
-	protected long accumulatedCheckoutTimeOfOverdueConnections = 0;     //过期连接的总的请求次数
-	protected long accumulatedWaitTime = 0;                             //总等待时间
-	protected long hadToWaitCount = 0;                                  //要等待的次数
-	protected long badConnectionCount = 0;                              //坏的连接次数
+	//无锁模式下的连接容器
+	protected final ConnectionBag bag = new ConnectionBag();
+
+	//保护空闲和活动连接列表的锁, 用显式锁代替对象监视器, 虚拟线程在等待连接时可以让出载体线程
+	protected final ReentrantLock lock = new ReentrantLock();
+	//有连接归还或者连接池变大时发出信号
+	protected final Condition available = lock.newCondition();
+	//锁外正在新建、侦测或归还的连接数, 受lock保护, 计入活动连接的上限
+	protected int pendingConnectionCount;
+
+	//统计计数器使用分段累加器, 多核下不会互相争用
+	protected final LongAdder requestCount = new LongAdder();                                //请求次数
+	protected final LongAdder accumulatedRequestTime = new LongAdder();                      //总请求时间
+	protected final LongAdder accumulatedCheckoutTime = new LongAdder();                     //总请求次数
+	protected final LongAdder claimedOverdueConnectionCount = new LongAdder();               //过期连接数
+	protected final LongAdder accumulatedCheckoutTimeOfOverdueConnections = new LongAdder(); //过期连接的总的请求次数
+	protected final LongAdder accumulatedWaitTime = new LongAdder();                         //总等待时间
+	protected final LongAdder hadToWaitCount = new LongAdder();                              //要等待的次数
+	protected final LongAdder badConnectionCount = new LongAdder();                          //坏的连接次数
+	protected final LongAdder statementCacheHitCount = new LongAdder();                      //语句缓存命中次数
+	protected final LongAdder statementCacheMissCount = new LongAdder();                     //语句缓存未命中次数
+	protected final LongAdder leakedConnectionCount = new LongAdder();                       //疑似泄漏的连接数
+	protected final TimeHistogram waitTimeHistogram = new TimeHistogram();                   //获取连接耗时的直方图(微秒)
+	protected final TimeHistogram holdTimeHistogram = new TimeHistogram();                   //持有连接时间的直方图(微秒)
 
 	public PoolState(PooledDataSource dataSource) {
 		this.dataSource = dataSource;
 	}
 
-	public synchronized long getRequestCount() {
-		return requestCount;
+	public long getRequestCount() {
+		return requestCount.sum();
 	}
 
-	public synchronized long getAverageRequestTime() {
-		return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+	public long getAverageRequestTime() {
+		long count = requestCount.sum();
+		return count == 0 ? 0 : accumulatedRequestTime.sum() / count;
 	}
 
-	public synchronized long getAverageWaitTime() {
-		return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+	public long getAverageWaitTime() {
+		long count = hadToWaitCount.sum();
+		return count == 0 ? 0 : accumulatedWaitTime.sum() / count;
 
 	}
 
-	public synchronized long getHadToWaitCount() {
-		return hadToWaitCount;
+	public long getHadToWaitCount() {
+		return hadToWaitCount.sum();
 	}
 
-	public synchronized long getBadConnectionCount() {
-		return badConnectionCount;
+	public long getBadConnectionCount() {
+		return badConnectionCount.sum();
 	}
 
-	public synchronized long getClaimedOverdueConnectionCount() {
-		return claimedOverdueConnectionCount;
+	public long getClaimedOverdueConnectionCount() {
+		return claimedOverdueConnectionCount.sum();
 	}
 
-	public synchronized long getAverageOverdueCheckoutTime() {
-		return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+	public long getAverageOverdueCheckoutTime() {
+		long count = claimedOverdueConnectionCount.sum();
+		return count == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.sum() / count;
 	}
 
-	public synchronized long getAverageCheckoutTime() {
-		return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+	public long getAverageCheckoutTime() {
+		long count = requestCount.sum();
+		return count == 0 ? 0 : accumulatedCheckoutTime.sum() / count;
 	}
 
-	public synchronized int getIdleConnectionCount() {
-		return idleConnections.size();
+	public long getStatementCacheHitCount() {
+		return statementCacheHitCount.sum();
 	}
 
-	public synchronized int getActiveConnectionCount() {
-		return activeConnections.size();
+	public long getStatementCacheMissCount() {
+		return statementCacheMissCount.sum();
+	}
+
+	public long getLeakedConnectionCount() {
+		return leakedConnectionCount.sum();
+	}
+
+	public TimeHistogram getWaitTimeHistogram() {
+		return waitTimeHistogram;
+	}
+
+	public TimeHistogram getHoldTimeHistogram() {
+		return holdTimeHistogram;
+	}
+
+	//获取连接总数, 不加锁, 只用于估算所有分区的连接总数
+	public int getTotalConnectionCount() {
+		if (dataSource.poolLockFree) {
+			return bag.size();
+		}
+		return idleConnections.size() + activeConnections.size() + pendingConnectionCount;
+	}
+
+	public int getIdleConnectionCount() {
+		if (dataSource.poolLockFree) {
+			return bag.getCount(PooledConnection.STATE_NOT_IN_USE);
+		}
+		lock.lock();
+		try {
+			return idleConnections.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getActiveConnectionCount() {
+		if (dataSource.poolLockFree) {
+			return bag.getCount(PooledConnection.STATE_IN_USE);
+		}
+		lock.lock();
+		try {
+			return activeConnections.size();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	//打印统计信息, 可以供性能优化用
 	@Override
-	public synchronized String toString() {
+	public String toString() {
+		lock.lock();
+		try {
+			return buildString();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private String buildString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("\n===CONFINGURATION==============================================");
 		builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -83,6 +159,10 @@ public class PoolState {
 		builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
 		builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
 		builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+		builder.append("\n poolLockFree                   ").append(dataSource.poolLockFree);
+		builder.append("\n poolPreparedStatementCacheSize ").append(dataSource.poolPreparedStatementCacheSize);
+		builder.append("\n poolLeakDetectionThreshold     ").append(dataSource.poolLeakDetectionThreshold);
+		builder.append("\n poolMaxTotalConnections        ").append(dataSource.poolMaximumTotalConnections);
 		builder.append("\n ---STATUS-----------------------------------------------------");
 		builder.append("\n activeConnections              ").append(getActiveConnectionCount());
 		builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -94,6 +174,11 @@ public class PoolState {
 		builder.append("\n hadToWait                      ").append(getHadToWaitCount());
 		builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
 		builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+		builder.append("\n statementCacheHits             ").append(getStatementCacheHitCount());
+		builder.append("\n statementCacheMisses           ").append(getStatementCacheMissCount());
+		builder.append("\n leakedConnectionCount          ").append(getLeakedConnectionCount());
+		builder.append("\n waitTime(us)                   ").append(waitTimeHistogram);
+		builder.append("\n holdTime(us)                   ").append(holdTimeHistogram);
 		builder.append("\n===============================================================");
 		return builder.toString();
 	}
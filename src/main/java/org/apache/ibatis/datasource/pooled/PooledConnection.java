@@ -5,6 +5,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -12,17 +14,33 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
 	private static final String CLOSE = "close";
+	private static final String PREPARE_STATEMENT = "prepareStatement";
 	private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
+	//无锁模式下的连接状态
+	static final int STATE_NOT_IN_USE = 0;     //空闲
+	static final int STATE_IN_USE = 1;         //借出
+	static final int STATE_REMOVED = -1;       //已移除
+	static final int STATE_RESERVED = -2;      //已预留
+
 	private int hashCode = 0;
 	private PooledDataSource dataSource;       //池化数据源
 	private Connection realConnection;         //真正的连接
-	private Connection proxyConnection;        //代理的连接
+	private volatile Connection proxyConnection;   //代理的连接
 	private long checkoutTimestamp;            //检出时间戳
+	private long checkoutNanoTime;             //检出时的纳秒时间, 用于统计持有时间
+	private Throwable checkoutSite;            //检出位置, 仅在开启泄漏检测时记录
+	private volatile boolean leakReported;     //是否已报告过泄漏
 	private long createdTimestamp;             //创建时间戳
 	private long lastUsedTimestamp;            //上次使用时间戳
+	private long lastValidatedTimestamp;       //上次后台侦测成功的时间戳
+	private long lastReturnedTimestamp;        //上次归还到连接池的时间戳
 	private int connectionTypeCode;            //连接类型
-	private boolean valid;                    //是否有效
+	private int dataSourceVersion;             //新建时的数据源配置版本
+	private volatile boolean valid;           //是否有效
+	private PreparedStatementCache statementCache; //物理连接上的预编译语句缓存
+	private AtomicBoolean realConnectionOpen = new AtomicBoolean(true); //物理连接是否还计入连接总数, 同一物理连接的池化连接共用
+	private final AtomicInteger state = new AtomicInteger(STATE_NOT_IN_USE);   //无锁模式下的连接状态
 	
 	//构造器
 	public PooledConnection(Connection connection, PooledDataSource dataSource) {
@@ -35,6 +53,46 @@ class PooledConnection implements InvocationHandler {
 		this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
 	}
 	
+	//重新生成代理连接, 之前交出去的代理将不能再使用
+	public void renewProxyConnection() {
+		this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+	}
+
+	//获取预编译语句缓存
+	public PreparedStatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	//设置预编译语句缓存, 重新包装同一个物理连接时沿用原来的缓存
+	public void setStatementCache(PreparedStatementCache statementCache) {
+		this.statementCache = statementCache;
+	}
+
+	//获取物理连接是否还计入连接总数
+	public AtomicBoolean getRealConnectionOpen() {
+		return realConnectionOpen;
+	}
+
+	//设置物理连接是否还计入连接总数, 重新包装同一个物理连接时沿用原来的标记
+	public void setRealConnectionOpen(AtomicBoolean realConnectionOpen) {
+		this.realConnectionOpen = realConnectionOpen;
+	}
+
+	//获取连接状态
+	public int getState() {
+		return state.get();
+	}
+
+	//设置连接状态
+	public void setState(int newState) {
+		state.set(newState);
+	}
+
+	//CAS修改连接状态
+	public boolean compareAndSetState(int expect, int update) {
+		return state.compareAndSet(expect, update);
+	}
+
 	//使连接无效
 	public void invalidate() {
 		valid = false;
@@ -70,6 +128,16 @@ class PooledConnection implements InvocationHandler {
 		this.connectionTypeCode = connectionTypeCode;
 	}
 
+	//获取新建时的数据源配置版本
+	public int getDataSourceVersion() {
+		return dataSourceVersion;
+	}
+
+	//设置新建时的数据源配置版本
+	public void setDataSourceVersion(int dataSourceVersion) {
+		this.dataSourceVersion = dataSourceVersion;
+	}
+
 	//获取连接建立的时间
 	public long getCreatedTimestamp() {
 		return createdTimestamp;
@@ -95,6 +163,32 @@ class PooledConnection implements InvocationHandler {
 		return System.currentTimeMillis() - lastUsedTimestamp;
 	}
 
+	//获取上次后台侦测成功的时间
+	public long getLastValidatedTimestamp() {
+		return lastValidatedTimestamp;
+	}
+
+	//设置上次后台侦测成功的时间
+	public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+		this.lastValidatedTimestamp = lastValidatedTimestamp;
+	}
+
+	//获取上次归还到连接池的时间
+	public long getLastReturnedTimestamp() {
+		return lastReturnedTimestamp;
+	}
+
+	//设置上次归还到连接池的时间
+	public void setLastReturnedTimestamp(long lastReturnedTimestamp) {
+		this.lastReturnedTimestamp = lastReturnedTimestamp;
+	}
+
+	//获取距离上次使用、上次归还或上次侦测成功的时间间隔
+	public long getTimeElapsedSinceLastValidation() {
+		return System.currentTimeMillis()
+				- Math.max(Math.max(lastUsedTimestamp, lastReturnedTimestamp), lastValidatedTimestamp);
+	}
+
 	//获取连接持续的时间
 	public long getAge() {
 		return System.currentTimeMillis() - createdTimestamp;
@@ -110,6 +204,36 @@ class PooledConnection implements InvocationHandler {
 		this.checkoutTimestamp = timestamp;
 	}
 
+	//获取检出时的纳秒时间
+	public long getCheckoutNanoTime() {
+		return checkoutNanoTime;
+	}
+
+	//设置检出时的纳秒时间
+	public void setCheckoutNanoTime(long checkoutNanoTime) {
+		this.checkoutNanoTime = checkoutNanoTime;
+	}
+
+	//获取检出位置
+	public Throwable getCheckoutSite() {
+		return checkoutSite;
+	}
+
+	//设置检出位置
+	public void setCheckoutSite(Throwable checkoutSite) {
+		this.checkoutSite = checkoutSite;
+	}
+
+	//是否已报告过泄漏
+	public boolean isLeakReported() {
+		return leakReported;
+	}
+
+	//设置是否已报告过泄漏
+	public void setLeakReported(boolean leakReported) {
+		this.leakReported = leakReported;
+	}
+
 	//获取检出持续的时间
 	public long getCheckoutTime() {
 		return System.currentTimeMillis() - checkoutTimestamp;
@@ -120,13 +244,23 @@ class PooledConnection implements InvocationHandler {
 		String methodName = method.getName();
 		//若是close方法, 则将连接放回连接池, 并返回null
 		if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
-			dataSource.pushConnection(this);
+			//过期的代理重复关闭时直接忽略, 已经归还或被回收的连接也忽略, 否则会把别人正在用的同一物理连接从活动列表中删掉
+			if (valid && proxy == proxyConnection) {
+				dataSource.pushConnection(this);
+			}
 			return null;
 		} else {
 			try {
 				//若不是Object上的方法, 则要检查连接是否有效
 				if (!Object.class.equals(method.getDeclaringClass())) {
-					checkConnection();
+					checkConnection(proxy);
+				}
+				//开启了语句缓存时, 预编译语句从缓存中获取
+				if (PREPARE_STATEMENT.equals(methodName) && dataSource.poolPreparedStatementCacheSize > 0) {
+					if (statementCache == null) {
+						statementCache = new PreparedStatementCache(dataSource);
+					}
+					return statementCache.prepare(realConnection, method, args);
 				}
 				//最后调用Connection上的方法
 				return method.invoke(realConnection, args);
@@ -137,8 +271,8 @@ class PooledConnection implements InvocationHandler {
 	}
 
 	//检查连接是否有效
-	private void checkConnection() throws SQLException {
-		if (!valid) {
+	private void checkConnection(Object proxy) throws SQLException {
+		if (!valid || proxy != proxyConnection) {
 			throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
 		}
 	}
@@ -1,14 +1,31 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -21,17 +38,35 @@ import org.apache.ibatis.logging.LogFactory;
 public class PooledDataSource implements DataSource {
 
 	private static final Log log = LogFactory.getLog(PooledDataSource.class);
+	private static final long CAPACITY_RECHECK_INTERVAL = 50;  //全局连接数已满时重新检查的间隔
+	private static final String NO_PING_QUERY = "NO PING QUERY SET";  //未设置侦测查询时的默认值
 
-	private final PoolState state = new PoolState(this);    //连接池状态
-	private final UnpooledDataSource dataSource;             //数据源
-	protected int poolMaximumActiveConnections = 10;         //活动连接的最大数量
-	protected int poolMaximumIdleConnections = 5;            //空闲连接的最大数量
-	protected int poolMaximumCheckoutTime = 20000;           //最大检查时间
-	protected int poolTimeToWait = 20000;                    //连接池等待时间
-	protected String poolPingQuery = "NO PING QUERY SET";    //侦测查询字符串
-	protected boolean poolPingEnabled = false;              //是否开启侦测查询
-	protected int poolPingConnectionsNotUsedFor = 0;         //无用的侦测
-	private int expectedConnectionTypeCode;                  //期望的连接类型
+	private final PoolState state = new PoolState(this);             //连接池状态
+	private PoolMaintainer maintainer = new PoolMaintainer(this);    //后台维护者, 分区共用根连接池的维护者
+	private final UnpooledDataSource dataSource;                     //数据源
+	protected volatile int poolMaximumActiveConnections = 10;        //活动连接的最大数量
+	protected volatile int poolMaximumIdleConnections = 5;           //空闲连接的最大数量
+	protected volatile int poolMaximumCheckoutTime = 20000;          //最大检查时间
+	protected volatile int poolTimeToWait = 20000;                   //连接池等待时间
+	protected volatile String poolPingQuery = NO_PING_QUERY;         //侦测查询字符串
+	protected volatile boolean poolPingEnabled = false;              //是否开启侦测查询
+	protected volatile int poolPingConnectionsNotUsedFor = 0;        //无用的侦测
+	protected volatile boolean poolPingUseIsValid = false;           //是否使用JDBC4的Connection.isValid侦测, 开启后无需再开启poolPingEnabled
+	protected volatile int poolPingTimeout = 5;                      //isValid侦测的超时时间(秒), 0表示不限制
+	protected volatile int poolValidationParallelism = 4;            //后台并行侦测空闲连接的线程数
+	private volatile boolean isValidSupported = true;                //驱动是否支持Connection.isValid
+	protected volatile int poolMinimumIdle = 0;                      //后台维护的最小空闲连接数
+	protected volatile long poolMaximumLifetime = 0;                 //连接最大生存时间, 0表示不限制
+	protected volatile long poolMaintenanceInterval = 30000;         //后台维护间隔
+	protected volatile int poolPreparedStatementCacheSize = 0;       //每个连接缓存的预编译语句数, 0表示不缓存
+	protected volatile long poolLeakDetectionThreshold = 0;          //连接持有超过该时间视为泄漏, 0表示不检测
+	protected volatile boolean poolLockFree = false;                 //是否使用无锁连接池
+	private volatile int expectedConnectionTypeCode;                 //期望的连接类型
+	private final AtomicInteger dataSourceVersion = new AtomicInteger(); //数据源配置版本, 驱动、url、凭证等变化时递增
+	protected volatile int poolMaximumTotalConnections = 0;          //所有分区的连接总数上限, 0表示不限制
+	private final AtomicInteger openConnectionCount = new AtomicInteger(); //根连接池统计的所有分区的物理连接数, 新建前预留, 关闭时释放
+	private final ConcurrentMap<List<String>, PooledDataSource> partitions = new ConcurrentHashMap<List<String>, PooledDataSource>(); //按凭证划分的分区
+	private volatile PooledDataSource parent;                        //分区所属的根连接池
 
 	//----------------------------------------------构造器----------------------------------------------
 	
@@ -94,7 +129,10 @@ public class PooledDataSource implements DataSource {
 	//设置驱动名
 	public void setDriver(String driver) {
 		dataSource.setDriver(driver);
-		forceCloseAll();
+		drainConnections();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setDriver(driver);
+		}
 	}
 	
 	//获取驱动名
@@ -105,7 +143,10 @@ public class PooledDataSource implements DataSource {
 	//设置url
 	public void setUrl(String url) {
 		dataSource.setUrl(url);
-		forceCloseAll();
+		drainConnections();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setUrl(url);
+		}
 	}
 	
 	//获取url
@@ -116,7 +157,7 @@ public class PooledDataSource implements DataSource {
 	//设置用户名
 	public void setUsername(String username) {
 		dataSource.setUsername(username);
-		forceCloseAll();
+		drainConnections();
 	}
 	
 	//获取用户名
@@ -127,7 +168,7 @@ public class PooledDataSource implements DataSource {
 	//设置密码
 	public void setPassword(String password) {
 		dataSource.setPassword(password);
-		forceCloseAll();
+		drainConnections();
 	}
 	
 	//获取密码
@@ -138,7 +179,10 @@ public class PooledDataSource implements DataSource {
 	//设置是否默认提交
 	public void setDefaultAutoCommit(boolean defaultAutoCommit) {
 		dataSource.setAutoCommit(defaultAutoCommit);
-		forceCloseAll();
+		drainConnections();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setDefaultAutoCommit(defaultAutoCommit);
+		}
 	}
 	
 	//获取是否默认提交
@@ -149,7 +193,10 @@ public class PooledDataSource implements DataSource {
 	//设置默认事务级别
 	public void setDefaultTransactionIsolationLevel(Integer defaultTransactionIsolationLevel) {
 		dataSource.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
-		forceCloseAll();
+		drainConnections();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
+		}
 	}
 	
 	//获取默认事务级别
@@ -160,7 +207,10 @@ public class PooledDataSource implements DataSource {
 	//设置驱动属性
 	public void setDriverProperties(Properties driverProps) {
 		dataSource.setDriverProperties(driverProps);
-		forceCloseAll();
+		drainConnections();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setDriverProperties(driverProps);
+		}
 	}
 	
 	//获取驱动属性
@@ -171,7 +221,11 @@ public class PooledDataSource implements DataSource {
 	//设置最大活跃连接数
 	public void setPoolMaximumActiveConnections(int poolMaximumActiveConnections) {
 		this.poolMaximumActiveConnections = poolMaximumActiveConnections;
-		forceCloseAll();
+		//调大时唤醒等待者, 调小时多出的连接在归还时关闭
+		signalPoolResized();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolMaximumActiveConnections(poolMaximumActiveConnections);
+		}
 	}
 	
 	//获取活跃连接数量
@@ -182,7 +236,11 @@ public class PooledDataSource implements DataSource {
 	//设置最大空闲连接数
 	public void setPoolMaximumIdleConnections(int poolMaximumIdleConnections) {
 		this.poolMaximumIdleConnections = poolMaximumIdleConnections;
-		forceCloseAll();
+		//多出的空闲连接立即关闭
+		trimIdleConnections();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolMaximumIdleConnections(poolMaximumIdleConnections);
+		}
 	}
 	
 	//获取空闲连接数量
@@ -193,7 +251,9 @@ public class PooledDataSource implements DataSource {
 	//设置最大检出时间
 	public void setPoolMaximumCheckoutTime(int poolMaximumCheckoutTime) {
 		this.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
-		forceCloseAll();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolMaximumCheckoutTime(poolMaximumCheckoutTime);
+		}
 	}
 	
 	//获取最大检出时间
@@ -204,7 +264,9 @@ public class PooledDataSource implements DataSource {
 	//设置最大等待时间
 	public void setPoolTimeToWait(int poolTimeToWait) {
 		this.poolTimeToWait = poolTimeToWait;
-		forceCloseAll();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolTimeToWait(poolTimeToWait);
+		}
 	}
 	
 	//获取最大等待时间
@@ -215,7 +277,9 @@ public class PooledDataSource implements DataSource {
 	//设置侦测查询字符串
 	public void setPoolPingQuery(String poolPingQuery) {
 		this.poolPingQuery = poolPingQuery;
-		forceCloseAll();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolPingQuery(poolPingQuery);
+		}
 	}
 	
 	//获取侦测查询字符串
@@ -226,7 +290,9 @@ public class PooledDataSource implements DataSource {
 	//设置是否侦测查询
 	public void setPoolPingEnabled(boolean poolPingEnabled) {
 		this.poolPingEnabled = poolPingEnabled;
-		forceCloseAll();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolPingEnabled(poolPingEnabled);
+		}
 	}
 	
 	//获取是否侦测查询
@@ -236,28 +302,424 @@ public class PooledDataSource implements DataSource {
 	
 	public void setPoolPingConnectionsNotUsedFor(int milliseconds) {
 		this.poolPingConnectionsNotUsedFor = milliseconds;
-		forceCloseAll();
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolPingConnectionsNotUsedFor(milliseconds);
+		}
 	}
 	
 	public int getPoolPingConnectionsNotUsedFor() {
 		return poolPingConnectionsNotUsedFor;
 	}
+
+	//设置是否使用Connection.isValid侦测, 开启后即启用侦测, 不支持isValid的驱动会退回到侦测查询, 没有设置侦测查询时不再侦测
+	public void setPoolPingUseIsValid(boolean poolPingUseIsValid) {
+		this.poolPingUseIsValid = poolPingUseIsValid;
+		this.isValidSupported = true;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolPingUseIsValid(poolPingUseIsValid);
+		}
+	}
+
+	//获取是否使用Connection.isValid侦测
+	public boolean isPoolPingUseIsValid() {
+		return poolPingUseIsValid;
+	}
+
+	//设置isValid侦测的超时时间(秒)
+	public void setPoolPingTimeout(int poolPingTimeout) {
+		this.poolPingTimeout = poolPingTimeout;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolPingTimeout(poolPingTimeout);
+		}
+	}
+
+	//获取isValid侦测的超时时间(秒)
+	public int getPoolPingTimeout() {
+		return poolPingTimeout;
+	}
+
+	//设置后台并行侦测空闲连接的线程数
+	public void setPoolValidationParallelism(int poolValidationParallelism) {
+		this.poolValidationParallelism = poolValidationParallelism;
+		if (parent == null) {
+			maintainer.setValidationParallelism(poolValidationParallelism);
+		}
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolValidationParallelism(poolValidationParallelism);
+		}
+	}
+
+	//获取后台并行侦测空闲连接的线程数
+	public int getPoolValidationParallelism() {
+		return poolValidationParallelism;
+	}
+
+	//设置最小空闲连接数, 大于0时由后台维护线程预热和补充
+	public void setPoolMinimumIdle(int poolMinimumIdle) {
+		this.poolMinimumIdle = poolMinimumIdle;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolMinimumIdle(poolMinimumIdle);
+		}
+	}
+
+	//获取最小空闲连接数
+	public int getPoolMinimumIdle() {
+		return poolMinimumIdle;
+	}
+
+	//设置连接最大生存时间
+	public void setPoolMaximumLifetime(long poolMaximumLifetime) {
+		this.poolMaximumLifetime = poolMaximumLifetime;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolMaximumLifetime(poolMaximumLifetime);
+		}
+	}
+
+	//获取连接最大生存时间
+	public long getPoolMaximumLifetime() {
+		return poolMaximumLifetime;
+	}
+
+	//设置后台维护间隔
+	public void setPoolMaintenanceInterval(long poolMaintenanceInterval) {
+		this.poolMaintenanceInterval = poolMaintenanceInterval;
+		//已启动的后台维护按新的间隔重新调度
+		if (maintainer.isRunning()) {
+			maintainer.stop();
+			startMaintenance();
+		}
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolMaintenanceInterval(poolMaintenanceInterval);
+		}
+	}
+
+	//获取后台维护间隔
+	public long getPoolMaintenanceInterval() {
+		return poolMaintenanceInterval;
+	}
+
+	//设置每个连接缓存的预编译语句数
+	public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+		this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolPreparedStatementCacheSize(poolPreparedStatementCacheSize);
+		}
+	}
+
+	//获取每个连接缓存的预编译语句数
+	public int getPoolPreparedStatementCacheSize() {
+		return poolPreparedStatementCacheSize;
+	}
+
+	//设置泄漏检测阈值
+	public void setPoolLeakDetectionThreshold(long poolLeakDetectionThreshold) {
+		this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolLeakDetectionThreshold(poolLeakDetectionThreshold);
+		}
+	}
+
+	//获取泄漏检测阈值
+	public long getPoolLeakDetectionThreshold() {
+		return poolLeakDetectionThreshold;
+	}
+
+	//设置所有分区的连接总数上限
+	public void setPoolMaximumTotalConnections(int poolMaximumTotalConnections) {
+		this.poolMaximumTotalConnections = poolMaximumTotalConnections;
+	}
+
+	//获取所有分区的连接总数上限
+	public int getPoolMaximumTotalConnections() {
+		return poolMaximumTotalConnections;
+	}
+
+	//设置是否使用无锁连接池
+	public void setPoolLockFree(boolean poolLockFree) {
+		forceCloseAll();
+		this.poolLockFree = poolLockFree;
+		for (PooledDataSource partition : partitions.values()) {
+			partition.setPoolLockFree(poolLockFree);
+		}
+	}
+
+	//获取是否使用无锁连接池
+	public boolean isPoolLockFree() {
+		return poolLockFree;
+	}
 	
 	//------------------------------------------------------------------------------------------------
 	
+	//启动后台维护, 只有配置了最小空闲连接数、最大生存时间或泄漏检测才会启动
+	public void startMaintenance() {
+		if (!maintainer.isRunning() && (poolMinimumIdle > 0 || poolMaximumLifetime > 0 || poolLeakDetectionThreshold > 0)
+				&& poolMaintenanceInterval > 0) {
+			maintainer.start(poolMaintenanceInterval);
+		}
+	}
+
+	//停止后台维护
+	public void stopMaintenance() {
+		maintainer.stop();
+	}
+
+	//数据源配置变化后逐步替换连接: 空闲连接由后台维护淘汰或在检出时关闭, 活动连接在归还时关闭
+	private void drainConnections() {
+		expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(),
+				dataSource.getPassword());
+		dataSourceVersion.incrementAndGet();
+		if (log.isDebugEnabled()) {
+			log.debug("PooledDataSource configuration changed, replacing connections gradually.");
+		}
+		maintainer.triggerMaintenance();
+	}
+
+	//最大活跃连接数变化后唤醒等待的线程
+	private void signalPoolResized() {
+		if (!poolLockFree) {
+			state.lock.lock();
+			try {
+				state.available.signalAll();
+			} finally {
+				state.lock.unlock();
+			}
+		}
+	}
+
+	//关闭超出最大空闲数的空闲连接
+	private void trimIdleConnections() {
+		if (poolLockFree) {
+			for (PooledConnection conn : state.bag.values(PooledConnection.STATE_NOT_IN_USE)) {
+				if (state.bag.getCount(PooledConnection.STATE_NOT_IN_USE) <= poolMaximumIdleConnections) {
+					return;
+				}
+				if (state.bag.reserve(conn)) {
+					discardConnection(conn);
+				}
+			}
+			return;
+		}
+		List<PooledConnection> excess = new ArrayList<PooledConnection>();
+		state.lock.lock();
+		try {
+			while (state.idleConnections.size() > poolMaximumIdleConnections) {
+				excess.add(state.idleConnections.remove(state.idleConnections.size() - 1));
+			}
+		} finally {
+			state.lock.unlock();
+		}
+		for (PooledConnection conn : excess) {
+			closePooledConnection(conn);
+		}
+	}
+
+	//新建一个池化连接, 记录新建时的数据源配置版本, 调用前必须已经预留了连接总数, 新建失败时释放
+	private PooledConnection openConnection() throws SQLException {
+		int version = dataSourceVersion.get();
+		Connection realConn;
+		try {
+			realConn = dataSource.getConnection();
+		} catch (SQLException e) {
+			releaseTotalConnection();
+			throw e;
+		} catch (RuntimeException e) {
+			releaseTotalConnection();
+			throw e;
+		}
+		PooledConnection conn = new PooledConnection(realConn, this);
+		conn.setDataSourceVersion(version);
+		return conn;
+	}
+
+	//回滚并关闭真正的连接, 回滚失败也要关闭, 忽略所有异常
+	private void rollbackAndCloseRealConnection(PooledConnection conn) {
+		try {
+			Connection realConn = conn.getRealConnection();
+			if (!realConn.getAutoCommit()) {
+				realConn.rollback();
+			}
+		} catch (Exception e) {
+			// ignore
+		}
+		try {
+			closeRealConnection(conn);
+		} catch (Exception e) {
+			// ignore
+		}
+	}
+
+	//关闭真正的连接, 同一物理连接只释放一次连接总数
+	private void closeRealConnection(PooledConnection conn) throws SQLException {
+		if (conn.getRealConnectionOpen().compareAndSet(true, false)) {
+			releaseTotalConnection();
+		}
+		conn.getRealConnection().close();
+	}
+
 	//获取数据库连接
 	public Connection getConnection() throws SQLException {
+		startMaintenance();
 		return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
 	}
 
-	//获取数据库连接(根据用户名和密码)
+	//获取数据库连接(根据用户名和密码), 不同凭证的连接来自各自的分区
 	public Connection getConnection(String username, String password) throws SQLException {
-		return popConnection(username, password).getProxyConnection();
+		startMaintenance();
+		return getPartition(username, password).popConnection(username, password).getProxyConnection();
+	}
+
+	//获取凭证对应的分区, 默认凭证使用本连接池
+	private PooledDataSource getPartition(String username, String password) {
+		if (parent != null
+				|| (Objects.equals(username, dataSource.getUsername()) && Objects.equals(password, dataSource.getPassword()))) {
+			return this;
+		}
+		//键中只保存密码的摘要, 不保存明文
+		List<String> key = Arrays.asList(username, digestPassword(password));
+		PooledDataSource partition = partitions.get(key);
+		if (partition == null) {
+			partition = newPartition(username, password);
+			PooledDataSource previous = partitions.putIfAbsent(key, partition);
+			if (previous != null) {
+				partition = previous;
+			} else if (log.isDebugEnabled()) {
+				log.debug("Created pool partition for user " + username + ".");
+			}
+		}
+		return partition;
+	}
+
+	//新建一个分区, 复制本连接池的所有配置, 只是凭证不同
+	private PooledDataSource newPartition(String username, String password) {
+		PooledDataSource partition = new PooledDataSource(dataSource.getDriverClassLoader(), dataSource.getDriver(),
+				dataSource.getUrl(), username, password);
+		partition.dataSource.setDriverProperties(dataSource.getDriverProperties());
+		partition.dataSource.setAutoCommit(dataSource.isAutoCommit());
+		partition.dataSource.setDefaultTransactionIsolationLevel(dataSource.getDefaultTransactionIsolationLevel());
+		partition.poolMaximumActiveConnections = poolMaximumActiveConnections;
+		partition.poolMaximumIdleConnections = poolMaximumIdleConnections;
+		partition.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
+		partition.poolTimeToWait = poolTimeToWait;
+		partition.poolPingQuery = poolPingQuery;
+		partition.poolPingEnabled = poolPingEnabled;
+		partition.poolPingConnectionsNotUsedFor = poolPingConnectionsNotUsedFor;
+		partition.poolPingUseIsValid = poolPingUseIsValid;
+		partition.poolPingTimeout = poolPingTimeout;
+		partition.poolValidationParallelism = poolValidationParallelism;
+		partition.poolMinimumIdle = poolMinimumIdle;
+		partition.poolMaximumLifetime = poolMaximumLifetime;
+		partition.poolMaintenanceInterval = poolMaintenanceInterval;
+		partition.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+		partition.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+		partition.poolLockFree = poolLockFree;
+		partition.maintainer = maintainer;
+		partition.parent = this;
+		return partition;
+	}
+
+	//计算密码的SHA-256摘要, 用作分区的键
+	private static String digestPassword(String password) {
+		if (password == null) {
+			return null;
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+			StringBuilder builder = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	//获取各分区的连接池状态, 以用户名为键
+	public Map<String, PoolState> getPartitionPoolStates() {
+		Map<String, PoolState> states = new HashMap<String, PoolState>();
+		for (PooledDataSource partition : partitions.values()) {
+			states.put(partition.getUsername(), partition.getPoolState());
+		}
+		return states;
+	}
+
+	//是否还可以新建连接, 所有分区的连接数之和不能超过上限
+	private boolean isWithinTotalLimit() {
+		PooledDataSource root = parent == null ? this : parent;
+		int maximum = root.poolMaximumTotalConnections;
+		return maximum <= 0 || root.openConnectionCount.get() < maximum;
+	}
+
+	//新建连接前预留一个连接总数, 已达上限时返回false, 不限制时也计数以便运行时开启上限
+	private boolean reserveTotalConnection() {
+		PooledDataSource root = parent == null ? this : parent;
+		while (true) {
+			int count = root.openConnectionCount.get();
+			int maximum = root.poolMaximumTotalConnections;
+			if (maximum > 0 && count >= maximum) {
+				return false;
+			}
+			if (root.openConnectionCount.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	//物理连接关闭或新建失败时释放预留的连接总数
+	private void releaseTotalConnection() {
+		PooledDataSource root = parent == null ? this : parent;
+		root.openConnectionCount.decrementAndGet();
+	}
+
+	//获取所有分区的物理连接总数
+	public int getOpenConnectionCount() {
+		PooledDataSource root = parent == null ? this : parent;
+		return root.openConnectionCount.get();
+	}
+
+	//连接总数已满时, 关闭其他分区的一个空闲连接来腾出位置, 调用时不能持有本分区的锁
+	private boolean releaseCapacity() {
+		PooledDataSource root = parent == null ? this : parent;
+		if (root != this && root.evictIdleConnection()) {
+			return true;
+		}
+		for (PooledDataSource partition : root.partitions.values()) {
+			if (partition != this && partition.evictIdleConnection()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//关闭一个最久未用的空闲连接
+	private boolean evictIdleConnection() {
+		if (poolLockFree) {
+			for (PooledConnection conn : state.bag.values(PooledConnection.STATE_NOT_IN_USE)) {
+				if (state.bag.reserve(conn)) {
+					discardConnection(conn);
+					return true;
+				}
+			}
+			return false;
+		}
+		PooledConnection conn;
+		state.lock.lock();
+		try {
+			if (state.idleConnections.isEmpty()) {
+				return false;
+			}
+			conn = state.idleConnections.remove(0);
+		} finally {
+			state.lock.unlock();
+		}
+		closePooledConnection(conn);
+		return true;
 	}
 
 	//关闭所有连接
 	public void forceCloseAll() {
-		synchronized (state) {
+		state.lock.lock();
+		try {
 			expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(),
 					dataSource.getPassword());
 			// 关闭所有的activeConnections和idleConnections
@@ -266,11 +728,7 @@ public class PooledDataSource implements DataSource {
 					PooledConnection conn = state.activeConnections.remove(i - 1);
 					conn.invalidate();
 
-					Connection realConn = conn.getRealConnection();
-					if (!realConn.getAutoCommit()) {
-						realConn.rollback();
-					}
-					realConn.close();
+					rollbackAndCloseRealConnection(conn);
 				} catch (Exception e) {
 					// ignore
 				}
@@ -280,19 +738,32 @@ public class PooledDataSource implements DataSource {
 					PooledConnection conn = state.idleConnections.remove(i - 1);
 					conn.invalidate();
 
-					Connection realConn = conn.getRealConnection();
-					if (!realConn.getAutoCommit()) {
-						realConn.rollback();
-					}
-					realConn.close();
+					rollbackAndCloseRealConnection(conn);
 				} catch (Exception e) {
 					// ignore
 				}
 			}
+			// 关闭无锁容器中的所有连接
+			for (PooledConnection conn : state.bag.values()) {
+				try {
+					state.bag.forceRemove(conn);
+					conn.invalidate();
+
+					rollbackAndCloseRealConnection(conn);
+				} catch (Exception e) {
+					// ignore
+				}
+			}
+		} finally {
+			state.lock.unlock();
 		}
 		if (log.isDebugEnabled()) {
 			log.debug("PooledDataSource forcefully closed/removed all connections.");
 		}
+		for (PooledDataSource partition : partitions.values()) {
+			partition.forceCloseAll();
+		}
+		maintainer.triggerRefill();
 	}
 
 	//获取连接池状态
@@ -305,172 +776,275 @@ public class PooledDataSource implements DataSource {
 		return ("" + url + username + password).hashCode();
 	}
 
-	//放入一个连接
+	//放入一个连接, 侦测、回滚和关闭都在锁外进行, 驱动的延迟不会阻塞其他线程
 	protected void pushConnection(PooledConnection conn) throws SQLException {
-		synchronized (state) {
-			//先从活动连接列表中删除此连接
+		if (poolLockFree) {
+			pushConcurrentConnection(conn);
+			return;
+		}
+		state.lock.lock();
+		try {
+			//先从活动连接列表中删除此连接, 在放回空闲列表或关闭之前占着一个位置
 			state.activeConnections.remove(conn);
-			//如果该连接是有效的
-			if (conn.isValid()) {
+			state.pendingConnectionCount++;
+			trackCheckin(conn);
+			//将原连接的检查时间叠加
+			state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
+		} finally {
+			state.lock.unlock();
+		}
+		boolean pending = true;
+		try {
+			//如果该连接是无效的
+			if (!conn.isValid()) {
+				if (log.isDebugEnabled()) {
+					log.debug("A bad connection (" + conn.getRealHashCode()
+							+ ") attempted to return to the pool, discarding connection.");
+				}
+				//坏的连接数加一
+				state.badConnectionCount.increment();
+				return;
+			}
+			//回滚连接之前的事务
+			if (!conn.getRealConnection().getAutoCommit()) {
+				conn.getRealConnection().rollback();
+			}
+			state.lock.lock();
+			try {
 				//如果空闲连接数小于最大空闲连接数
 				if (state.idleConnections.size() < poolMaximumIdleConnections
-						&& conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-					//将原连接的检查时间叠加
-					state.accumulatedCheckoutTime += conn.getCheckoutTime();
-					//回滚连接之前的事务
-					if (!conn.getRealConnection().getAutoCommit()) {
-						conn.getRealConnection().rollback();
-					}
-					//新建一个连接
+						&& conn.getConnectionTypeCode() == expectedConnectionTypeCode && !isExpired(conn)) {
+					//用同一个物理连接新建一个池化连接
 					PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-					//将新连接放入空闲列表
-					state.idleConnections.add(newConn);
 					//设置新连接的创建时间
 					newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
 					//设置新连接的最后使用时间
 					newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+					newConn.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
+					newConn.setLastReturnedTimestamp(System.currentTimeMillis());
+					newConn.setStatementCache(conn.getStatementCache());
+					newConn.setRealConnectionOpen(conn.getRealConnectionOpen());
+					newConn.setDataSourceVersion(conn.getDataSourceVersion());
+					newConn.setConnectionTypeCode(conn.getConnectionTypeCode());
+					//将新连接放入空闲列表
+					state.idleConnections.add(newConn);
+					state.pendingConnectionCount--;
+					pending = false;
 					//使原连接失效
 					conn.invalidate();
 					if (log.isDebugEnabled()) {
 						log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
 					}
 					//唤醒所有在该条件阻塞的线程
-					state.notifyAll();
-				} else {
-					//将原连接的检查时间叠加
-					state.accumulatedCheckoutTime += conn.getCheckoutTime();
-					//回滚连接之前的事务
-					if (!conn.getRealConnection().getAutoCommit()) {
-						conn.getRealConnection().rollback();
-					}
-					//将数据库连接关闭
-					conn.getRealConnection().close();
-					if (log.isDebugEnabled()) {
-						log.debug("Closed connection " + conn.getRealHashCode() + ".");
-					}
-					//使连接失效
-					conn.invalidate();
-				}
-			} else {
-				if (log.isDebugEnabled()) {
-					log.debug("A bad connection (" + conn.getRealHashCode()
-							+ ") attempted to return to the pool, discarding connection.");
+					state.available.signalAll();
+					return;
 				}
-				//坏的连接数加一
-				state.badConnectionCount++;
+			} finally {
+				state.lock.unlock();
+			}
+			//空闲连接已满或者连接已过时, 将数据库连接关闭
+			closePooledConnection(conn);
+		} catch (SQLException e) {
+			//回滚失败的连接不能再放回连接池
+			closePooledConnection(conn);
+			throw e;
+		} finally {
+			if (pending) {
+				releasePendingConnection();
 			}
 		}
 	}
 
-	//获取一个连接
+	//锁外的新建、侦测或归还结束后释放占着的位置, 唤醒等待的线程
+	private void releasePendingConnection() {
+		state.lock.lock();
+		try {
+			state.pendingConnectionCount--;
+			state.available.signalAll();
+		} finally {
+			state.lock.unlock();
+		}
+	}
+
+	//获取一个连接, 锁内只预留空闲连接或新建连接的位置, 新建、侦测和关闭连接都在锁外进行
 	private PooledConnection popConnection(String username, String password) throws SQLException {
+		if (poolLockFree) {
+			return popConcurrentConnection(username, password);
+		}
 		boolean countedWait = false;
 		PooledConnection conn = null;
 		long t = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
 		int localBadConnectionCount = 0;
+		boolean capacityExhausted = false;
 		while (conn == null) {
-			//以连接池状态作为锁
-			synchronized (state) {
+			//全局连接数已满时, 在锁外腾出其他分区的空闲连接, 腾不出来就短暂等待
+			if (capacityExhausted) {
+				capacityExhausted = false;
+				if (!releaseCapacity()) {
+					if (!countedWait) {
+						state.hadToWaitCount.increment();
+						countedWait = true;
+					}
+					try {
+						long wt = System.currentTimeMillis();
+						state.lock.lock();
+						try {
+							state.available.await(Math.min(poolTimeToWait, CAPACITY_RECHECK_INTERVAL), TimeUnit.MILLISECONDS);
+						} finally {
+							state.lock.unlock();
+						}
+						state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+			//是否预留了一个新建连接的位置
+			boolean create = false;
+			//加连接池状态的锁, 虚拟线程在锁上等待时不会占住载体线程
+			state.lock.lock();
+			try {
 				//如果有空闲连接的话
 				if (!state.idleConnections.isEmpty()) {
-					//获取空闲列表的第一个连接
+					//获取空闲列表的第一个连接, 侦测完之前占着一个位置
 					conn = state.idleConnections.remove(0);
+					state.pendingConnectionCount++;
+				//如果活跃连接数(包括锁外正在处理的)小于最大活跃连接数
+				} else if (state.activeConnections.size() + state.pendingConnectionCount < poolMaximumActiveConnections) {
+					if (!reserveTotalConnection()) {
+						capacityExhausted = true;
+						continue;
+					}
+					//预留一个位置, 在锁外新建连接
+					state.pendingConnectionCount++;
+					create = true;
+				} else if (!state.activeConnections.isEmpty()
+						&& state.activeConnections.get(0).getCheckoutTime() > poolMaximumCheckoutTime) {
+					//检出时间最长的连接已经超过最大检出时间, 回收它
+					PooledConnection oldestActiveConnection = state.activeConnections.remove(0);
+					long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+					state.claimedOverdueConnectionCount.increment();
+					state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+					state.accumulatedCheckoutTime.add(longestCheckoutTime);
+					state.pendingConnectionCount++;
+					trackCheckin(oldestActiveConnection);
+					//复用真正连接, 新建池化连接, 之前的事务在锁外回滚
+					//沿用创建时间和使用、侦测时间, 超过最大生存时间的连接在锁外关闭
+					conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+					conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+					conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+					conn.setLastValidatedTimestamp(oldestActiveConnection.getLastValidatedTimestamp());
+					conn.setStatementCache(oldestActiveConnection.getStatementCache());
+					conn.setRealConnectionOpen(oldestActiveConnection.getRealConnectionOpen());
+					conn.setDataSourceVersion(oldestActiveConnection.getDataSourceVersion());
+					conn.setConnectionTypeCode(oldestActiveConnection.getConnectionTypeCode());
+					//使旧的池化连接无效
+					oldestActiveConnection.invalidate();
 					if (log.isDebugEnabled()) {
-						log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+						log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
 					}
-				//如果没有空闲的连接
 				} else {
-					//如果活跃连接数小于最大活跃连接数
-					if (state.activeConnections.size() < poolMaximumActiveConnections) {
-						//新建一个池化连接
-						conn = new PooledConnection(dataSource.getConnection(), this);
-						if (log.isDebugEnabled()) {
-							log.debug("Created connection " + conn.getRealHashCode() + ".");
+					//否则进行等待
+					try {
+						//若没人在等待
+						if (!countedWait) {
+							//等待次数加1
+							state.hadToWaitCount.increment();
+							countedWait = true;
 						}
-					} else {
-						//否则就复用活跃列表的连接
-						PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-						//获取检出时间
-						long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-						//如果检出时间大于最大检出时间
-						if (longestCheckoutTime > poolMaximumCheckoutTime) {
-							state.claimedOverdueConnectionCount++;
-							state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-							state.accumulatedCheckoutTime += longestCheckoutTime;
-							state.activeConnections.remove(oldestActiveConnection);
-							//将连接中的所有事务回滚
-							if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-								oldestActiveConnection.getRealConnection().rollback();
-							}
-							//复用真正连接, 新建池化连接
-							conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-							//使旧的池化连接无效
-							oldestActiveConnection.invalidate();
-							if (log.isDebugEnabled()) {
-								log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-							}
-						} else {
-							//若检出时间小于最大检出时间, 则进行等待
-							try {
-								//若没人在等待
-								if (!countedWait) {
-									//等待次数加1
-									state.hadToWaitCount++;
-									countedWait = true;
-								}
-								if (log.isDebugEnabled()) {
-									log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-								}
-								//获取当前时间
-								long wt = System.currentTimeMillis();
-								//将当前线程阻塞在state条件上
-								state.wait(poolTimeToWait);
-								//线程醒来统计总等待时间
-								state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-							} catch (InterruptedException e) {
-								break;
-							}
+						if (log.isDebugEnabled()) {
+							log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
 						}
+						//获取当前时间
+						long wt = System.currentTimeMillis();
+						//将当前线程阻塞在state条件上
+						state.available.await(poolTimeToWait, TimeUnit.MILLISECONDS);
+						//线程醒来统计总等待时间
+						state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+					} catch (InterruptedException e) {
+						break;
 					}
+					continue;
 				}
-				if (conn != null) {
-					//若连接是有效的
-					if (conn.isValid()) {
-						//回滚之前的事务
-						if (!conn.getRealConnection().getAutoCommit()) {
-							conn.getRealConnection().rollback();
-						}
-						//设置连接类型代码
-						conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-						//设置检出时间
-						conn.setCheckoutTimestamp(System.currentTimeMillis());
-						//设置最近使用时间
-						conn.setLastUsedTimestamp(System.currentTimeMillis());
+			} finally {
+				state.lock.unlock();
+			}
+			//以下在锁外进行, 占着的位置在放入活动列表或者放弃连接时释放
+			boolean pending = true;
+			try {
+				if (create) {
+					//新建一个池化连接
+					conn = openConnection();
+					if (log.isDebugEnabled()) {
+						log.debug("Created connection " + conn.getRealHashCode() + ".");
+					}
+				} else if (isExpired(conn)) {
+					//超过最大生存时间的连接直接关闭, 再取下一个
+					closePooledConnection(conn);
+					maintainer.triggerRefill();
+					conn = null;
+					continue;
+				} else if (log.isDebugEnabled()) {
+					log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+				}
+				//若连接是有效的
+				if (conn.isValid()) {
+					//回滚之前的事务
+					if (!conn.getRealConnection().getAutoCommit()) {
+						conn.getRealConnection().rollback();
+					}
+					//设置连接类型代码
+					conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+					//设置检出时间
+					conn.setCheckoutTimestamp(System.currentTimeMillis());
+					//设置最近使用时间
+					conn.setLastUsedTimestamp(System.currentTimeMillis());
+					state.lock.lock();
+					try {
 						//将该连接添加到活跃列表
 						state.activeConnections.add(conn);
-						state.requestCount++;
-						state.accumulatedRequestTime += System.currentTimeMillis() - t;
-					} else {
+						state.pendingConnectionCount--;
+						pending = false;
+					} finally {
+						state.lock.unlock();
+					}
+					state.requestCount.increment();
+					state.accumulatedRequestTime.add(System.currentTimeMillis() - t);
+					trackCheckout(conn, startNanos);
+				} else {
+					if (log.isDebugEnabled()) {
+						log.debug("A bad connection (" + conn.getRealHashCode()
+								+ ") was returned from the pool, getting another connection.");
+					}
+					//坏的连接数加1
+					state.badConnectionCount.increment();
+					//本地坏的连接加1
+					localBadConnectionCount++;
+					closePooledConnection(conn);
+					//通知后台维护者补充连接
+					maintainer.triggerRefill();
+					//将池化连接置空
+					conn = null;
+					//若坏连接数超过一定值, 则抛出异常
+					if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
 						if (log.isDebugEnabled()) {
-							log.debug("A bad connection (" + conn.getRealHashCode()
-									+ ") was returned from the pool, getting another connection.");
-						}
-						//坏的连接数加1
-						state.badConnectionCount++;
-						//本地坏的连接加1
-						localBadConnectionCount++;
-						//将池化连接置空
-						conn = null;
-						//若坏连接数超过一定值, 则抛出异常
-						if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
-							if (log.isDebugEnabled()) {
-								log.debug("PooledDataSource: Could not get a good connection to the database.");
-							}
-							throw new SQLException(
-									"PooledDataSource: Could not get a good connection to the database.");
+							log.debug("PooledDataSource: Could not get a good connection to the database.");
 						}
+						throw new SQLException(
+								"PooledDataSource: Could not get a good connection to the database.");
 					}
 				}
+			} catch (SQLException e) {
+				//新建失败或回滚失败, 放弃这个连接
+				if (conn != null) {
+					closePooledConnection(conn);
+				}
+				throw e;
+			} finally {
+				if (pending) {
+					releasePendingConnection();
+				}
 			}
 		}
 		//跳出循坏后, 若连接为空则抛出异常
@@ -486,6 +1060,507 @@ public class PooledDataSource implements DataSource {
 		return conn;
 	}
 
+	//无锁模式下放入一个连接
+	private void pushConcurrentConnection(PooledConnection conn) throws SQLException {
+		//先预留该连接, 预留失败说明已被回收或移除
+		if (!conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_RESERVED)) {
+			if (log.isDebugEnabled()) {
+				log.debug("Connection " + conn.getRealHashCode() + " was already reclaimed, ignoring return.");
+			}
+			return;
+		}
+		//将原连接的检查时间叠加
+		state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
+		trackCheckin(conn);
+		if (!conn.isValid()) {
+			if (log.isDebugEnabled()) {
+				log.debug("A bad connection (" + conn.getRealHashCode()
+						+ ") attempted to return to the pool, discarding connection.");
+			}
+			state.badConnectionCount.increment();
+			discardConnection(conn);
+			return;
+		}
+		try {
+			//回滚连接之前的事务
+			if (!conn.getRealConnection().getAutoCommit()) {
+				conn.getRealConnection().rollback();
+			}
+		} catch (SQLException e) {
+			discardConnection(conn);
+			throw e;
+		}
+		//如果空闲连接数小于最大空闲连接数
+		if (state.bag.getCount(PooledConnection.STATE_NOT_IN_USE) < poolMaximumIdleConnections
+				&& conn.getConnectionTypeCode() == expectedConnectionTypeCode && !isExpired(conn)) {
+			//使之前交出去的代理失效
+			conn.renewProxyConnection();
+			conn.setLastReturnedTimestamp(System.currentTimeMillis());
+			state.bag.requite(conn);
+			if (log.isDebugEnabled()) {
+				log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+			}
+		} else {
+			discardConnection(conn);
+			if (log.isDebugEnabled()) {
+				log.debug("Closed connection " + conn.getRealHashCode() + ".");
+			}
+			maintainer.triggerRefill();
+		}
+	}
+
+	//无锁模式下获取一个连接
+	private PooledConnection popConcurrentConnection(String username, String password) throws SQLException {
+		boolean countedWait = false;
+		long t = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
+		int localBadConnectionCount = 0;
+		try {
+			while (true) {
+				//先通过CAS抢一个空闲连接
+				PooledConnection conn = state.bag.borrow(0, TimeUnit.MILLISECONDS);
+				//超过最大生存时间的连接直接关闭, 再取下一个
+				if (conn != null && isExpired(conn)) {
+					discardConnection(conn);
+					maintainer.triggerRefill();
+					continue;
+				}
+				//没有空闲连接就尝试新建
+				if (conn == null) {
+					conn = createConcurrentConnection();
+				}
+				//已达到最大活跃数就尝试回收过期连接
+				if (conn == null) {
+					conn = claimOverdueConnection();
+					//回收的连接超过最大生存时间时关闭, 腾出的位置下次新建
+					if (conn != null && isExpired(conn)) {
+						discardConnection(conn);
+						maintainer.triggerRefill();
+						continue;
+					}
+				}
+				//否则在移交队列上等待
+				if (conn == null) {
+					if (!countedWait) {
+						state.hadToWaitCount.increment();
+						countedWait = true;
+					}
+					if (log.isDebugEnabled()) {
+						log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+					}
+					long wt = System.currentTimeMillis();
+					//全局连接数已满时只短暂等待, 以便及时重新检查其他分区
+					long timeToWait = isWithinTotalLimit() ? poolTimeToWait : Math.min(poolTimeToWait, CAPACITY_RECHECK_INTERVAL);
+					conn = state.bag.borrow(timeToWait, TimeUnit.MILLISECONDS);
+					state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+					if (conn == null) {
+						continue;
+					}
+					if (isExpired(conn)) {
+						discardConnection(conn);
+						maintainer.triggerRefill();
+						continue;
+					}
+				}
+				if (conn.isValid()) {
+					try {
+						//回滚之前的事务
+						if (!conn.getRealConnection().getAutoCommit()) {
+							conn.getRealConnection().rollback();
+						}
+					} catch (SQLException e) {
+						discardConnection(conn);
+						throw e;
+					}
+					conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+					conn.setCheckoutTimestamp(System.currentTimeMillis());
+					conn.setLastUsedTimestamp(System.currentTimeMillis());
+					state.requestCount.increment();
+					state.accumulatedRequestTime.add(System.currentTimeMillis() - t);
+					trackCheckout(conn, startNanos);
+					if (log.isDebugEnabled()) {
+						log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+					}
+					return conn;
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("A bad connection (" + conn.getRealHashCode()
+							+ ") was returned from the pool, getting another connection.");
+				}
+				state.badConnectionCount.increment();
+				localBadConnectionCount++;
+				discardConnection(conn);
+				maintainer.triggerRefill();
+				if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+					if (log.isDebugEnabled()) {
+						log.debug("PooledDataSource: Could not get a good connection to the database.");
+					}
+					throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (log.isDebugEnabled()) {
+				log.debug(
+						"PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+			}
+			throw new SQLException(
+					"PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+		}
+	}
+
+	//无锁模式下新建一个借出状态的连接, 达到最大活跃数时返回null
+	private PooledConnection createConcurrentConnection() throws SQLException {
+		//全局连接数已满时先腾出其他分区的空闲连接
+		if (!reserveTotalConnection() && !(releaseCapacity() && reserveTotalConnection())) {
+			return null;
+		}
+		if (!state.bag.reserveSlot(poolMaximumActiveConnections)) {
+			releaseTotalConnection();
+			return null;
+		}
+		boolean created = false;
+		try {
+			PooledConnection conn = openConnection();
+			conn.setState(PooledConnection.STATE_IN_USE);
+			state.bag.add(conn);
+			created = true;
+			if (log.isDebugEnabled()) {
+				log.debug("Created connection " + conn.getRealHashCode() + ".");
+			}
+			return conn;
+		} finally {
+			if (!created) {
+				state.bag.releaseSlot();
+			}
+		}
+	}
+
+	//无锁模式下回收检出时间最长且已过期的连接
+	private PooledConnection claimOverdueConnection() throws SQLException {
+		PooledConnection oldestActiveConnection = null;
+		long longestCheckoutTime = poolMaximumCheckoutTime;
+		for (PooledConnection conn : state.bag.values(PooledConnection.STATE_IN_USE)) {
+			long checkoutTime = conn.getCheckoutTime();
+			if (checkoutTime > longestCheckoutTime) {
+				longestCheckoutTime = checkoutTime;
+				oldestActiveConnection = conn;
+			}
+		}
+		if (oldestActiveConnection == null || !oldestActiveConnection.compareAndSetState(PooledConnection.STATE_IN_USE,
+				PooledConnection.STATE_RESERVED)) {
+			return null;
+		}
+		state.claimedOverdueConnectionCount.increment();
+		state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+		state.accumulatedCheckoutTime.add(longestCheckoutTime);
+		trackCheckin(oldestActiveConnection);
+		try {
+			//将连接中的所有事务回滚
+			if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+				oldestActiveConnection.getRealConnection().rollback();
+			}
+		} catch (SQLException e) {
+			discardConnection(oldestActiveConnection);
+			throw e;
+		}
+		//使旧的代理连接无效
+		oldestActiveConnection.renewProxyConnection();
+		oldestActiveConnection.setState(PooledConnection.STATE_IN_USE);
+		if (log.isDebugEnabled()) {
+			log.debug("Claimed overdue connection " + oldestActiveConnection.getRealHashCode() + ".");
+		}
+		return oldestActiveConnection;
+	}
+
+	//无锁模式下从容器中移除并关闭连接
+	private void discardConnection(PooledConnection conn) {
+		if (state.bag.remove(conn)) {
+			conn.invalidate();
+			try {
+				closeRealConnection(conn);
+			} catch (Exception e) {
+				// ignore
+			}
+		}
+	}
+
+	//后台维护: 对本连接池及其所有分区执行一次维护
+	void maintain() {
+		for (PooledDataSource pool : getMaintainedPools()) {
+			try {
+				pool.retireExpiredConnections();
+				pool.validateIdleConnections();
+				pool.fillIdleConnections();
+				pool.detectLeaks();
+			} catch (RuntimeException e) {
+				log.warn("Pool maintenance failed for user " + pool.getUsername() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	//后台维护: 补充本连接池及其所有分区的空闲连接
+	void refill() {
+		for (PooledDataSource pool : getMaintainedPools()) {
+			pool.fillIdleConnections();
+		}
+	}
+
+	//获取需要维护的连接池, 分区由根连接池统一维护
+	private List<PooledDataSource> getMaintainedPools() {
+		PooledDataSource root = parent == null ? this : parent;
+		List<PooledDataSource> pools = new ArrayList<PooledDataSource>();
+		pools.add(root);
+		pools.addAll(root.partitions.values());
+		return pools;
+	}
+
+	//记录检出: 统计获取耗时, 开启泄漏检测时记录检出位置
+	private void trackCheckout(PooledConnection conn, long startNanos) {
+		long now = System.nanoTime();
+		conn.setCheckoutNanoTime(now);
+		state.waitTimeHistogram.record(TimeUnit.NANOSECONDS.toMicros(now - startNanos));
+		if (poolLeakDetectionThreshold > 0) {
+			conn.setCheckoutSite(new Throwable("Connection checked out here"));
+		}
+	}
+
+	//记录归还: 统计持有时间, 之前报告过泄漏的连接打印归还信息
+	private void trackCheckin(PooledConnection conn) {
+		state.holdTimeHistogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - conn.getCheckoutNanoTime()));
+		if (conn.isLeakReported()) {
+			log.warn("Previously reported leaked connection " + conn.getRealHashCode() + " was returned after "
+					+ conn.getCheckoutTime() + " milliseconds.");
+			conn.setLeakReported(false);
+		}
+		conn.setCheckoutSite(null);
+	}
+
+	//后台维护: 检测持有时间超过阈值的连接, 打印检出位置
+	void detectLeaks() {
+		if (poolLeakDetectionThreshold <= 0) {
+			return;
+		}
+		List<PooledConnection> active;
+		if (poolLockFree) {
+			active = state.bag.values(PooledConnection.STATE_IN_USE);
+		} else {
+			state.lock.lock();
+			try {
+				active = new ArrayList<PooledConnection>(state.activeConnections);
+			} finally {
+				state.lock.unlock();
+			}
+		}
+		for (PooledConnection conn : active) {
+			Throwable site = conn.getCheckoutSite();
+			if (site != null && !conn.isLeakReported() && conn.getCheckoutTime() > poolLeakDetectionThreshold) {
+				conn.setLeakReported(true);
+				state.leakedConnectionCount.increment();
+				StringBuilder builder = new StringBuilder();
+				builder.append("Connection leak detection triggered for connection ").append(conn.getRealHashCode())
+						.append(", held for ").append(conn.getCheckoutTime()).append(" milliseconds. Checked out at:");
+				//跳过连接池内部的调用栈
+				boolean internal = true;
+				for (StackTraceElement element : site.getStackTrace()) {
+					internal = internal && PooledDataSource.class.getName().equals(element.getClassName());
+					if (!internal) {
+						builder.append("\n\tat ").append(element);
+					}
+				}
+				log.warn(builder.toString());
+			}
+		}
+	}
+
+	//连接是否需要淘汰: 超过最大生存时间, 或者是在数据源配置变化之前新建的
+	private boolean isExpired(PooledConnection conn) {
+		return (poolMaximumLifetime > 0 && conn.getAge() > poolMaximumLifetime)
+				|| conn.getDataSourceVersion() != dataSourceVersion.get();
+	}
+
+	//关闭一个已经从连接池中取出的连接
+	private void closePooledConnection(PooledConnection conn) {
+		conn.invalidate();
+		rollbackAndCloseRealConnection(conn);
+		if (log.isDebugEnabled()) {
+			log.debug("Closed connection " + conn.getRealHashCode() + ".");
+		}
+	}
+
+	//后台维护: 淘汰超过最大生存时间或配置已过时的空闲连接
+	void retireExpiredConnections() {
+		if (poolLockFree) {
+			for (PooledConnection conn : state.bag.values(PooledConnection.STATE_NOT_IN_USE)) {
+				if (isExpired(conn) && state.bag.reserve(conn)) {
+					discardConnection(conn);
+					if (log.isDebugEnabled()) {
+						log.debug("Retired connection " + conn.getRealHashCode() + " after " + conn.getAge() + " milliseconds.");
+					}
+				}
+			}
+			return;
+		}
+		List<PooledConnection> expired = new ArrayList<PooledConnection>();
+		state.lock.lock();
+		try {
+			for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+				PooledConnection conn = it.next();
+				if (isExpired(conn)) {
+					it.remove();
+					expired.add(conn);
+				}
+			}
+		} finally {
+			state.lock.unlock();
+		}
+		//在锁外关闭连接
+		for (PooledConnection conn : expired) {
+			closePooledConnection(conn);
+		}
+	}
+
+	//后台维护: 侦测空闲连接, 坏的连接在被借出之前就被剔除
+	void validateIdleConnections() {
+		if (!isValidationEnabled()) {
+			return;
+		}
+		//每次取出一批连接交给维护者并行侦测, 侦测在锁外进行, 同时离开连接池的连接数不超过并行数
+		int batchSize = Math.max(1, poolValidationParallelism);
+		Set<PooledConnection> visited = new HashSet<PooledConnection>();
+		while (true) {
+			List<PooledConnection> batch = new ArrayList<PooledConnection>(batchSize);
+			if (poolLockFree) {
+				for (PooledConnection conn : state.bag.values(PooledConnection.STATE_NOT_IN_USE)) {
+					if (batch.size() < batchSize && !visited.contains(conn)
+							&& conn.getTimeElapsedSinceLastValidation() > poolPingConnectionsNotUsedFor && state.bag.reserve(conn)) {
+						batch.add(conn);
+					}
+				}
+			} else {
+				state.lock.lock();
+				try {
+					Iterator<PooledConnection> it = state.idleConnections.iterator();
+					while (batch.size() < batchSize && it.hasNext()) {
+						PooledConnection conn = it.next();
+						if (!visited.contains(conn) && conn.getTimeElapsedSinceLastValidation() > poolPingConnectionsNotUsedFor) {
+							it.remove();
+							state.pendingConnectionCount++;
+							batch.add(conn);
+						}
+					}
+				} finally {
+					state.lock.unlock();
+				}
+			}
+			if (batch.isEmpty()) {
+				return;
+			}
+			visited.addAll(batch);
+			Boolean[] results = maintainer.validate(batch);
+			for (int i = 0; i < batch.size(); i++) {
+				//侦测被中断的连接结果为null, 当作有效连接放回, 检出时还会再侦测
+				returnValidatedConnection(batch.get(i), !Boolean.FALSE.equals(results[i]));
+			}
+		}
+	}
+
+	//将侦测过的连接放回连接池, 无效的连接直接关闭
+	private void returnValidatedConnection(PooledConnection conn, boolean good) {
+		if (poolLockFree) {
+			if (good) {
+				state.bag.unreserve(conn);
+			} else {
+				state.badConnectionCount.increment();
+				discardConnection(conn);
+			}
+			return;
+		}
+		state.lock.lock();
+		try {
+			state.pendingConnectionCount--;
+			state.available.signalAll();
+			if (good && state.idleConnections.size() < poolMaximumIdleConnections
+					&& conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+				state.idleConnections.add(conn);
+				return;
+			}
+			if (!good) {
+				state.badConnectionCount.increment();
+			}
+		} finally {
+			state.lock.unlock();
+		}
+		closePooledConnection(conn);
+	}
+
+	//后台维护: 补充空闲连接到最小空闲数
+	void fillIdleConnections() {
+		while (poolMinimumIdle > 0 && isWithinTotalLimit()) {
+			if (poolLockFree) {
+				if (state.bag.getCount(PooledConnection.STATE_NOT_IN_USE) >= poolMinimumIdle || !reserveTotalConnection()) {
+					return;
+				}
+				if (!state.bag.reserveSlot(poolMaximumActiveConnections)) {
+					releaseTotalConnection();
+					return;
+				}
+				PooledConnection conn;
+				try {
+					conn = openConnection();
+				} catch (Exception e) {
+					state.bag.releaseSlot();
+					log.warn("Could not fill the pool with a new connection: " + e.getMessage());
+					return;
+				}
+				conn.setConnectionTypeCode(expectedConnectionTypeCode);
+				conn.setLastValidatedTimestamp(System.currentTimeMillis());
+				state.bag.add(conn);
+			} else {
+				state.lock.lock();
+				try {
+					if (state.idleConnections.size() >= poolMinimumIdle || state.idleConnections.size()
+							+ state.activeConnections.size() + state.pendingConnectionCount >= poolMaximumActiveConnections
+							|| !reserveTotalConnection()) {
+						return;
+					}
+					//预留一个位置, 在锁外新建连接
+					state.pendingConnectionCount++;
+				} finally {
+					state.lock.unlock();
+				}
+				PooledConnection conn;
+				try {
+					conn = openConnection();
+				} catch (Exception e) {
+					releasePendingConnection();
+					log.warn("Could not fill the pool with a new connection: " + e.getMessage());
+					return;
+				}
+				conn.setConnectionTypeCode(expectedConnectionTypeCode);
+				conn.setLastValidatedTimestamp(System.currentTimeMillis());
+				state.lock.lock();
+				try {
+					state.pendingConnectionCount--;
+					if (state.idleConnections.size() < poolMaximumIdleConnections) {
+						state.idleConnections.add(conn);
+						conn = null;
+					}
+					state.available.signalAll();
+				} finally {
+					state.lock.unlock();
+				}
+				if (conn != null) {
+					closePooledConnection(conn);
+					return;
+				}
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Filled the pool with a new idle connection.");
+			}
+		}
+	}
+
 	//探测连接
 	protected boolean pingConnection(PooledConnection conn) {
 		boolean result = true;
@@ -500,33 +1575,40 @@ public class PooledDataSource implements DataSource {
 		}
 		//如果连接没有关闭
 		if (result) {
-			if (poolPingEnabled) {
-				if (poolPingConnectionsNotUsedFor >= 0
-						&& conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
+			if (isValidationEnabled()) {
+				if (conn.getTimeElapsedSinceLastValidation() > poolPingConnectionsNotUsedFor) {
 					try {
 						if (log.isDebugEnabled()) {
 							log.debug("Testing connection " + conn.getRealHashCode() + " ...");
 						}
 						//获取数据库连接
 						Connection realConn = conn.getRealConnection();
-						//获取jdbc语句
-						Statement statement = realConn.createStatement();
-						//用侦测查询字符串查询
-						ResultSet rs = statement.executeQuery(poolPingQuery);
-						rs.close();
-						statement.close();
-						//如果连接不是自动提交就回滚
-						if (!realConn.getAutoCommit()) {
-							realConn.rollback();
+						//优先用isValid侦测, 驱动不支持时退回到侦测查询
+						if (!(poolPingUseIsValid && isValidSupported && checkValid(realConn)) && isValidationEnabled()) {
+							//获取jdbc语句
+							Statement statement = realConn.createStatement();
+							//用侦测查询字符串查询
+							ResultSet rs = statement.executeQuery(poolPingQuery);
+							rs.close();
+							statement.close();
+							//如果连接不是自动提交就回滚
+							if (!realConn.getAutoCommit()) {
+								realConn.rollback();
+							}
 						}
 						result = true;
+						conn.setLastValidatedTimestamp(System.currentTimeMillis());
 						if (log.isDebugEnabled()) {
 							log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
 						}
 					} catch (Exception e) {
-						log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+						if (poolPingUseIsValid && isValidSupported) {
+							log.warn("Validation of connection " + conn.getRealHashCode() + " failed: " + e.getMessage());
+						} else {
+							log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+						}
 						try {
-							conn.getRealConnection().close();
+							closeRealConnection(conn);
 						} catch (Exception e2) {
 							// ignore
 						}
@@ -541,6 +1623,42 @@ public class PooledDataSource implements DataSource {
 		return result;
 	}
 
+	//是否需要侦测连接: 开启了侦测查询或isValid侦测, 且isValid不可用时设置了侦测查询
+	private boolean isValidationEnabled() {
+		if (poolPingConnectionsNotUsedFor < 0) {
+			return false;
+		}
+		if (poolPingUseIsValid) {
+			return isValidSupported || hasPingQuery();
+		}
+		return poolPingEnabled;
+	}
+
+	//是否设置了侦测查询
+	private boolean hasPingQuery() {
+		return poolPingQuery != null && !NO_PING_QUERY.equals(poolPingQuery);
+	}
+
+	//用Connection.isValid侦测连接, 连接无效时抛出异常, 驱动不支持时返回false
+	private boolean checkValid(Connection realConn) throws SQLException {
+		try {
+			if (!realConn.isValid(poolPingTimeout)) {
+				throw new SQLException("Connection.isValid returned false.");
+			}
+			return true;
+		} catch (AbstractMethodError e) {
+			isValidSupported = false;
+		} catch (SQLFeatureNotSupportedException e) {
+			isValidSupported = false;
+		}
+		if (hasPingQuery()) {
+			log.warn("Driver does not support Connection.isValid, falling back to ping query '" + poolPingQuery + "'.");
+		} else {
+			log.warn("Driver does not support Connection.isValid and no ping query is set, skipping validation.");
+		}
+		return false;
+	}
+
 	//拆包池化连接
 	public static Connection unwrapConnection(Connection conn) {
 		if (Proxy.isProxyClass(conn.getClass())) {
@@ -554,6 +1672,10 @@ public class PooledDataSource implements DataSource {
 
 	//销毁方法
 	protected void finalize() throws Throwable {
+		//分区共用根连接池的维护者, 不能由分区停止
+		if (parent == null) {
+			maintainer.stop();
+		}
 		forceCloseAll();
 		super.finalize();
 	}
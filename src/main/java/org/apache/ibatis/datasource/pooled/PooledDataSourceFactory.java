@@ -1,5 +1,7 @@
 package org.apache.ibatis.datasource.pooled;
 
+import java.util.Properties;
+
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 
 //池化数据源工厂 
@@ -10,4 +12,11 @@ public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
 		this.dataSource = new PooledDataSource();
 	}
 
+	//设置完属性后启动后台维护, 以便在第一个请求到来之前预热连接
+	@Override
+	public void setProperties(Properties properties) {
+		super.setProperties(properties);
+		((PooledDataSource) dataSource).startMaintenance();
+	}
+
 }
@@ -0,0 +1,371 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+//预编译语句缓存, 挂在物理连接上, 跨越多次检出复用同一SQL的PreparedStatement
+class PreparedStatementCache {
+
+	private static final String CLOSE = "close";
+	private static final String IS_CLOSED = "isClosed";
+	private static final String CLOSE_ON_COMPLETION = "closeOnCompletion";
+	private static final String IS_CLOSE_ON_COMPLETION = "isCloseOnCompletion";
+	private static final String GET_STATEMENT = "getStatement";
+	private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+	private static final Class<?>[] RESULT_SET_IFACES = new Class<?>[] { ResultSet.class };
+
+	private final PooledDataSource dataSource;                    //池化数据源, 缓存大小可以在运行时调整
+	private final PoolState state;                                //连接池状态, 用于统计命中率
+	private final LinkedHashMap<StatementKey, CachedStatement> statements; //按访问顺序排列的语句
+	private final ReentrantLock lock = new ReentrantLock();       //新建语句要访问数据库, 不用synchronized以免占住虚拟线程的载体线程
+
+	//构造器
+	public PreparedStatementCache(PooledDataSource dataSource) {
+		this.dataSource = dataSource;
+		this.state = dataSource.getPoolState();
+		this.statements = new LinkedHashMap<StatementKey, CachedStatement>(16, .75F, true);
+	}
+
+	//获取预编译语句, 命中时直接复用, 否则新建并放入缓存
+	public PreparedStatement prepare(Connection realConnection, Method method, Object[] args) throws Throwable {
+		lock.lock();
+		try {
+			StatementKey key = new StatementKey(args);
+			CachedStatement cached = statements.get(key);
+			if (cached != null && !cached.inUse) {
+				state.statementCacheHitCount.increment();
+				return cached.checkout();
+			}
+			state.statementCacheMissCount.increment();
+			PreparedStatement statement;
+			try {
+				statement = (PreparedStatement) method.invoke(realConnection, args);
+			} catch (Throwable t) {
+				throw ExceptionUtil.unwrapThrowable(t);
+			}
+			//同一SQL正在被使用时不缓存新建的语句
+			if (cached != null) {
+				return statement;
+			}
+			cached = new CachedStatement(this, statement);
+			statements.put(key, cached);
+			evictIfNecessary();
+			return cached.checkout();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//获取缓存的语句数
+	public int getSize() {
+		lock.lock();
+		try {
+			return statements.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//语句被逻辑关闭时归还到缓存
+	private void release(CachedStatement cached) throws SQLException {
+		lock.lock();
+		try {
+			cached.inUse = false;
+			if (cached.evicted) {
+				cached.statement.close();
+				return;
+			}
+			try {
+				cached.reset();
+			} catch (SQLException e) {
+				//重置失败的语句不能再复用
+				cached.evicted = true;
+				statements.values().remove(cached);
+				cached.statement.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//把语句移出缓存, 之后由真正的语句自己管理关闭, 逻辑关闭时也会真正关闭
+	private void detach(CachedStatement cached) {
+		lock.lock();
+		try {
+			if (!cached.evicted) {
+				cached.evicted = true;
+				statements.values().remove(cached);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//超出容量时淘汰最久未使用的语句, 正在使用的语句等归还时再关闭
+	private void evictIfNecessary() {
+		int size = dataSource.poolPreparedStatementCacheSize;
+		Iterator<CachedStatement> it = statements.values().iterator();
+		while (statements.size() > size && it.hasNext()) {
+			CachedStatement eldest = it.next();
+			it.remove();
+			eldest.evicted = true;
+			if (!eldest.inUse) {
+				try {
+					eldest.statement.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	//语句的缓存键, 由SQL和prepareStatement的其余参数组成
+	private static class StatementKey {
+
+		private final Object[] args;
+		private final int hashCode;
+
+		StatementKey(Object[] args) {
+			this.args = args;
+			this.hashCode = Arrays.deepHashCode(args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof StatementKey)) {
+				return false;
+			}
+			StatementKey other = (StatementKey) obj;
+			return hashCode == other.hashCode && Arrays.deepEquals(args, other.args);
+		}
+
+	}
+
+	//缓存的语句
+	private static class CachedStatement {
+
+		private final PreparedStatementCache cache;
+		private final PreparedStatement statement;   //真正的语句
+		private final int queryTimeout;              //初始的超时时间
+		private final int fetchSize;                 //初始的获取行数
+		private final int maxRows;                   //初始的最大行数
+		private boolean inUse;                       //是否已被检出
+		private boolean evicted;                     //是否已被淘汰
+		private boolean propertiesChanged;           //本次使用中是否修改过语句属性
+		private boolean batched;                     //本次使用中是否添加过批处理
+
+		CachedStatement(PreparedStatementCache cache, PreparedStatement statement) throws SQLException {
+			this.cache = cache;
+			this.statement = statement;
+			this.queryTimeout = statement.getQueryTimeout();
+			this.fetchSize = statement.getFetchSize();
+			this.maxRows = statement.getMaxRows();
+		}
+
+		//检出语句, 每次检出都生成一个新的代理, 之前的代理关闭后不能再使用
+		PreparedStatement checkout() {
+			inUse = true;
+			StatementHandle handle = new StatementHandle(this);
+			handle.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES,
+					handle);
+			return handle.proxy;
+		}
+
+		//重置语句, 使下一次检出拿到的语句和新建的一样
+		void reset() throws SQLException {
+			statement.clearParameters();
+			statement.clearWarnings();
+			if (batched) {
+				statement.clearBatch();
+				batched = false;
+			}
+			if (propertiesChanged) {
+				statement.setQueryTimeout(queryTimeout);
+				statement.setFetchSize(fetchSize);
+				statement.setMaxRows(maxRows);
+				propertiesChanged = false;
+			}
+		}
+
+	}
+
+	//检出语句的代理处理器, 返回的结果集都被包装, getStatement返回检出的代理而不是缓存中的语句
+	//closeOnCompletion不传给真正的语句, 否则结果集关闭时缓存中的语句被真正关闭, 而缓存还会把它交给下一次检出。
+	//在执行之前调用时, 结果集关闭时把语句归还到缓存;
+	//结果集已经返回之后才调用时无法跟踪, 把语句移出缓存, 交给真正的语句自己关闭。
+	private static class StatementHandle implements InvocationHandler {
+
+		private final CachedStatement cached;
+		private PreparedStatement proxy;             //检出的语句代理, 包装后的结果集getStatement返回它
+		private boolean closed;
+		private boolean closeOnCompletion;           //关闭当前结果集时归还语句
+		private boolean executed;                    //本次检出是否已经执行过
+		private boolean detached;                    //是否已经移出缓存
+		private ResultSetHandle currentResultSet;    //最近一次返回的包装结果集
+
+		StatementHandle(CachedStatement cached) {
+			this.cached = cached;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			//close方法将语句归还到缓存
+			if (CLOSE.equals(methodName)) {
+				close();
+				return null;
+			}
+			if (IS_CLOSED.equals(methodName)) {
+				return closed;
+			}
+			if (Object.class.equals(method.getDeclaringClass())) {
+				if ("equals".equals(methodName)) {
+					return proxy == args[0];
+				} else if ("hashCode".equals(methodName)) {
+					return System.identityHashCode(proxy);
+				}
+				return method.invoke(cached.statement, args);
+			}
+			if (closed) {
+				throw new SQLException("Error accessing cached PreparedStatement. Statement is closed.");
+			}
+			if (!detached) {
+				if (CLOSE_ON_COMPLETION.equals(methodName)) {
+					if (!executed) {
+						closeOnCompletion = true;
+						return null;
+					}
+					//结果集可能已经在调用者手里, 只能交给真正的语句
+					detached = true;
+					cached.cache.detach(cached);
+				} else if (IS_CLOSE_ON_COMPLETION.equals(methodName)) {
+					return closeOnCompletion;
+				}
+			}
+			if ("addBatch".equals(methodName)) {
+				cached.batched = true;
+			} else if ("setQueryTimeout".equals(methodName) || "setFetchSize".equals(methodName)
+					|| "setMaxRows".equals(methodName)) {
+				cached.propertiesChanged = true;
+			} else if (methodName.startsWith("execute") || "getMoreResults".equals(methodName)) {
+				//重新执行或者移到下一个结果时, 之前的结果集已经被驱动关闭
+				executed = true;
+				currentResultSet = null;
+			} else if ("getResultSet".equals(methodName) || "getGeneratedKeys".equals(methodName)) {
+				executed = true;
+			}
+			Object result;
+			try {
+				result = method.invoke(cached.statement, args);
+			} catch (Throwable t) {
+				throw ExceptionUtil.unwrapThrowable(t);
+			}
+			if (result instanceof ResultSet) {
+				return wrap((ResultSet) result);
+			}
+			return result;
+		}
+
+		//包装结果集, 同一个结果集多次获取时返回同一个包装
+		private ResultSet wrap(ResultSet resultSet) {
+			if (currentResultSet != null && currentResultSet.resultSet == resultSet) {
+				return currentResultSet.proxy;
+			}
+			currentResultSet = new ResultSetHandle(this, resultSet);
+			return currentResultSet.proxy;
+		}
+
+		//结果集关闭, 设置了closeOnCompletion时归还语句
+		private void resultSetClosed(ResultSetHandle resultSet) throws SQLException {
+			if (resultSet == currentResultSet) {
+				currentResultSet = null;
+				if (closeOnCompletion) {
+					close();
+				}
+			}
+		}
+
+		//归还语句, 和真正关闭语句一样先关闭还没有关闭的结果集
+		private void close() throws SQLException {
+			if (!closed) {
+				closed = true;
+				ResultSetHandle resultSet = currentResultSet;
+				currentResultSet = null;
+				try {
+					if (resultSet != null && !resultSet.closed) {
+						resultSet.closed = true;
+						resultSet.resultSet.close();
+					}
+				} finally {
+					cached.cache.release(cached);
+				}
+			}
+		}
+
+	}
+
+	//检出的语句返回的结果集的代理处理器
+	private static class ResultSetHandle implements InvocationHandler {
+
+		private final StatementHandle statement;
+		private final ResultSet resultSet;
+		private final ResultSet proxy;
+		private boolean closed;
+
+		ResultSetHandle(StatementHandle statement, ResultSet resultSet) {
+			this.statement = statement;
+			this.resultSet = resultSet;
+			this.proxy = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), RESULT_SET_IFACES, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (CLOSE.equals(methodName)) {
+				if (!closed) {
+					closed = true;
+					try {
+						resultSet.close();
+					} finally {
+						statement.resultSetClosed(this);
+					}
+				}
+				return null;
+			}
+			if (GET_STATEMENT.equals(methodName)) {
+				return statement.proxy;
+			}
+			if (Object.class.equals(method.getDeclaringClass())) {
+				if ("equals".equals(methodName)) {
+					return proxy == args[0];
+				} else if ("hashCode".equals(methodName)) {
+					return System.identityHashCode(proxy);
+				}
+			}
+			try {
+				return method.invoke(resultSet, args);
+			} catch (Throwable t) {
+				throw ExceptionUtil.unwrapThrowable(t);
+			}
+		}
+
+	}
+
+}
@@ -10,6 +10,7 @@ import java.util.Enumeration;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -26,6 +27,9 @@ public class UnpooledDataSource implements DataSource {
 	//注册驱动集合
 	private static Map<String, Driver> registeredDrivers = new ConcurrentHashMap<String, Driver>();
 
+	//加载驱动的锁, 每次获取连接都要经过这里, 不用synchronized以免占住虚拟线程的载体线程
+	private final ReentrantLock driverLock = new ReentrantLock();
+
 	private String driver;
 	private String url;
 	private String username;
@@ -132,8 +136,13 @@ public class UnpooledDataSource implements DataSource {
 		return driver;
 	}
 
-	public synchronized void setDriver(String driver) {
-		this.driver = driver;
+	public void setDriver(String driver) {
+		driverLock.lock();
+		try {
+			this.driver = driver;
+		} finally {
+			driverLock.unlock();
+		}
 	}
 
 	public String getUrl() {
@@ -200,24 +209,29 @@ public class UnpooledDataSource implements DataSource {
 	}
 
 	//初始化驱动
-	private synchronized void initializeDriver() throws SQLException {
+	private void initializeDriver() throws SQLException {
 		// 这里便是大家熟悉的初学JDBC时的那几句话了 Class.forName newInstance()
-		if (!registeredDrivers.containsKey(driver)) {
-			Class<?> driverType;
-			try {
-				if (driverClassLoader != null) {
-					driverType = Class.forName(driver, true, driverClassLoader);
-				} else {
-					driverType = Resources.classForName(driver);
+		driverLock.lock();
+		try {
+			if (!registeredDrivers.containsKey(driver)) {
+				Class<?> driverType;
+				try {
+					if (driverClassLoader != null) {
+						driverType = Class.forName(driver, true, driverClassLoader);
+					} else {
+						driverType = Resources.classForName(driver);
+					}
+					// DriverManager requires the driver to be loaded via the system ClassLoader.
+					// http://www.kfu.com/~nsayer/Java/dyn-jdbc.html
+					Driver driverInstance = (Driver) driverType.newInstance();
+					DriverManager.registerDriver(new DriverProxy(driverInstance));
+					registeredDrivers.put(driver, driverInstance);
+				} catch (Exception e) {
+					throw new SQLException("Error setting driver on UnpooledDataSource. Cause: " + e);
 				}
-				// DriverManager requires the driver to be loaded via the system ClassLoader.
-				// http://www.kfu.com/~nsayer/Java/dyn-jdbc.html
-				Driver driverInstance = (Driver) driverType.newInstance();
-				DriverManager.registerDriver(new DriverProxy(driverInstance));
-				registeredDrivers.put(driver, driverInstance);
-			} catch (Exception e) {
-				throw new SQLException("Error setting driver on UnpooledDataSource. Cause: " + e);
 			}
+		} finally {
+			driverLock.unlock();
 		}
 	}
 
@@ -10,6 +10,8 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
@@ -167,6 +169,19 @@ public abstract class BaseExecutor implements Executor {
 		return list;
 	}
 
+	//查询方法, 返回游标, 结果在遍历时逐行映射, 不放入本地缓存
+	public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+		ErrorContext.instance().resource(ms.getResource()).activity("executing a cursor query").object(ms.getId());
+		if (closed) {
+			throw new ExecutorException("Executor was closed.");
+		}
+		if (queryStack == 0 && ms.isFlushCacheRequired()) {
+			clearLocalCache();
+		}
+		BoundSql boundSql = ms.getBoundSql(parameter);
+		return doQueryCursor(ms, parameter, rowBounds, boundSql);
+	}
+
 	//延迟加载，DefaultResultSetHandler.getNestedQueryMappingValue调用.属于嵌套查询，比较高级.
 	public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key,
 			Class<?> targetType) {
@@ -189,15 +204,18 @@ public abstract class BaseExecutor implements Executor {
 		if (closed) {
 			throw new ExecutorException("Executor was closed.");
 		}
-		CacheKey cacheKey = new CacheKey();
+		List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+		// 按参数个数预先分配空间: mappedStementId、offset、limit、SQL、参数、environment
+		CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
 		// MyBatis对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL +
 		// queryParams + environment]生成一个哈希码
 		cacheKey.update(ms.getId());
-		cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
-		cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
+		cacheKey.update(rowBounds.getOffset());
+		cacheKey.update(rowBounds.getLimit());
 		cacheKey.update(boundSql.getSql());
-		List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
 		TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+		// 参数对象的元对象只创建一次, 所有参数共用
+		MetaObject metaObject = null;
 		// mimic DefaultParameterHandler logic
 		// 模仿DefaultParameterHandler的逻辑,不再重复，请参考DefaultParameterHandler
 		for (int i = 0; i < parameterMappings.size(); i++) {
@@ -212,7 +230,9 @@ public abstract class BaseExecutor implements Executor {
 				} else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
 					value = parameterObject;
 				} else {
-					MetaObject metaObject = configuration.newMetaObject(parameterObject);
+					if (metaObject == null) {
+						metaObject = configuration.newMetaObject(parameterObject);
+					}
 					value = metaObject.getValue(propertyName);
 				}
 				cacheKey.update(value);
@@ -271,6 +291,25 @@ public abstract class BaseExecutor implements Executor {
 	protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds,
 			ResultHandler resultHandler, BoundSql boundSql) throws SQLException;
 
+	//queryCursor-->doQueryCursor, 返回的游标关闭前语句不能关闭
+	protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds,
+			BoundSql boundSql) throws SQLException;
+
+	//打开游标, 让语句在结果集关闭后自动关闭, 打开失败时立即关闭语句
+	//closeOnCompletion在执行之前设置, 连接池缓存的语句才能跟踪到返回的结果集, 在结果集关闭时归还语句
+	protected <E> Cursor<E> openCursor(StatementHandler handler, Statement stmt) throws SQLException {
+		try {
+			stmt.closeOnCompletion();
+			return handler.<E>queryCursor(stmt);
+		} catch (SQLException e) {
+			closeStatement(stmt);
+			throw e;
+		} catch (RuntimeException e) {
+			closeStatement(stmt);
+			throw e;
+		}
+	}
+
 	//关闭语句
 	protected void closeStatement(Statement statement) {
 		if (statement != null) {
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -77,6 +78,19 @@ public class BatchExecutor extends BaseExecutor {
 		}
 	}
 
+	//先执行攒下的批处理, 再打开游标
+	@Override
+	protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds,
+			BoundSql boundSql) throws SQLException {
+		flushStatements();
+		Configuration configuration = ms.getConfiguration();
+		StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+		Connection connection = getConnection(ms.getStatementLog());
+		Statement stmt = handler.prepare(connection);
+		handler.parameterize(stmt);
+		return openCursor(handler, stmt);
+	}
+
 	@Override
 	public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
 		try {
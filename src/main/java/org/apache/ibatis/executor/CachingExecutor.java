@@ -1,17 +1,30 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidationBus;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.MeteredCache;
+import org.apache.ibatis.cache.RefreshingCache;
+import org.apache.ibatis.cache.TableCacheIndex;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.parsing.SqlTableParser;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.CacheInvalidation;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -21,9 +34,24 @@ public class CachingExecutor implements Executor {
 
 	private Executor delegate;
 	private TransactionalCacheManager tcm = new TransactionalCacheManager();
+	//缓存失效总线, 不广播时为null
+	private final CacheInvalidationBus invalidationBus;
+
+	//以下用于按表失效缓存
+	private static final String[] ANY_TABLE = new String[] { TableCacheIndex.ANY_TABLE };
+	private TableCacheIndex tableIndex;
+	//本事务中写过的表, 提交时删除依赖它们的缓存项
+	private final Set<String> touchedTables = new HashSet<String>();
+	//本事务中放入缓存的查询结果, 提交时登记它们依赖的表
+	private final List<TableDependency> pendingDependencies = new ArrayList<TableDependency>();
 
 	public CachingExecutor(Executor delegate) {
+		this(delegate, null);
+	}
+
+	public CachingExecutor(Executor delegate, CacheInvalidationBus invalidationBus) {
 		this.delegate = delegate;
+		this.invalidationBus = invalidationBus;
 		delegate.setExecutorWrapper(this);
 	}
 
@@ -35,8 +63,9 @@ public class CachingExecutor implements Executor {
 		try {
 			if (forceRollback) {
 				tcm.rollback();
+				clearTableState();
 			} else {
-				tcm.commit();
+				commitCaches();
 			}
 		} finally {
 			delegate.close(forceRollback);
@@ -49,7 +78,7 @@ public class CachingExecutor implements Executor {
 
 	public int update(MappedStatement ms, Object parameterObject) throws SQLException {
 		// 刷新缓存完再update
-		flushCacheIfRequired(ms);
+		flushCacheIfRequired(ms, parameterObject, null);
 		return delegate.update(ms, parameterObject);
 	}
 
@@ -61,6 +90,12 @@ public class CachingExecutor implements Executor {
 		return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
 	}
 
+	// 游标查询不读写二级缓存, 只按配置先清空缓存
+	public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+		flushCacheIfRequired(ms, parameter, null);
+		return delegate.queryCursor(ms, parameter, rowBounds);
+	}
+
 	// 被ResultLoader.selectList调用
 	public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds,
 			ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
@@ -68,14 +103,41 @@ public class CachingExecutor implements Executor {
 		// 默认情况下是没有开启缓存的(二级缓存).要开启二级缓存,你需要在你的 SQL 映射文件中添加一行: <cache/>
 		// 简单的说，就是先查CacheKey，查不到再委托给实际的执行器去查
 		if (cache != null) {
-			flushCacheIfRequired(ms);
+			flushCacheIfRequired(ms, parameterObject, boundSql);
 			if (ms.isUseCache() && resultHandler == null) {
 				ensureNoOutParams(ms, parameterObject, boundSql);
-				@SuppressWarnings("unchecked")
-				List<E> list = (List<E>) tcm.getObject(cache, key);
+				String[] tables = null;
+				if (isTableInvalidation(ms)) {
+					tables = getTables(ms, boundSql);
+					if (tables.length == 0) {
+						tables = ANY_TABLE;
+					}
+				}
+				List<E> list = null;
+				// 本事务中已经写过这些表时, 缓存里的是旧结果, 不读缓存
+				if (tables == null || !isTouched(tables)) {
+					@SuppressWarnings("unchecked")
+					List<E> cached = (List<E>) tcm.getObject(cache, key);
+					list = cached;
+				}
 				if (list == null) {
+					// 查询之前记下表的版本, 提交时版本变了说明查询期间表被写过
+					long version = tables != null ? tableIndex(ms).getVersion(tables) : 0;
+					long start = System.nanoTime();
 					list = delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+					long loadTime = System.nanoTime() - start;
+					if (cache instanceof MeteredCache) {
+						((MeteredCache) cache).getMetrics().recordLoad(loadTime);
+					}
+					// 开启了提前刷新的缓存才附加加载器, 用它在后台重新查询
+					if (cache instanceof RefreshingCache && ((RefreshingCache) cache).isRefreshAhead()) {
+						key.setLoader(new StatementCacheLoader(ms, parameterObject, rowBounds, tables,
+								TimeUnit.NANOSECONDS.toMillis(loadTime)));
+					}
 					tcm.putObject(cache, key, list);
+					if (tables != null) {
+						pendingDependencies.add(new TableDependency(cache, key, tables, version));
+					}
 				}
 				return list;
 			}
@@ -89,7 +151,7 @@ public class CachingExecutor implements Executor {
 
 	public void commit(boolean required) throws SQLException {
 		delegate.commit(required);
-		tcm.commit();
+		commitCaches();
 	}
 
 	public void rollback(boolean required) throws SQLException {
@@ -98,6 +160,7 @@ public class CachingExecutor implements Executor {
 		} finally {
 			if (required) {
 				tcm.rollback();
+				clearTableState();
 			}
 		}
 	}
@@ -131,15 +194,106 @@ public class CachingExecutor implements Executor {
 		delegate.clearLocalCache();
 	}
 
-	private void flushCacheIfRequired(MappedStatement ms) {
+	private void flushCacheIfRequired(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+		if (!ms.isFlushCacheRequired()) {
+			return;
+		}
+		// 按表失效时写语句只记下涉及的表, 不管所在的命名空间有没有缓存
+		if (isTableInvalidation(ms) && ms.getSqlCommandType() != SqlCommandType.SELECT) {
+			String[] tables = getTables(ms, boundSql != null ? boundSql : ms.getBoundSql(parameterObject));
+			tableIndex(ms);
+			if (tables.length > 0) {
+				Collections.addAll(touchedTables, tables);
+				return;
+			}
+			// 解析不出表名(比如调用存储过程), 可能写了任何表
+			touchedTables.add(TableCacheIndex.ANY_TABLE);
+		}
 		Cache cache = ms.getCache();
-		if (cache != null && ms.isFlushCacheRequired()) {
+		if (cache != null) {
 			tcm.clear(cache);
 		}
 	}
 
+	// 提交事务缓存: 先删除依赖写过的表的缓存项, 再放入本事务的查询结果, 最后登记依赖
+	// 有失效总线时, 把清空的缓存和写过的表合成一条消息广播给其他节点
+	private void commitCaches() {
+		try {
+			if (!touchedTables.isEmpty()) {
+				tableIndex.invalidate(touchedTables);
+			}
+			if (invalidationBus != null) {
+				List<String> clearedCacheIds = new ArrayList<String>();
+				tcm.commit(clearedCacheIds);
+				invalidationBus.publish(clearedCacheIds, touchedTables);
+			} else {
+				tcm.commit();
+			}
+			for (TableDependency dependency : pendingDependencies) {
+				tableIndex.register(dependency.cache, dependency.key, dependency.tables, dependency.version);
+			}
+		} finally {
+			clearTableState();
+		}
+	}
+
+	private void clearTableState() {
+		touchedTables.clear();
+		pendingDependencies.clear();
+	}
+
+	private boolean isTableInvalidation(MappedStatement ms) {
+		return ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE;
+	}
+
+	private TableCacheIndex tableIndex(MappedStatement ms) {
+		if (tableIndex == null) {
+			tableIndex = ms.getConfiguration().getTableCacheIndex();
+		}
+		return tableIndex;
+	}
+
+	// 语句涉及的表, 优先用声明的表名, 没有声明时从SQL中解析
+	private String[] getTables(MappedStatement ms, BoundSql boundSql) {
+		String[] tables = ms.getTables();
+		return tables != null ? tables : SqlTableParser.parse(boundSql.getSql());
+	}
+
+	// 本事务中是否写过其中的表
+	private boolean isTouched(String[] tables) {
+		if (touchedTables.isEmpty()) {
+			return false;
+		}
+		if (touchedTables.contains(TableCacheIndex.ANY_TABLE)) {
+			return true;
+		}
+		for (String table : tables) {
+			if (TableCacheIndex.ANY_TABLE.equals(table) || touchedTables.contains(table)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void setExecutorWrapper(Executor executor) {
 		throw new UnsupportedOperationException("This method should not be called");
 	}
 
+	// 等待提交时登记的依赖
+	private static class TableDependency {
+
+		final Cache cache;
+		final CacheKey key;
+		final String[] tables;
+		final long version;
+
+		TableDependency(Cache cache, CacheKey key, String[] tables, long version) {
+			this.cache = cache;
+			this.key = key;
+			this.tables = tables;
+			this.version = version;
+		}
+
+	}
+
 }
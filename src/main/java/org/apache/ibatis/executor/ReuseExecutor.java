@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
@@ -49,6 +50,16 @@ public class ReuseExecutor extends BaseExecutor {
 		return handler.<E>query(stmt, resultHandler);
 	}
 
+	//重用的语句由执行器在刷新时关闭, 不随游标关闭
+	@Override
+	protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds,
+			BoundSql boundSql) throws SQLException {
+		Configuration configuration = ms.getConfiguration();
+		StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+		Statement stmt = prepareStatement(handler, ms.getStatementLog());
+		return handler.<E>queryCursor(stmt);
+	}
+
 	@Override
 	public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
 		for (Statement stmt : statementMap.values()) {
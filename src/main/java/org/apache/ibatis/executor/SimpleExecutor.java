@@ -6,6 +6,7 @@ import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
@@ -58,6 +59,16 @@ public class SimpleExecutor extends BaseExecutor {
 		}
 	}
 
+	//执行查询方法, 返回游标, 语句在游标关闭后随结果集一起关闭
+	@Override
+	protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds,
+			BoundSql boundSql) throws SQLException {
+		Configuration configuration = ms.getConfiguration();
+		StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+		Statement stmt = prepareStatement(handler, ms.getStatementLog());
+		return openCursor(handler, stmt);
+	}
+
 	//冲刷语句
 	@Override
 	public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
@@ -0,0 +1,98 @@
+package org.apache.ibatis.executor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheLoader;
+import org.apache.ibatis.cache.MeteredCache;
+import org.apache.ibatis.cache.TableCacheIndex;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+
+//重新执行MappedStatement的缓存加载器, 在新的事务中直接用SimpleExecutor查询, 不经过二级缓存
+class StatementCacheLoader implements CacheLoader {
+
+	private final MappedStatement mappedStatement;
+	private final Object parameterObject;
+	private final RowBounds rowBounds;
+	private final String[] tables;    //依赖的表, 不按表失效时为null
+	private volatile long loadTime;   //上一次加载所用的时间(毫秒)
+
+	StatementCacheLoader(MappedStatement mappedStatement, Object parameterObject, RowBounds rowBounds, String[] tables,
+			long loadTime) {
+		this.mappedStatement = mappedStatement;
+		this.parameterObject = parameterObject;
+		this.rowBounds = rowBounds;
+		this.tables = tables;
+		this.loadTime = loadTime;
+	}
+
+	public Object load(CacheKey key) throws Exception {
+		long start = System.nanoTime();
+		Executor executor = newExecutor();
+		try {
+			BoundSql boundSql = mappedStatement.getBoundSql(parameterObject);
+			//参数对象在查询之后被修改了, 查出来的结果已经不对应这个键
+			if (!key.equals(executor.createCacheKey(mappedStatement, parameterObject, rowBounds, boundSql))) {
+				return null;
+			}
+			List<Object> list = executor.<Object>query(mappedStatement, parameterObject, rowBounds,
+					Executor.NO_RESULT_HANDLER, key, boundSql);
+			long nanos = System.nanoTime() - start;
+			loadTime = TimeUnit.NANOSECONDS.toMillis(nanos);
+			Cache cache = getCache();
+			if (cache instanceof MeteredCache) {
+				((MeteredCache) cache).getMetrics().recordLoad(nanos);
+			}
+			return list;
+		} finally {
+			executor.close(false);
+		}
+	}
+
+	public Cache getCache() {
+		return mappedStatement.getCache();
+	}
+
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	public long getVersion() {
+		return tables != null ? getTableIndex().getVersion(tables) : 0;
+	}
+
+	//和CachingExecutor提交时一样登记依赖, 版本变了说明刷新的结果可能是旧的
+	public boolean register(CacheKey key, long version) {
+		return tables == null || getTableIndex().register(getCache(), key, tables, version);
+	}
+
+	private TableCacheIndex getTableIndex() {
+		return mappedStatement.getConfiguration().getTableCacheIndex();
+	}
+
+	private Executor newExecutor() {
+		final Configuration configuration = mappedStatement.getConfiguration();
+		final Environment environment = configuration.getEnvironment();
+		if (environment == null) {
+			throw new ExecutorException("Cache entry could not be refreshed.  Environment was not configured.");
+		}
+		final DataSource ds = environment.getDataSource();
+		if (ds == null) {
+			throw new ExecutorException("Cache entry could not be refreshed.  DataSource was not configured.");
+		}
+		final TransactionFactory transactionFactory = environment.getTransactionFactory();
+		final Transaction tx = transactionFactory.newTransaction(ds, null, false);
+		return new SimpleExecutor(configuration, tx);
+	}
+
+}
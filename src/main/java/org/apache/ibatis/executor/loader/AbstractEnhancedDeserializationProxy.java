@@ -4,6 +4,7 @@ import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.ibatis.executor.ExecutorException;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
@@ -20,7 +21,7 @@ public abstract class AbstractEnhancedDeserializationProxy {
 	private ObjectFactory objectFactory;
 	private List<Class<?>> constructorArgTypes;
 	private List<Object> constructorArgs;
-	private final Object reloadingPropertyLock;
+	private final ReentrantLock reloadingPropertyLock;   //加载属性时要查询数据库, 不用synchronized以免占住虚拟线程的载体线程
 	private boolean reloadingProperty;
 
 	protected AbstractEnhancedDeserializationProxy(Class<?> type,
@@ -31,7 +32,7 @@ public abstract class AbstractEnhancedDeserializationProxy {
 		this.objectFactory = objectFactory;
 		this.constructorArgTypes = constructorArgTypes;
 		this.constructorArgs = constructorArgs;
-		this.reloadingPropertyLock = new Object();
+		this.reloadingPropertyLock = new ReentrantLock();
 		this.reloadingProperty = false;
 	}
 
@@ -50,7 +51,8 @@ public abstract class AbstractEnhancedDeserializationProxy {
 				return this.newSerialStateHolder(original, unloadedProperties, objectFactory, constructorArgTypes,
 						constructorArgs);
 			} else {
-				synchronized (this.reloadingPropertyLock) {
+				this.reloadingPropertyLock.lock();
+				try {
 					if (!FINALIZE_METHOD.equals(methodName) && PropertyNamer.isProperty(methodName)
 							&& !reloadingProperty) {
 						final String property = PropertyNamer.methodToProperty(methodName);
@@ -72,6 +74,8 @@ public abstract class AbstractEnhancedDeserializationProxy {
 						}
 					}
 					return enhanced;
+				} finally {
+					this.reloadingPropertyLock.unlock();
 				}
 			}
 		} catch (Throwable t) {
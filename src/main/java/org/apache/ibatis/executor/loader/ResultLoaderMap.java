@@ -12,7 +12,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BaseExecutor;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.executor.ExecutorException;
@@ -30,6 +32,8 @@ public class ResultLoaderMap {
 
 	//加载对的hashmap
 	private final Map<String, LoadPair> loaderMap = new HashMap<String, LoadPair>();
+	//代理对象触发延迟加载时持有的锁, 加载时要查询数据库, 不用synchronized以免占住虚拟线程的载体线程
+	private final ReentrantLock lock = new ReentrantLock();
 
 	// 把要延迟加载的属性记到ResultLoaderMap里（一个哈希表）
 	public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader) {
@@ -47,6 +51,11 @@ public class ResultLoaderMap {
 		loaderMap.put(upperFirst, new LoadPair(property, metaResultObject, resultLoader));
 	}
 
+	//获取延迟加载的锁
+	public ReentrantLock getLock() {
+		return lock;
+	}
+
 	public final Map<String, LoadPair> getProperties() {
 		return new HashMap<String, LoadPair>(this.loaderMap);
 	}
@@ -283,5 +292,11 @@ public class ResultLoaderMap {
 				ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
 			throw new UnsupportedOperationException("Not supported.");
 		}
+
+		@Override
+		protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds,
+				BoundSql boundSql) throws SQLException {
+			throw new UnsupportedOperationException("Not supported.");
+		}
 	}
 }
@@ -119,7 +119,8 @@ public class CglibProxyFactory implements ProxyFactory {
 				throws Throwable {
 			final String methodName = method.getName();
 			try {
-				synchronized (lazyLoader) {
+				lazyLoader.getLock().lock();
+				try {
 					if (WRITE_REPLACE_METHOD.equals(methodName)) {
 						Object original = null;
 						if (constructorArgTypes.isEmpty()) {
@@ -148,6 +149,8 @@ public class CglibProxyFactory implements ProxyFactory {
 							}
 						}
 					}
+				} finally {
+					lazyLoader.getLock().unlock();
 				}
 				return methodProxy.invokeSuper(enhanced, args);
 			} catch (Throwable t) {
@@ -120,7 +120,8 @@ public class JavassistProxyFactory implements org.apache.ibatis.executor.loader.
 		public Object invoke(Object enhanced, Method method, Method methodProxy, Object[] args) throws Throwable {
 			final String methodName = method.getName();
 			try {
-				synchronized (lazyLoader) {
+				lazyLoader.getLock().lock();
+				try {
 					if (WRITE_REPLACE_METHOD.equals(methodName)) {
 						Object original = null;
 						if (constructorArgTypes.isEmpty()) {
@@ -147,6 +148,8 @@ public class JavassistProxyFactory implements org.apache.ibatis.executor.loader.
 							}
 						}
 					}
+				} finally {
+					lazyLoader.getLock().unlock();
 				}
 				return methodProxy.invoke(enhanced, args);
 			} catch (Throwable t) {
@@ -14,6 +14,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
@@ -59,6 +61,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 	private final Map<CacheKey, Object> nestedResultObjects = new HashMap<CacheKey, Object>();
 	private final Map<CacheKey, Object> ancestorObjects = new HashMap<CacheKey, Object>();
 	private final Map<String, String> ancestorColumnPrefix = new HashMap<String, String>();
+	// 游标读取resultOrdered的嵌套结果时, 上一次停下时还没有完成的结果对象
+	private Object previousRowValue;
 
 	// multiple resultsets
 	private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
@@ -165,6 +169,26 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 		return collapseSingleResultList(multipleResults);
 	}
 
+	//处理结果集, 返回游标, 只打开第一个结果集, 结果在遍历游标时逐个映射
+	public <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException {
+		ErrorContext.instance().activity("handling cursor results").object(mappedStatement.getId());
+		ResultSetWrapper rsw = getFirstResultSet(stmt);
+		List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+		int resultMapCount = resultMaps.size();
+		validateResultMapsCount(rsw, resultMapCount);
+		if (resultMapCount != 1) {
+			throw new ExecutorException("Cursor results cannot be mapped to multiple resultMaps");
+		}
+		ResultMap resultMap = resultMaps.get(0);
+		//嵌套结果映射的结果对象只有在行是按主对象排好序的时候才能逐个返回
+		if (resultMap.hasNestedResultMaps() && !mappedStatement.isResultOrdered()) {
+			throw new ExecutorException("Mapped Statement '" + mappedStatement.getId()
+					+ "' uses nested result mappings and cannot be used with a Cursor unless it returns ordered data "
+					+ "and sets resultOrdered=true.");
+		}
+		return new DefaultCursor<E>(this, resultMap, rsw, rowBounds);
+	}
+
 	//获取第一个结果集
 	private ResultSetWrapper getFirstResultSet(Statement stmt) throws SQLException {
 		//获取jdbc结果集
@@ -212,6 +236,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 	private void cleanUpAfterHandlingResultSet() {
 		nestedResultObjects.clear();
 		ancestorColumnPrefix.clear();
+		previousRowValue = null;
 	}
 
 	private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -253,8 +278,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 		return multipleResults.size() == 1 ? (List<Object>) multipleResults.get(0) : multipleResults;
 	}
 
-	//按单行处理结果集
-	private void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler,
+	//按单行处理结果集, 游标每取一个结果调用一次, 结果处理器收到结果后停止
+	public void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler,
 			RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
 		//是否有嵌套的ResultMap
 		if (resultMap.hasNestedResultMaps()) {
@@ -819,7 +844,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 			ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
 		final DefaultResultContext resultContext = new DefaultResultContext();
 		skipRows(rsw.getResultSet(), rowBounds);
-		Object rowValue = null;
+		Object rowValue = previousRowValue;
 		while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
 			final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
 			final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
@@ -840,6 +865,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 		}
 		if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
 			storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+			previousRowValue = null;
+		} else if (rowValue != null && mappedStatement.isResultOrdered()) {
+			//结果处理器停下时已经读了下一个对象的第一行, 留到下次继续
+			previousRowValue = rowValue;
 		}
 	}
 
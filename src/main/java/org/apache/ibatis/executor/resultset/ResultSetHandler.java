@@ -5,12 +5,17 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
+
 //ResultSet处理器接口
 public interface ResultSetHandler {
 
 	//处理结果集
 	<E> List<E> handleResultSets(Statement stmt) throws SQLException;
 
+	//处理结果集, 返回游标
+	<E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException;
+
 	//处理OUT参数
 	void handleOutputParameters(CallableStatement cs) throws SQLException;
 
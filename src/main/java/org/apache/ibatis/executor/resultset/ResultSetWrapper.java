@@ -21,7 +21,7 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
 import org.apache.ibatis.type.UnknownTypeHandler;
 
 //ResultSet包装类
-class ResultSetWrapper {
+public class ResultSetWrapper {
 
 	//结果集
 	private final ResultSet resultSet;
@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -49,6 +50,13 @@ public class PreparedStatementHandler extends BaseStatementHandler {
 		return resultSetHandler.<E>handleResultSets(ps);
 	}
 
+	//查询方法, 返回游标
+	public <E> Cursor<E> queryCursor(Statement statement) throws SQLException {
+		PreparedStatement ps = (PreparedStatement) statement;
+		ps.execute();
+		return resultSetHandler.<E>handleCursorResultSets(ps);
+	}
+
 	@Override
 	protected Statement instantiateStatement(Connection connection) throws SQLException {
 		//获取原生sql语句
@@ -6,6 +6,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -70,6 +71,13 @@ public class SimpleStatementHandler extends BaseStatementHandler {
 		return resultSetHandler.<E>handleResultSets(statement);
 	}
 
+	//查询方法, 返回游标
+	public <E> Cursor<E> queryCursor(Statement statement) throws SQLException {
+		String sql = boundSql.getSql();
+		statement.execute(sql);
+		return resultSetHandler.<E>handleCursorResultSets(statement);
+	}
+
 	//初始化语句
 	@Override
 	protected Statement instantiateStatement(Connection connection) throws SQLException {
@@ -5,6 +5,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.session.ResultHandler;
@@ -27,6 +28,9 @@ public interface StatementHandler {
 	//select
 	<E> List<E> query(Statement statement, ResultHandler resultHandler) throws SQLException;
 
+	//select, 返回游标
+	<E> Cursor<E> queryCursor(Statement statement) throws SQLException;
+
 	//获取绑定SQL
 	BoundSql getBoundSql();
 
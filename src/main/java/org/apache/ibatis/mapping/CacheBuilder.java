@@ -8,12 +8,15 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
 import org.apache.ibatis.cache.decorators.BlockingCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -73,22 +76,31 @@ public class CacheBuilder {
 
 	public Cache build() {
 		setDefaultImplementations();
+		//所有装饰者都可以并发访问时, 默认的PerpetualCache换成并发版本, 不再需要SynchronizedCache
+		boolean concurrent = isConcurrent(decorators);
+		if (concurrent && PerpetualCache.class.equals(implementation)) {
+			implementation = ConcurrentPerpetualCache.class;
+		}
+		//整条装饰链共用的统计计数器
+		CacheMetrics metrics = new CacheMetrics();
 		//先new一个base的cache(PerpetualCache)
 		Cache cache = newBaseCacheInstance(implementation, id);
 		//设额外属性
 		setCacheProperties(cache);
-		if (PerpetualCache.class.equals(cache.getClass())) {
+		setCacheMetrics(cache, metrics);
+		if (PerpetualCache.class.equals(cache.getClass()) || ConcurrentPerpetualCache.class.equals(cache.getClass())) {
 			for (Class<? extends Cache> decorator : decorators) {
 				//装饰者模式一个个包装cache
 				cache = newCacheDecoratorInstance(decorator, cache);
 				//又要来一遍设额外属性
 				setCacheProperties(cache);
+				setCacheMetrics(cache, metrics);
 			}
 			//最后附加上标准的装饰者
-			cache = setStandardDecorators(cache);
+			cache = setStandardDecorators(cache, concurrent, metrics);
 		} else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
 			//如果是custom缓存，且不是日志，要加日志
-			cache = new LoggingCache(cache);
+			cache = new LoggingCache(cache, metrics);
 		}
 		return cache;
 	}
@@ -103,8 +115,19 @@ public class CacheBuilder {
 		}
 	}
 
-	// 最后附加上标准的装饰者
-	private Cache setStandardDecorators(Cache cache) {
+	//是否所有装饰者都可以并发访问
+	private boolean isConcurrent(List<Class<? extends Cache>> decorators) {
+		for (Class<? extends Cache> decorator : decorators) {
+			if (!ConcurrentCache.class.isAssignableFrom(decorator)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// 最后附加上标准的装饰者, 标准的装饰者都可以并发访问, 整条装饰链可以并发访问时不加SynchronizedCache
+	// 日志缓存放在最外层, 统计的是调用者看到的命中率, 并且Configuration.getCaches()返回的缓存都可以取到统计信息
+	private Cache setStandardDecorators(Cache cache, boolean concurrent, CacheMetrics metrics) {
 		try {
 			MetaObject metaCache = SystemMetaObject.forObject(cache);
 			if (size != null && metaCache.hasSetter("size")) {
@@ -114,24 +137,40 @@ public class CacheBuilder {
 				// 刷新缓存间隔,怎么刷新呢，用ScheduledCache来刷，还是装饰者模式，漂亮！
 				cache = new ScheduledCache(cache);
 				((ScheduledCache) cache).setClearInterval(clearInterval);
+				//提前刷新等属性
+				setCacheProperties(cache);
+				setCacheMetrics(cache, metrics);
 			}
 			if (readWrite) {
 				// 如果readOnly=false,可读写的缓存 会返回缓存对象的拷贝(通过序列化) 。这会慢一些,但是安全,因此默认是 false。
 				cache = new SerializedCache(cache);
+				//序列化器等属性
+				setCacheProperties(cache);
 			}
-			// 日志缓存
-			cache = new LoggingCache(cache);
 			// 同步缓存, 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
-			cache = new SynchronizedCache(cache);
+			if (!concurrent) {
+				cache = new SynchronizedCache(cache);
+			}
 			if (blocking) {
 				cache = new BlockingCache(cache);
+				//等待超时等属性
+				setCacheProperties(cache);
 			}
-			return cache;
+			// 日志缓存
+			return new LoggingCache(cache, metrics);
 		} catch (Exception e) {
 			throw new CacheException("Error building standard cache decorators.  Cause: " + e, e);
 		}
 	}
 
+	//能记录淘汰的缓存和装饰者都有cacheMetrics属性, 把统计计数器交给它们
+	private void setCacheMetrics(Cache cache, CacheMetrics metrics) {
+		MetaObject metaCache = SystemMetaObject.forObject(cache);
+		if (metaCache.hasSetter("cacheMetrics")) {
+			metaCache.setValue("cacheMetrics", metrics);
+		}
+	}
+
 	private void setCacheProperties(Cache cache) {
 		if (properties != null) {
 			MetaObject metaCache = SystemMetaObject.forObject(cache);
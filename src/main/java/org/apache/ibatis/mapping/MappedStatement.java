@@ -10,6 +10,7 @@ import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.SqlTableParser;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 
@@ -39,6 +40,7 @@ public final class MappedStatement {
 	private Log statementLog;                     //日志
 	private LanguageDriver lang;                  //语言驱动
 	private String[] resultSets;                  //结果集合
+	private String[] tables;                      //语句涉及的表名, 按表失效缓存时使用
 
 	MappedStatement() {}
 
@@ -159,6 +161,18 @@ public final class MappedStatement {
 			return this;
 		}
 
+		//声明语句涉及的表, 逗号分隔, 不声明时从SQL中解析
+		public Builder tables(String tables) {
+			String[] names = delimitedStringtoArray(tables);
+			if (names != null) {
+				for (int i = 0; i < names.length; i++) {
+					names[i] = SqlTableParser.normalize(names[i]);
+				}
+			}
+			mappedStatement.tables = names;
+			return this;
+		}
+
 		public MappedStatement build() {
 			assert mappedStatement.configuration != null;
 			assert mappedStatement.id != null;
@@ -261,6 +275,11 @@ public final class MappedStatement {
 		return resultSets;
 	}
 
+	//获取声明的表名, 没有声明时返回null
+	public String[] getTables() {
+		return tables;
+	}
+
 	//获取绑定sql
 	public BoundSql getBoundSql(Object parameterObject) {
 		//获取绑定sql
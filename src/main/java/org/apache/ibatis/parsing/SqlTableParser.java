@@ -0,0 +1,199 @@
+package org.apache.ibatis.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//SQL表名解析器, 从SQL中找出FROM、JOIN、INTO、UPDATE等关键字后面的表名, 用于按表失效缓存
+//只做粗略的词法分析, 宁可多找出几个表(多失效一些缓存), 不能漏掉; 找不到任何表时返回空数组, 由调用者按未知处理
+public class SqlTableParser {
+
+	//解析结果缓存的最大数量, 超过后整个清空
+	private static final int MAX_CACHED_SQLS = 1024;
+
+	//后面跟着表名的关键字
+	private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList(
+			"from", "join", "into", "update", "using", "table"));
+
+	//不能作为表名或别名的关键字
+	private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+			"select", "from", "where", "set", "on", "using", "join", "inner", "left", "right", "full", "outer", "cross",
+			"natural", "straight_join", "group", "order", "having", "limit", "offset", "fetch", "union", "except",
+			"intersect", "minus", "values", "value", "as", "with", "lateral", "for", "of", "nowait", "skip", "window",
+			"partition", "returning", "connect", "start", "pivot", "unpivot", "default", "into", "update", "table",
+			"and", "or", "not", "in", "exists", "case", "when", "then", "else", "end", "is", "null", "like", "between",
+			"lock", "share", "only"));
+
+	//SQL到表名的缓存, 动态SQL生成的SQL种类有限, 大部分都能命中
+	private static final ConcurrentHashMap<String, String[]> CACHE = new ConcurrentHashMap<String, String[]>();
+
+	private SqlTableParser() {
+	}
+
+	//解析SQL中的表名, 返回的数组是共享的, 不能修改
+	public static String[] parse(String sql) {
+		if (sql == null) {
+			return new String[0];
+		}
+		String[] tables = CACHE.get(sql);
+		if (tables == null) {
+			tables = doParse(sql);
+			if (CACHE.size() >= MAX_CACHED_SQLS) {
+				CACHE.clear();
+			}
+			CACHE.put(sql, tables);
+		}
+		return tables;
+	}
+
+	//规范化表名: 去掉引号和schema前缀, 转成小写
+	public static String normalize(String name) {
+		String result = name.trim();
+		int dot = result.lastIndexOf('.');
+		if (dot >= 0) {
+			result = result.substring(dot + 1);
+		}
+		if (result.length() >= 2) {
+			char first = result.charAt(0);
+			if (first == '"' || first == '`' || first == '[') {
+				result = result.substring(1, result.length() - 1);
+			}
+		}
+		return result.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String[] doParse(String sql) {
+		List<String> tokens = tokenize(sql);
+		Set<String> tables = new LinkedHashSet<String>();
+		int n = tokens.size();
+		for (int i = 0; i < n; i++) {
+			String token = tokens.get(i);
+			if (!TABLE_KEYWORDS.contains(token)) {
+				continue;
+			}
+			if (token.equals("update") && i > 0) {
+				//SELECT ... FOR UPDATE, ON DUPLICATE KEY UPDATE, DO UPDATE后面不是表名
+				String previous = tokens.get(i - 1);
+				if (previous.equals("for") || previous.equals("key") || previous.equals("do")) {
+					continue;
+				}
+			}
+			boolean list = token.equals("from") || token.equals("update");
+			int j = i + 1;
+			while (j < n && isName(tokens.get(j))) {
+				tables.add(tokens.get(j++));
+				//跳过别名
+				if (j < n && tokens.get(j).equals("as")) {
+					j++;
+				}
+				if (j < n && isName(tokens.get(j))) {
+					j++;
+				}
+				//FROM a, b 的写法
+				if (list && j < n && tokens.get(j).equals(",")) {
+					j++;
+				} else {
+					break;
+				}
+			}
+		}
+		return tables.toArray(new String[tables.size()]);
+	}
+
+	//是否是标识符(不是标点, 也不是保留字)
+	private static boolean isName(String token) {
+		char c = token.charAt(0);
+		return (Character.isLetter(c) || c == '_') && !RESERVED_WORDS.contains(token);
+	}
+
+	//切分成规范化的标识符和单个字符的标点, 去掉注释、字符串常量和数字
+	private static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<String>();
+		int n = sql.length();
+		int i = 0;
+		while (i < n) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+				//单行注释
+				while (i < n && sql.charAt(i) != '\n') {
+					i++;
+				}
+			} else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+				//多行注释
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? n : end + 2;
+			} else if (c == '\'') {
+				//字符串常量, 两个单引号表示转义
+				i++;
+				while (i < n) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < n && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				i++;
+			} else if (Character.isDigit(c)) {
+				while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+			} else if (Character.isLetter(c) || c == '_' || c == '"' || c == '`' || c == '[') {
+				//标识符, schema.table这样的写法只保留最后一段
+				String part;
+				while (true) {
+					int start = i;
+					i = skipIdentifierPart(sql, i);
+					part = sql.substring(start, i);
+					if (i + 1 < n && sql.charAt(i) == '.' && isIdentifierStart(sql.charAt(i + 1))) {
+						i++;
+					} else {
+						break;
+					}
+				}
+				String name = normalize(part);
+				if (name.length() > 0) {
+					tokens.add(name);
+				}
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		return Character.isLetter(c) || c == '_' || c == '"' || c == '`' || c == '[';
+	}
+
+	//跳过一段标识符, 返回结束位置
+	private static int skipIdentifierPart(String sql, int i) {
+		int n = sql.length();
+		char c = sql.charAt(i);
+		if (c == '"' || c == '`' || c == '[') {
+			char close = c == '[' ? ']' : c;
+			int end = sql.indexOf(close, i + 1);
+			return end < 0 ? n : end + 1;
+		}
+		while (i < n) {
+			c = sql.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#') {
+				i++;
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+
+}
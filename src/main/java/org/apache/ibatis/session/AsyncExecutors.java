@@ -0,0 +1,68 @@
+package org.apache.ibatis.session;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+//异步查询默认使用的线程池, 所有没有设置asyncExecutor的Configuration共用
+//运行在支持虚拟线程的JDK上时每个查询用一个虚拟线程, 否则用固定大小的守护线程池
+public final class AsyncExecutors {
+
+	private static final Log log = LogFactory.getLog(AsyncExecutors.class);
+
+	private static volatile Executor defaultExecutor;
+
+	private AsyncExecutors() {
+	}
+
+	//获取默认的线程池, 第一次使用时创建
+	public static Executor getDefault() {
+		Executor executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (AsyncExecutors.class) {
+				executor = defaultExecutor;
+				if (executor == null) {
+					executor = newVirtualThreadExecutor();
+					if (executor == null) {
+						executor = newThreadPoolExecutor(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+					}
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	//每个任务一个虚拟线程, JDK不支持时返回null
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("Virtual threads are not available, falling back to a thread pool. Cause: " + e);
+			}
+			return null;
+		}
+	}
+
+	//固定大小的守护线程池
+	public static ExecutorService newThreadPoolExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MyBatis-async-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,9 @@
+package org.apache.ibatis.session;
+
+/**
+ * 二级缓存的失效方式。 默认值为NAMESPACE, 写语句清空所在命名空间的整个缓存。
+ * 若设置值为 TABLE, 写语句只删除依赖它所涉及的表的缓存项, 包括其他命名空间中的缓存项。
+ */
+public enum CacheInvalidation {
+	NAMESPACE, TABLE
+}
@@ -0,0 +1,342 @@
+package org.apache.ibatis.session;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.SerializedCache.CustomObjectInputStream;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * 缓存预热器, 在节点接收流量之前把指定的查询结果加载到二级缓存中
+ *
+ * 查询可以逐个添加, 也可以从CacheWarmupRecorder保存的查询记录中读取。
+ * 每个查询在单独的会话中执行并提交, 走的是普通查询放入二级缓存的路径, 不需要新的缓存类型。
+ * 最多同时执行parallelism个查询, 每个查询占用一个数据库连接, 不要超过连接池的大小。
+ * 没有二级缓存或者useCache=false的语句跳过, 查询失败只记录, 不影响其他查询。
+ */
+public class CacheWarmer {
+
+	private static final Log log = LogFactory.getLog(CacheWarmer.class);
+
+	private final SqlSessionFactory sqlSessionFactory;
+	private final List<Query> queries = new ArrayList<Query>();
+	private int parallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private CacheWarmupListener listener;
+
+	public CacheWarmer(SqlSessionFactory sqlSessionFactory) {
+		this.sqlSessionFactory = sqlSessionFactory;
+	}
+
+	//设置同时执行的查询数
+	public CacheWarmer parallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1 but was " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	//设置进度监听器
+	public CacheWarmer listener(CacheWarmupListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	//添加一个查询
+	public CacheWarmer add(String statement, Object parameter) {
+		return add(statement, parameter, RowBounds.DEFAULT);
+	}
+
+	public CacheWarmer add(String statement, Object parameter, RowBounds rowBounds) {
+		queries.add(new Query(statement, parameter, rowBounds.getOffset(), rowBounds.getLimit()));
+		return this;
+	}
+
+	//同一个语句的多组参数
+	public CacheWarmer addAll(String statement, Collection<?> parameters) {
+		for (Object parameter : parameters) {
+			add(statement, parameter);
+		}
+		return this;
+	}
+
+	//读取CacheWarmupRecorder保存的查询记录
+	public CacheWarmer addRecorded(InputStream in) {
+		try {
+			CustomObjectInputStream objectIn = new CustomObjectInputStream(in);
+			while (true) {
+				Object query;
+				try {
+					query = objectIn.readObject();
+				} catch (EOFException e) {
+					break;
+				}
+				queries.add((Query) query);
+			}
+		} catch (Exception e) {
+			throw new CacheException("Error reading recorded cache warm-up queries. Cause: " + e, e);
+		}
+		return this;
+	}
+
+	//获取要执行的查询
+	public List<Query> getQueries() {
+		return queries;
+	}
+
+	//执行所有查询, 一直等到全部完成
+	public Result run() {
+		return run(0, TimeUnit.MILLISECONDS);
+	}
+
+	//执行所有查询, 超时后不再执行剩下的查询, timeout为0表示一直等待
+	public Result run(long timeout, TimeUnit unit) {
+		final Progress progress = new Progress(queries.size());
+		ExecutorService executor = newExecutor();
+		try {
+			Configuration configuration = sqlSessionFactory.getConfiguration();
+			for (final Query query : queries) {
+				//在当前线程中查找语句, 没有二级缓存的直接跳过, 不存在的语句算作失败
+				MappedStatement ms;
+				try {
+					ms = configuration.getMappedStatement(query.statement);
+				} catch (RuntimeException e) {
+					progress.complete(query, false, e);
+					continue;
+				}
+				if (ms.getCache() == null || !ms.isUseCache()) {
+					progress.complete(query, false, null);
+					continue;
+				}
+				executor.execute(new Runnable() {
+					public void run() {
+						load(query, progress);
+					}
+				});
+			}
+			executor.shutdown();
+			if (timeout > 0) {
+				if (!executor.awaitTermination(timeout, unit)) {
+					executor.shutdownNow();
+					log.warn("Cache warm-up timed out after " + unit.toMillis(timeout) + "ms.");
+				}
+			} else {
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					// 继续等待
+				}
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		Result result = progress.toResult();
+		if (log.isDebugEnabled()) {
+			log.debug("Cache warm-up finished: " + result);
+		}
+		return result;
+	}
+
+	//执行一个查询并提交, 查询结果在提交时放入二级缓存
+	private void load(Query query, Progress progress) {
+		Throwable failure = null;
+		try {
+			SqlSession session = sqlSessionFactory.openSession();
+			try {
+				session.selectList(query.statement, query.parameter, new RowBounds(query.offset, query.limit));
+				session.commit();
+			} finally {
+				session.close();
+			}
+		} catch (Throwable e) {
+			failure = e;
+			if (log.isDebugEnabled()) {
+				log.debug("Error warming up cache for statement " + query.statement + ". Cause: " + e);
+			}
+		}
+		progress.complete(query, failure == null, failure);
+	}
+
+	private ExecutorService newExecutor() {
+		return new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "CacheWarmer-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	//预热进度, 由执行查询的线程更新
+	private class Progress {
+
+		final int total;
+		final long startTime = System.currentTimeMillis();
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger loaded = new AtomicInteger();
+		final AtomicInteger skipped = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+
+		Progress(int total) {
+			this.total = total;
+		}
+
+		void complete(Query query, boolean wasLoaded, Throwable failure) {
+			if (failure != null) {
+				failed.incrementAndGet();
+			} else if (wasLoaded) {
+				loaded.incrementAndGet();
+			} else {
+				skipped.incrementAndGet();
+			}
+			int done = completed.incrementAndGet();
+			if (listener != null) {
+				try {
+					if (failure != null) {
+						listener.onFailure(query, failure);
+					}
+					listener.onProgress(done, total);
+				} catch (RuntimeException e) {
+					log.warn("Cache warm-up listener failed. Cause: " + e);
+				}
+			}
+		}
+
+		Result toResult() {
+			return new Result(total, loaded.get(), skipped.get(), failed.get(), System.currentTimeMillis() - startTime);
+		}
+
+	}
+
+	//一个要预热的查询, 可以序列化, CacheWarmupRecorder保存的就是它
+	public static class Query implements Serializable {
+
+		private static final long serialVersionUID = -3281475061224519816L;
+
+		private final String statement;
+		private final Object parameter;
+		private final int offset;
+		private final int limit;
+
+		public Query(String statement, Object parameter, int offset, int limit) {
+			this.statement = statement;
+			this.parameter = parameter;
+			this.offset = offset;
+			this.limit = limit;
+		}
+
+		public String getStatement() {
+			return statement;
+		}
+
+		public Object getParameter() {
+			return parameter;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public int getLimit() {
+			return limit;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Query)) {
+				return false;
+			}
+			Query other = (Query) obj;
+			return statement.equals(other.statement) && offset == other.offset && limit == other.limit
+					&& (parameter == null ? other.parameter == null : parameter.equals(other.parameter));
+		}
+
+		@Override
+		public int hashCode() {
+			int result = statement.hashCode();
+			result = 31 * result + (parameter == null ? 0 : parameter.hashCode());
+			result = 31 * result + offset;
+			return 31 * result + limit;
+		}
+
+		@Override
+		public String toString() {
+			return statement + "(" + parameter + ")";
+		}
+
+	}
+
+	//预热结果
+	public static class Result {
+
+		private final int total;
+		private final int loaded;
+		private final int skipped;
+		private final int failed;
+		private final long elapsedMillis;
+
+		Result(int total, int loaded, int skipped, int failed, long elapsedMillis) {
+			this.total = total;
+			this.loaded = loaded;
+			this.skipped = skipped;
+			this.failed = failed;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		//查询总数
+		public int getTotal() {
+			return total;
+		}
+
+		//已经放入缓存的查询数
+		public int getLoaded() {
+			return loaded;
+		}
+
+		//语句不使用二级缓存而跳过的查询数
+		public int getSkipped() {
+			return skipped;
+		}
+
+		//失败的查询数
+		public int getFailed() {
+			return failed;
+		}
+
+		//超时后没有执行的查询数
+		public int getRemaining() {
+			return total - loaded - skipped - failed;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return "total=" + total + ", loaded=" + loaded + ", skipped=" + skipped + ", failed=" + failed
+					+ ", remaining=" + getRemaining() + ", elapsed=" + elapsedMillis + "ms";
+		}
+
+	}
+
+}
@@ -0,0 +1,12 @@
+package org.apache.ibatis.session;
+
+//缓存预热的进度监听器, 在执行查询的线程中调用, 实现类必须是线程安全的
+public interface CacheWarmupListener {
+
+	//每完成一个查询(包括跳过和失败的)调用一次
+	void onProgress(int completed, int total);
+
+	//一个查询失败时调用, 在onProgress之前
+	void onFailure(CacheWarmer.Query query, Throwable cause);
+
+}
@@ -0,0 +1,181 @@
+package org.apache.ibatis.session;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.impl.JavaCacheSerializer;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * 缓存预热的查询记录插件, 记录使用二级缓存的查询, 保存后交给CacheWarmer.addRecorded在下次启动时预热
+ *
+ * 只记录参数可以序列化的查询, 最多保留maxEntries个最近执行的查询。
+ * 查询连同参数在执行时序列化成快照保存, 之后调用者修改参数对象不会改变记录的查询。
+ * 记录时不加锁: 已经记录过的查询只更新执行时间, 超过上限一定数量后由一个线程删除最久没有执行的查询。
+ * <plugins>
+ *   <plugin interceptor="org.apache.ibatis.session.CacheWarmupRecorder">
+ *     <property name="maxEntries" value="10000"/>
+ *   </plugin>
+ * </plugins>
+ */
+@Intercepts({ @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class,
+		RowBounds.class, ResultHandler.class }) })
+public class CacheWarmupRecorder implements Interceptor {
+
+	//按最近执行时间排序
+	private static final Comparator<Recorded> BY_LAST_USED = new Comparator<Recorded>() {
+		public int compare(Recorded a, Recorded b) {
+			return a.lastUsed < b.lastUsed ? -1 : a.lastUsed > b.lastUsed ? 1 : 0;
+		}
+	};
+
+	private volatile int maxEntries = 10000;
+	//序列化后的查询, 键和值是同一个对象
+	private final ConcurrentHashMap<Recorded, Recorded> queries = new ConcurrentHashMap<Recorded, Recorded>();
+	//超过上限时只让一个线程删除, 其他线程不等待
+	private final Lock trimLock = new ReentrantLock();
+	private final JavaCacheSerializer serializer = new JavaCacheSerializer();
+
+	public Object intercept(Invocation invocation) throws Throwable {
+		Object[] args = invocation.getArgs();
+		MappedStatement ms = (MappedStatement) args[0];
+		Object parameter = args[1];
+		RowBounds rowBounds = (RowBounds) args[2];
+		//带ResultHandler的查询结果不放入二级缓存, 不记录
+		if (ms.getCache() != null && ms.isUseCache() && args[3] == null
+				&& (parameter == null || parameter instanceof Serializable)) {
+			record(new CacheWarmer.Query(ms.getId(), parameter, rowBounds.getOffset(), rowBounds.getLimit()));
+		}
+		return invocation.proceed();
+	}
+
+	//记录一个查询, 参数里有不能序列化的对象时跳过
+	public void record(CacheWarmer.Query query) {
+		byte[] bytes;
+		try {
+			bytes = serializer.serialize(query);
+		} catch (CacheException e) {
+			return;
+		}
+		Recorded recorded = new Recorded(bytes);
+		Recorded existing = queries.putIfAbsent(recorded, recorded);
+		if (existing != null) {
+			existing.lastUsed = recorded.lastUsed;
+		} else if (queries.size() > maxEntries + maxEntries / 16) {
+			//超过上限一定数量后才删除, 删除的开销分摊到多次记录上
+			trim();
+		}
+	}
+
+	public Object plugin(Object target) {
+		return Plugin.wrap(target, this);
+	}
+
+	public void setProperties(Properties properties) {
+		String value = properties.getProperty("maxEntries");
+		if (value != null) {
+			maxEntries = Integer.parseInt(value);
+		}
+	}
+
+	//获取记录的查询, 最久没有执行的在前, 每次都从快照反序列化出新的对象
+	public List<CacheWarmer.Query> getQueries() {
+		List<Recorded> recorded = sortedQueries();
+		List<CacheWarmer.Query> result = new ArrayList<CacheWarmer.Query>(recorded.size());
+		for (Recorded each : recorded) {
+			result.add((CacheWarmer.Query) serializer.deserialize(each.bytes));
+		}
+		return result;
+	}
+
+	//清空记录
+	public void clear() {
+		queries.clear();
+	}
+
+	//保存记录的查询, 返回保存的数量
+	public int save(OutputStream out) {
+		List<CacheWarmer.Query> recorded = getQueries();
+		try {
+			ObjectOutputStream objectOut = new ObjectOutputStream(out);
+			for (CacheWarmer.Query query : recorded) {
+				objectOut.writeObject(query);
+			}
+			objectOut.flush();
+		} catch (IOException e) {
+			throw new CacheException("Error saving recorded cache warm-up queries. Cause: " + e, e);
+		}
+		return recorded.size();
+	}
+
+	//最近执行的maxEntries个查询, 最久没有执行的在前
+	private List<Recorded> sortedQueries() {
+		List<Recorded> recorded = new ArrayList<Recorded>(queries.keySet());
+		Collections.sort(recorded, BY_LAST_USED);
+		int excess = recorded.size() - maxEntries;
+		return excess > 0 ? recorded.subList(excess, recorded.size()) : recorded;
+	}
+
+	//删除最久没有执行的查询, 直到不超过上限
+	private void trim() {
+		if (!trimLock.tryLock()) {
+			return;
+		}
+		try {
+			List<Recorded> recorded = new ArrayList<Recorded>(queries.keySet());
+			int excess = recorded.size() - maxEntries;
+			if (excess <= 0) {
+				return;
+			}
+			Collections.sort(recorded, BY_LAST_USED);
+			for (int i = 0; i < excess; i++) {
+				queries.remove(recorded.get(i));
+			}
+		} finally {
+			trimLock.unlock();
+		}
+	}
+
+	//序列化后的查询, 按字节比较
+	private static class Recorded {
+
+		final byte[] bytes;
+		final int hash;
+		volatile long lastUsed = System.nanoTime();
+
+		Recorded(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Recorded && Arrays.equals(bytes, ((Recorded) obj).bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+}
@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -16,10 +17,22 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidationBus;
+import org.apache.ibatis.cache.CacheJmxExporter;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.InvalidationTransport;
+import org.apache.ibatis.cache.MeteredCache;
+import org.apache.ibatis.cache.TableCacheIndex;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedLruCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.LoopbackInvalidationTransport;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
@@ -104,6 +117,12 @@ public class Configuration {
 	protected Class<? extends Log> logImpl;
 	//本地缓存范围
 	protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+	//二级缓存失效方式
+	protected CacheInvalidation cacheInvalidation = CacheInvalidation.NAMESPACE;
+	//是否把缓存的统计信息注册到JMX
+	protected boolean cacheJmxEnabled = false;
+	//JMX名字中的scope, 同一个JVM里有多个Configuration时用来区分, 没有设置时用环境id
+	protected String cacheJmxScope;
 	//默认jdbc类型
 	protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
 	//懒加载触发方法集合
@@ -148,6 +167,12 @@ public class Configuration {
 	protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
 	//缓存集合
 	protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+	//表到缓存项的依赖索引, 按表失效缓存时使用
+	protected final TableCacheIndex tableCacheIndex = new TableCacheIndex();
+	//缓存失效总线, 设置了失效消息的传输之后才有
+	protected CacheInvalidationBus cacheInvalidationBus;
+	//执行异步查询的线程池, 没有设置时使用AsyncExecutors的默认线程池
+	protected java.util.concurrent.Executor asyncExecutor;
 	//结果映射集合
 	protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
 	//参数映射集合
@@ -190,10 +215,16 @@ public class Configuration {
 
 		//注册缓存类型别名
 		typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+		typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentPerpetualCache.class);
+		typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
+		typeAliasRegistry.registerAlias("MAPPED", MappedFileCache.class);
+		typeAliasRegistry.registerAlias("LOOPBACK", LoopbackInvalidationTransport.class);
 		typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
 		typeAliasRegistry.registerAlias("LRU", LruCache.class);
 		typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
 		typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+		typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+		typeAliasRegistry.registerAlias("WEIGHTED", WeightedLruCache.class);
 
 		//注册数据库ID提供器类型别名
 		typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
@@ -301,8 +332,11 @@ public class Configuration {
 		return environment;
 	}
 
+	//环境id是默认的JMX scope, 改变时按新的scope重新注册
 	public void setEnvironment(Environment environment) {
+		String oldScope = getCacheJmxScope();
 		this.environment = environment;
+		changeCacheJmxScope(oldScope);
 	}
 
 	public AutoMappingBehavior getAutoMappingBehavior() {
@@ -404,6 +438,76 @@ public class Configuration {
 		this.localCacheScope = localCacheScope;
 	}
 
+	public CacheInvalidation getCacheInvalidation() {
+		return cacheInvalidation;
+	}
+
+	public void setCacheInvalidation(CacheInvalidation cacheInvalidation) {
+		this.cacheInvalidation = cacheInvalidation;
+	}
+
+	public TableCacheIndex getTableCacheIndex() {
+		return tableCacheIndex;
+	}
+
+	public boolean isCacheJmxEnabled() {
+		return cacheJmxEnabled;
+	}
+
+	//开启时注册已经添加的缓存, 关闭时注销
+	public void setCacheJmxEnabled(boolean cacheJmxEnabled) {
+		if (this.cacheJmxEnabled == cacheJmxEnabled) {
+			return;
+		}
+		this.cacheJmxEnabled = cacheJmxEnabled;
+		if (cacheJmxEnabled) {
+			registerCacheMBeans(getCacheJmxScope());
+		} else {
+			unregisterCacheMBeans(getCacheJmxScope());
+		}
+	}
+
+	//获取JMX名字中的scope, 没有设置时为环境id, 没有环境时为default
+	public String getCacheJmxScope() {
+		if (cacheJmxScope != null) {
+			return cacheJmxScope;
+		}
+		return environment != null ? environment.getId() : "default";
+	}
+
+	//设置JMX名字中的scope, 同一个JVM里多个Configuration使用同一个环境id时必须设置, 否则后注册的会替换先注册的
+	public void setCacheJmxScope(String cacheJmxScope) {
+		String oldScope = getCacheJmxScope();
+		this.cacheJmxScope = cacheJmxScope;
+		changeCacheJmxScope(oldScope);
+	}
+
+	//注销所有缓存的MBean, 丢弃这个Configuration之前调用(比如应用重新部署时), 否则MBeanServer一直引用这些缓存
+	public void unregisterCacheMBeans() {
+		setCacheJmxEnabled(false);
+	}
+
+	public CacheInvalidationBus getCacheInvalidationBus() {
+		return cacheInvalidationBus;
+	}
+
+	//设置缓存失效消息的传输, 替换原来的传输, 设置为null时不再广播
+	public void setCacheInvalidationTransport(InvalidationTransport transport) {
+		if (cacheInvalidationBus != null) {
+			cacheInvalidationBus.close();
+		}
+		cacheInvalidationBus = transport != null ? new CacheInvalidationBus(this, transport) : null;
+	}
+
+	public java.util.concurrent.Executor getAsyncExecutor() {
+		return asyncExecutor != null ? asyncExecutor : AsyncExecutors.getDefault();
+	}
+
+	//设置执行异步查询的线程池, 同时执行的查询数还受连接池大小限制
+	public void setAsyncExecutor(java.util.concurrent.Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
 	public JdbcType getJdbcTypeForNull() {
 		return jdbcTypeForNull;
 	}
@@ -529,7 +633,7 @@ public class Configuration {
 		}
 		//若开启缓存则使用缓存执行器
 		if (cacheEnabled) {
-			executor = new CachingExecutor(executor);
+			executor = new CachingExecutor(executor, cacheInvalidationBus);
 		}
 		//调用拦截器插件进行处理
 		executor = (Executor) interceptorChain.pluginAll(executor);
@@ -567,6 +671,9 @@ public class Configuration {
 	//添加缓存
 	public void addCache(Cache cache) {
 		caches.put(cache.getId(), cache);
+		if (cacheJmxEnabled && cache instanceof MeteredCache) {
+			CacheJmxExporter.register((MeteredCache) cache, getCacheJmxScope());
+		}
 	}
 
 	//获取缓存名称集合
@@ -579,6 +686,17 @@ public class Configuration {
 		return caches.values();
 	}
 
+	//获取所有缓存的统计信息, 键为缓存ID, 自定义的缓存没有统计信息时不包括在内
+	public Map<String, CacheStats> getCacheStats() {
+		Map<String, CacheStats> stats = new LinkedHashMap<String, CacheStats>();
+		for (Cache cache : getDistinctCaches()) {
+			if (cache instanceof MeteredCache) {
+				stats.put(cache.getId(), ((MeteredCache) cache).getStats());
+			}
+		}
+		return stats;
+	}
+
 	//根据id获取缓存
 	public Cache getCache(String id) {
 		return caches.get(id);
@@ -589,6 +707,41 @@ public class Configuration {
 		return caches.containsKey(id);
 	}
 
+	//缓存集合中同一个缓存还以短名字存了一份(短名字重复时存的是Ambiguity), 这里去掉重复的
+	private Collection<Cache> getDistinctCaches() {
+		Map<String, Cache> distinct = new LinkedHashMap<String, Cache>();
+		for (Map.Entry<String, ?> entry : ((Map<String, ?>) caches).entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof Cache && entry.getKey().equals(((Cache) value).getId())) {
+				distinct.put(entry.getKey(), (Cache) value);
+			}
+		}
+		return distinct.values();
+	}
+
+	//scope改变时先注销旧名字再按新名字注册
+	private void changeCacheJmxScope(String oldScope) {
+		String newScope = getCacheJmxScope();
+		if (cacheJmxEnabled && !newScope.equals(oldScope)) {
+			unregisterCacheMBeans(oldScope);
+			registerCacheMBeans(newScope);
+		}
+	}
+
+	private void registerCacheMBeans(String scope) {
+		for (Cache cache : getDistinctCaches()) {
+			if (cache instanceof MeteredCache) {
+				CacheJmxExporter.register((MeteredCache) cache, scope);
+			}
+		}
+	}
+
+	private void unregisterCacheMBeans(String scope) {
+		for (Cache cache : getDistinctCaches()) {
+			CacheJmxExporter.unregister(cache.getId(), scope);
+		}
+	}
+
 	//添加ResultMap
 	public void addResultMap(ResultMap rm) {
 		resultMaps.put(rm.getId(), rm);
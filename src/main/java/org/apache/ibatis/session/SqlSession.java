@@ -4,7 +4,9 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BatchResult;
 
 //对外提供操作的API
@@ -26,6 +28,26 @@ public interface SqlSession extends Closeable {
 	
 	<K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds);
 	
+	//查询, 返回游标, 结果在遍历时逐行映射, 游标要在会话关闭前遍历
+	<T> Cursor<T> selectCursor(String statement);
+	
+	<T> Cursor<T> selectCursor(String statement, Object parameter);
+	
+	<T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds);
+	
+	//异步查询, 在Configuration的asyncExecutor中执行, 调用线程不等待数据库返回
+	//同一个会话的异步查询使用会话自己的连接和事务, 按提交的顺序依次执行; 要并行执行互不相关的查询, 每个查询用自己的会话
+	//会话的其他方法(包括close)会先等待已经提交的异步查询完成
+	<T> CompletableFuture<T> selectOneAsync(String statement);
+	
+	<T> CompletableFuture<T> selectOneAsync(String statement, Object parameter);
+	
+	<E> CompletableFuture<List<E>> selectListAsync(String statement);
+	
+	<E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter);
+	
+	<E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds);
+	
 	void select(String statement, Object parameter, ResultHandler handler);
 	
 	void select(String statement, ResultHandler handler);
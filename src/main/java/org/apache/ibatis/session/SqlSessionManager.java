@@ -9,7 +9,9 @@ import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -153,6 +155,40 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
 		return sqlSessionProxy.<K, V>selectMap(statement, parameter, mapKey, rowBounds);
 	}
 
+	//没有startManagedSession时临时会话在关闭前要等异步查询完成, 相当于同步执行
+	public <T> CompletableFuture<T> selectOneAsync(String statement) {
+		return sqlSessionProxy.<T>selectOneAsync(statement);
+	}
+
+	public <T> CompletableFuture<T> selectOneAsync(String statement, Object parameter) {
+		return sqlSessionProxy.<T>selectOneAsync(statement, parameter);
+	}
+
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement) {
+		return sqlSessionProxy.<E>selectListAsync(statement);
+	}
+
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+		return sqlSessionProxy.<E>selectListAsync(statement, parameter);
+	}
+
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds) {
+		return sqlSessionProxy.<E>selectListAsync(statement, parameter, rowBounds);
+	}
+
+	//没有startManagedSession时每次调用都在临时会话中执行, 返回的游标已经随会话关闭, 只能在托管会话中使用
+	public <T> Cursor<T> selectCursor(String statement) {
+		return sqlSessionProxy.<T>selectCursor(statement);
+	}
+
+	public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+		return sqlSessionProxy.<T>selectCursor(statement, parameter);
+	}
+
+	public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+		return sqlSessionProxy.<T>selectCursor(statement, parameter, rowBounds);
+	}
+
 	public <E> List<E> selectList(String statement) {
 		return sqlSessionProxy.<E>selectList(statement);
 	}
@@ -1,13 +1,21 @@
 package org.apache.ibatis.session.defaults;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
 
 import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
@@ -28,6 +36,10 @@ public class DefaultSqlSession implements SqlSession {
 	private Executor executor;           //执行器
 	private boolean autoCommit;         //是否自动提交
 	private boolean dirty;              //是否是脏数据
+	private List<Cursor<?>> cursorList; //打开的游标, 会话关闭时关闭
+	private volatile CompletableFuture<?> pendingAsync;  //最后提交的异步查询
+	private volatile Thread asyncThread;                 //正在执行本会话异步查询的线程
+	private final ReentrantLock asyncLock = new ReentrantLock();  //提交异步查询时持有的锁
 
 	//构造器
 	public DefaultSqlSession(Configuration configuration, Executor executor, boolean autoCommit) {
@@ -106,6 +118,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//查询方法(返回List)
 	public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+		awaitAsync();
 		try {
 			//获取对应的MappedStatement
 			MappedStatement ms = configuration.getMappedStatement(statement);
@@ -118,6 +131,65 @@ public class DefaultSqlSession implements SqlSession {
 		}
 	}
 
+	//查询方法(返回游标)
+	public <T> Cursor<T> selectCursor(String statement) {
+		return selectCursor(statement, null);
+	}
+
+	//查询方法(返回游标)
+	public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+		return selectCursor(statement, parameter, RowBounds.DEFAULT);
+	}
+
+	//查询方法(返回游标)
+	public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+		awaitAsync();
+		try {
+			MappedStatement ms = configuration.getMappedStatement(statement);
+			Cursor<T> cursor = executor.queryCursor(ms, wrapCollection(parameter), rowBounds);
+			registerCursor(cursor);
+			return cursor;
+		} catch (Exception e) {
+			throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+		} finally {
+			ErrorContext.instance().reset();
+		}
+	}
+
+	//异步查询方法(单条记录)
+	public <T> CompletableFuture<T> selectOneAsync(String statement) {
+		return this.<T>selectOneAsync(statement, null);
+	}
+
+	//异步查询方法(单条记录)
+	public <T> CompletableFuture<T> selectOneAsync(final String statement, final Object parameter) {
+		return submitAsync(new Callable<T>() {
+			public T call() {
+				return DefaultSqlSession.this.<T>selectOne(statement, parameter);
+			}
+		});
+	}
+
+	//异步查询方法(返回List)
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement) {
+		return this.<E>selectListAsync(statement, null, RowBounds.DEFAULT);
+	}
+
+	//异步查询方法(返回List)
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+		return this.<E>selectListAsync(statement, parameter, RowBounds.DEFAULT);
+	}
+
+	//异步查询方法(返回List)
+	public <E> CompletableFuture<List<E>> selectListAsync(final String statement, final Object parameter,
+			final RowBounds rowBounds) {
+		return submitAsync(new Callable<List<E>>() {
+			public List<E> call() {
+				return DefaultSqlSession.this.<E>selectList(statement, parameter, rowBounds);
+			}
+		});
+	}
+
 	//查询方法(无返回值)
 	public void select(String statement, Object parameter, ResultHandler handler) {
 		select(statement, parameter, RowBounds.DEFAULT, handler);
@@ -130,6 +202,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//查询方法(无返回值)
 	public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+		awaitAsync();
 		try {
 			MappedStatement ms = configuration.getMappedStatement(statement);
 			executor.query(ms, wrapCollection(parameter), rowBounds, handler);
@@ -157,6 +230,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//更新方法
 	public int update(String statement, Object parameter) {
+		awaitAsync();
 		try {
 			//更新之前将dirty设为true
 			dirty = true;
@@ -187,6 +261,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//提交事务
 	public void commit(boolean force) {
+		awaitAsync();
 		try {
 			//调用执行器的commit方法
 			executor.commit(isCommitOrRollbackRequired(force));
@@ -206,6 +281,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//回滚事务
 	public void rollback(boolean force) {
+		awaitAsync();
 		try {
 			//调用执行器的回滚方法
 			executor.rollback(isCommitOrRollbackRequired(force));
@@ -220,6 +296,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//刷新语句
 	public List<BatchResult> flushStatements() {
+		awaitAsync();
 		try {
 			//转而用执行器来flushStatements
 			return executor.flushStatements();
@@ -232,8 +309,10 @@ public class DefaultSqlSession implements SqlSession {
 
 	//关闭会话
 	public void close() {
+		awaitAsync();
 		try {
-			//转而用执行器来close
+			//先关闭没有遍历完的游标, 再用执行器来close
+			closeCursors();
 			executor.close(isCommitOrRollbackRequired(false));
 			//每次close之后，dirty标志设为false
 			dirty = false;
@@ -255,6 +334,7 @@ public class DefaultSqlSession implements SqlSession {
 
 	//获取数据库连接
 	public Connection getConnection() {
+		awaitAsync();
 		try {
 			return executor.getTransaction().getConnection();
 		} catch (SQLException e) {
@@ -264,10 +344,93 @@ public class DefaultSqlSession implements SqlSession {
 
 	//清空缓存
 	public void clearCache() {
+		awaitAsync();
 		//转而用执行器来clearLocalCache
 		executor.clearLocalCache();
 	}
 
+	//提交异步查询, 排在本会话之前提交的异步查询之后执行, 同一时刻只有一个线程使用会话
+	private <T> CompletableFuture<T> submitAsync(final Callable<T> task) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		//异步查询的回调在执行线程上又提交异步查询时直接执行, 排在正在执行的查询后面会互相等待
+		if (asyncThread == Thread.currentThread()) {
+			try {
+				result.complete(task.call());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+			return result;
+		}
+		final Runnable runner = new Runnable() {
+			public void run() {
+				asyncThread = Thread.currentThread();
+				try {
+					result.complete(task.call());
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				} finally {
+					asyncThread = null;
+					//执行线程是共用的, 不能留下这次查询的错误上下文
+					ErrorContext.instance().reset();
+				}
+			}
+		};
+		asyncLock.lock();
+		try {
+			java.util.concurrent.Executor asyncExecutor = configuration.getAsyncExecutor();
+			CompletableFuture<?> previous = pendingAsync;
+			try {
+				if (previous == null || previous.isDone()) {
+					pendingAsync = CompletableFuture.runAsync(runner, asyncExecutor);
+				} else {
+					//前一个查询失败也要继续执行
+					pendingAsync = previous.handle(new BiFunction<Object, Throwable, Object>() {
+						public Object apply(Object value, Throwable cause) {
+							return null;
+						}
+					}).thenRunAsync(runner, asyncExecutor);
+				}
+			} catch (RejectedExecutionException e) {
+				result.completeExceptionally(ExceptionFactory.wrapException("Error submitting asynchronous query.  Cause: " + e, e));
+			}
+		} finally {
+			asyncLock.unlock();
+		}
+		return result;
+	}
+
+	//等待已经提交的异步查询完成, 异步查询自己调用会话的方法时不等待
+	private void awaitAsync() {
+		CompletableFuture<?> pending = pendingAsync;
+		if (pending != null && !pending.isDone() && asyncThread != Thread.currentThread()) {
+			try {
+				pending.join();
+			} catch (RuntimeException e) {
+				// 异常已经交给了异步查询的调用者
+			}
+		}
+	}
+
+	private void registerCursor(Cursor<?> cursor) {
+		if (cursorList == null) {
+			cursorList = new ArrayList<Cursor<?>>();
+		}
+		cursorList.add(cursor);
+	}
+
+	private void closeCursors() {
+		if (cursorList != null && !cursorList.isEmpty()) {
+			for (Cursor<?> cursor : cursorList) {
+				try {
+					cursor.close();
+				} catch (IOException e) {
+					throw ExceptionFactory.wrapException("Error closing cursor.  Cause: " + e, e);
+				}
+			}
+			cursorList.clear();
+		}
+	}
+
 	//是否强制提交或回滚
 	private boolean isCommitOrRollbackRequired(boolean force) {
 		return (!autoCommit && dirty) || force;
@@ -0,0 +1,191 @@
+package org.apache.ibatis.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.impl.LoopbackInvalidationTransport;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//缓存失效总线: 一个节点提交的失效通过传输层发给其他节点
+public class CacheInvalidationBusTest {
+
+	private static final AtomicInteger CHANNELS = new AtomicInteger();
+
+	private StubDatabase database;
+	private String channel;
+	private Node first;
+	private Node second;
+
+	//记下发出的消息, 可以模拟发送失败
+	private static class RecordingTransport extends LoopbackInvalidationTransport {
+
+		final List<byte[]> sent = new CopyOnWriteArrayList<byte[]>();
+		volatile boolean failing;
+
+		RecordingTransport(String channel) {
+			super(channel);
+		}
+
+		@Override
+		public void send(byte[] message) {
+			if (failing) {
+				throw new IllegalStateException("transport down");
+			}
+			sent.add(message);
+			super.send(message);
+		}
+
+	}
+
+	//一个节点: 自己的Configuration和会话工厂, 连同一个数据库
+	private class Node {
+
+		final Configuration configuration;
+		final SqlSessionFactory factory;
+		final RecordingTransport transport;
+
+		Node(CacheInvalidation invalidation) {
+			configuration = StubSessions.newConfiguration(database);
+			configuration.setCacheInvalidation(invalidation);
+			StubSessions.addMapper(configuration, "users", "<cache/>"
+					+ "<select id=\"all\" resultType=\"map\">select id, name from users</select>"
+					+ "<update id=\"rename\">update users set name = 'x'</update>");
+			StubSessions.addMapper(configuration, "orders", "<cache/>"
+					+ "<select id=\"all\" resultType=\"map\">select id, name from orders</select>"
+					+ "<select id=\"withUsers\" resultType=\"map\">select o.id from orders o join users u on o.user_id = u.id</select>");
+			transport = new RecordingTransport(channel);
+			configuration.setCacheInvalidationTransport(transport);
+			factory = StubSessions.build(configuration);
+		}
+
+		//查询并提交, 返回是否访问了数据库
+		boolean queryHitsDatabase(String statement) {
+			int before = database.executions.get();
+			SqlSession session = factory.openSession();
+			try {
+				session.selectList(statement);
+				session.commit();
+			} finally {
+				session.close();
+			}
+			return database.executions.get() > before;
+		}
+
+		void write(String statement) {
+			SqlSession session = factory.openSession();
+			try {
+				session.update(statement);
+				session.commit();
+			} finally {
+				session.close();
+			}
+		}
+
+		void close() {
+			configuration.getCacheInvalidationBus().close();
+			StubSessions.close(configuration);
+		}
+
+	}
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		channel = "bus-test-" + CHANNELS.incrementAndGet();
+	}
+
+	public void tearDown() {
+		if (first != null) {
+			first.close();
+		}
+		if (second != null) {
+			second.close();
+		}
+	}
+
+	private void warmUp(String... statements) {
+		for (Node node : new Node[] { first, second }) {
+			for (String statement : statements) {
+				node.queryHitsDatabase(statement);
+				assert !node.queryHitsDatabase(statement) : statement + " must be cached";
+			}
+		}
+	}
+
+	public void testNamespaceClearIsBroadcast() {
+		first = new Node(CacheInvalidation.NAMESPACE);
+		second = new Node(CacheInvalidation.NAMESPACE);
+		warmUp("users.all", "orders.all");
+		second.write("users.rename");
+		assert first.queryHitsDatabase("users.all") : "remote node must clear the namespace";
+		assert !first.queryHitsDatabase("orders.all");
+		assert second.queryHitsDatabase("users.all");
+	}
+
+	public void testTableInvalidationIsBroadcast() {
+		first = new Node(CacheInvalidation.TABLE);
+		second = new Node(CacheInvalidation.TABLE);
+		warmUp("users.all", "orders.all", "orders.withUsers");
+		second.write("users.rename");
+		assert first.queryHitsDatabase("orders.withUsers") : "remote dependents of users must be evicted";
+		assert first.queryHitsDatabase("users.all");
+		assert !first.queryHitsDatabase("orders.all");
+	}
+
+	public void testReadOnlyCommitsSendNothing() {
+		first = new Node(CacheInvalidation.NAMESPACE);
+		second = new Node(CacheInvalidation.NAMESPACE);
+		warmUp("users.all");
+		assert first.transport.sent.isEmpty();
+		assert second.transport.sent.isEmpty();
+	}
+
+	public void testOwnMessagesAreIgnored() {
+		first = new Node(CacheInvalidation.NAMESPACE);
+		second = new Node(CacheInvalidation.NAMESPACE);
+		warmUp("users.all");
+		//把第一个节点自己发出的消息再投递给它, 不能清空任何缓存
+		first.write("users.rename");
+		first.queryHitsDatabase("users.all");
+		byte[] own = first.transport.sent.get(0);
+		first.configuration.getCacheInvalidationBus().onMessage(own);
+		assert !first.queryHitsDatabase("users.all");
+	}
+
+	public void testMalformedAndUnknownMessagesAreIgnored() {
+		first = new Node(CacheInvalidation.NAMESPACE);
+		second = new Node(CacheInvalidation.NAMESPACE);
+		warmUp("users.all");
+		CacheInvalidationBus bus = first.configuration.getCacheInvalidationBus();
+		bus.onMessage(new byte[] { 1, 2, 3 });
+		bus.onMessage(new byte[] { 99, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+		assert !first.queryHitsDatabase("users.all");
+	}
+
+	public void testSendFailureDoesNotFailTheCommit() {
+		first = new Node(CacheInvalidation.NAMESPACE);
+		second = new Node(CacheInvalidation.NAMESPACE);
+		warmUp("users.all");
+		second.transport.failing = true;
+		second.write("users.rename");
+		//本地照常失效, 远端收不到
+		assert second.queryHitsDatabase("users.all");
+		assert !first.queryHitsDatabase("users.all");
+	}
+
+	public void testClosedBusStopsReceiving() {
+		first = new Node(CacheInvalidation.NAMESPACE);
+		second = new Node(CacheInvalidation.NAMESPACE);
+		warmUp("users.all");
+		first.configuration.getCacheInvalidationBus().close();
+		second.write("users.rename");
+		assert !first.queryHitsDatabase("users.all");
+	}
+
+}
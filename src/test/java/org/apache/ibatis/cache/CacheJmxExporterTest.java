@@ -0,0 +1,105 @@
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//缓存统计信息的JMX注册: scope默认为环境id, 可以配置, 可以显式注销
+public class CacheJmxExporterTest {
+
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	private Configuration configuration;
+	private String environmentId;
+
+	public void setUp() {
+		configuration = StubSessions.newConfiguration(StubDriver.newDatabase());
+		//每个测试用不同的环境id, 测试之间的MBean互不影响
+		environmentId = "jmx-test-" + SEQUENCE.incrementAndGet();
+		Environment environment = configuration.getEnvironment();
+		configuration.setEnvironment(new Environment(environmentId, environment.getTransactionFactory(), environment.getDataSource()));
+		StubSessions.addMapper(configuration, "users", "<cache/>"
+				+ "<select id=\"all\" resultType=\"map\">select id, name from users</select>");
+	}
+
+	public void tearDown() {
+		configuration.unregisterCacheMBeans();
+		StubSessions.close(configuration);
+	}
+
+	private boolean isRegistered(String cacheId, String scope) throws Exception {
+		return server.isRegistered(CacheJmxExporter.objectName(cacheId, scope));
+	}
+
+	public void testScopeDefaultsToEnvironmentId() throws Exception {
+		assert environmentId.equals(configuration.getCacheJmxScope());
+		configuration.setCacheJmxEnabled(true);
+		assert isRegistered("users", environmentId);
+		SqlSession session = StubSessions.build(configuration).openSession();
+		try {
+			session.selectList("users.all");
+			session.commit();
+			session.selectList("users.all");
+		} finally {
+			session.close();
+		}
+		ObjectName name = CacheJmxExporter.objectName("users", environmentId);
+		assert ((Long) server.getAttribute(name, "HitCount")) == 1;
+		assert ((Long) server.getAttribute(name, "MissCount")) == 1;
+	}
+
+	public void testScopeIsStableAcrossConfigurations() throws Exception {
+		//同一个环境id的新Configuration(比如重新部署后)使用同样的名字
+		configuration.setCacheJmxEnabled(true);
+		Configuration redeployed = StubSessions.newConfiguration(StubDriver.newDatabase());
+		redeployed.setEnvironment(configuration.getEnvironment());
+		assert redeployed.getCacheJmxScope().equals(configuration.getCacheJmxScope());
+	}
+
+	public void testConfiguredScopeReplacesRegistration() throws Exception {
+		configuration.setCacheJmxEnabled(true);
+		String scope = environmentId + "-custom";
+		configuration.setCacheJmxScope(scope);
+		assert !isRegistered("users", environmentId) : "old name must be unregistered";
+		assert isRegistered("users", scope);
+		//改变环境不影响显式设置的scope
+		Environment environment = configuration.getEnvironment();
+		configuration.setEnvironment(new Environment(environmentId + "-other", environment.getTransactionFactory(), environment.getDataSource()));
+		assert isRegistered("users", scope);
+		configuration.setCacheJmxScope(null);
+		assert isRegistered("users", environmentId + "-other");
+		assert !isRegistered("users", scope);
+	}
+
+	public void testCachesAddedLaterAreRegistered() throws Exception {
+		configuration.setCacheJmxEnabled(true);
+		StubSessions.addMapper(configuration, "orders", "<cache/>");
+		assert isRegistered("orders", environmentId);
+	}
+
+	public void testExplicitUnregister() throws Exception {
+		configuration.setCacheJmxEnabled(true);
+		StubSessions.addMapper(configuration, "orders", "<cache/>");
+		configuration.unregisterCacheMBeans();
+		assert !configuration.isCacheJmxEnabled();
+		Set<ObjectName> remaining = server.queryNames(new ObjectName("org.apache.ibatis:type=Cache,scope="
+				+ ObjectName.quote(environmentId) + ",*"), null);
+		assert remaining.isEmpty() : remaining;
+	}
+
+	public void testDisabledRegistersNothing() throws Exception {
+		assert !configuration.isCacheJmxEnabled();
+		assert !isRegistered("users", environmentId);
+	}
+
+}
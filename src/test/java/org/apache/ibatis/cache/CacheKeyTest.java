@@ -0,0 +1,149 @@
+package org.apache.ibatis.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+//缓存key的相等性、哈希值、克隆和序列化
+public class CacheKeyTest {
+
+	private static CacheKey key(Object... objects) {
+		CacheKey key = new CacheKey(2);
+		for (Object object : objects) {
+			key.update(object);
+		}
+		return key;
+	}
+
+	public void testSameUpdatesAreEqual() {
+		CacheKey first = key("select", 10, null, new StringBuilder("x").toString());
+		first.update(0);
+		first.update(100L);
+		CacheKey second = key("select", 10, null, "x");
+		second.update(0);
+		second.update(100L);
+		assert first.equals(second) && second.equals(first);
+		assert first.hashCode() == second.hashCode();
+		assert first.toString().equals(second.toString());
+		assert first.getUpdateCount() == 6;
+	}
+
+	public void testOrderAndValuesMatter() {
+		assert !key("a", "b").equals(key("b", "a"));
+		assert !key("a").equals(key("a", "a"));
+		assert !key("a", null).equals(key("a"));
+		CacheKey offset = new CacheKey();
+		offset.update(0);
+		offset.update(10);
+		CacheKey other = new CacheKey();
+		other.update(10);
+		other.update(0);
+		assert !offset.equals(other);
+	}
+
+	public void testCollidingHashCodesAreStillCompared() {
+		//"Aa"和"BB"的hashCode相同, 只能靠逐个元素比较区分
+		assert "Aa".hashCode() == "BB".hashCode();
+		CacheKey first = key("Aa");
+		CacheKey second = key("BB");
+		assert first.hashCode() == second.hashCode();
+		assert !first.equals(second);
+	}
+
+	public void testPrimitiveUpdatesCompareByValue() {
+		CacheKey first = new CacheKey();
+		first.update(Long.MAX_VALUE);
+		first.update(-1);
+		CacheKey second = new CacheKey();
+		second.update(Long.MAX_VALUE);
+		second.update(-1);
+		CacheKey third = new CacheKey();
+		third.update(Long.MAX_VALUE);
+		third.update(-2);
+		assert first.equals(second);
+		assert !first.equals(third);
+	}
+
+	public void testArraysAreComparedByElement() {
+		assert key(new Object[] { "a", 1 }).equals(key(new Object[] { "a", 1 }));
+		assert key((Object) new int[] { 1, 2 }).equals(key((Object) new int[] { 1, 2 }));
+		assert !key((Object) new int[] { 1, 2 }).equals(key((Object) new int[] { 2, 1 }));
+		assert key((Object) new char[] { 'a' }).equals(key((Object) new char[] { 'a' }));
+	}
+
+	public void testGrowsBeyondExpectedCapacity() {
+		CacheKey first = new CacheKey(1);
+		CacheKey second = new CacheKey(64);
+		for (int i = 0; i < 50; i++) {
+			first.update("v" + i);
+			second.update("v" + i);
+			first.update(i);
+			second.update(i);
+		}
+		assert first.equals(second);
+		assert first.getUpdateCount() == 100;
+	}
+
+	public void testCloneIsIndependent() throws CloneNotSupportedException {
+		CacheKey original = key("a");
+		original.update(1);
+		CacheKey clone = original.clone();
+		assert clone.equals(original);
+		original.update(2);
+		original.update("b");
+		assert !clone.equals(original);
+		assert clone.getUpdateCount() == 2;
+	}
+
+	public void testSerializedKeyIsEqualAndDropsLoader() throws Exception {
+		CacheKey original = key("select", null);
+		original.update(7);
+		original.setLoader(new CacheLoader() {
+			public Object load(CacheKey key) {
+				return null;
+			}
+
+			public Cache getCache() {
+				return null;
+			}
+
+			public long getLoadTime() {
+				return 0;
+			}
+
+			public long getVersion() {
+				return 0;
+			}
+
+			public boolean register(CacheKey key, long version) {
+				return true;
+			}
+		});
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(original);
+		out.close();
+		CacheKey copy = (CacheKey) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assert copy.equals(original) && original.equals(copy);
+		assert copy.hashCode() == original.hashCode();
+		assert copy.getLoader() == null;
+	}
+
+	public void testNullCacheKeyCannotBeUpdated() {
+		try {
+			CacheKey.NULL_CACHE_KEY.update("x");
+			assert false : "NullCacheKey must not be updated";
+		} catch (CacheException e) {
+			// 预期
+		}
+		try {
+			CacheKey.NULL_CACHE_KEY.update(1);
+			assert false : "NullCacheKey must not be updated";
+		} catch (CacheException e) {
+			// 预期
+		}
+		assert CacheKey.NULL_CACHE_KEY.equals(new NullCacheKey());
+	}
+
+}
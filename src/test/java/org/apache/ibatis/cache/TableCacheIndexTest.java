@@ -0,0 +1,78 @@
+package org.apache.ibatis.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+
+//表到缓存项的依赖索引: 只删除依赖被写的表的缓存项, 可以跨缓存
+public class TableCacheIndexTest {
+
+	private TableCacheIndex index;
+	private Cache users;
+	private Cache orders;
+
+	public void setUp() {
+		index = new TableCacheIndex();
+		users = new ConcurrentPerpetualCache("users");
+		orders = new ConcurrentPerpetualCache("orders");
+	}
+
+	private void put(Cache cache, String key, String... tables) {
+		long version = index.getVersion(tables);
+		cache.putObject(key, key);
+		assert index.register(cache, key, tables, version);
+	}
+
+	public void testOnlyDependentEntriesAreEvicted() {
+		put(users, "allUsers", "users");
+		put(orders, "ordersWithUsers", "orders", "users");
+		put(orders, "allOrders", "orders");
+		index.invalidate(Collections.singleton("users"));
+		assert users.getObject("allUsers") == null;
+		assert orders.getObject("ordersWithUsers") == null : "dependency in another cache must be evicted";
+		assert "allOrders".equals(orders.getObject("allOrders"));
+	}
+
+	public void testUnknownTablesDependOnEverything() {
+		put(users, "unknown", TableCacheIndex.ANY_TABLE);
+		put(users, "allUsers", "users");
+		index.invalidate(Collections.singleton("orders"));
+		assert users.getObject("unknown") == null : "query on unknown tables is evicted by any write";
+		assert "allUsers".equals(users.getObject("allUsers"));
+		//写了未知的表, 删除所有登记的缓存项
+		put(orders, "allOrders", "orders");
+		index.invalidate(Collections.singleton(TableCacheIndex.ANY_TABLE));
+		assert users.getObject("allUsers") == null;
+		assert orders.getObject("allOrders") == null;
+	}
+
+	public void testResultReadDuringWriteIsNotRegistered() {
+		String[] tables = { "users" };
+		long version = index.getVersion(tables);
+		users.putObject("stale", "stale");
+		//查询期间另一个事务提交了对users的写
+		index.invalidate(Arrays.asList("users"));
+		assert !index.register(users, "stale", tables, version);
+		assert users.getObject("stale") == null;
+	}
+
+	public void testOverflowClearsTheWholeCache() {
+		index.setMaxEntriesPerTable(3);
+		for (int i = 0; i < 5; i++) {
+			put(users, "u" + i, "users");
+		}
+		users.putObject("unregistered", "x");
+		put(orders, "allOrders", "orders");
+		index.invalidate(Collections.singleton("users"));
+		assert users.getSize() == 0 : "overflowed cache is cleared wholesale";
+		assert "allOrders".equals(orders.getObject("allOrders"));
+		//清空之后重新按键登记
+		put(users, "again", "users");
+		users.putObject("other", "x");
+		index.invalidate(Collections.singleton("users"));
+		assert users.getObject("again") == null;
+		assert "x".equals(users.getObject("other"));
+	}
+
+}
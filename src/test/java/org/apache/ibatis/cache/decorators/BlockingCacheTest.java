@@ -0,0 +1,176 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+
+//块型缓存: 同一个键只有一个加载者, 等待有超时, 加载者按会话识别
+public class BlockingCacheTest {
+
+	private BlockingCache cache;
+	private ExecutorService executor;
+
+	public void setUp() {
+		cache = new BlockingCache(new ConcurrentPerpetualCache("blocking"));
+		executor = Executors.newCachedThreadPool();
+	}
+
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private Future<Object> getAsync(final Object key) {
+		return executor.submit(new Callable<Object>() {
+			public Object call() {
+				return cache.getObject(key);
+			}
+		});
+	}
+
+	private static void assertBlocked(Future<?> future) throws Exception {
+		try {
+			future.get(100, TimeUnit.MILLISECONDS);
+			assert false : "expected to wait for the loader";
+		} catch (TimeoutException e) {
+			// 预期
+		}
+	}
+
+	private int flightCount() throws Exception {
+		Field field = BlockingCache.class.getDeclaredField("flights");
+		field.setAccessible(true);
+		return ((Map<?, ?>) field.get(cache)).size();
+	}
+
+	public void testWaitersReceiveTheLoadedValue() throws Exception {
+		assert cache.getObject("k") == null : "first misser becomes the loader";
+		List<Future<Object>> waiters = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 4; i++) {
+			waiters.add(getAsync("k"));
+		}
+		assertBlocked(waiters.get(0));
+		cache.putObject("k", "v");
+		for (Future<Object> waiter : waiters) {
+			assert "v".equals(waiter.get(2, TimeUnit.SECONDS));
+		}
+		assert flightCount() == 0 : "completed flights must not leak";
+	}
+
+	public void testFailedLoadHandsOverToOneWaiter() throws Exception {
+		assert cache.getObject("k") == null;
+		Future<Object> first = getAsync("k");
+		Future<Object> second = getAsync("k");
+		assertBlocked(first);
+		//加载失败, 事务结束时放入null
+		cache.putObject("k", null);
+		//一个等待者成为新的加载者, 另一个继续等待
+		Future<Object> loader = null;
+		Future<Object> waiter = null;
+		long deadline = System.currentTimeMillis() + 2000;
+		while (loader == null && System.currentTimeMillis() < deadline) {
+			if (first.isDone()) {
+				loader = first;
+				waiter = second;
+			} else if (second.isDone()) {
+				loader = second;
+				waiter = first;
+			}
+			Thread.sleep(5);
+		}
+		assert loader != null && loader.get() == null;
+		assertBlocked(waiter);
+		//新的加载者不是当前线程, 放入值时谁都可以完成加载
+		cache.putObject("k", "v");
+		assert "v".equals(waiter.get(2, TimeUnit.SECONDS));
+		assert flightCount() == 0;
+	}
+
+	public void testWaiterGivesUpAfterTimeout() throws Exception {
+		cache.setTimeout(150);
+		assert cache.getObject("k") == null;
+		long start = System.nanoTime();
+		Future<Object> waiter = getAsync("k");
+		assert waiter.get(2, TimeUnit.SECONDS) == null;
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assert elapsed >= 100 && elapsed < 1500 : "waited " + elapsed + "ms";
+	}
+
+	public void testStaleLoaderCannotReleaseTheNewFlight() throws Exception {
+		cache.setTimeout(100);
+		assert cache.getObject("k") == null;
+		Thread.sleep(150);
+		//原来的加载者超时了, 下一个没命中的调用者马上接手, 不用等待
+		final Object newOwner = new Object();
+		Future<Object> takeover = executor.submit(new Callable<Object>() {
+			public Object call() {
+				Object previous = BlockingCache.setOwner(newOwner);
+				try {
+					return cache.getObject("k");
+				} finally {
+					BlockingCache.restoreOwner(previous);
+				}
+			}
+		});
+		assert takeover.get(50, TimeUnit.MILLISECONDS) == null;
+		cache.setTimeout(5000);
+		Future<Object> waiter = getAsync("k");
+		assertBlocked(waiter);
+		//旧的加载者回滚, 放入null不能唤醒新加载者的等待者
+		cache.putObject("k", null);
+		assertBlocked(waiter);
+		cache.putObject("k", "v");
+		assert "v".equals(waiter.get(2, TimeUnit.SECONDS));
+	}
+
+	public void testOwnershipFollowsTheTransactionNotTheThread() throws Exception {
+		final TransactionalCache session = new TransactionalCache(cache);
+		assert session.getObject("k") == null;
+		//同一个会话的异步查询在另一个线程上执行, 不能等待自己的加载
+		long start = System.nanoTime();
+		Future<Object> sameSession = executor.submit(new Callable<Object>() {
+			public Object call() {
+				return session.getObject("k");
+			}
+		});
+		assert sameSession.get(1, TimeUnit.SECONDS) == null;
+		assert TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500;
+		//其他会话仍要等待
+		final TransactionalCache other = new TransactionalCache(cache);
+		Future<Object> otherSession = executor.submit(new Callable<Object>() {
+			public Object call() {
+				return other.getObject("k");
+			}
+		});
+		assertBlocked(otherSession);
+		session.putObject("k", "v");
+		//在另一个线程上提交, 仍然完成本会话的加载
+		executor.submit(new Callable<Void>() {
+			public Void call() {
+				session.commit();
+				return null;
+			}
+		}).get(2, TimeUnit.SECONDS);
+		assert "v".equals(otherSession.get(2, TimeUnit.SECONDS));
+		assert flightCount() == 0;
+	}
+
+	public void testRollbackReleasesMissedKeys() throws Exception {
+		TransactionalCache session = new TransactionalCache(cache);
+		assert session.getObject("k") == null;
+		Future<Object> waiter = getAsync("k");
+		assertBlocked(waiter);
+		session.rollback();
+		//回滚后等待者成为新的加载者
+		assert waiter.get(2, TimeUnit.SECONDS) == null;
+	}
+
+}
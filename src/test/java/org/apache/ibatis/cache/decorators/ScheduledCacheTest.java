@@ -0,0 +1,189 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheLoader;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.TableCacheIndex;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+
+//定时调度缓存: 每个缓存项单独过期, 快过期的缓存项在后台提前刷新
+public class ScheduledCacheTest {
+
+	private ScheduledCache cache;
+
+	public void setUp() {
+		cache = new ScheduledCache(new ConcurrentPerpetualCache("scheduled"));
+	}
+
+	//计数的加载器, 加载时间很长时每次访问都会提前刷新
+	//按表失效时依赖的表在tables上登记, 没有表时不登记
+	private class CountingLoader implements CacheLoader {
+
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final long loadTime;
+		final TableCacheIndex tableIndex = new TableCacheIndex();
+		volatile String[] tables;
+		volatile Object result;
+
+		CountingLoader(long loadTime, Object result) {
+			this.loadTime = loadTime;
+			this.result = result;
+		}
+
+		public Object load(CacheKey key) throws Exception {
+			loads.incrementAndGet();
+			release.await(2, TimeUnit.SECONDS);
+			return result;
+		}
+
+		public Cache getCache() {
+			return cache;
+		}
+
+		public long getLoadTime() {
+			return loadTime;
+		}
+
+		public long getVersion() {
+			return tables != null ? tableIndex.getVersion(tables) : 0;
+		}
+
+		public boolean register(CacheKey key, long version) {
+			return tables == null || tableIndex.register(cache, key, tables, version);
+		}
+
+	}
+
+	private static CacheKey key(String value, CacheLoader loader) {
+		CacheKey key = new CacheKey();
+		key.update(value);
+		key.setLoader(loader);
+		return key;
+	}
+
+	private static void await(CountingLoader loader, int loads) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (loader.loads.get() < loads) {
+			assert System.currentTimeMillis() < deadline : "refresh did not start";
+			Thread.sleep(5);
+		}
+	}
+
+	public void testEntriesExpireIndependently() throws InterruptedException {
+		CacheMetrics metrics = new CacheMetrics();
+		cache.setCacheMetrics(metrics);
+		cache.setClearInterval(150);
+		cache.putObject("a", "1");
+		Thread.sleep(100);
+		cache.putObject("b", "2");
+		Thread.sleep(80);
+		assert cache.getObject("a") == null : "a is past its own expiry";
+		assert "2".equals(cache.getObject("b")) : "b must not be cleared together with a";
+		assert metrics.snapshot(cache).getEvictionCount() == 1;
+		assert cache.getSize() == 1;
+	}
+
+	public void testNullAndRemovedValues() {
+		cache.putObject("missing", null);
+		assert cache.getObject("missing") == null;
+		cache.putObject("k", "v");
+		assert "v".equals(cache.removeObject("k"));
+		assert cache.getObject("k") == null;
+	}
+
+	public void testStaleValueIsServedWhileRefreshing() throws Exception {
+		cache.setRefreshAhead(true);
+		CountingLoader loader = new CountingLoader(Long.MAX_VALUE / 4, "new");
+		CacheKey key = key("q", loader);
+		cache.putObject(key, "old");
+		key.setLoader(null);
+		assert "old".equals(cache.getObject(key));
+		await(loader, 1);
+		//刷新进行中, 继续返回旧值, 不会再启动第二次刷新
+		for (int i = 0; i < 10; i++) {
+			assert "old".equals(cache.getObject(key));
+		}
+		assert loader.loads.get() == 1;
+		loader.release.countDown();
+		long deadline = System.currentTimeMillis() + 2000;
+		while (!"new".equals(cache.getObject(key))) {
+			assert System.currentTimeMillis() < deadline : "refreshed value was not put back";
+			Thread.sleep(5);
+		}
+		//放回时附加了同一个加载器, 新的缓存项可以继续刷新
+		await(loader, 2);
+	}
+
+	public void testColdEntryIsNotRefreshedEarly() {
+		cache.setRefreshAhead(true);
+		cache.setClearInterval(60 * 60 * 1000);
+		CountingLoader loader = new CountingLoader(1, "new");
+		CacheKey key = key("q", loader);
+		cache.putObject(key, "old");
+		for (int i = 0; i < 100; i++) {
+			assert "old".equals(cache.getObject(key));
+		}
+		assert loader.loads.get() == 0 : "entry far from expiry must not refresh";
+	}
+
+	public void testRefreshIsDroppedWhenEntryChanged() throws Exception {
+		cache.setRefreshAhead(true);
+		CountingLoader loader = new CountingLoader(Long.MAX_VALUE / 4, "new");
+		CacheKey key = key("q", loader);
+		cache.putObject(key, "old");
+		key.setLoader(null);
+		cache.getObject(key);
+		await(loader, 1);
+		//刷新期间缓存项被替换, 刷新的结果不能覆盖新值
+		cache.putObject(key, "replaced");
+		loader.release.countDown();
+		Thread.sleep(100);
+		assert "replaced".equals(cache.getObject(key));
+	}
+
+	public void testRefreshIsDroppedWhenTableIsWrittenDuringLoad() throws Exception {
+		cache.setRefreshAhead(true);
+		CountingLoader loader = new CountingLoader(Long.MAX_VALUE / 4, "new");
+		loader.tables = new String[] { "users" };
+		CacheKey key = key("q", loader);
+		cache.putObject(key, "old");
+		key.setLoader(null);
+		cache.getObject(key);
+		await(loader, 1);
+		//刷新期间表被写过, 旧的缓存项还没被删掉时刷新的结果也不能留在缓存里
+		loader.tableIndex.invalidate(Collections.singleton("users"));
+		loader.release.countDown();
+		long deadline = System.currentTimeMillis() + 2000;
+		while (cache.getSize() > 0) {
+			assert System.currentTimeMillis() < deadline : "stale refresh was not dropped";
+			Thread.sleep(5);
+		}
+		assert cache.getObject(key) == null;
+	}
+
+	public void testLoaderIsIgnoredWithoutRefreshAhead() throws Exception {
+		CountingLoader loader = new CountingLoader(Long.MAX_VALUE / 4, "new");
+		CacheKey key = key("q", loader);
+		cache.putObject(key, "old");
+		cache.getObject(key);
+		Thread.sleep(50);
+		assert loader.loads.get() == 0;
+	}
+
+	public void testCommitDetachesLoaderFromKey() {
+		TransactionalCache transactional = new TransactionalCache(cache);
+		CacheKey key = key("q", new CountingLoader(1, "new"));
+		transactional.putObject(key, "v");
+		transactional.commit();
+		assert key.getLoader() == null : "long-lived key must not pin the query parameters";
+		assert "v".equals(cache.getObject(key));
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.FastCacheSerializer;
+import org.apache.ibatis.cache.impl.JavaCacheSerializer;
+import org.apache.ibatis.mapping.CacheBuilder;
+
+//序列化缓存: 每次读取都返回副本, 序列化器可以通过缓存属性替换
+public class SerializedCacheTest {
+
+	private static List<String> list(String... values) {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+
+	public void testReturnsCopies() {
+		for (boolean fast : new boolean[] { false, true }) {
+			SerializedCache cache = new SerializedCache(new ConcurrentPerpetualCache("serialized"));
+			if (fast) {
+				cache.setCacheSerializer(new FastCacheSerializer());
+			}
+			List<String> value = list("a", "b");
+			cache.putObject("k", value);
+			value.add("c");
+			@SuppressWarnings("unchecked")
+			List<String> first = (List<String>) cache.getObject("k");
+			assert list("a", "b").equals(first) : "fast=" + fast;
+			first.add("d");
+			assert list("a", "b").equals(cache.getObject("k")) : "each hit must return its own copy";
+			cache.putObject("null", null);
+			assert cache.getObject("null") == null;
+			assert cache.getSize() == 2;
+		}
+	}
+
+	public void testNonSerializableValueIsRejected() {
+		SerializedCache cache = new SerializedCache(new ConcurrentPerpetualCache("serialized"));
+		try {
+			cache.putObject("k", new Object());
+			assert false;
+		} catch (CacheException e) {
+			// 预期
+		}
+	}
+
+	public void testCompressThresholdIsAppliedInAnyOrder() {
+		SerializedCache before = new SerializedCache(new ConcurrentPerpetualCache("before"));
+		before.setCompressThreshold(100);
+		before.setSerializer(FastCacheSerializer.class.getName());
+		assert ((FastCacheSerializer) before.getCacheSerializer()).getCompressThreshold() == 100;
+
+		SerializedCache after = new SerializedCache(new ConcurrentPerpetualCache("after"));
+		after.setSerializer(FastCacheSerializer.class.getName());
+		after.setCompressThreshold(100);
+		assert ((FastCacheSerializer) after.getCacheSerializer()).getCompressThreshold() == 100;
+	}
+
+	public void testUnknownSerializerFails() {
+		try {
+			new SerializedCache(new ConcurrentPerpetualCache("unknown")).setSerializer("no.such.Serializer");
+			assert false;
+		} catch (CacheException e) {
+			// 预期
+		}
+	}
+
+	public void testSerializerIsConfiguredFromCacheProperties() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("serializer", FastCacheSerializer.class.getName());
+		properties.setProperty("compressThreshold", "256");
+		Cache cache = new CacheBuilder("configured").readWrite(true).properties(properties).build();
+		SerializedCache serialized = null;
+		for (Cache current = cache; current != null && serialized == null; ) {
+			if (current instanceof SerializedCache) {
+				serialized = (SerializedCache) current;
+			} else {
+				Field field = current.getClass().getDeclaredField("delegate");
+				field.setAccessible(true);
+				current = (Cache) field.get(current);
+			}
+		}
+		assert serialized != null;
+		assert serialized.getCacheSerializer() instanceof FastCacheSerializer;
+		assert ((FastCacheSerializer) serialized.getCacheSerializer()).getCompressThreshold() == 256;
+		cache.putObject("k", list("x"));
+		assert list("x").equals(cache.getObject("k"));
+		//默认仍是Java序列化
+		assert new SerializedCache(new ConcurrentPerpetualCache("default")).getCacheSerializer() instanceof JavaCacheSerializer;
+	}
+
+}
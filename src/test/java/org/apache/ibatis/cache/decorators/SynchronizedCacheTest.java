@@ -0,0 +1,58 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+
+//同步缓存: 用ReentrantLock保护不能并发访问的缓存
+public class SynchronizedCacheTest {
+
+	public void testConcurrentPutsAreNotLost() throws Exception {
+		final SynchronizedCache cache = new SynchronizedCache(new PerpetualCache("sync"));
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 1000; i++) {
+						cache.putObject(thread + "-" + i, i);
+						cache.getObject(thread + "-" + (i / 2));
+					}
+				}
+			};
+			worker.start();
+			threads.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : threads) {
+			worker.join();
+		}
+		assert cache.getSize() == 8000 : cache.getSize();
+		assert Integer.valueOf(999).equals(cache.getObject("7-999"));
+	}
+
+	public void testBulkPutAndRemove() {
+		SynchronizedCache cache = new SynchronizedCache(new PerpetualCache("sync"));
+		Map<Object, Object> entries = new HashMap<Object, Object>();
+		for (int i = 0; i < 10; i++) {
+			entries.put(i, "v" + i);
+		}
+		cache.putAll(entries);
+		assert cache.getSize() == 10;
+		assert "v3".equals(cache.removeObject(3));
+		cache.clear();
+		assert cache.getSize() == 0;
+	}
+
+}
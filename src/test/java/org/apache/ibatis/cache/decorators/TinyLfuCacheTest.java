@@ -0,0 +1,110 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.session.Configuration;
+
+//W-TinyLFU淘汰: 容量上限、抗扫描以及并发读写
+public class TinyLfuCacheTest {
+
+	private TinyLfuCache newCache(int size) {
+		TinyLfuCache cache = new TinyLfuCache(new ConcurrentPerpetualCache("tinylfu"));
+		cache.setSize(size);
+		return cache;
+	}
+
+	//读不到就放入, 和执行器使用二级缓存的方式一样
+	private static void access(Cache cache, Object key) {
+		if (cache.getObject(key) == null) {
+			cache.putObject(key, "v" + key);
+		}
+	}
+
+	public void testSizeIsBounded() {
+		TinyLfuCache cache = newCache(100);
+		CacheMetrics metrics = new CacheMetrics();
+		cache.setCacheMetrics(metrics);
+		for (int i = 0; i < 1000; i++) {
+			cache.putObject(i, "v" + i);
+		}
+		assert cache.getSize() == 100 : "size " + cache.getSize();
+		assert metrics.snapshot(cache).getEvictionCount() == 900;
+	}
+
+	public void testScanDoesNotFlushHotEntries() {
+		TinyLfuCache cache = newCache(100);
+		for (int round = 0; round < 20; round++) {
+			for (int hot = 0; hot < 50; hot++) {
+				access(cache, "hot" + hot);
+			}
+		}
+		//一次大范围扫描, 每个冷数据只访问一次
+		for (int cold = 0; cold < 10000; cold++) {
+			access(cache, "cold" + cold);
+		}
+		int retained = 0;
+		for (int hot = 0; hot < 50; hot++) {
+			if (cache.getObject("hot" + hot) != null) {
+				retained++;
+			}
+		}
+		assert retained >= 45 : "only " + retained + " hot entries survived the scan";
+		assert cache.getSize() <= 100;
+	}
+
+	public void testRemoveAndClear() {
+		TinyLfuCache cache = newCache(10);
+		cache.putObject("a", "1");
+		cache.putObject("b", "2");
+		assert "1".equals(cache.removeObject("a"));
+		assert cache.getObject("a") == null;
+		cache.clear();
+		assert cache.getSize() == 0;
+		for (int i = 0; i < 10; i++) {
+			cache.putObject(i, "v" + i);
+		}
+		assert cache.getSize() == 10 : "clear must reset the policy";
+	}
+
+	public void testConcurrentAccessStaysBounded() throws Exception {
+		final TinyLfuCache cache = newCache(200);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int j = 0; j < 50000; j++) {
+						Integer key = random.nextInt(1000);
+						Object value = cache.getObject(key);
+						assert value == null || value.equals("v" + key);
+						if (value == null) {
+							cache.putObject(key, "v" + key);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(60, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+		assert cache.getSize() <= 200 : "size " + cache.getSize();
+	}
+
+	public void testEvictionAliasIsRegistered() {
+		assert TinyLfuCache.class.equals(new Configuration().getTypeAliasRegistry().resolveAlias("TINYLFU"));
+	}
+
+}
@@ -0,0 +1,171 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.TransactionalCacheManager;
+
+//事务缓存: 暂存到提交时一次批量放入, 只读事务提交时什么都不做
+public class TransactionalCacheTest {
+
+	private RecordingCache delegate;
+
+	public void setUp() {
+		delegate = new RecordingCache();
+	}
+
+	//记录调用次数的缓存
+	private static class RecordingCache implements BulkCache {
+
+		final Map<Object, Object> map = new HashMap<Object, Object>();
+		int puts;
+		int bulkPuts;
+		int clears;
+		int calls;
+
+		public String getId() {
+			return "recording";
+		}
+
+		public void putObject(Object key, Object value) {
+			calls++;
+			puts++;
+			map.put(key, value);
+		}
+
+		public void putAll(Map<?, ?> entries) {
+			calls++;
+			bulkPuts++;
+			map.putAll(entries);
+		}
+
+		public Object getObject(Object key) {
+			calls++;
+			return map.get(key);
+		}
+
+		public Object removeObject(Object key) {
+			calls++;
+			return map.remove(key);
+		}
+
+		public void clear() {
+			calls++;
+			clears++;
+			map.clear();
+		}
+
+		public int getSize() {
+			return map.size();
+		}
+
+		public ReadWriteLock getReadWriteLock() {
+			return null;
+		}
+
+	}
+
+	private static CacheKey key(Object value) {
+		CacheKey key = new CacheKey();
+		key.update(value);
+		return key;
+	}
+
+	public void testStagedEntriesAreFlushedInOneBulkPut() {
+		TransactionalCache cache = new TransactionalCache(delegate);
+		for (int i = 0; i < 10; i++) {
+			assert cache.getObject(key(i)) == null;
+			cache.putObject(key(i), "v" + i);
+		}
+		assert cache.getObject(key("missed")) == null;
+		assert delegate.map.isEmpty() : "staged entries are invisible before commit";
+		cache.commit();
+		assert delegate.bulkPuts == 1 && delegate.puts == 0;
+		assert "v3".equals(delegate.map.get(key(3)));
+		//没有结果的键放入null, 唤醒BlockingCache上的等待者
+		assert delegate.map.containsKey(key("missed")) && delegate.map.get(key("missed")) == null;
+		assert cache.isEmpty();
+	}
+
+	public void testRollbackDiscardsStagedEntriesAndReleasesMisses() {
+		TransactionalCache cache = new TransactionalCache(delegate);
+		assert cache.getObject(key(1)) == null;
+		cache.putObject(key(1), "v1");
+		cache.rollback();
+		assert delegate.map.size() == 1;
+		assert delegate.map.containsKey(key(1)) && delegate.map.get(key(1)) == null;
+		//回滚之后再提交什么都不做
+		int calls = delegate.calls;
+		cache.commit();
+		assert delegate.calls == calls;
+	}
+
+	public void testClearOnCommit() {
+		delegate.map.put(key("old"), "old");
+		TransactionalCache cache = new TransactionalCache(delegate);
+		cache.putObject(key(1), "v1");
+		cache.clear();
+		//清空之后暂存的和缓存里的都看不到了
+		assert cache.getObject(key("old")) == null;
+		cache.putObject(key(2), "v2");
+		cache.commit();
+		assert delegate.clears == 1;
+		assert !delegate.map.containsKey(key(1));
+		assert "v2".equals(delegate.map.get(key(2)));
+		assert delegate.map.get(key("old")) == null;
+	}
+
+	public void testReadOnlyTransactionSkipsCommit() {
+		delegate.map.put(key(1), "v1");
+		TransactionalCacheManager manager = new TransactionalCacheManager();
+		for (int i = 0; i < 5; i++) {
+			assert "v1".equals(manager.getObject(delegate, key(1)));
+		}
+		int calls = delegate.calls;
+		manager.commit();
+		manager.rollback();
+		assert delegate.calls == calls : "nothing staged, nothing to flush";
+	}
+
+	public void testManagerCommitsEveryTouchedCache() {
+		RecordingCache other = new RecordingCache();
+		TransactionalCacheManager manager = new TransactionalCacheManager();
+		manager.putObject(delegate, key(1), "a");
+		manager.putObject(other, key(1), "b");
+		manager.clear(other);
+		List<String> cleared = new ArrayList<String>();
+		manager.commit(cleared);
+		assert "a".equals(delegate.map.get(key(1)));
+		assert other.clears == 1 && other.map.isEmpty();
+		assert cleared.size() == 1 && "recording".equals(cleared.get(0));
+	}
+
+	public void testSynchronizedCacheForwardsBulkPutUnderOneLock() {
+		SynchronizedCache synchronizedCache = new SynchronizedCache(delegate);
+		TransactionalCache cache = new TransactionalCache(synchronizedCache);
+		for (int i = 0; i < 20; i++) {
+			cache.putObject(key(i), i);
+		}
+		cache.commit();
+		assert delegate.bulkPuts == 1 && delegate.puts == 0;
+		assert delegate.map.size() == 20;
+	}
+
+	public void testBuffersAreReusedAcrossTransactions() {
+		TransactionalCache cache = new TransactionalCache(delegate);
+		for (int round = 0; round < 100; round++) {
+			cache.putObject(key(round), round);
+			assert cache.getObject(key("miss" + round)) == null;
+			cache.commit();
+			assert cache.isEmpty();
+		}
+		assert delegate.map.size() == 200;
+		assert delegate.bulkPuts == 100;
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.ObjectSizeWeigher;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+
+//按字节数限制的LRU缓存和对象大小估算
+public class WeightedLruCacheTest {
+
+	//按字符串长度计算权重, 方便精确断言
+	public static class LengthWeigher implements Weigher {
+		public long weigh(Object key, Object value) {
+			return ((String) value).length();
+		}
+	}
+
+	private WeightedLruCache newCache(long maxBytes) {
+		WeightedLruCache cache = new WeightedLruCache(new ConcurrentPerpetualCache("weighted"));
+		cache.setWeigher(LengthWeigher.class.getName());
+		cache.setMaxBytes(maxBytes);
+		return cache;
+	}
+
+	private static String bytes(int length) {
+		return new String(new char[length]).replace('\0', 'x');
+	}
+
+	public void testTotalWeightIsBounded() {
+		WeightedLruCache cache = newCache(100);
+		for (int i = 0; i < 10; i++) {
+			cache.putObject(i, bytes(30));
+		}
+		assert cache.getWeightedSize() <= 100 : "weight " + cache.getWeightedSize();
+		assert cache.getSize() == 3;
+		//最后放入的还在
+		assert cache.getObject(9) != null;
+	}
+
+	public void testLeastRecentlyUsedIsEvictedFirst() {
+		WeightedLruCache cache = newCache(100);
+		cache.putObject("a", bytes(40));
+		cache.putObject("b", bytes(40));
+		cache.getObject("a");
+		cache.putObject("c", bytes(40));
+		assert cache.getObject("b") == null : "b was least recently used";
+		assert cache.getObject("a") != null;
+		assert cache.getObject("c") != null;
+	}
+
+	public void testOneLargeEntryEvictsManySmallOnes() {
+		WeightedLruCache cache = newCache(100);
+		for (int i = 0; i < 10; i++) {
+			cache.putObject(i, bytes(10));
+		}
+		assert cache.getSize() == 10;
+		cache.putObject("big", bytes(95));
+		assert cache.getSize() == 1;
+		assert cache.getWeightedSize() == 95;
+	}
+
+	public void testOversizedEntryIsNotCachedAndDropsOldValue() {
+		WeightedLruCache cache = newCache(100);
+		cache.putObject("k", bytes(10));
+		cache.putObject("k", bytes(101));
+		assert cache.getObject("k") == null;
+		assert cache.getWeightedSize() == 0;
+	}
+
+	public void testReplacingAndRemovingAdjustWeight() {
+		WeightedLruCache cache = newCache(100);
+		cache.putObject("k", bytes(10));
+		cache.putObject("k", bytes(30));
+		assert cache.getWeightedSize() == 30;
+		cache.removeObject("k");
+		assert cache.getWeightedSize() == 0;
+		cache.putObject("k", bytes(10));
+		cache.clear();
+		assert cache.getWeightedSize() == 0 && cache.getSize() == 0;
+	}
+
+	public void testEntryCountLimitAlsoApplies() {
+		WeightedLruCache cache = newCache(1000);
+		cache.setSize(2);
+		cache.putObject(1, "a");
+		cache.putObject(2, "b");
+		cache.putObject(3, "c");
+		assert cache.getSize() == 2;
+		assert cache.getObject(1) == null;
+	}
+
+	public void testObjectSizeWeigherScalesWithRows() {
+		ObjectSizeWeigher weigher = new ObjectSizeWeigher();
+		List<Map<String, Object>> one = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> many = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 50000; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", (long) i);
+			row.put("name", "name" + i);
+			many.add(row);
+			if (i == 0) {
+				one.add(row);
+			}
+		}
+		long single = weigher.weigh("k", one);
+		long large = weigher.weigh("k", many);
+		assert large > single * 10000 : single + " vs " + large;
+		//序列化后的值按字节数组的实际长度计算
+		assert weigher.weigh("k", new byte[4096]) >= 4096;
+		assert weigher.weigh("k", Collections.emptyList()) < 1024;
+	}
+
+	public void testConfiguredThroughCacheBuilder() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxBytes", "100");
+		properties.setProperty("weigher", LengthWeigher.class.getName());
+		Cache cache = new CacheBuilder("weighted").implementation(PerpetualCache.class)
+				.addDecorator(WeightedLruCache.class).properties(properties).build();
+		for (int i = 0; i < 10; i++) {
+			cache.putObject(i, bytes(30));
+		}
+		assert cache.getSize() == 3 : "size " + cache.getSize();
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.apache.ibatis.cache.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+//LZ4块格式: 各种输入压缩后都能原样解压
+public class BlockCompressorTest {
+
+	private static byte[] roundTrip(byte[] data, int headerRoom) {
+		byte[] compressed = BlockCompressor.compress(data, 0, data.length, headerRoom);
+		if (compressed == null) {
+			return null;
+		}
+		byte[] restored = BlockCompressor.decompress(compressed, headerRoom, compressed.length - headerRoom, data.length);
+		assert Arrays.equals(data, restored);
+		return compressed;
+	}
+
+	public void testRepetitiveDataShrinks() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			text.append("id=").append(i % 7).append(", name=row, status=ACTIVE;");
+		}
+		byte[] data = text.toString().getBytes();
+		byte[] compressed = roundTrip(data, 5);
+		assert compressed != null;
+		assert compressed.length < data.length / 4 : compressed.length + " of " + data.length;
+	}
+
+	public void testLongRunsUseExtendedLengths() {
+		//匹配长度和字面量长度都超过15+255, 需要多个长度字节
+		byte[] data = new byte[5000];
+		Random random = new Random(1);
+		for (int i = 0; i < 600; i++) {
+			data[i] = (byte) random.nextInt();
+		}
+		byte[] compressed = roundTrip(data, 0);
+		assert compressed != null;
+		assert compressed.length < 700;
+	}
+
+	public void testOverlappingMatch() {
+		//偏移为1的匹配, 解压时源和目标重叠
+		byte[] data = new byte[100];
+		Arrays.fill(data, (byte) 'a');
+		data[0] = 'b';
+		assert roundTrip(data, 0) != null;
+	}
+
+	public void testIncompressibleDataReturnsNull() {
+		byte[] data = new byte[4096];
+		new Random(7).nextBytes(data);
+		assert roundTrip(data, 5) == null;
+	}
+
+	public void testRandomInputsRoundTrip() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			byte[] data = new byte[random.nextInt(3000)];
+			//字母表很小, 有很多短匹配
+			for (int j = 0; j < data.length; j++) {
+				data[j] = (byte) ('a' + random.nextInt(1 + i % 4));
+			}
+			roundTrip(data, i % 6);
+		}
+	}
+
+	public void testOffsetInsideSource() {
+		byte[] data = new byte[300];
+		Arrays.fill(data, (byte) 'x');
+		data[0] = 1;
+		data[299] = 2;
+		byte[] compressed = BlockCompressor.compress(data, 1, 298, 0);
+		byte[] restored = BlockCompressor.decompress(compressed, 0, compressed.length, 298);
+		assert Arrays.equals(Arrays.copyOfRange(data, 1, 299), restored);
+	}
+
+	public void testWrongLengthIsRejected() {
+		byte[] data = new byte[1000];
+		byte[] compressed = BlockCompressor.compress(data, 0, data.length, 0);
+		try {
+			BlockCompressor.decompress(compressed, 0, compressed.length, data.length + 1);
+			assert false : "length mismatch must be detected";
+		} catch (RuntimeException e) {
+			// 预期
+		}
+	}
+
+}
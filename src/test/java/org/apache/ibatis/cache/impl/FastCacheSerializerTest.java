@@ -0,0 +1,184 @@
+package org.apache.ibatis.cache.impl;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.CacheException;
+
+//快速序列化器: 和Java序列化语义一致, 类描述只登记一次, 大结果压缩
+public class FastCacheSerializerTest {
+
+	//带有transient字段、writeObject和共享引用的对象
+	public static class Row implements Serializable {
+		private static final long serialVersionUID = 1L;
+		String name;
+		Row parent;
+		transient String cached = "cached";
+		transient int written;
+
+		Row(String name, Row parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			out.defaultWriteObject();
+			out.writeInt(42);
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			written = in.readInt();
+		}
+	}
+
+	//单例, readResolve返回同一个实例
+	public static class Singleton implements Serializable {
+		private static final long serialVersionUID = 1L;
+		static final Singleton INSTANCE = new Singleton();
+
+		private Object readResolve() {
+			return INSTANCE;
+		}
+	}
+
+	private static List<Map<String, Object>> rows(int count) {
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", i);
+			row.put("name", "name" + (i % 10));
+			row.put("status", "ACTIVE");
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	public void testJavaSerializationSemanticsArePreserved() {
+		FastCacheSerializer serializer = new FastCacheSerializer();
+		Row root = new Row("root", null);
+		List<Object> graph = new ArrayList<Object>();
+		graph.add(new Row("a", root));
+		graph.add(new Row("b", root));
+		graph.add(Singleton.INSTANCE);
+		graph.add(null);
+		@SuppressWarnings("unchecked")
+		List<Object> copy = (List<Object>) serializer.deserialize(serializer.serialize(graph));
+		Row a = (Row) copy.get(0);
+		Row b = (Row) copy.get(1);
+		assert a != graph.get(0);
+		assert "a".equals(a.name) && "b".equals(b.name);
+		assert a.parent == b.parent : "shared reference must stay shared";
+		assert a.cached == null : "transient field must not be copied";
+		assert a.written == 42 : "writeObject/readObject must run";
+		assert copy.get(2) == Singleton.INSTANCE : "readResolve must run";
+		assert copy.get(3) == null;
+		assert serializer.deserialize(serializer.serialize(null)) == null;
+	}
+
+	public void testClassDescriptorsAreWrittenOnce() {
+		FastCacheSerializer fast = new FastCacheSerializer();
+		JavaCacheSerializer java = new JavaCacheSerializer();
+		Object value = rows(50);
+		byte[] fastBytes = fast.serialize(value);
+		byte[] javaBytes = java.serialize(value);
+		assert fastBytes.length < javaBytes.length : fastBytes.length + " vs " + javaBytes.length;
+		//类名只出现在Java序列化的结果里
+		assert new String(javaBytes, StandardCharsets.ISO_8859_1).contains("java.util.HashMap");
+		assert !new String(fastBytes, StandardCharsets.ISO_8859_1).contains("java.util.HashMap");
+		assert value.equals(fast.deserialize(fastBytes));
+		assert value.equals(java.deserialize(javaBytes));
+		//同一个值的第二次序列化结果不变
+		assert Arrays.equals(fastBytes, fast.serialize(value));
+	}
+
+	public void testLargeValuesAreCompressed() {
+		FastCacheSerializer plain = new FastCacheSerializer();
+		FastCacheSerializer compressing = new FastCacheSerializer();
+		compressing.setCompressThreshold(1024);
+		Object value = rows(500);
+		byte[] plainBytes = plain.serialize(value);
+		byte[] compressedBytes = compressing.serialize(value);
+		assert compressedBytes.length < plainBytes.length / 2 : compressedBytes.length + " vs " + plainBytes.length;
+		assert value.equals(compressing.deserialize(compressedBytes));
+		//小于阈值的不压缩
+		Object small = rows(1);
+		assert small.equals(compressing.deserialize(compressing.serialize(small)));
+		assert compressing.serialize(small).length == plain.serialize(small).length;
+	}
+
+	public void testBytesOfAnotherInstanceAreRejected() {
+		byte[] bytes = new FastCacheSerializer().serialize(rows(1));
+		try {
+			new FastCacheSerializer().deserialize(bytes);
+			assert false : "class ids are only valid in the serializer that wrote them";
+		} catch (CacheException e) {
+			// 预期
+		}
+	}
+
+	public void testNonSerializableValueFails() {
+		try {
+			new FastCacheSerializer().serialize(new Object());
+			assert false;
+		} catch (CacheException e) {
+			// 预期
+		}
+	}
+
+	public void testConcurrentRegistration() throws Exception {
+		final FastCacheSerializer serializer = new FastCacheSerializer();
+		serializer.setCompressThreshold(512);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 8; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						for (int i = 0; i < 200; i++) {
+							//各线程交替登记不同的类
+							Object value = (i + thread) % 3 == 0 ? rows(i % 40) : (i + thread) % 3 == 1 ? new Row("r" + i, null) : "s" + i;
+							Object copy = serializer.deserialize(serializer.serialize(value));
+							if (value instanceof Row) {
+								assert ((Row) value).name.equals(((Row) copy).name);
+							} else {
+								assert value.equals(copy) : value + " != " + copy;
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testJavaSerializerRoundTrip() {
+		JavaCacheSerializer serializer = new JavaCacheSerializer();
+		Row row = new Row("row", new Row("parent", null));
+		Row copy = (Row) serializer.deserialize(serializer.serialize(row));
+		assert "parent".equals(copy.parent.name);
+		assert copy.written == 42;
+		//新的实例也能读, 结果可以持久化
+		assert "row".equals(((Row) new JavaCacheSerializer().deserialize(serializer.serialize(row))).name);
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.apache.ibatis.cache.impl;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+//内存映射文件缓存: 重启后恢复、清空时重复使用段文件、淘汰的段文件循环使用
+public class MappedFileCacheTest {
+
+	private File directory;
+
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("mapped-cache").toFile();
+	}
+
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private MappedFileCache newCache(int segmentSize, long maxBytes) {
+		MappedFileCache cache = new MappedFileCache("mapped");
+		cache.setDirectory(directory.getPath());
+		cache.setSegmentSize(segmentSize);
+		cache.setMaxBytes(maxBytes);
+		//不使用堆上的一层, 每次读取都读段文件
+		cache.setMemorySize(0);
+		return cache;
+	}
+
+	private String[] segmentFiles() {
+		String[] names = directory.list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".seg");
+			}
+		});
+		Arrays.sort(names);
+		return names;
+	}
+
+	private static String value(int length, char c) {
+		char[] chars = new char[length];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	public void testEntriesSurviveRestart() {
+		MappedFileCache cache = newCache(64 * 1024, 1024 * 1024);
+		cache.putObject("a", "1");
+		cache.putObject("b", "2");
+		cache.removeObject("a");
+		assert cache.getSize() == 1;
+
+		MappedFileCache reopened = newCache(64 * 1024, 1024 * 1024);
+		assert reopened.getObject("a") == null;
+		assert "2".equals(reopened.getObject("b"));
+		assert reopened.getSize() == 1;
+	}
+
+	public void testClearReusesCurrentSegment() {
+		MappedFileCache cache = newCache(64 * 1024, 1024 * 1024);
+		for (int i = 0; i < 50; i++) {
+			cache.putObject("k" + i, value(100, 'x'));
+			cache.clear();
+		}
+		String[] before = segmentFiles();
+		assert before.length == 1 : Arrays.toString(before);
+		//记录大小相同, 清空前留下的旧记录正好接在新记录后面
+		cache.putObject("k1", value(100, 'y'));
+		cache.putObject("k2", value(100, 'y'));
+		cache.clear();
+		cache.putObject("k1", value(100, 'z'));
+		assert Arrays.equals(before, segmentFiles()) : "clear must not create segment files";
+
+		MappedFileCache reopened = newCache(64 * 1024, 1024 * 1024);
+		assert value(100, 'z').equals(reopened.getObject("k1"));
+		assert reopened.getObject("k2") == null : "entry cleared before restart came back";
+		assert reopened.getSize() == 1;
+	}
+
+	public void testEvictedSegmentsAreRecycled() {
+		int segmentSize = 4096;
+		MappedFileCache cache = newCache(segmentSize, 3 * segmentSize);
+		for (int i = 0; i < 200; i++) {
+			cache.putObject("k" + i, value(500, 'v'));
+			assert segmentFiles().length <= 3 : "segment files exceed maxBytes: " + Arrays.toString(segmentFiles());
+		}
+		assert cache.getObject("k0") == null : "eldest segment was not evicted";
+		assert value(500, 'v').equals(cache.getObject("k199"));
+
+		MappedFileCache reopened = newCache(segmentSize, 3 * segmentSize);
+		assert reopened.getObject("k0") == null;
+		assert value(500, 'v').equals(reopened.getObject("k199"));
+		assert reopened.getSize() == cache.getSize();
+	}
+
+	public void testReaderNeverSeesValueOfAnotherKeyAfterClear() throws Exception {
+		final MappedFileCache cache = newCache(16 * 1024, 64 * 1024);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						for (int i = 0; i < 2000; i++) {
+							String key = "k" + (i % 64);
+							if (thread == 0 && i % 100 == 0) {
+								cache.clear();
+							} else if (i % 3 == 0) {
+								cache.putObject(key, key + "=" + value(50, 'v'));
+							} else {
+								Object value = cache.getObject(key);
+								//被清空的段文件可能被新记录覆盖, 只能读到自己的值或者没命中
+								assert value == null || ((String) value).startsWith(key + "=") : key + " read " + value;
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assert segmentFiles().length <= 4;
+	}
+
+}
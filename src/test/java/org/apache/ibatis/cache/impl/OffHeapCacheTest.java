@@ -0,0 +1,145 @@
+package org.apache.ibatis.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.CacheException;
+
+//堆外缓存: 读写、复制语义、内存上限以及slab在等级之间的转移
+public class OffHeapCacheTest {
+
+	private OffHeapCache cache;
+
+	public void setUp() {
+		cache = new OffHeapCache("offheap");
+		cache.setMaxBytes(8L * 1024 * 1024);
+	}
+
+	public void tearDown() {
+		cache.clear();
+	}
+
+	private static byte[] value(int length, int seed) {
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, (byte) seed);
+		return bytes;
+	}
+
+	public void testValuesAreCopiedAndNullsAreCached() {
+		ArrayList<String> list = new ArrayList<String>(Arrays.asList("a", "b"));
+		cache.putObject("list", list);
+		cache.putObject("null", null);
+		list.add("c");
+		Object first = cache.getObject("list");
+		assert Arrays.asList("a", "b").equals(first);
+		assert first != cache.getObject("list") : "every read deserializes a new copy";
+		assert cache.getObject("null") == null;
+		assert cache.getSize() == 2;
+		assert Arrays.asList("a", "b").equals(cache.removeObject("list"));
+		assert cache.getObject("list") == null;
+	}
+
+	public void testNonSerializableValueIsRejected() {
+		try {
+			cache.putObject("k", new Object());
+			assert false : "non-serializable values cannot be stored off heap";
+		} catch (CacheException e) {
+			// 预期
+		}
+	}
+
+	public void testOversizedValueIsNotCached() {
+		cache.putObject("k", value(10, 1));
+		cache.putObject("k", value(2 * 1024 * 1024, 2));
+		assert cache.getObject("k") == null : "a value larger than a slab drops the old one";
+	}
+
+	public void testAllocationStaysWithinMaximum() {
+		for (int i = 0; i < 20000; i++) {
+			cache.putObject(i, value(1000, i));
+		}
+		assert cache.getAllocatedBytes() <= cache.getMaxBytes();
+		//最近写入的还在
+		assert Arrays.equals(value(1000, 19999), (byte[]) cache.getObject(19999));
+	}
+
+	public void testStarvedSizeClassTakesSlabFromColdClass() {
+		//小对象先占满全部内存
+		for (int i = 0; i < 200000; i++) {
+			cache.putObject("small" + i, "s" + i);
+		}
+		assert cache.getAllocatedBytes() + cache.getSlabSize() > cache.getMaxBytes() : "memory should be full";
+		int stored = 0;
+		for (int i = 0; i < 1000; i++) {
+			cache.putObject("big" + i, value(5 * 1024, i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			if (cache.getObject("big" + i) != null) {
+				stored++;
+			}
+		}
+		assert stored >= 100 : "only " + stored + " of 1000 large values were stored";
+		assert Arrays.equals(value(5 * 1024, 999), (byte[]) cache.getObject("big999"));
+		assert cache.getAllocatedBytes() <= cache.getMaxBytes();
+		//被拿走slab的等级仍然可以使用
+		cache.putObject("small-again", "x");
+		assert "x".equals(cache.getObject("small-again"));
+	}
+
+	public void testHotSizeClassKeepsTakingSlabsFromColdClass() {
+		for (int i = 0; i < 200000; i++) {
+			cache.putObject("small" + i, "s" + i);
+		}
+		//大对象写入后马上被读, 比从不读取的小对象热, 会陆续拿走多个slab
+		for (int i = 0; i < 1000; i++) {
+			cache.putObject("big" + i, value(5 * 1024, i));
+			cache.getObject("big" + i);
+		}
+		int stored = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (cache.getObject("big" + i) != null) {
+				stored++;
+			}
+		}
+		assert stored >= 300 : "only " + stored + " of 1000 hot large values were stored, expected more than one slab";
+	}
+
+	public void testConcurrentMixedSizes() throws Exception {
+		cache.setMaxBytes(4L * 1024 * 1024);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < 8; t++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int j = 0; j < 5000; j++) {
+						int key = random.nextInt(2000);
+						//同一个键总是同样的长度和内容, 读到的值必须完整
+						int length = key % 3 == 0 ? 6000 : key % 3 == 1 ? 300 : 20;
+						byte[] read = (byte[]) cache.getObject(key);
+						assert read == null || Arrays.equals(value(length, key), read) : "torn read for " + key;
+						if (read == null) {
+							cache.putObject(key, value(length, key));
+						} else if (j % 20 == 0) {
+							cache.removeObject(key);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(60, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+		assert cache.getAllocatedBytes() <= cache.getMaxBytes();
+	}
+
+}
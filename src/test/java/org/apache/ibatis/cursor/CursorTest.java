@@ -0,0 +1,223 @@
+package org.apache.ibatis.cursor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//游标查询: 逐行映射, 关闭后语句归还到连接池的语句缓存
+public class CursorTest {
+
+	private StubDatabase database;
+	private Configuration configuration;
+	private PooledDataSource dataSource;
+	private SqlSessionFactory factory;
+
+	public static class Parent {
+
+		private Integer id;
+		private String name;
+		private List<Child> children;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public List<Child> getChildren() {
+			return children;
+		}
+
+		public void setChildren(List<Child> children) {
+			this.children = children;
+		}
+
+	}
+
+	public static class Child {
+
+		private Integer id;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+	}
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		configuration = StubSessions.newConfiguration(database);
+		dataSource = (PooledDataSource) configuration.getEnvironment().getDataSource();
+		//只有一个连接, 后面的查询一定用同一个物理连接
+		dataSource.setPoolMaximumActiveConnections(1);
+		dataSource.setPoolMaximumIdleConnections(1);
+		dataSource.setPoolPreparedStatementCacheSize(4);
+		String parent = Parent.class.getName();
+		String child = Child.class.getName();
+		StubSessions.addMapper(configuration, "users",
+				"<select id=\"all\" resultType=\"map\">select id, name from users</select>"
+				+ "<resultMap id=\"parent\" type=\"" + parent + "\">"
+				+ "<id property=\"id\" column=\"id\"/><result property=\"name\" column=\"name\"/>"
+				+ "<collection property=\"children\" ofType=\"" + child + "\"><id property=\"id\" column=\"child_id\"/></collection>"
+				+ "</resultMap>"
+				+ "<select id=\"ordered\" resultMap=\"parent\" resultOrdered=\"true\">select id, name, child_id from users</select>"
+				+ "<select id=\"unordered\" resultMap=\"parent\">select id, name, child_id from users</select>");
+		factory = StubSessions.build(configuration);
+	}
+
+	public void tearDown() {
+		StubSessions.close(configuration);
+	}
+
+	private int selectAll() {
+		SqlSession session = factory.openSession();
+		try {
+			return session.selectList("users.all").size();
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testExhaustedCursorReturnsStatementToCache() {
+		SqlSession session = factory.openSession();
+		try {
+			Cursor<Map<String, Object>> cursor = session.selectCursor("users.all");
+			int count = 0;
+			for (Map<String, Object> row : cursor) {
+				assert row.get("id") != null;
+				count++;
+			}
+			assert count == database.rows;
+			assert !cursor.isOpen() && cursor.isConsumed();
+		} finally {
+			session.close();
+		}
+		int prepared = database.statementsPrepared.get();
+		assert selectAll() == database.rows;
+		assert selectAll() == database.rows;
+		assert database.statementsPrepared.get() == prepared : "same SQL on the same connection must hit the cache";
+		assert database.getOpenStatementCount() == 1 : "the cached statement must stay open";
+		assert dataSource.getPoolState().getStatementCacheHitCount() == 2;
+	}
+
+	public void testClosedCursorReturnsStatementToCache() throws IOException {
+		database.rows = 10;
+		SqlSession session = factory.openSession();
+		try {
+			Cursor<Map<String, Object>> cursor = session.selectCursor("users.all");
+			Iterator<Map<String, Object>> it = cursor.iterator();
+			it.next();
+			cursor.close();
+			assert database.getOpenResultSetCount() == 0;
+			//同一个会话中马上执行同一SQL, 复用刚归还的语句
+			assert session.selectList("users.all").size() == 10;
+		} finally {
+			session.close();
+		}
+		assert database.statementsPrepared.get() == 1;
+		assert database.getOpenStatementCount() == 1;
+	}
+
+	public void testSessionCloseClosesOpenCursors() {
+		SqlSession session = factory.openSession();
+		Cursor<Map<String, Object>> cursor = session.selectCursor("users.all");
+		cursor.iterator().next();
+		session.close();
+		assert !cursor.isOpen();
+		assert database.getOpenResultSetCount() == 0;
+		assert selectAll() == database.rows;
+		assert database.statementsPrepared.get() == 1;
+	}
+
+	public void testRowBoundsLimitClosesCursor() {
+		database.rows = 10;
+		SqlSession session = factory.openSession();
+		try {
+			Cursor<Map<String, Object>> cursor = session.selectCursor("users.all", null, new RowBounds(2, 3));
+			List<Object> ids = new ArrayList<Object>();
+			for (Map<String, Object> row : cursor) {
+				ids.add(row.get("id"));
+			}
+			assert ids.size() == 3 : ids;
+			assert ids.get(0).equals(3);
+			assert cursor.getCurrentIndex() == 4;
+			assert !cursor.isOpen();
+			assert database.getOpenResultSetCount() == 0;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testCursorWithoutStatementCache() {
+		dataSource.setPoolPreparedStatementCacheSize(0);
+		SqlSession session = factory.openSession();
+		try {
+			for (Object row : session.selectCursor("users.all")) {
+				assert row != null;
+			}
+		} finally {
+			session.close();
+		}
+		//没有语句缓存时语句随结果集真正关闭
+		assert database.getOpenStatementCount() == 0;
+	}
+
+	public void testOrderedNestedResultsStream() {
+		database.rows = 6;
+		database.perParent = 2;
+		SqlSession session = factory.openSession();
+		try {
+			List<Parent> parents = new ArrayList<Parent>();
+			for (Object each : session.selectCursor("users.ordered")) {
+				parents.add((Parent) each);
+			}
+			assert parents.size() == 3;
+			for (Parent parent : parents) {
+				assert parent.getChildren().size() == 2 : parent.getId();
+			}
+			assert parents.get(2).getChildren().get(1).getId() == 5;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testUnorderedNestedResultsAreRejected() {
+		SqlSession session = factory.openSession();
+		try {
+			session.selectCursor("users.unordered");
+			assert false : "nested result maps need resultOrdered for cursors";
+		} catch (PersistenceException e) {
+			// 预期
+		} finally {
+			session.close();
+		}
+		assert database.getOpenResultSetCount() == 0;
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//检出和后台维护时的连接侦测: isValid、侦测查询以及最近用过的连接跳过侦测
+public class ConnectionValidationTest {
+
+	private StubDatabase database;
+	private PooledDataSource dataSource;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+		dataSource.setPoolPingConnectionsNotUsedFor(0);
+	}
+
+	public void tearDown() {
+		dataSource.forceCloseAll();
+	}
+
+	//取出一个连接再还回去, 等到超过侦测间隔
+	private Connection checkoutTwice() throws Exception {
+		Connection first = dataSource.getConnection();
+		Connection real = PooledDataSource.unwrapConnection(first);
+		first.close();
+		Thread.sleep(5);
+		Connection second = dataSource.getConnection();
+		assert PooledDataSource.unwrapConnection(second) == real : "connection must be reused";
+		return second;
+	}
+
+	public void testIsValidWorksWithoutPingEnabled() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			dataSource.setPoolPingUseIsValid(true);
+			checkoutTwice().close();
+			assert database.validCalls.get() > 0 : "lockFree=" + lockFree;
+			assert database.executions.get() == 0 : "isValid needs no statement round trip";
+			tearDown();
+		}
+	}
+
+	public void testUnsupportedIsValidWithoutPingQuerySkipsValidation() throws Exception {
+		database.validSupported = false;
+		dataSource.setPoolPingEnabled(true);
+		dataSource.setPoolPingUseIsValid(true);
+		checkoutTwice().close();
+		checkoutTwice().close();
+		assert dataSource.getPoolState().getBadConnectionCount() == 0;
+		assert database.connectionsOpened.get() == 1;
+		assert database.executions.get() == 0;
+	}
+
+	public void testUnsupportedIsValidFallsBackToPingQuery() throws Exception {
+		database.validSupported = false;
+		dataSource.setPoolPingUseIsValid(true);
+		dataSource.setPoolPingQuery("select 1");
+		checkoutTwice().close();
+		assert database.executedSql.contains("select 1");
+		assert dataSource.getPoolState().getBadConnectionCount() == 0;
+	}
+
+	public void testRecentlyUsedConnectionIsNotValidated() throws Exception {
+		dataSource.setPoolPingUseIsValid(true);
+		dataSource.setPoolPingConnectionsNotUsedFor(60000);
+		checkoutTwice().close();
+		assert database.validCalls.get() == 0;
+	}
+
+	public void testBrokenConnectionIsReplacedOnCheckout() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			dataSource.setPoolPingUseIsValid(true);
+			dataSource.getConnection().close();
+			database.breakConnections();
+			Thread.sleep(5);
+			Connection conn = dataSource.getConnection();
+			conn.getAutoCommit();
+			conn.close();
+			assert dataSource.getPoolState().getBadConnectionCount() == 1 : "lockFree=" + lockFree;
+			assert database.connectionsOpened.get() == 2;
+			assert database.getOpenConnectionCount() == 1;
+			tearDown();
+		}
+	}
+
+	public void testBackgroundValidationDropsBrokenIdleConnections() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			dataSource.setPoolPingUseIsValid(true);
+			dataSource.setPoolValidationParallelism(2);
+			Connection[] conns = new Connection[3];
+			for (int i = 0; i < conns.length; i++) {
+				conns[i] = dataSource.getConnection();
+			}
+			for (Connection conn : conns) {
+				conn.close();
+			}
+			database.breakConnections();
+			Thread.sleep(5);
+			dataSource.validateIdleConnections();
+			assert dataSource.getPoolState().getIdleConnectionCount() == 0 : "lockFree=" + lockFree;
+			assert database.getOpenConnectionCount() == 0;
+			dataSource.stopMaintenance();
+			tearDown();
+		}
+	}
+
+	public void testPlainPingQueryIsUsedWhenEnabled() throws Exception {
+		dataSource.setPoolPingEnabled(true);
+		dataSource.setPoolPingQuery("select 1");
+		checkoutTwice().close();
+		assert database.executedSql.contains("select 1");
+		assert database.validCalls.get() == 0;
+	}
+
+	public void testNoValidationByDefault() throws Exception {
+		checkoutTwice().close();
+		assert database.validCalls.get() == 0;
+		assert database.executions.get() == 0;
+	}
+
+}
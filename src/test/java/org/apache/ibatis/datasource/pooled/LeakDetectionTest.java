@@ -0,0 +1,81 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.util.List;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//泄漏检测以及获取耗时、持有时间的统计
+public class LeakDetectionTest {
+
+	private StubDatabase database;
+	private PooledDataSource dataSource;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+	}
+
+	public void tearDown() {
+		dataSource.stopMaintenance();
+		dataSource.forceCloseAll();
+	}
+
+	public void testConnectionHeldPastThresholdIsReportedOnce() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			dataSource.setPoolLeakDetectionThreshold(50);
+			Connection conn = dataSource.getConnection();
+			dataSource.detectLeaks();
+			assert dataSource.getPoolState().getLeakedConnectionCount() == 0 : "lockFree=" + lockFree;
+			Thread.sleep(100);
+			dataSource.detectLeaks();
+			dataSource.detectLeaks();
+			assert dataSource.getPoolState().getLeakedConnectionCount() == 1 : "lockFree=" + lockFree;
+			PooledConnection pooled = findActive(conn);
+			assert pooled.isLeakReported();
+			conn.close();
+			//归还之后清除泄漏标记和检出位置
+			assert !pooled.isLeakReported();
+			assert pooled.getCheckoutSite() == null;
+			tearDown();
+		}
+	}
+
+	public void testNoDetectionWithoutThreshold() throws Exception {
+		Connection conn = dataSource.getConnection();
+		assert findActive(conn).getCheckoutSite() == null : "checkout site is only captured when detection is on";
+		Thread.sleep(20);
+		dataSource.detectLeaks();
+		assert dataSource.getPoolState().getLeakedConnectionCount() == 0;
+		conn.close();
+	}
+
+	public void testWaitAndHoldTimesAreRecorded() throws Exception {
+		Connection conn = dataSource.getConnection();
+		Thread.sleep(30);
+		conn.close();
+		dataSource.getConnection().close();
+		PoolState state = dataSource.getPoolState();
+		assert state.getWaitTimeHistogram().getCount() == 2;
+		assert state.getHoldTimeHistogram().getCount() == 2;
+		assert state.getHoldTimeHistogram().getMax() >= 30000 : "hold time is in microseconds";
+		assert state.toString().contains("holdTime(us)");
+	}
+
+	private PooledConnection findActive(Connection proxy) {
+		Connection real = PooledDataSource.unwrapConnection(proxy);
+		PoolState state = dataSource.getPoolState();
+		List<PooledConnection> active = dataSource.isPoolLockFree() ? state.bag.values(PooledConnection.STATE_IN_USE)
+				: state.activeConnections;
+		for (PooledConnection conn : active) {
+			if (conn.getRealConnection() == real) {
+				return conn;
+			}
+		}
+		throw new AssertionError("connection is not active");
+	}
+
+}
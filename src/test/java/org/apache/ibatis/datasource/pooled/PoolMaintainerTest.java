@@ -0,0 +1,140 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//后台维护: 预热、最小空闲数、最大生存时间, 以及新建和侦测连接时不持有连接池的锁
+public class PoolMaintainerTest {
+
+	private StubDatabase database;
+	private PooledDataSource dataSource;
+	private ExecutorService executor;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+		executor = Executors.newCachedThreadPool();
+	}
+
+	public void tearDown() {
+		executor.shutdownNow();
+		dataSource.stopMaintenance();
+		dataSource.forceCloseAll();
+	}
+
+	private static void await(Callable<Boolean> condition, long timeoutMillis) throws Exception {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!condition.call()) {
+			assert System.currentTimeMillis() < deadline : "condition not met in " + timeoutMillis + "ms";
+			Thread.sleep(10);
+		}
+	}
+
+	public void testWarmsUpToMinimumIdle() throws Exception {
+		dataSource.setPoolMinimumIdle(3);
+		dataSource.setPoolMaximumIdleConnections(5);
+		dataSource.setPoolMaintenanceInterval(50);
+		dataSource.getConnection().close();
+		await(new Callable<Boolean>() {
+			public Boolean call() {
+				return dataSource.getPoolState().getIdleConnectionCount() >= 3;
+			}
+		}, 2000);
+		assert dataSource.getPoolState().getIdleConnectionCount() == 3;
+		assert database.getOpenConnectionCount() == 3;
+	}
+
+	public void testRetiresConnectionsPastMaximumLifetime() throws Exception {
+		dataSource.setPoolMaximumLifetime(100);
+		dataSource.setPoolMinimumIdle(1);
+		dataSource.setPoolMaintenanceInterval(20);
+		Connection conn = dataSource.getConnection();
+		final Connection first = PooledDataSource.unwrapConnection(conn);
+		conn.close();
+		await(new Callable<Boolean>() {
+			public Boolean call() throws SQLException {
+				return first.isClosed() && dataSource.getPoolState().getIdleConnectionCount() == 1;
+			}
+		}, 2000);
+		conn = dataSource.getConnection();
+		assert PooledDataSource.unwrapConnection(conn) != first;
+		conn.close();
+	}
+
+	public void testSlowConnectDoesNotBlockReturnAndReuse() throws Exception {
+		dataSource.setPoolMaximumActiveConnections(2);
+		Connection held = dataSource.getConnection();
+		database.connectDelay = 800;
+		Future<Connection> slow = executor.submit(new Callable<Connection>() {
+			public Connection call() throws SQLException {
+				return dataSource.getConnection();
+			}
+		});
+		Thread.sleep(100);
+		long start = System.nanoTime();
+		held.close();
+		Connection reused = dataSource.getConnection();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assert elapsed < 400 : "return and checkout waited " + elapsed + "ms for another thread's connect";
+		assert !slow.isDone();
+		reused.close();
+		slow.get(5, TimeUnit.SECONDS).close();
+		assert database.connectionsOpened.get() == 2;
+	}
+
+	public void testSlowValidationDoesNotBlockOtherCheckouts() throws Exception {
+		dataSource.setPoolMaximumActiveConnections(2);
+		dataSource.setPoolPingEnabled(true);
+		dataSource.setPoolPingUseIsValid(true);
+		dataSource.setPoolPingConnectionsNotUsedFor(0);
+		dataSource.getConnection().close();
+		Thread.sleep(5);
+		database.validDelay = 800;
+		//这个线程取到空闲连接, 在锁外慢慢侦测
+		Future<Connection> slow = executor.submit(new Callable<Connection>() {
+			public Connection call() throws SQLException {
+				return dataSource.getConnection();
+			}
+		});
+		Thread.sleep(100);
+		database.validDelay = 0;
+		long start = System.nanoTime();
+		Connection other = dataSource.getConnection();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assert elapsed < 400 : "checkout waited " + elapsed + "ms for another thread's validation";
+		other.close();
+		slow.get(5, TimeUnit.SECONDS).close();
+	}
+
+	public void testPendingConnectionsCountTowardsMaximumActive() throws Exception {
+		dataSource.setPoolMaximumActiveConnections(1);
+		dataSource.setPoolTimeToWait(5000);
+		database.connectDelay = 300;
+		Future<Connection> first = executor.submit(new Callable<Connection>() {
+			public Connection call() throws SQLException {
+				return dataSource.getConnection();
+			}
+		});
+		Thread.sleep(50);
+		Future<Connection> second = executor.submit(new Callable<Connection>() {
+			public Connection call() throws SQLException {
+				return dataSource.getConnection();
+			}
+		});
+		Connection conn = first.get(5, TimeUnit.SECONDS);
+		Thread.sleep(100);
+		assert !second.isDone() : "second checkout must wait while the only slot is in use";
+		conn.close();
+		second.get(5, TimeUnit.SECONDS).close();
+		assert database.connectionsOpened.get() == 1;
+	}
+
+}
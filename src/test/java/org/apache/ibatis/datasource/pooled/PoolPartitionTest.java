@@ -0,0 +1,119 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//按凭证划分的分区以及所有分区的连接总数上限
+public class PoolPartitionTest {
+
+	private StubDatabase database;
+	private PooledDataSource dataSource;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+	}
+
+	public void tearDown() {
+		dataSource.forceCloseAll();
+	}
+
+	public void testEachCredentialKeepsItsOwnIdleConnections() throws SQLException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			for (int i = 0; i < 3; i++) {
+				dataSource.getConnection("alice", "a").close();
+				dataSource.getConnection("bob", "b").close();
+				dataSource.getConnection().close();
+			}
+			//每个凭证各建一个连接, 来回切换也不会关闭别人的连接
+			assert database.connectionsOpened.get() == 3 : "lockFree=" + lockFree;
+			assert database.connectionsClosed.get() == 0;
+			assert database.connectedUsers.contains("alice") && database.connectedUsers.contains("bob");
+			Map<String, PoolState> states = dataSource.getPartitionPoolStates();
+			assert states.get("alice").getIdleConnectionCount() == 1;
+			assert states.get("bob").getIdleConnectionCount() == 1;
+			tearDown();
+			assert database.getOpenConnectionCount() == 0;
+			assert dataSource.getOpenConnectionCount() == 0;
+		}
+	}
+
+	public void testPartitionKeyDoesNotHoldPlaintextPassword() throws Exception {
+		dataSource.getConnection("alice", "s3cret-password").close();
+		dataSource.getConnection("alice", "other").close();
+		Field field = PooledDataSource.class.getDeclaredField("partitions");
+		field.setAccessible(true);
+		Map<?, ?> partitions = (Map<?, ?>) field.get(dataSource);
+		assert partitions.size() == 2 : "different passwords use different partitions";
+		for (Object key : partitions.keySet()) {
+			assert !key.toString().contains("s3cret-password") : key;
+		}
+	}
+
+	public void testTotalLimitHoldsUnderConcurrentTenants() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			dataSource.setPoolMaximumTotalConnections(3);
+			dataSource.setPoolTimeToWait(5000);
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 8; i++) {
+				final String tenant = "tenant" + (i % 4);
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws SQLException {
+						for (int j = 0; j < 100; j++) {
+							Connection conn = dataSource.getConnection(tenant, tenant);
+							conn.getAutoCommit();
+							conn.close();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			executor.shutdown();
+			assert database.maxOpenConnections.get() <= 3 : "lockFree=" + lockFree + " peak " + database.maxOpenConnections.get();
+			assert dataSource.getOpenConnectionCount() == database.getOpenConnectionCount();
+			tearDown();
+			assert dataSource.getOpenConnectionCount() == 0;
+		}
+	}
+
+	public void testFailedConnectReleasesReservation() throws SQLException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			dataSource.setPoolMaximumTotalConnections(1);
+			database.refuseConnections = true;
+			try {
+				dataSource.getConnection("alice", "a");
+				assert false : "connect must fail";
+			} catch (SQLException e) {
+				// 预期
+			}
+			assert dataSource.getOpenConnectionCount() == 0 : "lockFree=" + lockFree;
+			//失败的新建不能占着唯一的名额
+			database.refuseConnections = false;
+			dataSource.getConnection("alice", "a").close();
+			tearDown();
+		}
+	}
+
+}
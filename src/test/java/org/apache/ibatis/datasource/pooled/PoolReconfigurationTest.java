@@ -0,0 +1,111 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//运行时调整连接池参数: 调整大小不关闭连接, 修改凭证时逐步替换连接
+public class PoolReconfigurationTest {
+
+	private StubDatabase database;
+	private PooledDataSource dataSource;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+	}
+
+	public void tearDown() {
+		dataSource.stopMaintenance();
+		dataSource.forceCloseAll();
+	}
+
+	public void testTuningSizesAndTimeoutsKeepsConnections() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			Connection active = dataSource.getConnection();
+			Connection idle = dataSource.getConnection();
+			idle.close();
+			dataSource.setPoolMaximumActiveConnections(20);
+			dataSource.setPoolMaximumCheckoutTime(30000);
+			dataSource.setPoolTimeToWait(1000);
+			dataSource.setPoolPingEnabled(true);
+			dataSource.setPoolPingConnectionsNotUsedFor(60000);
+			//活动连接仍然可用, 空闲连接没有被关闭
+			active.getAutoCommit();
+			assert database.connectionsClosed.get() == 0 : "lockFree=" + lockFree;
+			assert dataSource.getPoolState().getIdleConnectionCount() == 1;
+			active.close();
+			assert database.connectionsOpened.get() == 2;
+			tearDown();
+		}
+	}
+
+	public void testShrinkingMaximumIdleClosesOnlyExcess() throws Exception {
+		Connection[] conns = new Connection[4];
+		for (int i = 0; i < conns.length; i++) {
+			conns[i] = dataSource.getConnection();
+		}
+		for (Connection conn : conns) {
+			conn.close();
+		}
+		assert dataSource.getPoolState().getIdleConnectionCount() == 4;
+		dataSource.setPoolMaximumIdleConnections(1);
+		assert dataSource.getPoolState().getIdleConnectionCount() == 1;
+		assert database.connectionsClosed.get() == 3;
+	}
+
+	public void testGrowingMaximumActiveWakesWaiters() throws Exception {
+		dataSource.setPoolMaximumActiveConnections(1);
+		dataSource.setPoolTimeToWait(10000);
+		Connection held = dataSource.getConnection();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Connection> waiter = executor.submit(new Callable<Connection>() {
+				public Connection call() throws Exception {
+					return dataSource.getConnection();
+				}
+			});
+			Thread.sleep(100);
+			assert !waiter.isDone();
+			dataSource.setPoolMaximumActiveConnections(2);
+			waiter.get(2, TimeUnit.SECONDS).close();
+		} finally {
+			executor.shutdownNow();
+		}
+		held.close();
+	}
+
+	public void testCredentialChangeReplacesConnectionsGradually() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			Connection active = dataSource.getConnection();
+			Connection idle = dataSource.getConnection();
+			idle.close();
+			dataSource.setPassword("rotated");
+			//没有立即关闭任何连接, 正在使用的连接不受影响
+			assert database.connectionsClosed.get() == 0 : "lockFree=" + lockFree;
+			active.getAutoCommit();
+			//旧的空闲连接不会再被检出
+			Connection fresh = dataSource.getConnection();
+			assert database.connectionsOpened.get() == 3;
+			assert database.connectionsClosed.get() == 1;
+			//旧的活动连接归还时关闭
+			active.close();
+			assert database.connectionsClosed.get() == 2;
+			fresh.close();
+			assert dataSource.getPoolState().getIdleConnectionCount() == 1;
+			assert database.getOpenConnectionCount() == 1;
+			tearDown();
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//连接池的检出、归还和移交, 加锁和无锁两种模式都要测试
+public class PooledDataSourceTest {
+
+	private StubDatabase database;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+	}
+
+	private PooledDataSource newDataSource(boolean lockFree) {
+		PooledDataSource dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+		dataSource.setPoolLockFree(lockFree);
+		return dataSource;
+	}
+
+	public void testReturnedConnectionIsReused() throws SQLException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			PooledDataSource dataSource = newDataSource(lockFree);
+			Connection first = dataSource.getConnection();
+			Connection real = PooledDataSource.unwrapConnection(first);
+			assert dataSource.getPoolState().getActiveConnectionCount() == 1;
+			first.close();
+			assert dataSource.getPoolState().getActiveConnectionCount() == 0;
+			assert dataSource.getPoolState().getIdleConnectionCount() == 1;
+
+			Connection second = dataSource.getConnection();
+			assert PooledDataSource.unwrapConnection(second) == real : "lockFree=" + lockFree;
+			assert database.connectionsOpened.get() == 1;
+			second.close();
+			dataSource.forceCloseAll();
+			assert database.getOpenConnectionCount() == 0;
+		}
+	}
+
+	public void testReturnedProxyCannotBeUsed() throws SQLException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			PooledDataSource dataSource = newDataSource(lockFree);
+			Connection conn = dataSource.getConnection();
+			conn.close();
+			Connection next = dataSource.getConnection();
+			try {
+				conn.getAutoCommit();
+				assert false : "returned proxy must be invalid, lockFree=" + lockFree;
+			} catch (SQLException e) {
+				// 预期
+			}
+			//重复关闭旧代理不能把别人正在用的连接还回去
+			conn.close();
+			assert dataSource.getPoolState().getActiveConnectionCount() == 1;
+			next.close();
+			dataSource.forceCloseAll();
+		}
+	}
+
+	public void testReturnedConnectionIsHandedToWaiter() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			final PooledDataSource dataSource = newDataSource(lockFree);
+			dataSource.setPoolMaximumActiveConnections(1);
+			dataSource.setPoolTimeToWait(5000);
+			Connection held = dataSource.getConnection();
+			final Connection real = PooledDataSource.unwrapConnection(held);
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<Connection> waiter = executor.submit(new Callable<Connection>() {
+					public Connection call() throws SQLException {
+						return dataSource.getConnection();
+					}
+				});
+				Thread.sleep(100);
+				assert !waiter.isDone() : "pool is exhausted, waiter must block";
+				long start = System.nanoTime();
+				held.close();
+				Connection handed = waiter.get(2, TimeUnit.SECONDS);
+				assert TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000;
+				assert PooledDataSource.unwrapConnection(handed) == real;
+				assert database.connectionsOpened.get() == 1;
+				assert dataSource.getPoolState().getHadToWaitCount() == 1;
+				handed.close();
+			} finally {
+				executor.shutdownNow();
+				dataSource.forceCloseAll();
+			}
+		}
+	}
+
+	public void testConcurrentCheckoutRespectsMaximumActive() throws Exception {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			final PooledDataSource dataSource = newDataSource(lockFree);
+			dataSource.setPoolMaximumActiveConnections(4);
+			dataSource.setPoolMaximumIdleConnections(4);
+			dataSource.setPoolTimeToWait(5000);
+			final AtomicInteger inUse = new AtomicInteger();
+			final AtomicInteger maxInUse = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(16);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 16; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws SQLException {
+						for (int j = 0; j < 300; j++) {
+							Connection conn = dataSource.getConnection();
+							try {
+								int current = inUse.incrementAndGet();
+								for (int max = maxInUse.get(); current > max && !maxInUse.compareAndSet(max, current); max = maxInUse.get()) {
+									// 重试
+								}
+								conn.getAutoCommit();
+							} finally {
+								inUse.decrementAndGet();
+								conn.close();
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			executor.shutdown();
+			assert maxInUse.get() <= 4 : "lockFree=" + lockFree + " max in use " + maxInUse.get();
+			assert database.getOpenConnectionCount() <= 4;
+			assert dataSource.getPoolState().getActiveConnectionCount() == 0;
+			assert dataSource.getPoolState().getRequestCount() == 16 * 300;
+			dataSource.forceCloseAll();
+			assert database.getOpenConnectionCount() == 0;
+		}
+	}
+
+	public void testOverdueConnectionIsClaimed() throws SQLException, InterruptedException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			PooledDataSource dataSource = newDataSource(lockFree);
+			dataSource.setPoolMaximumActiveConnections(1);
+			dataSource.setPoolMaximumCheckoutTime(50);
+			dataSource.setPoolTimeToWait(20);
+			Connection leaked = dataSource.getConnection();
+			Thread.sleep(100);
+			Connection claimed = dataSource.getConnection();
+			assert PooledDataSource.unwrapConnection(claimed) == PooledDataSource.unwrapConnection(leaked);
+			assert dataSource.getPoolState().getClaimedOverdueConnectionCount() == 1;
+			try {
+				leaked.getAutoCommit();
+				assert false : "claimed proxy must be invalid, lockFree=" + lockFree;
+			} catch (SQLException e) {
+				// 预期
+			}
+			claimed.close();
+			dataSource.forceCloseAll();
+		}
+	}
+
+	public void testClaimedConnectionPastLifetimeIsRetired() throws SQLException, InterruptedException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			PooledDataSource dataSource = newDataSource(lockFree);
+			dataSource.setPoolMaximumActiveConnections(1);
+			dataSource.setPoolMaximumCheckoutTime(50);
+			dataSource.setPoolMaximumLifetime(80);
+			dataSource.setPoolTimeToWait(20);
+			Connection leaked = dataSource.getConnection();
+			Connection leakedReal = PooledDataSource.unwrapConnection(leaked);
+			Thread.sleep(120);
+			//回收的连接沿用创建时间, 已经超过最大生存时间, 关闭后新建一个
+			Connection claimed = dataSource.getConnection();
+			assert dataSource.getPoolState().getClaimedOverdueConnectionCount() == 1;
+			assert PooledDataSource.unwrapConnection(claimed) != leakedReal : "lockFree=" + lockFree;
+			assert leakedReal.isClosed();
+			assert database.connectionsOpened.get() == 2;
+			assert database.getOpenConnectionCount() == 1;
+			claimed.close();
+			dataSource.forceCloseAll();
+		}
+	}
+
+}
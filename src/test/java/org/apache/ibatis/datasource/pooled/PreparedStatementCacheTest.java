@@ -0,0 +1,172 @@
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+
+//物理连接上的预编译语句缓存
+public class PreparedStatementCacheTest {
+
+	private StubDatabase database;
+	private PooledDataSource dataSource;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+		dataSource.setPoolPreparedStatementCacheSize(2);
+	}
+
+	public void tearDown() {
+		dataSource.forceCloseAll();
+	}
+
+	public void testStatementIsReusedAcrossCheckouts() throws SQLException {
+		for (boolean lockFree : new boolean[] { false, true }) {
+			setUp();
+			dataSource.setPoolLockFree(lockFree);
+			Connection conn = dataSource.getConnection();
+			conn.prepareStatement("select * from t where id = ?").close();
+			conn.close();
+			conn = dataSource.getConnection();
+			PreparedStatement statement = conn.prepareStatement("select * from t where id = ?");
+			statement.executeQuery().close();
+			statement.close();
+			conn.close();
+			assert database.statementsPrepared.get() == 1 : "lockFree=" + lockFree;
+			assert dataSource.getPoolState().getStatementCacheHitCount() == 1;
+			assert dataSource.getPoolState().getStatementCacheMissCount() == 1;
+			assert database.getOpenStatementCount() == 1 : "cached statement stays open";
+			tearDown();
+		}
+	}
+
+	public void testClosedHandleCannotBeUsed() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement statement = conn.prepareStatement("select 1");
+		statement.close();
+		assert statement.isClosed();
+		try {
+			statement.executeQuery();
+			assert false : "closed handle must not reach the cached statement";
+		} catch (SQLException e) {
+			// 预期
+		}
+		conn.close();
+	}
+
+	public void testStatementInUseIsNotShared() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement first = conn.prepareStatement("select 1");
+		PreparedStatement second = conn.prepareStatement("select 1");
+		assert first != second;
+		assert database.statementsPrepared.get() == 2;
+		second.close();
+		//没有缓存的语句关闭时真正关闭
+		assert database.getOpenStatementCount() == 1;
+		first.close();
+		conn.prepareStatement("select 1").close();
+		assert database.statementsPrepared.get() == 2;
+		conn.close();
+	}
+
+	public void testLeastRecentlyUsedStatementIsEvicted() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		conn.prepareStatement("select 1").close();
+		conn.prepareStatement("select 2").close();
+		conn.prepareStatement("select 1").close();
+		conn.prepareStatement("select 3").close();
+		assert database.statementsPrepared.get() == 3;
+		//select 2最久未用, 被淘汰并关闭
+		assert database.getOpenStatementCount() == 2;
+		conn.prepareStatement("select 1").close();
+		conn.prepareStatement("select 2").close();
+		assert database.statementsPrepared.get() == 4;
+		conn.close();
+	}
+
+	public void testChangedStatementPropertiesAreReset() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement statement = conn.prepareStatement("insert into t values (?)");
+		statement.setMaxRows(5);
+		statement.setQueryTimeout(7);
+		statement.addBatch();
+		statement.close();
+		PreparedStatement again = conn.prepareStatement("insert into t values (?)");
+		assert database.statementsPrepared.get() == 1;
+		assert again.getMaxRows() == 0;
+		assert again.getQueryTimeout() == 0;
+		//上一次使用时添加的批处理已经清除
+		assert again.executeBatch().length == 0;
+		again.close();
+		conn.close();
+	}
+
+	public void testResultSetExposesCheckedOutStatement() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement statement = conn.prepareStatement("select 1");
+		assert statement.execute();
+		ResultSet rs = statement.getResultSet();
+		//没有设置closeOnCompletion时也不能拿到缓存中的语句
+		assert rs.getStatement() == statement : "result set must not expose the cached statement";
+		rs.close();
+		assert !statement.isClosed();
+		statement.executeQuery().close();
+		statement.close();
+		assert database.getOpenStatementCount() == 1;
+		assert database.getOpenResultSetCount() == 0;
+		conn.close();
+	}
+
+	public void testCloseOnCompletionReturnsStatementWithResultSet() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement statement = conn.prepareStatement("select 1");
+		statement.closeOnCompletion();
+		assert statement.isCloseOnCompletion();
+		ResultSet rs = statement.executeQuery();
+		assert rs.getStatement() == statement : "result set must not expose the cached statement";
+		assert !statement.isClosed();
+		rs.close();
+		//语句归还到缓存, 真正的语句没有关闭
+		assert statement.isClosed();
+		assert database.getOpenStatementCount() == 1;
+		PreparedStatement again = conn.prepareStatement("select 1");
+		assert database.statementsPrepared.get() == 1;
+		assert !again.isCloseOnCompletion() : "closeOnCompletion must not leak into the next checkout";
+		again.executeQuery().close();
+		assert !again.isClosed();
+		again.close();
+		conn.close();
+	}
+
+	public void testCloseOnCompletionAfterExecuteDetachesStatement() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement statement = conn.prepareStatement("select 1");
+		ResultSet rs = statement.executeQuery();
+		//结果集已经返回, 只能交给真正的语句, 语句不再留在缓存中
+		statement.closeOnCompletion();
+		rs.close();
+		assert database.getOpenStatementCount() == 0;
+		conn.prepareStatement("select 1").close();
+		assert database.statementsPrepared.get() == 2;
+		assert database.getOpenStatementCount() == 1;
+		statement.close();
+		conn.close();
+	}
+
+	public void testClosingStatementClosesTrackedResultSet() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		PreparedStatement statement = conn.prepareStatement("select 1");
+		statement.closeOnCompletion();
+		ResultSet rs = statement.executeQuery();
+		statement.close();
+		assert database.getOpenResultSetCount() == 0;
+		rs.close();
+		assert database.getOpenStatementCount() == 1;
+		conn.close();
+	}
+
+}
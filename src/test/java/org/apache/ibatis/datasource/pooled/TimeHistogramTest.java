@@ -0,0 +1,55 @@
+package org.apache.ibatis.datasource.pooled;
+
+//时间直方图的计数、均值、最大值和百分位
+public class TimeHistogramTest {
+
+	public void testEmptyHistogram() {
+		TimeHistogram histogram = new TimeHistogram();
+		assert histogram.getCount() == 0;
+		assert histogram.getMean() == 0;
+		assert histogram.getValueAtPercentile(99) == 0;
+	}
+
+	public void testSmallValuesAreExact() {
+		TimeHistogram histogram = new TimeHistogram();
+		for (int i = 1; i <= 10; i++) {
+			histogram.record(i);
+		}
+		assert histogram.getCount() == 10;
+		assert histogram.getMean() == 5;
+		assert histogram.getMax() == 10;
+		assert histogram.getValueAtPercentile(50) == 5;
+		assert histogram.getValueAtPercentile(100) == 10;
+	}
+
+	public void testPercentileIsWithinRelativeError() {
+		TimeHistogram histogram = new TimeHistogram();
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i);
+		}
+		long p50 = histogram.getValueAtPercentile(50);
+		long p99 = histogram.getValueAtPercentile(99);
+		assert p50 >= 50000 && p50 <= 50000 * 1.07 : "p50=" + p50;
+		assert p99 >= 99000 && p99 <= 100000 : "p99=" + p99;
+		assert histogram.getMax() == 100000;
+	}
+
+	public void testNegativeAndHugeValuesAreClamped() {
+		TimeHistogram histogram = new TimeHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assert histogram.getCount() == 2;
+		assert histogram.getValueAtPercentile(50) == 0;
+		assert histogram.getMax() > 0 && histogram.getMax() < Long.MAX_VALUE;
+	}
+
+	public void testReset() {
+		TimeHistogram histogram = new TimeHistogram();
+		histogram.record(42);
+		histogram.reset();
+		assert histogram.getCount() == 0;
+		assert histogram.getMax() == 0;
+		assert histogram.getValueAtPercentile(50) == 0;
+	}
+
+}
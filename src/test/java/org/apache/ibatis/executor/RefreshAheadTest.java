@@ -0,0 +1,100 @@
+package org.apache.ibatis.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.RefreshingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//提前刷新: 只有开启了refreshAhead的缓存, 二级缓存没命中时才在键上附加加载器
+public class RefreshAheadTest {
+
+	//放入的键上是否附加了加载器
+	private static final List<Boolean> loaderAttached = new ArrayList<Boolean>();
+
+	private StubDatabase database;
+	private Configuration configuration;
+	private SqlSessionFactory factory;
+
+	//记录放入的键的自定义缓存
+	public static class RecordingCache extends PerpetualCache {
+
+		public RecordingCache(String id) {
+			super(id);
+		}
+
+		@Override
+		public void putObject(Object key, Object value) {
+			synchronized (loaderAttached) {
+				loaderAttached.add(((CacheKey) key).getLoader() != null);
+			}
+			super.putObject(key, value);
+		}
+
+	}
+
+	//声明提前刷新的自定义缓存
+	public static class RefreshingRecordingCache extends RecordingCache implements RefreshingCache {
+
+		public RefreshingRecordingCache(String id) {
+			super(id);
+		}
+
+		public boolean isRefreshAhead() {
+			return true;
+		}
+
+	}
+
+	public void setUp() {
+		loaderAttached.clear();
+		database = StubDriver.newDatabase();
+		configuration = StubSessions.newConfiguration(database);
+		String select = "<select id=\"all\" resultType=\"map\">select id, name from users</select>";
+		StubSessions.addMapper(configuration, "plain", "<cache type=\"" + RecordingCache.class.getName() + "\"/>" + select);
+		StubSessions.addMapper(configuration, "refreshing",
+				"<cache type=\"" + RefreshingRecordingCache.class.getName() + "\"/>" + select);
+		StubSessions.addMapper(configuration, "scheduled", "<cache flushInterval=\"60000\">"
+				+ "<property name=\"refreshAhead\" value=\"true\"/></cache>" + select);
+		StubSessions.addMapper(configuration, "expiring", "<cache flushInterval=\"60000\" readOnly=\"false\"/>" + select);
+		factory = StubSessions.build(configuration);
+	}
+
+	public void tearDown() {
+		StubSessions.close(configuration);
+	}
+
+	private void query(String statement) {
+		SqlSession session = factory.openSession();
+		try {
+			session.selectList(statement);
+			session.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testLoaderIsAttachedOnlyForRefreshingCaches() {
+		query("plain.all");
+		query("refreshing.all");
+		synchronized (loaderAttached) {
+			assert loaderAttached.size() == 2;
+			assert !loaderAttached.get(0) : "cache without refresh ahead must not keep the query parameters";
+			assert loaderAttached.get(1);
+		}
+	}
+
+	public void testStandardDecoratorsForwardRefreshAhead() {
+		assert ((RefreshingCache) configuration.getCache("scheduled")).isRefreshAhead();
+		assert !((RefreshingCache) configuration.getCache("expiring")).isRefreshAhead();
+		assert !((RefreshingCache) configuration.getCache("plain")).isRefreshAhead();
+	}
+
+}
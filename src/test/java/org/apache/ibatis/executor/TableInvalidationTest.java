@@ -0,0 +1,125 @@
+package org.apache.ibatis.executor;
+
+import java.util.List;
+
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//按表失效二级缓存: 写语句只删除依赖它写的表的查询结果, 包括其他命名空间中的
+public class TableInvalidationTest {
+
+	private StubDatabase database;
+	private Configuration configuration;
+	private SqlSessionFactory factory;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		configuration = StubSessions.newConfiguration(database);
+		configuration.setCacheInvalidation(CacheInvalidation.TABLE);
+		StubSessions.addMapper(configuration, "users", "<cache/>"
+				+ "<select id=\"all\" resultType=\"map\">select id, name from users</select>"
+				+ "<update id=\"rename\">update users set name = 'x'</update>");
+		StubSessions.addMapper(configuration, "orders", "<cache/>"
+				+ "<select id=\"all\" resultType=\"map\">select id, name from orders</select>"
+				+ "<select id=\"withUsers\" resultType=\"map\">select o.id, u.name from orders o join users u on o.user_id = u.id</select>"
+				+ "<select id=\"declared\" resultType=\"map\" tables=\"customers\">select id, name from v_customers</select>");
+		//没有缓存的命名空间里的写语句也要失效其他命名空间
+		StubSessions.addMapper(configuration, "admin",
+				"<update id=\"renameUsers\">update users set name = 'y'</update>"
+				+ "<update id=\"touchCustomers\" tables=\"customers\">update crm.customer_data set name = 'z'</update>"
+				+ "<update id=\"refresh\">{call refresh_all()}</update>");
+		factory = StubSessions.build(configuration);
+	}
+
+	public void tearDown() {
+		StubSessions.close(configuration);
+	}
+
+	//在一个新会话中查询, 返回查询是否访问了数据库
+	private boolean queryHitsDatabase(String statement) {
+		int before = database.executions.get();
+		SqlSession session = factory.openSession();
+		try {
+			List<Object> rows = session.selectList(statement);
+			assert rows.size() == database.rows;
+			session.commit();
+		} finally {
+			session.close();
+		}
+		return database.executions.get() > before;
+	}
+
+	private void write(String statement) {
+		SqlSession session = factory.openSession();
+		try {
+			session.update(statement);
+			session.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	private void warmUp() {
+		for (String statement : new String[] { "users.all", "orders.all", "orders.withUsers", "orders.declared" }) {
+			assert queryHitsDatabase(statement);
+			assert !queryHitsDatabase(statement) : statement + " must be cached";
+		}
+	}
+
+	public void testWriteEvictsDependentQueriesAcrossNamespaces() {
+		warmUp();
+		write("admin.renameUsers");
+		assert queryHitsDatabase("users.all");
+		assert queryHitsDatabase("orders.withUsers");
+		assert !queryHitsDatabase("orders.all") : "orders does not depend on users";
+		assert !queryHitsDatabase("orders.declared");
+	}
+
+	public void testNamespaceModeOnlyClearsTheWritersNamespace() {
+		configuration.setCacheInvalidation(CacheInvalidation.NAMESPACE);
+		warmUp();
+		write("admin.renameUsers");
+		//写语句所在的命名空间没有缓存, 什么都不会失效
+		assert !queryHitsDatabase("users.all");
+		write("users.rename");
+		assert queryHitsDatabase("users.all");
+		assert !queryHitsDatabase("orders.withUsers") : "NAMESPACE mode does not follow tables";
+	}
+
+	public void testDeclaredTablesOverrideParsing() {
+		warmUp();
+		write("admin.touchCustomers");
+		assert queryHitsDatabase("orders.declared");
+		assert !queryHitsDatabase("users.all");
+	}
+
+	public void testWriteToUnknownTablesEvictsEverything() {
+		warmUp();
+		write("admin.refresh");
+		assert queryHitsDatabase("users.all");
+		assert queryHitsDatabase("orders.all");
+		assert queryHitsDatabase("orders.declared");
+	}
+
+	public void testRolledBackWriteEvictsNothing() {
+		warmUp();
+		SqlSession session = factory.openSession();
+		try {
+			session.update("admin.renameUsers");
+			//本事务写过users, 读users不用缓存里的旧结果
+			int before = database.executions.get();
+			session.selectList("users.all");
+			assert database.executions.get() > before;
+			session.rollback();
+		} finally {
+			session.close();
+		}
+		assert !queryHitsDatabase("users.all");
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.apache.ibatis.mapping;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+
+//缓存装饰链的构建: 所有装饰者都可以并发访问时不加SynchronizedCache
+public class CacheBuilderTest {
+
+	//沿着delegate字段取出整条装饰链
+	static List<Class<?>> chainOf(Cache cache) throws Exception {
+		List<Class<?>> chain = new ArrayList<Class<?>>();
+		Object current = cache;
+		while (current != null) {
+			chain.add(current.getClass());
+			Field field = findDelegateField(current.getClass());
+			current = field == null ? null : field.get(current);
+		}
+		return chain;
+	}
+
+	private static Field findDelegateField(Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField("delegate");
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// 继续找父类
+			}
+		}
+		return null;
+	}
+
+	public void testConcurrentChainHasNoSynchronizedCache() throws Exception {
+		Cache cache = new CacheBuilder("concurrent").build();
+		List<Class<?>> chain = chainOf(cache);
+		assert chain.contains(LruCache.class) : chain;
+		assert !chain.contains(SynchronizedCache.class) : chain;
+		assert chain.get(chain.size() - 1) == ConcurrentPerpetualCache.class : chain;
+	}
+
+	public void testUnsafeDecoratorKeepsSynchronizedCache() throws Exception {
+		Cache cache = new CacheBuilder("soft").implementation(PerpetualCache.class).addDecorator(SoftCache.class)
+				.build();
+		List<Class<?>> chain = chainOf(cache);
+		assert chain.contains(SynchronizedCache.class) : chain;
+		assert chain.get(chain.size() - 1) == PerpetualCache.class : chain;
+	}
+
+	public void testNullValuesAreCached() {
+		Cache cache = new CacheBuilder("nulls").build();
+		cache.putObject("k", null);
+		assert cache.getObject("k") == null;
+		assert cache.getSize() == 1;
+		cache.removeObject("k");
+		assert cache.getSize() == 0;
+	}
+
+	public void testConcurrentAccessStaysBounded() throws Exception {
+		for (Class<?> type : new Class<?>[] { LruCache.class, FifoCache.class }) {
+			Class<? extends Cache> eviction = type.asSubclass(Cache.class);
+			final Cache cache = new CacheBuilder("stress").implementation(PerpetualCache.class).addDecorator(eviction)
+					.size(100).build();
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						for (int j = 0; j < 4000; j++) {
+							Integer key = random.nextInt(500);
+							Object value = cache.getObject(key);
+							assert value == null || value.equals("v" + key) : "wrong value for " + key;
+							if (value == null) {
+								cache.putObject(key, "v" + key);
+							} else if (j % 50 == 0) {
+								cache.removeObject(key);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			executor.shutdown();
+			assert cache.getSize() <= 100 : eviction.getSimpleName() + " size " + cache.getSize();
+			cache.clear();
+			assert cache.getSize() == 0;
+		}
+	}
+
+}
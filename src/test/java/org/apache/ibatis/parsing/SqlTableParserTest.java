@@ -0,0 +1,47 @@
+package org.apache.ibatis.parsing;
+
+import java.util.Arrays;
+
+//SQL表名解析: 宁可多找, 不能漏掉
+public class SqlTableParserTest {
+
+	private static void assertTables(String sql, String... expected) {
+		String[] tables = SqlTableParser.parse(sql);
+		assert Arrays.equals(expected, tables) : sql + " -> " + Arrays.toString(tables);
+	}
+
+	public void testSelectWithJoinsAndAliases() {
+		assertTables("select u.id from users u join orders as o on o.user_id = u.id left outer join items i on 1 = 1",
+				"users", "orders", "items");
+		assertTables("SELECT * FROM users, orders o, items WHERE 1 = 1", "users", "orders", "items");
+	}
+
+	public void testSchemaAndQuotesAreRemoved() {
+		assertTables("select * from app.\"Users\" join `shop`.`Orders` on 1 = 1 join [dbo].[Items] on 1 = 1",
+				"users", "orders", "items");
+	}
+
+	public void testWrites() {
+		assertTables("insert into audit_log (id) values (?)", "audit_log");
+		assertTables("update users set name = ? where id = ?", "users");
+		assertTables("delete from orders where id in (select id from stale_orders)", "orders", "stale_orders");
+		assertTables("merge into users using staging on (1 = 1) when matched then update set name = 'x'", "users", "staging");
+	}
+
+	public void testKeywordsInsideCommentsAndLiteralsAreIgnored() {
+		assertTables("select 'from fake' from users -- join ghosts\n where name = 'it''s from x' /* from hidden */",
+				"users");
+	}
+
+	public void testUpdateThatIsNotATable() {
+		assertTables("select * from users where id = ? for update", "users");
+		assertTables("insert into users (id) values (?) on duplicate key update id = id", "users");
+	}
+
+	public void testUnknownTables() {
+		assertTables("{call refresh_all(?)}");
+		assertTables(null);
+		assert SqlTableParser.parse("select * from users") == SqlTableParser.parse("select * from users") : "parsed tables are cached";
+	}
+
+}
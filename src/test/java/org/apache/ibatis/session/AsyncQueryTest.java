@@ -0,0 +1,255 @@
+package org.apache.ibatis.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//异步查询: 同一个会话的查询依次执行, 不同会话的查询并行执行, 失败时future异常完成
+public class AsyncQueryTest {
+
+	private StubDatabase database;
+	private Configuration configuration;
+	private ExecutorService asyncExecutor;
+	private SqlSessionFactory factory;
+
+	public interface UserMapper {
+
+		@Select("select id, name from users")
+		CompletableFuture<List<Map<String, Object>>> all();
+
+		@Select("select id, name from users where id = #{id}")
+		CompletableFuture<Map<String, Object>> byId(int id);
+
+	}
+
+	public interface BadMapper {
+
+		@Select("select id, name from users")
+		CompletableFuture<Set<Map<String, Object>>> all();
+
+	}
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		configuration = StubSessions.newConfiguration(database);
+		asyncExecutor = Executors.newFixedThreadPool(4);
+		configuration.setAsyncExecutor(asyncExecutor);
+		StubSessions.addMapper(configuration, "users",
+				"<select id=\"all\" resultType=\"map\">select id, name from users</select>"
+				+ "<select id=\"byId\" resultType=\"map\">select id, name from users where id = #{id}</select>");
+		configuration.addMapper(UserMapper.class);
+		factory = StubSessions.build(configuration);
+	}
+
+	public void tearDown() {
+		asyncExecutor.shutdownNow();
+		StubSessions.close(configuration);
+	}
+
+	//取出future失败的原因
+	private static Throwable failureOf(CompletableFuture<?> future) throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+		assert false : "future must complete exceptionally";
+		return null;
+	}
+
+	public void testQueriesOnOneSessionRunInOrder() throws Exception {
+		database.executeDelay = 20;
+		final List<Integer> completed = new ArrayList<Integer>();
+		SqlSession session = factory.openSession();
+		try {
+			List<CompletableFuture<List<Object>>> futures = new ArrayList<CompletableFuture<List<Object>>>();
+			for (int i = 0; i < 4; i++) {
+				final int index = i;
+				CompletableFuture<List<Object>> future = session.selectListAsync("users.byId", i);
+				future.thenRun(new Runnable() {
+					public void run() {
+						synchronized (completed) {
+							completed.add(index);
+						}
+					}
+				});
+				futures.add(future);
+			}
+			for (CompletableFuture<List<Object>> future : futures) {
+				assert future.get().size() == database.rows;
+			}
+		} finally {
+			session.close();
+		}
+		//一个会话只有一个连接, 查询按提交的顺序依次执行
+		assert database.maxConcurrentExecutions.get() == 1;
+		assert database.connectionsOpened.get() == 1;
+		synchronized (completed) {
+			assert completed.size() == 4 && completed.get(0) == 0 && completed.get(3) == 3 : completed;
+		}
+	}
+
+	public void testSessionsFanOutInParallel() throws Exception {
+		database.executeDelay = 100;
+		List<SqlSession> sessions = new ArrayList<SqlSession>();
+		List<CompletableFuture<List<Object>>> futures = new ArrayList<CompletableFuture<List<Object>>>();
+		try {
+			for (int i = 0; i < 4; i++) {
+				SqlSession session = factory.openSession();
+				sessions.add(session);
+				futures.add(session.<Object>selectListAsync("users.all"));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		} finally {
+			for (SqlSession session : sessions) {
+				session.close();
+			}
+		}
+		assert database.maxConcurrentExecutions.get() > 1 : "independent sessions must run concurrently";
+	}
+
+	public void testSessionMethodsWaitForPendingQueries() throws Exception {
+		database.executeDelay = 100;
+		SqlSession session = factory.openSession();
+		CompletableFuture<List<Object>> future;
+		try {
+			future = session.selectListAsync("users.all");
+			session.commit();
+			assert future.isDone() : "commit must wait for the pending query";
+		} finally {
+			session.close();
+		}
+		assert future.get().size() == database.rows;
+	}
+
+	public void testFailureCompletesExceptionallyAndLaterQueriesStillRun() throws Exception {
+		SqlSession session = factory.openSession();
+		try {
+			CompletableFuture<List<Object>> failed = session.selectListAsync("users.missing");
+			CompletableFuture<Object> one = session.selectOneAsync("users.all");
+			CompletableFuture<List<Object>> next = session.selectListAsync("users.all");
+			assert failureOf(failed) instanceof PersistenceException;
+			//多于一条结果的selectOne也是异常完成
+			assert failureOf(one) instanceof PersistenceException;
+			assert next.get().size() == database.rows;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testErrorContextIsResetOnTheWorker() throws Exception {
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			configuration.setAsyncExecutor(single);
+			SqlSession session = factory.openSession();
+			try {
+				failureOf(session.selectListAsync("users.missing"));
+			} finally {
+				session.close();
+			}
+			//同一个线程上的下一个任务看不到上次查询的错误上下文
+			String context = single.submit(new Callable<String>() {
+				public String call() {
+					return ErrorContext.instance().toString();
+				}
+			}).get();
+			assert context.isEmpty() : context;
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+	public void testRejectedSubmissionCompletesExceptionally() throws Exception {
+		ExecutorService closed = Executors.newSingleThreadExecutor();
+		closed.shutdown();
+		configuration.setAsyncExecutor(closed);
+		SqlSession session = factory.openSession();
+		try {
+			Throwable cause = failureOf(session.selectListAsync("users.all"));
+			assert cause instanceof PersistenceException;
+			assert cause.getCause() instanceof RejectedExecutionException;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testCallbackCanUseTheSessionWithoutDeadlock() throws Exception {
+		final SqlSession session = factory.openSession();
+		try {
+			CompletableFuture<Integer> total = session.<Object>selectListAsync("users.all")
+					.thenApply(new Function<List<Object>, Integer>() {
+						public Integer apply(List<Object> first) {
+							//在执行异步查询的线程上回调, 不等待自己
+							return first.size() + session.selectList("users.all").size();
+						}
+					});
+			assert total.get() == database.rows * 2;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testCallbackCanSubmitAndJoinAnotherQuery() throws Exception {
+		final SqlSession session = factory.openSession();
+		try {
+			CompletableFuture<Integer> total = session.<Object>selectListAsync("users.all")
+					.thenApply(new Function<List<Object>, Integer>() {
+						public Integer apply(List<Object> first) {
+							//在执行线程上提交的查询直接执行, 不排在自己后面
+							List<Object> second = session.<Object>selectListAsync("users.all").join();
+							return first.size() + second.size();
+						}
+					});
+			assert total.get(10, TimeUnit.SECONDS) == database.rows * 2;
+			//之后提交的查询照常排队执行
+			assert session.selectListAsync("users.all").get(10, TimeUnit.SECONDS).size() == database.rows;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testMapperMethodsReturningFutures() throws Exception {
+		database.rows = 1;
+		SqlSession session = factory.openSession();
+		try {
+			UserMapper mapper = session.getMapper(UserMapper.class);
+			CompletableFuture<List<Map<String, Object>>> all = mapper.all();
+			CompletableFuture<Map<String, Object>> one = mapper.byId(1);
+			assert all.get().size() == 1;
+			assert one.get().get("name").equals("n1");
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testUnsupportedFutureCollectionIsRejected() {
+		configuration.addMapper(BadMapper.class);
+		SqlSession session = factory.openSession();
+		try {
+			session.getMapper(BadMapper.class).all();
+			assert false : "only CompletableFuture<List<E>> is supported";
+		} catch (BindingException e) {
+			// 预期
+		} finally {
+			session.close();
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package org.apache.ibatis.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//缓存预热: 记录插件保存执行过的查询快照, 预热器在新的会话工厂上重新执行
+public class CacheWarmupRecorderTest {
+
+	private static final String USERS = "<cache/>"
+			+ "<select id=\"byName\" parameterType=\"map\" resultType=\"map\">select id, name from users where name = #{name}</select>"
+			+ "<select id=\"all\" resultType=\"map\">select id, name from users</select>"
+			+ "<select id=\"uncached\" resultType=\"map\" useCache=\"false\">select id, name from users</select>";
+
+	private StubDatabase database;
+	private Configuration configuration;
+	private CacheWarmupRecorder recorder;
+	private SqlSessionFactory factory;
+
+	public void setUp() {
+		database = StubDriver.newDatabase();
+		configuration = StubSessions.newConfiguration(database);
+		recorder = new CacheWarmupRecorder();
+		configuration.addInterceptor(recorder);
+		StubSessions.addMapper(configuration, "users", USERS);
+		factory = StubSessions.build(configuration);
+	}
+
+	public void tearDown() {
+		StubSessions.close(configuration);
+	}
+
+	private void query(SqlSessionFactory factory, String statement, Object parameter) {
+		SqlSession session = factory.openSession();
+		try {
+			session.selectList(statement, parameter);
+			session.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	private static Map<String, Object> name(String name) {
+		Map<String, Object> parameter = new HashMap<String, Object>();
+		parameter.put("name", name);
+		return parameter;
+	}
+
+	public void testRecordsCachedQueriesOnly() {
+		query(factory, "users.all", null);
+		query(factory, "users.uncached", null);
+		query(factory, "users.byName", name("a"));
+		//带ResultHandler的查询不记录
+		SqlSession session = factory.openSession();
+		try {
+			session.select("users.all", new ResultHandler() {
+				public void handleResult(ResultContext context) {
+				}
+			});
+		} finally {
+			session.close();
+		}
+		List<CacheWarmer.Query> queries = recorder.getQueries();
+		assert queries.size() == 2 : queries;
+		assert "users.all".equals(queries.get(0).getStatement());
+		assert "users.byName".equals(queries.get(1).getStatement());
+	}
+
+	public void testParameterIsSnapshottedAtRecordTime() {
+		Map<String, Object> parameter = name("before");
+		query(factory, "users.byName", parameter);
+		//调用者之后修改参数, 记录的查询不变
+		parameter.put("name", "after");
+		List<CacheWarmer.Query> queries = recorder.getQueries();
+		assert queries.size() == 1;
+		assert "before".equals(((Map<?, ?>) queries.get(0).getParameter()).get("name"));
+		//每次取出的都是新的副本
+		@SuppressWarnings("unchecked")
+		Map<String, Object> copy = (Map<String, Object>) queries.get(0).getParameter();
+		copy.put("name", "changed");
+		assert "before".equals(((Map<?, ?>) recorder.getQueries().get(0).getParameter()).get("name"));
+	}
+
+	public void testRepeatedQueryMovesToTheEnd() {
+		query(factory, "users.byName", name("a"));
+		query(factory, "users.byName", name("b"));
+		query(factory, "users.byName", name("a"));
+		List<CacheWarmer.Query> queries = recorder.getQueries();
+		assert queries.size() == 2;
+		assert "b".equals(((Map<?, ?>) queries.get(0).getParameter()).get("name"));
+		assert "a".equals(((Map<?, ?>) queries.get(1).getParameter()).get("name"));
+	}
+
+	public void testNonSerializableParameterIsSkipped() {
+		Map<String, Object> parameter = name("a");
+		parameter.put("other", new Object());
+		query(factory, "users.byName", parameter);
+		assert recorder.getQueries().isEmpty();
+	}
+
+	public void testKeepsMostRecentMaxEntries() {
+		Properties properties = new Properties();
+		properties.setProperty("maxEntries", "16");
+		recorder.setProperties(properties);
+		for (int i = 0; i < 100; i++) {
+			recorder.record(new CacheWarmer.Query("users.byName", name("n" + i), 0, Integer.MAX_VALUE));
+		}
+		List<CacheWarmer.Query> queries = recorder.getQueries();
+		assert queries.size() == 16 : queries.size();
+		assert "n99".equals(((Map<?, ?>) queries.get(15).getParameter()).get("name"));
+	}
+
+	public void testConcurrentRecordingStaysBounded() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxEntries", "64");
+		recorder.setProperties(properties);
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 500; i++) {
+							recorder.record(new CacheWarmer.Query("users.byName", name(thread + "-" + (i % 100)), 0,
+									Integer.MAX_VALUE));
+						}
+					} catch (Throwable e) {
+						errors.incrementAndGet();
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assert errors.get() == 0;
+		assert recorder.getQueries().size() == 64;
+	}
+
+	public void testSavedQueriesWarmANewFactory() {
+		query(factory, "users.all", null);
+		query(factory, "users.byName", name("a"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assert recorder.save(out) == 2;
+
+		//模拟重启: 新的Configuration, 二级缓存是空的
+		Configuration restarted = StubSessions.newConfiguration(database);
+		StubSessions.addMapper(restarted, "users", USERS);
+		SqlSessionFactory restartedFactory = StubSessions.build(restarted);
+		try {
+			final AtomicInteger progress = new AtomicInteger();
+			CacheWarmer warmer = new CacheWarmer(restartedFactory).parallelism(2).listener(new CacheWarmupListener() {
+				public void onProgress(int completed, int total) {
+					progress.incrementAndGet();
+				}
+
+				public void onFailure(CacheWarmer.Query query, Throwable cause) {
+				}
+			});
+			warmer.addRecorded(new ByteArrayInputStream(out.toByteArray()));
+			CacheWarmer.Result result = warmer.run();
+			assert result.getLoaded() == 2 && result.getFailed() == 0 && result.getSkipped() == 0 : result;
+			assert progress.get() == 2;
+
+			int before = database.executions.get();
+			query(restartedFactory, "users.all", null);
+			query(restartedFactory, "users.byName", name("a"));
+			assert database.executions.get() == before : "warmed queries must be served from the cache";
+		} finally {
+			StubSessions.close(restarted);
+		}
+	}
+
+	public void testWarmerSkipsUncachedAndReportsFailures() {
+		final List<CacheWarmer.Query> failed = new ArrayList<CacheWarmer.Query>();
+		CacheWarmer warmer = new CacheWarmer(factory).parallelism(1).listener(new CacheWarmupListener() {
+			public void onProgress(int completed, int total) {
+			}
+
+			public void onFailure(CacheWarmer.Query query, Throwable cause) {
+				synchronized (failed) {
+					failed.add(query);
+				}
+			}
+		});
+		warmer.add("users.all", null).add("users.uncached", null).add("users.missing", null);
+		CacheWarmer.Result result = warmer.run();
+		assert result.getTotal() == 3;
+		assert result.getLoaded() == 1 && result.getSkipped() == 1 && result.getFailed() == 1 : result;
+		assert failed.size() == 1 && "users.missing".equals(failed.get(0).getStatement());
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.apache.ibatis.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.MeteredCache;
+import org.apache.ibatis.datasource.pooled.PoolState;
+
+//多个会话在很小的连接池上并发查询: 等待连接、语句缓存、二级缓存和延迟加载的锁都不能丢失唤醒或卡住
+public class ConcurrentQueryTest {
+
+	private QueryWorkload workload;
+
+	public void tearDown() {
+		if (workload != null) {
+			workload.close();
+		}
+	}
+
+	//虚拟线程可用时每个任务一个虚拟线程, 否则用平台线程
+	private static ExecutorService newExecutor(int threads) {
+		ExecutorService executor = AsyncExecutors.newVirtualThreadExecutor();
+		return executor != null ? executor : AsyncExecutors.newThreadPoolExecutor(threads);
+	}
+
+	public void testManySessionsOnASmallPool() throws Exception {
+		workload = new QueryWorkload(2, 2);
+		//先放入二级缓存, 并发的会话都从SynchronizedCache读取
+		workload.run(0);
+		final int sessions = 40;
+		final CountDownLatch done = new CountDownLatch(sessions);
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+		ExecutorService executor = newExecutor(8);
+		try {
+			for (int i = 0; i < sessions; i++) {
+				final int id = i + 1;
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							workload.run(id);
+						} catch (Throwable e) {
+							failed.incrementAndGet();
+							firstFailure.compareAndSet(null, e);
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			}
+			assert done.await(60, TimeUnit.SECONDS) : done.getCount() + " sessions did not finish";
+		} finally {
+			executor.shutdownNow();
+		}
+		assert failed.get() == 0 : firstFailure.get();
+
+		PoolState state = workload.getDataSource().getPoolState();
+		assert workload.getDatabase().maxOpenConnections.get() <= 2;
+		assert state.getHadToWaitCount() > 0 : "sessions must have queued for the two connections";
+		assert state.getActiveConnectionCount() == 0;
+		//每个连接上每条SQL只预编译一次
+		assert workload.getDatabase().statementsPrepared.get() <= 2 * 4 : workload.getDatabase().statementsPrepared.get();
+		assert state.getStatementCacheHitCount() > 0;
+
+		MeteredCache cache = (MeteredCache) workload.getConfiguration().getCache("cached");
+		assert cache.getMetrics().snapshot(cache).getHitCount() == sessions;
+	}
+
+	public void testLazyAssociationLoadsOnFirstAccess() {
+		workload = new QueryWorkload(1, 0);
+		SqlSession session = workload.getFactory().openSession();
+		try {
+			QueryWorkload.User user = session.selectOne("users.byId", 1);
+			int before = workload.getDatabase().executions.get();
+			assert user.getName() != null;
+			assert workload.getDatabase().executions.get() == before : "plain getters must not load";
+			assert user.getFriend() != null;
+			assert workload.getDatabase().executions.get() == before + 1;
+			user.getFriend();
+			assert workload.getDatabase().executions.get() == before + 1;
+		} finally {
+			session.close();
+		}
+	}
+
+	public void testConcurrentFirstAccessLoadsOnce() throws Exception {
+		//在其他线程上延迟加载时用新的执行器和另一个连接
+		workload = new QueryWorkload(2, 20);
+		SqlSession session = workload.getFactory().openSession();
+		try {
+			final QueryWorkload.User user = session.selectOne("users.byId", 1);
+			int before = workload.getDatabase().executions.get();
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Object> friends = new ArrayList<Object>();
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 4; i++) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						Object friend = user.getFriend();
+						synchronized (friends) {
+							friends.add(friend);
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join(10000);
+			}
+			//延迟加载在ResultLoaderMap的锁里执行, 只访问一次数据库
+			assert workload.getDatabase().executions.get() == before + 1;
+			assert friends.size() == 4;
+			for (Object friend : friends) {
+				assert friend != null && friend == friends.get(0);
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.apache.ibatis.session;
+
+import java.util.List;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.stub.StubDatabase;
+import org.apache.ibatis.stub.StubDriver;
+import org.apache.ibatis.stub.StubSessions;
+
+//在桩数据库上模拟一次会话的查询, 经过执行器、连接池的预编译语句缓存、SynchronizedCache装饰的二级缓存和延迟加载
+//ConcurrentQueryTest和VirtualThreadStressBenchmark共用
+public class QueryWorkload {
+
+	private final StubDatabase database;
+	private final Configuration configuration;
+	private final PooledDataSource dataSource;
+	private final SqlSessionFactory factory;
+
+	//延迟加载的结果对象, 必须能被javassist继承
+	public static class User {
+
+		private Integer id;
+		private String name;
+		private User friend;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public User getFriend() {
+			return friend;
+		}
+
+		public void setFriend(User friend) {
+			this.friend = friend;
+		}
+
+	}
+
+	//poolSize是连接数, latency是每条SQL在桩数据库中的执行时间(毫秒)
+	public QueryWorkload(int poolSize, long latency) {
+		database = StubDriver.newDatabase();
+		//延迟加载的关联用selectOne查询, 每条SQL只返回一行
+		database.rows = 1;
+		database.executeDelay = latency;
+		configuration = StubSessions.newConfiguration(database);
+		configuration.setLazyLoadingEnabled(true);
+		configuration.setAggressiveLazyLoading(false);
+		dataSource = (PooledDataSource) configuration.getEnvironment().getDataSource();
+		dataSource.setPoolMaximumActiveConnections(poolSize);
+		dataSource.setPoolMaximumIdleConnections(poolSize);
+		dataSource.setPoolTimeToWait(60000);
+		dataSource.setPoolMaximumCheckoutTime(60000);
+		dataSource.setPoolPreparedStatementCacheSize(8);
+		String user = User.class.getName();
+		//SOFT不能并发访问, 二级缓存由SynchronizedCache加锁
+		StubSessions.addMapper(configuration, "cached", "<cache eviction=\"SOFT\"/>"
+				+ "<select id=\"all\" resultType=\"map\">select id, name from users</select>");
+		StubSessions.addMapper(configuration, "users",
+				"<resultMap id=\"user\" type=\"" + user + "\">"
+				+ "<id property=\"id\" column=\"id\"/><result property=\"name\" column=\"name\"/>"
+				+ "<association property=\"friend\" column=\"child_id\" select=\"users.byId\" fetchType=\"lazy\"/>"
+				+ "</resultMap>"
+				+ "<select id=\"byId\" resultMap=\"user\">select id, name, child_id from users where id = #{id}</select>"
+				+ "<update id=\"touch\">update users set name = name where id = #{id}</update>");
+		factory = StubSessions.build(configuration);
+	}
+
+	//一次会话: 读二级缓存, 查询一个用户, 触发它的延迟加载关联, 更新并提交
+	public void run(int id) {
+		SqlSession session = factory.openSession();
+		try {
+			List<Object> cached = session.selectList("cached.all");
+			if (cached.size() != database.rows) {
+				throw new IllegalStateException("Expected " + database.rows + " cached rows but got " + cached.size());
+			}
+			User user = session.selectOne("users.byId", id);
+			if (user.getFriend() == null) {
+				throw new IllegalStateException("Lazy association of user " + id + " was not loaded");
+			}
+			session.update("users.touch", id);
+			session.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	public StubDatabase getDatabase() {
+		return database;
+	}
+
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	public PooledDataSource getDataSource() {
+		return dataSource;
+	}
+
+	public SqlSessionFactory getFactory() {
+		return factory;
+	}
+
+	//关闭连接池中的连接
+	public void close() {
+		StubSessions.close(configuration);
+	}
+
+}
@@ -0,0 +1,415 @@
+package org.apache.ibatis.stub;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的内存数据库, 由StubDriver创建
+ *
+ * 查询语句(以select开头)返回rows行, 列为id、name、child_id, 第i行的id为 i / perParent + 1,
+ * name为 "n" + id, child_id为i; 其他语句返回更新行数1。
+ * 连接、语句、结果集和执行次数都有计数, 可以设置建立连接、执行语句和isValid的延迟。
+ */
+public class StubDatabase {
+
+	private static final String[] COLUMNS = { "id", "name", "child_id" };
+
+	private final String url;
+
+	public volatile int rows = 3;                //查询返回的行数
+	public volatile int perParent = 1;           //每个id重复的行数, 用于嵌套结果映射
+	public volatile long connectDelay;           //建立连接的延迟(毫秒)
+	public volatile long executeDelay;           //执行语句的延迟(毫秒)
+	public volatile long validDelay;             //isValid的延迟(毫秒)
+	public volatile boolean validSupported = true;   //是否支持Connection.isValid
+	public volatile boolean refuseConnections;   //是否拒绝建立连接
+
+	public final AtomicInteger connectionsOpened = new AtomicInteger();
+	public final AtomicInteger connectionsClosed = new AtomicInteger();
+	public final AtomicInteger maxOpenConnections = new AtomicInteger();
+	public final AtomicInteger statementsPrepared = new AtomicInteger();
+	public final AtomicInteger statementsClosed = new AtomicInteger();
+	public final AtomicInteger resultSetsOpened = new AtomicInteger();
+	public final AtomicInteger resultSetsClosed = new AtomicInteger();
+	public final AtomicInteger executions = new AtomicInteger();
+	public final AtomicInteger validCalls = new AtomicInteger();
+	public final AtomicInteger rowsFetched = new AtomicInteger();
+	public final AtomicInteger concurrentExecutions = new AtomicInteger();
+	public final AtomicInteger maxConcurrentExecutions = new AtomicInteger();
+	public final List<String> executedSql = new CopyOnWriteArrayList<String>();
+	public final List<String> connectedUsers = new CopyOnWriteArrayList<String>();
+
+	private final List<StubConnection> connections = new CopyOnWriteArrayList<StubConnection>();
+
+	StubDatabase(String url) {
+		this.url = url;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	//当前打开的连接数
+	public int getOpenConnectionCount() {
+		return connectionsOpened.get() - connectionsClosed.get();
+	}
+
+	//当前打开的语句数
+	public int getOpenStatementCount() {
+		return statementsPrepared.get() - statementsClosed.get();
+	}
+
+	//当前打开的结果集数
+	public int getOpenResultSetCount() {
+		return resultSetsOpened.get() - resultSetsClosed.get();
+	}
+
+	//使已经建立的连接全部失效, 之后isValid返回false, 执行语句抛出异常
+	public void breakConnections() {
+		for (StubConnection connection : connections) {
+			connection.broken = true;
+		}
+	}
+
+	Connection connect(Properties info) throws SQLException {
+		sleep(connectDelay);
+		if (refuseConnections) {
+			throw new SQLException("Connection refused");
+		}
+		connectionsOpened.incrementAndGet();
+		int open = getOpenConnectionCount();
+		for (int max = maxOpenConnections.get(); open > max && !maxOpenConnections.compareAndSet(max, open); max = maxOpenConnections.get()) {
+			// 重试
+		}
+		connectedUsers.add(String.valueOf(info.getProperty("user")));
+		StubConnection handler = new StubConnection();
+		connections.add(handler);
+		return (Connection) Proxy.newProxyInstance(StubDatabase.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+	}
+
+	private static void sleep(long millis) throws SQLException {
+		if (millis > 0) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted.", e);
+			}
+		}
+	}
+
+	private static Object defaultValue(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		} else if ("equals".equals(name)) {
+			return proxy == args[0];
+		} else if ("toString".equals(name)) {
+			return proxy.getClass().getInterfaces()[0].getSimpleName() + "@"
+					+ Integer.toHexString(System.identityHashCode(proxy));
+		}
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+	private static boolean isQuery(String sql) {
+		return sql != null && sql.trim().toLowerCase(Locale.ENGLISH).startsWith("select");
+	}
+
+	//桩连接
+	private class StubConnection implements InvocationHandler {
+
+		volatile boolean closed;
+		volatile boolean broken;
+		boolean autoCommit = true;
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					connectionsClosed.incrementAndGet();
+				}
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed;
+			} else if ("isValid".equals(name)) {
+				if (!validSupported) {
+					throw new SQLFeatureNotSupportedException("isValid");
+				}
+				validCalls.incrementAndGet();
+				sleep(validDelay);
+				return !closed && !broken;
+			} else if ("getAutoCommit".equals(name)) {
+				return autoCommit;
+			} else if ("setAutoCommit".equals(name)) {
+				autoCommit = (Boolean) args[0];
+				return null;
+			} else if ("getMetaData".equals(name)) {
+				return Proxy.newProxyInstance(StubDatabase.class.getClassLoader(), new Class<?>[] { DatabaseMetaData.class },
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method, Object[] args) {
+								if ("getURL".equals(method.getName())) {
+									return url;
+								}
+								return defaultValue(proxy, method, args);
+							}
+						});
+			} else if ("prepareStatement".equals(name) || "createStatement".equals(name) || "prepareCall".equals(name)) {
+				checkOpen();
+				statementsPrepared.incrementAndGet();
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+				return Proxy.newProxyInstance(StubDatabase.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+						new StubStatement(this, sql));
+			}
+			return defaultValue(proxy, method, args);
+		}
+
+		void checkOpen() throws SQLException {
+			if (closed) {
+				throw new SQLException("Connection is closed.");
+			}
+			if (broken) {
+				throw new SQLException("Connection is broken.");
+			}
+		}
+
+	}
+
+	//桩语句, 同时实现Statement和PreparedStatement
+	private class StubStatement implements InvocationHandler {
+
+		final StubConnection connection;
+		final String preparedSql;
+		boolean closed;
+		boolean closeOnCompletion;
+		Object resultSet;
+		int updateCount = -1;
+		int maxRows;
+		int fetchSize;
+		int queryTimeout;
+		int batchSize;
+
+		StubStatement(StubConnection connection, String preparedSql) {
+			this.connection = connection;
+			this.preparedSql = preparedSql;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				close();
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed;
+			} else if ("closeOnCompletion".equals(name)) {
+				closeOnCompletion = true;
+				return null;
+			} else if ("isCloseOnCompletion".equals(name)) {
+				return closeOnCompletion;
+			} else if ("execute".equals(name) || "executeQuery".equals(name) || "executeUpdate".equals(name)) {
+				String sql = args != null && args.length > 0 ? (String) args[0] : preparedSql;
+				if ("executeQuery".equals(name) && !isQuery(sql)) {
+					throw new SQLException("Syntax error in SQL statement: " + sql);
+				}
+				execute(proxy, sql);
+				if ("executeQuery".equals(name)) {
+					Object rs = resultSet;
+					resultSet = null;
+					return rs;
+				} else if ("executeUpdate".equals(name)) {
+					return updateCount;
+				}
+				return resultSet != null;
+			} else if ("getResultSet".equals(name)) {
+				Object rs = resultSet;
+				resultSet = null;
+				return rs;
+			} else if ("getUpdateCount".equals(name)) {
+				int count = updateCount;
+				updateCount = -1;
+				return count;
+			} else if ("getMoreResults".equals(name)) {
+				return false;
+			} else if ("getConnection".equals(name)) {
+				return null;
+			} else if ("setMaxRows".equals(name)) {
+				maxRows = (Integer) args[0];
+				return null;
+			} else if ("getMaxRows".equals(name)) {
+				return maxRows;
+			} else if ("setFetchSize".equals(name)) {
+				fetchSize = (Integer) args[0];
+				return null;
+			} else if ("getFetchSize".equals(name)) {
+				return fetchSize;
+			} else if ("setQueryTimeout".equals(name)) {
+				queryTimeout = (Integer) args[0];
+				return null;
+			} else if ("getQueryTimeout".equals(name)) {
+				return queryTimeout;
+			} else if ("addBatch".equals(name)) {
+				batchSize++;
+				return null;
+			} else if ("clearBatch".equals(name)) {
+				batchSize = 0;
+				return null;
+			} else if ("executeBatch".equals(name)) {
+				int[] counts = new int[batchSize];
+				Arrays.fill(counts, 1);
+				batchSize = 0;
+				return counts;
+			}
+			return defaultValue(proxy, method, args);
+		}
+
+		void execute(Object proxy, String sql) throws SQLException {
+			if (closed) {
+				throw new SQLException("Statement is closed.");
+			}
+			connection.checkOpen();
+			executions.incrementAndGet();
+			executedSql.add(sql);
+			int concurrent = concurrentExecutions.incrementAndGet();
+			for (int max = maxConcurrentExecutions.get(); concurrent > max
+					&& !maxConcurrentExecutions.compareAndSet(max, concurrent); max = maxConcurrentExecutions.get()) {
+				// 重试
+			}
+			try {
+				sleep(executeDelay);
+			} finally {
+				concurrentExecutions.decrementAndGet();
+			}
+			if (isQuery(sql)) {
+				resultSet = newResultSet(proxy);
+				updateCount = -1;
+			} else {
+				resultSet = null;
+				updateCount = 1;
+			}
+		}
+
+		void close() {
+			if (!closed) {
+				closed = true;
+				statementsClosed.incrementAndGet();
+			}
+		}
+
+		Object newResultSet(Object statement) {
+			resultSetsOpened.incrementAndGet();
+			return Proxy.newProxyInstance(StubDatabase.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+					new StubResultSet(this, statement, rows));
+		}
+
+	}
+
+	//桩结果集
+	private class StubResultSet implements InvocationHandler {
+
+		final StubStatement owner;
+		final Object statement;
+		final int rowCount;
+		int position = -1;
+		boolean closed;
+
+		StubResultSet(StubStatement owner, Object statement, int rowCount) {
+			this.owner = owner;
+			this.statement = statement;
+			this.rowCount = rowCount;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("next".equals(name)) {
+				if (closed) {
+					throw new SQLException("ResultSet is closed.");
+				}
+				if (position + 1 < rowCount) {
+					position++;
+					rowsFetched.incrementAndGet();
+					return true;
+				}
+				return false;
+			} else if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					resultSetsClosed.incrementAndGet();
+					if (owner.closeOnCompletion) {
+						owner.close();
+					}
+				}
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed;
+			} else if ("getStatement".equals(name)) {
+				return statement;
+			} else if ("getType".equals(name)) {
+				return ResultSet.TYPE_FORWARD_ONLY;
+			} else if ("wasNull".equals(name)) {
+				return false;
+			} else if ("getMetaData".equals(name)) {
+				return Proxy.newProxyInstance(StubDatabase.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method, Object[] args) {
+								String name = method.getName();
+								if ("getColumnCount".equals(name)) {
+									return COLUMNS.length;
+								} else if ("getColumnLabel".equals(name) || "getColumnName".equals(name)) {
+									return COLUMNS[(Integer) args[0] - 1];
+								} else if ("getColumnType".equals(name)) {
+									return (Integer) args[0] == 2 ? Types.VARCHAR : Types.INTEGER;
+								} else if ("getColumnClassName".equals(name)) {
+									return (Integer) args[0] == 2 ? String.class.getName() : Integer.class.getName();
+								}
+								return defaultValue(proxy, method, args);
+							}
+						});
+			} else if (name.startsWith("get") && args != null && args.length == 1
+					&& (args[0] instanceof Integer || args[0] instanceof String)) {
+				String column = args[0] instanceof Integer ? COLUMNS[(Integer) args[0] - 1]
+						: ((String) args[0]).toLowerCase(Locale.ENGLISH);
+				Object value;
+				if ("id".equals(column)) {
+					value = position / perParent + 1;
+				} else if ("name".equals(column)) {
+					value = "n" + (position / perParent + 1);
+				} else {
+					value = position;
+				}
+				if ("getString".equals(name)) {
+					return String.valueOf(value);
+				} else if ("getLong".equals(name)) {
+					return ((Integer) value).longValue();
+				}
+				return value;
+			}
+			return defaultValue(proxy, method, args);
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.apache.ibatis.stub;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+//测试用的内存桩驱动, url为 jdbc:stub:<数据库名>, 每个数据库各自计数, 测试之间互不影响
+public class StubDriver implements Driver {
+
+	public static final String URL_PREFIX = "jdbc:stub:";
+
+	private static final ConcurrentHashMap<String, StubDatabase> DATABASES = new ConcurrentHashMap<String, StubDatabase>();
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	static {
+		try {
+			DriverManager.registerDriver(new StubDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	//新建一个数据库
+	public static StubDatabase newDatabase() {
+		String name = "db" + SEQUENCE.incrementAndGet();
+		StubDatabase database = new StubDatabase(URL_PREFIX + name);
+		DATABASES.put(name, database);
+		return database;
+	}
+
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!acceptsURL(url)) {
+			return null;
+		}
+		StubDatabase database = DATABASES.get(url.substring(URL_PREFIX.length()));
+		if (database == null) {
+			throw new SQLException("Unknown stub database: " + url);
+		}
+		return database.connect(info);
+	}
+
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL_PREFIX);
+	}
+
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+}
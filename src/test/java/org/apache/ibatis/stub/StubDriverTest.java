@@ -0,0 +1,97 @@
+package org.apache.ibatis.stub;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+//测试和基准测试共用的桩驱动: 各数据库独立计数, 查询按配置返回行
+public class StubDriverTest {
+
+	public void testDatabasesAreIsolated() throws SQLException {
+		StubDatabase first = StubDriver.newDatabase();
+		StubDatabase second = StubDriver.newDatabase();
+		Connection conn = DriverManager.getConnection(first.getUrl(), "alice", "a");
+		assert first.getOpenConnectionCount() == 1;
+		assert second.getOpenConnectionCount() == 0;
+		assert first.connectedUsers.contains("alice");
+		conn.close();
+		conn.close();
+		assert first.connectionsClosed.get() == 1 : "closing twice counts once";
+	}
+
+	public void testUnknownDatabaseIsRejected() {
+		try {
+			DriverManager.getConnection(StubDriver.URL_PREFIX + "missing", "u", "p");
+			assert false : "unknown database must fail";
+		} catch (SQLException e) {
+			// 预期
+		}
+	}
+
+	public void testQueryReturnsConfiguredRows() throws SQLException {
+		StubDatabase database = StubDriver.newDatabase();
+		database.rows = 4;
+		database.perParent = 2;
+		Connection conn = DriverManager.getConnection(database.getUrl(), "u", "p");
+		PreparedStatement statement = conn.prepareStatement("select * from t");
+		ResultSet rs = statement.executeQuery();
+		int count = 0;
+		while (rs.next()) {
+			assert rs.getLong("id") == count / 2 + 1;
+			assert ("n" + (count / 2 + 1)).equals(rs.getString("name"));
+			count++;
+		}
+		assert count == 4;
+		rs.close();
+		statement.close();
+		assert database.getOpenResultSetCount() == 0;
+		assert database.getOpenStatementCount() == 0;
+		assert database.executedSql.contains("select * from t");
+		conn.close();
+	}
+
+	public void testUpdateReturnsCountAndClosedStatementFails() throws SQLException {
+		StubDatabase database = StubDriver.newDatabase();
+		Connection conn = DriverManager.getConnection(database.getUrl(), "u", "p");
+		Statement statement = conn.createStatement();
+		assert statement.executeUpdate("update t set name = 'x'") == 1;
+		statement.close();
+		try {
+			statement.executeUpdate("update t set name = 'x'");
+			assert false : "closed statement must fail";
+		} catch (SQLException e) {
+			// 预期
+		}
+		conn.close();
+	}
+
+	public void testCloseOnCompletionClosesStatementWithResultSet() throws SQLException {
+		StubDatabase database = StubDriver.newDatabase();
+		Connection conn = DriverManager.getConnection(database.getUrl(), "u", "p");
+		PreparedStatement statement = conn.prepareStatement("select * from t");
+		statement.closeOnCompletion();
+		statement.executeQuery().close();
+		assert statement.isClosed();
+		assert database.getOpenStatementCount() == 0;
+		conn.close();
+	}
+
+	public void testBrokenConnectionsFailValidationAndExecution() throws SQLException {
+		StubDatabase database = StubDriver.newDatabase();
+		Connection conn = DriverManager.getConnection(database.getUrl(), "u", "p");
+		assert conn.isValid(1);
+		database.breakConnections();
+		assert !conn.isValid(1);
+		try {
+			conn.createStatement().execute("select 1");
+			assert false : "broken connection must fail";
+		} catch (SQLException e) {
+			// 预期
+		}
+		conn.close();
+	}
+
+}
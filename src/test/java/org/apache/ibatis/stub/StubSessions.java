@@ -0,0 +1,50 @@
+package org.apache.ibatis.stub;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+//在桩数据库上建立会话工厂, 映射文件直接用字符串给出, 用于需要完整执行链的测试
+public class StubSessions {
+
+	private static final String MAPPER_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+			+ "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n";
+
+	private StubSessions() {
+	}
+
+	//新建一个Configuration, 环境id为stub, 数据源是桩数据库上的连接池
+	public static Configuration newConfiguration(StubDatabase database) {
+		PooledDataSource dataSource = new PooledDataSource(StubDriver.class.getName(), database.getUrl(), "user", "secret");
+		return new Configuration(new Environment("stub", new JdbcTransactionFactory(), dataSource));
+	}
+
+	//解析映射文件, body是mapper元素里面的内容
+	public static void addMapper(Configuration configuration, String namespace, String body) {
+		String xml = MAPPER_HEADER + "<mapper namespace=\"" + namespace + "\">\n" + body + "\n</mapper>";
+		try {
+			new XMLMapperBuilder(new ByteArrayInputStream(xml.getBytes("UTF-8")), configuration, "stub:" + namespace,
+					configuration.getSqlFragments()).parse();
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//建立会话工厂
+	public static SqlSessionFactory build(Configuration configuration) {
+		return new SqlSessionFactoryBuilder().build(configuration);
+	}
+
+	//关闭连接池中的连接
+	public static void close(Configuration configuration) {
+		((PooledDataSource) configuration.getEnvironment().getDataSource()).forceCloseAll();
+	}
+
+}